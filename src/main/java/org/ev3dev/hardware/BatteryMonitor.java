@@ -0,0 +1,423 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.io.Sysfs;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples a power supply in the background and keeps smoothed voltage and current readings, together with
+ *  the charge and energy drawn since the monitor was started.<br>
+ * <br>
+ * The power supply node is searched once, its <code>voltage_now</code> and <code>current_now</code> attributes are
+ *  kept open as persistent channels, and they are sampled at a low rate (default every 500 ms) on a Sampler.
+ *  Readings are exponential moving averages (EMA) published through volatile fields, so reading them
+ *  never blocks and never touches Sysfs. The shared monitor of the EV3 battery is returned by
+ *  <code>PowerSupply.getMonitor()</code>.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * BatteryMonitor monitor = PowerSupply.getMonitor();
+ * monitor.addLowVoltageListener(new BatteryMonitor.LowVoltageListener(){
+ *     public void onLowVoltage(BatteryMonitor monitor, double voltage){
+ *         System.out.println("Battery low: " + voltage + " V");
+ *     }
+ * });
+ * double volts = monitor.getVoltage();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class BatteryMonitor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BatteryMonitor.class);
+	
+	/**
+	 * The default sampling period in milliseconds
+	 */
+	public static final long DEFAULT_PERIOD_MILLIS = 500;
+	
+	/**
+	 * The default EMA smoothing factor. The weight of a new sample, from 0 (never changes) to 1 (no smoothing)
+	 */
+	public static final double DEFAULT_SMOOTHING_FACTOR = 0.2;
+	
+	/**
+	 * The default low voltage threshold in volts
+	 */
+	public static final double DEFAULT_LOW_VOLTAGE = 6.5;
+	
+	/**
+	 * The default voltage that the battery must recover above the threshold before low voltage is reported again
+	 */
+	public static final double DEFAULT_LOW_VOLTAGE_HYSTERESIS = 0.2;
+	
+	private static final double MICRO = 1e-6;
+	
+	private static final double NANOS_PER_HOUR = 3600e9;
+	
+	private final String deviceName;
+	
+	private final CopyOnWriteArrayList<LowVoltageListener> lowVoltageListeners = new CopyOnWriteArrayList<LowVoltageListener>();
+	
+	private SysfsChannel voltageChannel = null;
+	
+	private SysfsChannel currentChannel = null;
+	
+	private ScheduledFuture<?> task = null;
+	
+	private volatile double smoothing = DEFAULT_SMOOTHING_FACTOR;
+	
+	private volatile double lowVoltage = DEFAULT_LOW_VOLTAGE;
+	
+	private volatile double lowVoltageHysteresis = DEFAULT_LOW_VOLTAGE_HYSTERESIS;
+	
+	private volatile double voltage = 0;
+	
+	private volatile double current = 0;
+	
+	private volatile double measuredVoltage = 0;
+	
+	private volatile double measuredCurrent = 0;
+	
+	private volatile double charge = 0;
+	
+	private volatile double energy = 0;
+	
+	private volatile long sampleCount = 0;
+	
+	private volatile long lastSampleNanos = 0;
+	
+	private volatile boolean low = false;
+	
+	/**
+	 * Creates a monitor of the built-in EV3 battery
+	 * @throws EV3LibraryException If the battery cannot be found
+	 */
+	public BatteryMonitor() throws EV3LibraryException{
+		this(PowerSupply.getDeviceName());
+	}
+	
+	/**
+	 * Creates a monitor of the power supply specified
+	 * @param deviceName A device name that exists in <code>/sys/class/power_supply</code>
+	 */
+	public BatteryMonitor(String deviceName){
+		this.deviceName = deviceName;
+	}
+	
+	/**
+	 * Returns the power supply device name of this monitor
+	 * @return Device name
+	 */
+	public String getDeviceName(){
+		return deviceName;
+	}
+	
+	/**
+	 * Starts sampling on the shared Sampler at the default rate
+	 * @throws EV3LibraryException If the power supply attributes cannot be opened
+	 */
+	public void start() throws EV3LibraryException{
+		start(Sampler.getShared(), DEFAULT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Starts sampling on the Sampler specified
+	 * @param sampler The Sampler
+	 * @param periodMillis The sampling period in milliseconds
+	 * @throws EV3LibraryException If the power supply attributes cannot be opened
+	 */
+	public synchronized void start(Sampler sampler, long periodMillis) throws EV3LibraryException{
+		if (task != null){
+			return;
+		}
+		try {
+			voltageChannel = Sysfs.openChannel(PowerSupply.POWER_SUPPLY_CLASS_NAME, deviceName, PowerSupply.SYSFS_MEASURED_VOLTAGE, false);
+		} catch (IOException e){
+			throw new EV3LibraryException("Open measured voltage attribute failed", e);
+		}
+		try {
+			currentChannel = Sysfs.openChannel(PowerSupply.POWER_SUPPLY_CLASS_NAME, deviceName, PowerSupply.SYSFS_MEASURED_CURRENT, false);
+		} catch (IOException e){
+			logger.info("Power supply " + deviceName + " does not report current, charge and energy will not be counted");
+			currentChannel = null;
+		}
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				sample();
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops sampling. The last readings remain available.
+	 */
+	public synchronized void stop(){
+		if (task == null){
+			return;
+		}
+		task.cancel(false);
+		task = null;
+		closeQuietly(voltageChannel);
+		closeQuietly(currentChannel);
+		voltageChannel = null;
+		currentChannel = null;
+	}
+	
+	/**
+	 * Returns whether this monitor is sampling
+	 * @return Running
+	 */
+	public synchronized boolean isRunning(){
+		return task != null;
+	}
+	
+	/**
+	 * Takes one sample immediately. This is called by the Sampler, and does nothing if the monitor is not started.
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public synchronized void sample() throws EV3LibraryException{
+		if (voltageChannel == null){
+			return;
+		}
+		double v;
+		double i = 0;
+		try {
+			v = voltageChannel.readLong() * MICRO;
+			if (currentChannel != null){
+				i = currentChannel.readLong() * MICRO;
+			}
+		} catch (IOException e){
+			throw new EV3LibraryException("Sample power supply failed", e);
+		}
+		long now = System.nanoTime();
+		
+		if (sampleCount == 0){
+			voltage = v;
+			current = i;
+		} else {
+			double a = smoothing;
+			voltage += a * (v - voltage);
+			current += a * (i - current);
+			
+			double hours = (now - lastSampleNanos) / NANOS_PER_HOUR;
+			charge += i * 1000 * hours;
+			energy += v * i * hours;
+		}
+		measuredVoltage = v;
+		measuredCurrent = i;
+		lastSampleNanos = now;
+		sampleCount++;
+		
+		checkLowVoltage();
+	}
+	
+	private void checkLowVoltage(){
+		double v = voltage;
+		if (!low && v < lowVoltage){
+			low = true;
+			for (LowVoltageListener listener : lowVoltageListeners){
+				listener.onLowVoltage(this, v);
+			}
+		} else if (low && v > lowVoltage + lowVoltageHysteresis){
+			low = false;
+		}
+	}
+	
+	/**
+	 * Returns the smoothed voltage in volts
+	 * @return Voltage
+	 */
+	public double getVoltage(){
+		return voltage;
+	}
+	
+	/**
+	 * Returns the smoothed current in amps
+	 * @return Current
+	 */
+	public double getCurrent(){
+		return current;
+	}
+	
+	/**
+	 * Returns the last measured (unsmoothed) voltage in volts
+	 * @return Voltage
+	 */
+	public double getMeasuredVoltage(){
+		return measuredVoltage;
+	}
+	
+	/**
+	 * Returns the last measured (unsmoothed) current in amps
+	 * @return Current
+	 */
+	public double getMeasuredCurrent(){
+		return measuredCurrent;
+	}
+	
+	/**
+	 * Returns the charge drawn since the monitor was started or reset, in milliamp hours
+	 * @return Charge in mAh
+	 */
+	public double getChargeMilliampHours(){
+		return charge;
+	}
+	
+	/**
+	 * Returns the energy drawn since the monitor was started or reset, in watt hours
+	 * @return Energy in Wh
+	 */
+	public double getEnergyWattHours(){
+		return energy;
+	}
+	
+	/**
+	 * Resets the charge and energy counters to zero
+	 */
+	public synchronized void resetCounters(){
+		charge = 0;
+		energy = 0;
+	}
+	
+	/**
+	 * Returns the number of samples taken
+	 * @return Sample count
+	 */
+	public long getSampleCount(){
+		return sampleCount;
+	}
+	
+	/**
+	 * Returns the <code>System.nanoTime()</code> of the last sample
+	 * @return Time in nanoseconds
+	 */
+	public long getLastSampleNanos(){
+		return lastSampleNanos;
+	}
+	
+	/**
+	 * Sets the EMA smoothing factor, the weight of a new sample from 0 (exclusive) to 1 (no smoothing)
+	 * @param factor The smoothing factor
+	 */
+	public void setSmoothingFactor(double factor){
+		if (factor <= 0 || factor > 1){
+			throw new IllegalArgumentException("The smoothing factor must be in (0, 1]: " + factor);
+		}
+		this.smoothing = factor;
+	}
+	
+	/**
+	 * Returns the EMA smoothing factor
+	 * @return The smoothing factor
+	 */
+	public double getSmoothingFactor(){
+		return smoothing;
+	}
+	
+	/**
+	 * Sets the low voltage threshold. Listeners are called once when the smoothed voltage drops below
+	 *  the threshold, and again only after it has recovered above <code>threshold + hysteresis</code>.
+	 * @param volts The threshold in volts
+	 * @param hysteresis The hysteresis in volts
+	 */
+	public void setLowVoltageThreshold(double volts, double hysteresis){
+		this.lowVoltage = volts;
+		this.lowVoltageHysteresis = hysteresis;
+	}
+	
+	/**
+	 * Returns the low voltage threshold in volts
+	 * @return Threshold
+	 */
+	public double getLowVoltageThreshold(){
+		return lowVoltage;
+	}
+	
+	/**
+	 * Returns whether the smoothed voltage is below the low voltage threshold
+	 * @return Low voltage
+	 */
+	public boolean isLowVoltage(){
+		return low;
+	}
+	
+	/**
+	 * Adds a listener called on the sampler thread when the battery voltage becomes low
+	 * @param listener LowVoltageListener
+	 */
+	public void addLowVoltageListener(LowVoltageListener listener){
+		lowVoltageListeners.add(listener);
+	}
+	
+	/**
+	 * Removes a low voltage listener
+	 * @param listener LowVoltageListener
+	 */
+	public void removeLowVoltageListener(LowVoltageListener listener){
+		lowVoltageListeners.remove(listener);
+	}
+	
+	private static void closeQuietly(SysfsChannel channel){
+		if (channel == null){
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException ignore){}
+	}
+	
+	/**
+	 * A listener of low battery voltage
+	 * @author Anthony
+	 *
+	 */
+	public interface LowVoltageListener {
+		
+		/**
+		 * Called on the sampler thread when the smoothed voltage drops below the threshold
+		 * @param monitor The BatteryMonitor
+		 * @param voltage The smoothed voltage in volts
+		 */
+		public void onLowVoltage(BatteryMonitor monitor, double voltage);
+		
+	}
+}
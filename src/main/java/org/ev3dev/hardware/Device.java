@@ -35,11 +35,18 @@ package org.ev3dev.hardware;
 //-----------------------------------------------------------------------------
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.ev3dev.exception.EV3LibraryException;
 
 import org.ev3dev.hardware.ports.LegoPort;
 import org.ev3dev.io.Sysfs;
+import org.ev3dev.io.SysfsChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,24 +59,64 @@ import org.slf4j.LoggerFactory;
 <br>
 - If an error occurs after the initial connection, an exception should be thrown by the binding informing the caller of what went wrong. Unless the error is fatal to the application, no other actions should be taken.<br>
 <br>
+ * <b>Concurrency:</b> a Device may be shared between threads (e.g. a control thread, a sampling thread and a UI thread).
+ *  Every attribute is guarded by one of a fixed number of striped read/write locks, chosen by the attribute name.
+ *  Reads take the read lock, so concurrent reads of any attributes proceed in parallel. Writes take the write lock,
+ *  so writes to the same attribute are serialized and never interleave with a read of it. Sequences that must not be
+ *  interleaved with other threads (e.g. setting <code>speed_sp</code> and then sending <code>run-forever</code>) should
+ *  be wrapped with <code>lockAttributes()</code> and <code>unlockAttributes()</code>:
+ * <pre>
+ * motor.lockAttributes(Motor.SYSFS_PROPERTY_SPEED_SP, Motor.SYSFS_PROPERTY_COMMAND);
+ * try {
+ *     motor.setSpeed_SP(500);
+ *     motor.runForever();
+ * } finally {
+ *     motor.unlockAttributes(Motor.SYSFS_PROPERTY_SPEED_SP, Motor.SYSFS_PROPERTY_COMMAND);
+ * }
+ * </pre>
+ * The connection state and the resolved Sysfs class full name are published through volatile fields, so a change
+ *  made by one thread is immediately visible to the others.<br>
+ * <br>
+ * <b>Shadow registers:</b> set-points written through <code>setShadowedAttribute()</code> (e.g. <code>speed_sp</code>,
+ *  <code>duty_cycle_sp</code>, <code>brightness</code>) are remembered, and writing an unchanged value is skipped.
+ *  The shadow registers are invalidated when the device reconnects, and <code>forceSync()</code> writes them all again.<br>
+ * <br>
  * @author Anthony
  *
  */
 public abstract class Device {
     
     private static final Logger logger = LoggerFactory.getLogger(Device.class);
+    
+    /**
+     * The number of striped attribute locks of each Device
+     */
+    public static final int ATTRIBUTE_LOCK_STRIPES = 16;
+	
+	//The device search backs off exponentially up to this delay instead of spinning
+	private static final long MAX_CONNECT_POLL_MILLIS = 50;
+	
+	private volatile String className;
+	
+	private volatile String classNamePrefix = null;
+	
+	private volatile String address;
+	
+	private volatile String classFullName = null;
+	
+	private volatile LegoPort port;
 	
-	private String className;
+	private volatile boolean connected = false;
 	
-	private String classNamePrefix = null;
+	private final ReentrantReadWriteLock[] attributeLocks = createAttributeLocks();
 	
-	private String address;
+	private final ConcurrentHashMap<String, String> shadowRegisters = new ConcurrentHashMap<String, String>();
 	
-	private String classFullName = null;
+	private final AtomicLong shadowedWrites = new AtomicLong();
 	
-	private LegoPort port;
+	private final AtomicLong skippedWrites = new AtomicLong();
 	
-	private boolean connected = false;
+	private volatile boolean writeCoalescing = true;
 	
 	/***
 	 * Generic way to create a device
@@ -105,7 +152,15 @@ public abstract class Device {
 		if (!connected){
 			logger.info(className + "-" + this.hashCode() + ": No port connected. Searching until port \"" + address + "\" connected...");
 			
+			long delay = 1;
 			while (!connected){
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new EV3LibraryException("Interrupted while searching for port \"" + address + "\"", e);
+				}
+				delay = Math.min(delay * 2, MAX_CONNECT_POLL_MILLIS);
 				connected = checkIsConnected();
 			}
 
@@ -172,7 +227,7 @@ public abstract class Device {
 	 * @return The filename inside the Sysfs class (e.g. "/sys/class/motor/motor0" <b>motor0</b> is the full name)
 	 */
 	public String getClassFullName(){
-		return classNamePrefix;
+		return classFullName;
 	}
 	
 	/***
@@ -181,38 +236,275 @@ public abstract class Device {
 	 * @return The value of the property
 	 */
 	public final String getAttribute(String property) throws EV3LibraryException{
+		ReentrantReadWriteLock lock = getAttributeLock0(property);
+		lock.readLock().lock();
 		try {
 			String str = Sysfs.getAttribute(className, classFullName, property);
-			connected = true;
+			markConnected();
 			return str;
 		} catch (IOException e){
-			connected = false;
+			markDisconnected();
 			throw new EV3LibraryException("Get device attribute failed: " + property, e);
+		} finally {
+			lock.readLock().unlock();
 		}
 	}
 	
 	/***
-	 * Writes the property specified.
+	 * Writes the property specified. The shadow register of the property is forgotten, so that the next
+	 *  set-point write through <code>setShadowedAttribute()</code> is not skipped.
 	 * @param property The property name
 	 * @param new_value The new value of the property
 	 */
 	public final void setAttribute(String property, String new_value) throws EV3LibraryException{
+		ReentrantReadWriteLock lock = getAttributeLock0(property);
+		lock.writeLock().lock();
+		try {
+			writeAttribute(property, new_value);
+			shadowRegisters.remove(property);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Writes a property. The caller holds its write lock.
+	 */
+	private void writeAttribute(String property, String new_value) throws EV3LibraryException{
 		try {
 			Sysfs.setAttribute(className, classFullName, property, new_value);
-			connected = true;
+			markConnected();
 		} catch (IOException e){
-			connected = false;
+			markDisconnected();
 			throw new EV3LibraryException("Set device attribute failed: " + property, e);
 		}
 	}
 	
+	/**
+	 * Opens a persistent channel to the property specified, for sampling it at a high rate without reopening the file
+	 *  on every read. The channel bypasses the attribute locks and shadow registers, and must be closed by the caller.
+	 * @param property The property name
+	 * @param writable Whether the channel is used for writing instead of reading
+	 * @return A SysfsChannel
+	 * @throws EV3LibraryException If the property cannot be opened
+	 */
+	public final SysfsChannel openAttributeChannel(String property, boolean writable) throws EV3LibraryException{
+		try {
+			return Sysfs.openChannel(className, classFullName, property, writable);
+		} catch (IOException e){
+			markDisconnected();
+			throw new EV3LibraryException("Open device attribute failed: " + property, e);
+		}
+	}
+	
+	/**
+	 * Writes a set-point property through its shadow register. The last value written is remembered, and
+	 *  if write coalescing is enabled, writing the same value again is skipped without touching the file.
+	 *  Use this only for properties that the driver does not change by itself.
+	 * @param property The property name
+	 * @param new_value The new value of the property
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	protected final void setShadowedAttribute(String property, String new_value) throws EV3LibraryException{
+		ReentrantReadWriteLock lock = getAttributeLock0(property);
+		lock.writeLock().lock();
+		try {
+			if (writeCoalescing && new_value.equals(shadowRegisters.get(property))){
+				skippedWrites.incrementAndGet();
+				return;
+			}
+			writeAttribute(property, new_value);
+			shadowRegisters.put(property, new_value);
+			shadowedWrites.incrementAndGet();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Writes a set-point property through its shadow register, and forgets the shadow registers of other
+	 *  properties that the write changes in the driver. The write and the invalidation hold the write locks of
+	 *  all the properties, so a concurrent set-point write cannot put a stale value back in between.
+	 * @param property The property name
+	 * @param new_value The new value of the property
+	 * @param invalidated The properties changed by the write
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	protected final void setShadowedAttribute(String property, String new_value, String... invalidated) throws EV3LibraryException{
+		String[] properties = Arrays.copyOf(invalidated, invalidated.length + 1);
+		properties[invalidated.length] = property;
+		lockAttributes(properties);
+		try {
+			setShadowedAttribute(property, new_value);
+			for (String other : invalidated){
+				shadowRegisters.remove(other);
+			}
+		} finally {
+			unlockAttributes(properties);
+		}
+	}
+	
+	/**
+	 * Forgets the shadow register of the property specified, so that the next write goes to the file.
+	 *  Subclasses call this when a command or another property changes the value in the driver.
+	 *  It holds the write lock of the property, so it cannot interleave with a set-point write.
+	 * @param property The property name
+	 */
+	protected final void invalidateShadowRegister(String property){
+		ReentrantReadWriteLock lock = getAttributeLock0(property);
+		lock.writeLock().lock();
+		try {
+			shadowRegisters.remove(property);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Forgets all shadow registers, so that the next write of every set-point goes to the file.
+	 *  This is done automatically when the device reconnects.
+	 */
+	public void invalidateShadowRegisters(){
+		shadowRegisters.clear();
+	}
+	
+	/**
+	 * Writes every value held in the shadow registers to the device again, regardless of write coalescing.
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void forceSync() throws EV3LibraryException{
+		for (Map.Entry<String, String> entry : shadowRegisters.entrySet()){
+			ReentrantReadWriteLock lock = getAttributeLock0(entry.getKey());
+			lock.writeLock().lock();
+			try {
+				writeAttribute(entry.getKey(), entry.getValue());
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Enables or disables skipping set-point writes whose value has not changed. (Default: enabled)
+	 * @param enabled Enabled
+	 */
+	public void setWriteCoalescing(boolean enabled){
+		this.writeCoalescing = enabled;
+	}
+	
+	/**
+	 * Returns whether skipping set-point writes whose value has not changed is enabled.
+	 * @return Enabled
+	 */
+	public boolean isWriteCoalescing(){
+		return writeCoalescing;
+	}
+	
+	/**
+	 * Returns the number of set-point writes that went to the device through the shadow registers.
+	 * @return The number of set-point writes performed
+	 */
+	public long getShadowedWriteCount(){
+		return shadowedWrites.get();
+	}
+	
+	/**
+	 * Returns the number of set-point writes skipped because the value had not changed.
+	 * @return The number of set-point writes skipped
+	 */
+	public long getSkippedWriteCount(){
+		return skippedWrites.get();
+	}
+	
+	private void markConnected(){
+		if (!connected){
+			//The device node may have been re-created with default set-points
+			shadowRegisters.clear();
+			connected = true;
+		}
+	}
+	
+	private void markDisconnected(){
+		connected = false;
+		shadowRegisters.clear();
+	}
+	
+	/**
+	 * Returns the striped lock that guards the property specified. Attribute reads hold its read lock,
+	 *  attribute writes hold its write lock. Different properties may share the same lock.
+	 * @param property The property name
+	 * @return The lock guarding the property
+	 */
+	public final ReadWriteLock getAttributeLock(String property){
+		return getAttributeLock0(property);
+	}
+	
+	/**
+	 * Acquires the write locks of all the properties specified, so that a sequence of reads and writes
+	 *  (e.g. a setpoint followed by a command) cannot be interleaved with other threads using them.
+	 *  The locks are always acquired in the same order, so two threads locking overlapping
+	 *  properties cannot deadlock. Every call must be paired with <code>unlockAttributes()</code>
+	 *  with the same properties, preferably in a <code>finally</code> block.
+	 * @param properties The property names
+	 */
+	public final void lockAttributes(String... properties){
+		int[] stripes = getStripes(properties);
+		for (int i = 0; i < stripes.length; i++){
+			attributeLocks[stripes[i]].writeLock().lock();
+		}
+	}
+	
+	/**
+	 * Releases the write locks acquired by <code>lockAttributes()</code>
+	 * @param properties The property names passed to <code>lockAttributes()</code>
+	 */
+	public final void unlockAttributes(String... properties){
+		int[] stripes = getStripes(properties);
+		for (int i = stripes.length - 1; i >= 0; i--){
+			attributeLocks[stripes[i]].writeLock().unlock();
+		}
+	}
+	
+	private ReentrantReadWriteLock getAttributeLock0(String property){
+		return attributeLocks[getStripe(property)];
+	}
+	
+	private static int getStripe(String property){
+		return (property.hashCode() & 0x7fffffff) % ATTRIBUTE_LOCK_STRIPES;
+	}
+	
+	//Sorted and without duplicates, which gives a global lock order
+	private static int[] getStripes(String[] properties){
+		int[] stripes = new int[properties.length];
+		for (int i = 0; i < stripes.length; i++){
+			stripes[i] = getStripe(properties[i]);
+		}
+		Arrays.sort(stripes);
+		int len = 0;
+		for (int i = 0; i < stripes.length; i++){
+			if (len == 0 || stripes[len - 1] != stripes[i]){
+				stripes[len++] = stripes[i];
+			}
+		}
+		return Arrays.copyOf(stripes, len);
+	}
+	
+	private static ReentrantReadWriteLock[] createAttributeLocks(){
+		ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[ATTRIBUTE_LOCK_STRIPES];
+		for (int i = 0; i < locks.length; i++){
+			locks[i] = new ReentrantReadWriteLock();
+		}
+		return locks;
+	}
+	
 	private boolean checkIsConnected(){
+		String fullName;
 		try {
-			classFullName = Sysfs.searchClassFullName(className, classNamePrefix, address);
+			fullName = Sysfs.searchClassFullName(className, classNamePrefix, address);
 		} catch (Exception ignore){
-			classFullName = null;
-			return false;
+			fullName = null;
 		}
-		return classFullName != null;
+		classFullName = fullName;
+		return fullName != null;
 	}
 }
\ No newline at end of file
@@ -170,7 +170,12 @@ public class LED extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setBrightness(int brightness) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_BRIGHTNESS, Integer.toString(brightness));
+		if (brightness == 0){
+			//Setting the brightness to 0 also disables the trigger
+			this.setShadowedAttribute(SYSFS_PROPERTY_BRIGHTNESS, Integer.toString(brightness), SYSFS_PROPERTY_TRIGGER);
+		} else {
+			this.setShadowedAttribute(SYSFS_PROPERTY_BRIGHTNESS, Integer.toString(brightness));
+		}
 	}
 	
 	/**
@@ -228,7 +233,9 @@ public class LED extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setTrigger(String selector) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_TRIGGER, selector);
+		//Triggers change the brightness and create their own delay_{on,off} attributes
+		this.setShadowedAttribute(SYSFS_PROPERTY_TRIGGER, selector,
+				SYSFS_PROPERTY_BRIGHTNESS, SYSFS_PROPERTY_DELAY_ON, SYSFS_PROPERTY_DELAY_OFF);
 	}
 	
 	/**
@@ -260,7 +267,7 @@ public class LED extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setDelay_On(int delay_on) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_DELAY_ON, Integer.toString(delay_on));
+		this.setShadowedAttribute(SYSFS_PROPERTY_DELAY_ON, Integer.toString(delay_on));
 	}
 	
 	/**
@@ -270,7 +277,7 @@ public class LED extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setDelay_Off(int delay_off) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_DELAY_OFF, Integer.toString(delay_off));
+		this.setShadowedAttribute(SYSFS_PROPERTY_DELAY_OFF, Integer.toString(delay_off));
 	}
 
 	@Override
@@ -32,7 +32,7 @@ package org.ev3dev.hardware;
 
 //~autogen
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
 
 import org.ev3dev.exception.EV3LibraryException;
@@ -43,31 +43,34 @@ import org.ev3dev.io.Sysfs;
 //~autogen
 
 /***
- * A generic interface to read data from the system's power_supply class. Uses the built-in legoev3-battery if none is specified.
+ * A generic interface to read data from the system's power_supply class. Uses the built-in legoev3-battery if none is specified.<br>
+ * <br>
+ * The static getters read Sysfs on every call. Code that checks the battery often (e.g. in a control loop)
+ *  should read the smoothed values of <code>getMonitor()</code> instead.
  * @author Anthony
  *
  */
 public class PowerSupply{
 	
 	/**
-	 * The Sysfs class's <code>measured_current</code> property name
+	 * The Sysfs class's <code>measured_current</code> property name (<code>current_now</code>)
 	 */
-	public static final String SYSFS_MEASURED_CURRENT = "measured_current";
+	public static final String SYSFS_MEASURED_CURRENT = "current_now";
 	
 	/**
-	 * The Sysfs class's <code>measured_voltage</code> property name
+	 * The Sysfs class's <code>measured_voltage</code> property name (<code>voltage_now</code>)
 	 */
-	public static final String SYSFS_MEASURED_VOLTAGE = "measured_voltage";
+	public static final String SYSFS_MEASURED_VOLTAGE = "voltage_now";
 	
 	/**
-	 * The Sysfs class's <code>max_voltage</code> property name
+	 * The Sysfs class's <code>max_voltage</code> property name (<code>voltage_max_design</code>)
 	 */
-	public static final String SYSFS_MAX_VOLTAGE = "max_voltage";
+	public static final String SYSFS_MAX_VOLTAGE = "voltage_max_design";
 	
 	/**
-	 * The Sysfs class's <code>min_voltage</code> property name
+	 * The Sysfs class's <code>min_voltage</code> property name (<code>voltage_min_design</code>)
 	 */
-	public static final String SYSFS_MIN_VOLTAGE = "min_voltage";
+	public static final String SYSFS_MIN_VOLTAGE = "voltage_min_design";
 	
 	/**
 	 * The Sysfs class's <code>technology</code> property name
@@ -84,6 +87,70 @@ public class PowerSupply{
 	 */
 	public static final String POWER_SUPPLY_CLASS_NAME = "power_supply";
 	
+	/**
+	 * The built-in EV3 battery device names, in the order they are searched
+	 */
+	public static final String[] DEFAULT_DEVICE_NAMES = {"lego-ev3-battery", "legoev3-battery"};
+	
+	private static volatile String deviceName = null;
+	
+	private static BatteryMonitor monitor = null;
+	
+	/**
+	 * Returns the power supply device name (e.g. <code>/sys/class/power_supply/legoev3-battery</code>, and
+	 *  <code>legoev3-battery</code> is the device name). The built-in EV3 battery is searched once if none is specified.
+	 * @return The device name
+	 * @throws EV3LibraryException If no power supply can be found
+	 */
+	public static String getDeviceName() throws EV3LibraryException{
+		String name = deviceName;
+		if (name == null){
+			name = findDeviceName();
+			deviceName = name;
+		}
+		return name;
+	}
+	
+	/**
+	 * Specifies the power supply device to be used, instead of the built-in EV3 battery
+	 * @param name A device name that exists in <code>/sys/class/power_supply</code>, or <code>null</code> to search again
+	 */
+	public static void setDeviceName(String name){
+		deviceName = name;
+	}
+	
+	/**
+	 * Returns the shared BatteryMonitor of this power supply, starting it on the shared Sampler on first use.
+	 *  Use this to read the smoothed voltage and current without touching Sysfs.
+	 * @return The shared BatteryMonitor
+	 * @throws EV3LibraryException If the power supply cannot be found
+	 */
+	public static synchronized BatteryMonitor getMonitor() throws EV3LibraryException{
+		if (monitor == null){
+			BatteryMonitor newMonitor = new BatteryMonitor(getDeviceName());
+			newMonitor.start();
+			monitor = newMonitor;
+		}
+		return monitor;
+	}
+	
+	private static String findDeviceName() throws EV3LibraryException{
+		for (String name : DEFAULT_DEVICE_NAMES){
+			if (new File(Sysfs.getSysfsPath() + POWER_SUPPLY_CLASS_NAME + "/" + name).exists()){
+				return name;
+			}
+		}
+		File[] files = Sysfs.getAllSubClass(POWER_SUPPLY_CLASS_NAME);
+		if (files != null){
+			for (File file : files){
+				if (new File(file, SYSFS_MEASURED_VOLTAGE).exists()){
+					return file.getName();
+				}
+			}
+		}
+		throw new EV3LibraryException("No power supply found in " + Sysfs.getSysfsPath() + POWER_SUPPLY_CLASS_NAME);
+	}
+	
 	/***
 	 * The measured current that the battery is supplying (in microamps)
 	 * @return Measured Current
@@ -92,7 +159,7 @@ public class PowerSupply{
 	public static int getMeasuredCurrent() throws EV3LibraryException{
 		String str;
 		try {
-			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, SYSFS_MEASURED_CURRENT);
+			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, getDeviceName(), SYSFS_MEASURED_CURRENT);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get measured current attribute failed", e);
 		}
@@ -107,7 +174,7 @@ public class PowerSupply{
 	public static int getMeasuredVoltage() throws EV3LibraryException{
 		String str;
 		try {
-			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, SYSFS_MEASURED_VOLTAGE);
+			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, getDeviceName(), SYSFS_MEASURED_VOLTAGE);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get measured voltage attribute failed", e);
 		}
@@ -122,7 +189,7 @@ public class PowerSupply{
 	public static int getMaxVoltage() throws EV3LibraryException{
 		String str;
 		try {
-			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, SYSFS_MAX_VOLTAGE);
+			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, getDeviceName(), SYSFS_MAX_VOLTAGE);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get max voltage attribute failed", e);
 		}
@@ -137,7 +204,7 @@ public class PowerSupply{
 	public static int getMinVoltage() throws EV3LibraryException{
 		String str;
 		try {
-			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, SYSFS_MIN_VOLTAGE);
+			str = Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, getDeviceName(), SYSFS_MIN_VOLTAGE);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get min voltage attribute failed", e);
 		}
@@ -151,7 +218,7 @@ public class PowerSupply{
 	 */
 	public static String getTechnology() throws EV3LibraryException{
 		try {
-			return Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, SYSFS_TECHNOLOGY);
+			return Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, getDeviceName(), SYSFS_TECHNOLOGY);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get technology attribute failed", e);
 		}
@@ -164,7 +231,7 @@ public class PowerSupply{
 	 */
 	public static String getType() throws EV3LibraryException{
 		try {
-			return Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, SYSFS_TYPE);
+			return Sysfs.getAttribute(POWER_SUPPLY_CLASS_NAME, getDeviceName(), SYSFS_TYPE);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get type attribute failed", e);
 		}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs periodic sampling tasks (e.g. battery, encoder or touch sensor sampling) on a single background daemon thread.<br>
+ * <br>
+ * Most services of this library share one Sampler returned by <code>getShared()</code>, so that
+ *  background sampling costs one thread no matter how many services are running. A service that
+ *  needs its own timing (e.g. a high rate control loop) can create its own Sampler instead.<br>
+ * <br>
+ * Tasks run one after another on the sampler thread, so they must be short and must not block.
+ *  An exception thrown by a task is logged and does not cancel the task.
+ * @author Anthony
+ *
+ */
+public class Sampler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(Sampler.class);
+	
+	private static Sampler shared = null;
+	
+	private final String name;
+	
+	private final ScheduledThreadPoolExecutor executor;
+	
+	/**
+	 * Creates a new Sampler with its own background thread
+	 * @param name The name of the sampler thread
+	 */
+	public Sampler(final String name){
+		this.name = name;
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MAX_PRIORITY);
+				return thread;
+			}
+			
+		});
+		executor.setRemoveOnCancelPolicy(true);
+	}
+	
+	/**
+	 * Returns the Sampler shared by the services of this library
+	 * @return The shared Sampler
+	 */
+	public static synchronized Sampler getShared(){
+		if (shared == null){
+			shared = new Sampler("ev3dev-sampler");
+		}
+		return shared;
+	}
+	
+	/**
+	 * Returns the name of the sampler thread
+	 * @return Name
+	 */
+	public String getName(){
+		return name;
+	}
+	
+	/**
+	 * Runs a task periodically at a fixed rate until the returned ScheduledFuture is cancelled
+	 * @param task The task
+	 * @param period The period between two runs
+	 * @param unit The time unit of the period
+	 * @return A ScheduledFuture that cancels the task
+	 */
+	public ScheduledFuture<?> schedule(final Runnable task, long period, TimeUnit unit){
+		return executor.scheduleAtFixedRate(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e){
+					logger.warn("Sampling task " + task + " failed on " + name, e);
+				}
+			}
+			
+		}, 0, period, unit);
+	}
+	
+	/**
+	 * Runs a task once on the sampler thread
+	 * @param task The task
+	 */
+	public void execute(Runnable task){
+		executor.execute(task);
+	}
+	
+	/**
+	 * Stops the sampler thread. Tasks will no longer be run.
+	 */
+	public void shutdown(){
+		synchronized (Sampler.class){
+			if (shared == this){
+				shared = null;
+			}
+		}
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,433 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.ev3dev.exception.EV3LibraryException;
+
+/**
+ * A prerendered 1-bit bitmap font, drawn straight into packed 1-bit buffers in the framebuffer format
+ *  (LSB first, 1 is black) without AWT. Every glyph is a bitmap as wide as its advance and as high as a line,
+ *  packed in the same bit order, so a glyph row is drawn by shifting its bytes to the pen position and
+ *  combining them with at most one more byte than the row is wide.<br>
+ * <br>
+ * Atlases are built from an AWT font once with GlyphAtlasBuilder, and can be saved to and loaded from a file,
+ *  so that the brick never has to load AWT or rasterize fonts.
+ * @author Anthony
+ *
+ */
+public class GlyphAtlas {
+	
+	/**
+	 * Sets the pixels of the glyphs (black text)
+	 */
+	public static final int MODE_OR = 0;
+	
+	/**
+	 * Clears the pixels of the glyphs (white text)
+	 */
+	public static final int MODE_CLEAR = 1;
+	
+	/**
+	 * Inverts the pixels of the glyphs
+	 */
+	public static final int MODE_XOR = 2;
+	
+	private static final int MAGIC = 0x45564741; //EVGA
+	
+	private static final int VERSION = 2;
+	
+	private final String source;
+	
+	private final int height;
+	
+	private final int ascent;
+	
+	private final char[] chars;
+	
+	private final int[] widths;
+	
+	private final int[] offsets;
+	
+	private final byte[] data;
+	
+	/**
+	 * Glyph index of the characters below 256, -1 if missing
+	 */
+	private final int[] latin = new int[256];
+	
+	private final int fallback;
+	
+	/**
+	 * Creates an atlas from packed glyphs
+	 * @param height The line height in pixels
+	 * @param ascent The baseline from the top of a line in pixels
+	 * @param chars The characters, in ascending order
+	 * @param widths The advance of each glyph in pixels
+	 * @param data The glyph bitmaps one after another, <code>height</code> rows each of <code>(width + 7) / 8</code> bytes, LSB first, 1 is set
+	 * @throws IllegalArgumentException If the arrays do not match
+	 */
+	public GlyphAtlas(int height, int ascent, char[] chars, int[] widths, byte[] data){
+		this(null, height, ascent, chars, widths, data);
+	}
+	
+	/**
+	 * Creates an atlas from packed glyphs, recording what it was built from
+	 * @param source A description of the font the glyphs were rasterized from, saved with the atlas, or <code>null</code>
+	 * @param height The line height in pixels
+	 * @param ascent The baseline from the top of a line in pixels
+	 * @param chars The characters, in ascending order
+	 * @param widths The advance of each glyph in pixels
+	 * @param data The glyph bitmaps one after another, <code>height</code> rows each of <code>(width + 7) / 8</code> bytes, LSB first, 1 is set
+	 * @throws IllegalArgumentException If the arrays do not match
+	 */
+	public GlyphAtlas(String source, int height, int ascent, char[] chars, int[] widths, byte[] data){
+		if (height <= 0 || chars.length != widths.length){
+			throw new IllegalArgumentException("Invalid glyph atlas: height " + height + ", " + chars.length + " characters, " + widths.length + " widths");
+		}
+		this.source = source;
+		this.height = height;
+		this.ascent = ascent;
+		this.chars = chars;
+		this.widths = widths;
+		this.data = data;
+		offsets = new int[chars.length];
+		int offset = 0;
+		for (int i = 0; i < chars.length; i++){
+			if (i > 0 && chars[i] <= chars[i - 1]){
+				throw new IllegalArgumentException("Glyph atlas characters are not in ascending order at " + i);
+			}
+			if (widths[i] < 0){
+				throw new IllegalArgumentException("Negative glyph width: " + widths[i]);
+			}
+			offsets[i] = offset;
+			offset += (widths[i] + 7) / 8 * height;
+		}
+		if (offset > data.length){
+			throw new IllegalArgumentException("Glyph atlas data too short: " + data.length + " / " + offset);
+		}
+		Arrays.fill(latin, -1);
+		for (int i = 0; i < chars.length && chars[i] < 256; i++){
+			latin[chars[i]] = i;
+		}
+		int q = indexOf('?');
+		fallback = q >= 0 ? q : indexOf(' ');
+	}
+	
+	/**
+	 * Loads an atlas saved by <code>write()</code>
+	 * @param in The stream
+	 * @return The atlas
+	 * @throws IOException If I/O goes wrong or the stream is not an atlas
+	 */
+	public static GlyphAtlas read(InputStream in) throws IOException{
+		DataInputStream din = new DataInputStream(in);
+		if (din.readInt() != MAGIC){
+			throw new IOException("Not a glyph atlas");
+		}
+		int version = din.readUnsignedByte();
+		if (version != VERSION){
+			throw new IOException("Unsupported glyph atlas version: " + version);
+		}
+		String source = din.readUTF();
+		int height = din.readUnsignedShort();
+		int ascent = din.readUnsignedShort();
+		int count = din.readUnsignedShort();
+		char[] chars = new char[count];
+		int[] widths = new int[count];
+		for (int i = 0; i < count; i++){
+			chars[i] = din.readChar();
+			widths[i] = din.readUnsignedShort();
+		}
+		byte[] data = new byte[din.readInt()];
+		din.readFully(data);
+		try {
+			return new GlyphAtlas(source.isEmpty() ? null : source, height, ascent, chars, widths, data);
+		} catch (IllegalArgumentException e){
+			throw new IOException("Invalid glyph atlas", e);
+		}
+	}
+	
+	/**
+	 * Loads an atlas from a file
+	 * @param file The file
+	 * @return The atlas
+	 * @throws EV3LibraryException If the file cannot be read
+	 */
+	public static GlyphAtlas load(File file) throws EV3LibraryException{
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				return read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e){
+			throw new EV3LibraryException("Unable to load the glyph atlas " + file, e);
+		}
+	}
+	
+	/**
+	 * Saves this atlas
+	 * @param out The stream
+	 * @throws IOException If I/O goes wrong
+	 */
+	public void write(OutputStream out) throws IOException{
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(MAGIC);
+		dout.writeByte(VERSION);
+		dout.writeUTF(source == null ? "" : source);
+		dout.writeShort(height);
+		dout.writeShort(ascent);
+		dout.writeShort(chars.length);
+		for (int i = 0; i < chars.length; i++){
+			dout.writeChar(chars[i]);
+			dout.writeShort(widths[i]);
+		}
+		dout.writeInt(data.length);
+		dout.write(data);
+		dout.flush();
+	}
+	
+	/**
+	 * Saves this atlas to a file
+	 * @param file The file
+	 * @throws EV3LibraryException If the file cannot be written
+	 */
+	public void save(File file) throws EV3LibraryException{
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				write(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e){
+			throw new EV3LibraryException("Unable to save the glyph atlas " + file, e);
+		}
+	}
+	
+	/**
+	 * Returns the description of the font this atlas was built from
+	 * @return Source, or <code>null</code> if unknown
+	 */
+	public String getSource(){
+		return source;
+	}
+	
+	/**
+	 * Returns the line height
+	 * @return Height in pixels
+	 */
+	public int getHeight(){
+		return height;
+	}
+	
+	/**
+	 * Returns the baseline from the top of a line
+	 * @return Ascent in pixels
+	 */
+	public int getAscent(){
+		return ascent;
+	}
+	
+	/**
+	 * Returns the number of glyphs
+	 * @return Glyphs
+	 */
+	public int getGlyphCount(){
+		return chars.length;
+	}
+	
+	/**
+	 * Returns whether a character has a glyph. Other characters are drawn as '?' if available, else as a space.
+	 * @param c The character
+	 * @return Has a glyph
+	 */
+	public boolean hasGlyph(char c){
+		return indexOf(c) >= 0;
+	}
+	
+	private int indexOf(char c){
+		if (c < 256){
+			return latin[c];
+		}
+		int i = Arrays.binarySearch(chars, c);
+		return i < 0 ? -1 : i;
+	}
+	
+	/**
+	 * Returns the glyph drawn for a character
+	 * @param c The character
+	 * @return The glyph index, or -1 if none
+	 */
+	int glyph(char c){
+		int i = indexOf(c);
+		return i >= 0 ? i : fallback;
+	}
+	
+	int glyphWidth(int g){
+		return widths[g];
+	}
+	
+	int glyphOffset(int g){
+		return offsets[g];
+	}
+	
+	byte[] glyphData(){
+		return data;
+	}
+	
+	/**
+	 * Returns the advance of a character
+	 * @param c The character
+	 * @return Advance in pixels
+	 */
+	public int getAdvance(char c){
+		int g = glyph(c);
+		return g < 0 ? 0 : widths[g];
+	}
+	
+	/**
+	 * Returns the width of a string
+	 * @param str The string
+	 * @return Width in pixels
+	 */
+	public int stringWidth(CharSequence str){
+		int w = 0;
+		for (int i = 0; i < str.length(); i++){
+			w += getAdvance(str.charAt(i));
+		}
+		return w;
+	}
+	
+	/**
+	 * Draws a character with its top left corner at a point
+	 * @param buf The packed 1-bit buffer, LSB first
+	 * @param stride The bytes per row of the buffer
+	 * @param bufHeight The rows of the buffer
+	 * @param c The character
+	 * @param x The left, in pixels
+	 * @param y The top, in pixels
+	 * @param mode <code>MODE_OR</code>, <code>MODE_CLEAR</code> or <code>MODE_XOR</code>
+	 * @return The advance in pixels
+	 */
+	public int drawChar(byte[] buf, int stride, int bufHeight, char c, int x, int y, int mode){
+		int g = glyph(c);
+		if (g < 0){
+			return 0;
+		}
+		int w = widths[g];
+		int gStride = (w + 7) / 8;
+		int shift = x & 7;
+		int bx = x >> 3;
+		int r0 = Math.max(0, -y);
+		int r1 = Math.min(height, bufHeight - y);
+		//Glyph bytes whose shifted bits land inside the row
+		int i0 = Math.max(0, -bx - 1);
+		int i1 = Math.min(gStride, stride - bx);
+		if (i0 >= i1 || r0 >= r1){
+			return w;
+		}
+		for (int r = r0; r < r1; r++){
+			int src = offsets[g] + r * gStride;
+			int dst = (y + r) * stride + bx;
+			if (shift == 0){
+				for (int i = Math.max(i0, -bx); i < i1; i++){
+					combine(buf, dst + i, data[src + i], mode);
+				}
+			} else {
+				for (int i = i0; i < i1; i++){
+					int bits = (data[src + i] & 0xff) << shift;
+					if (bx + i >= 0){
+						combine(buf, dst + i, (byte) bits, mode);
+					}
+					if (bx + i + 1 < stride){
+						combine(buf, dst + i + 1, (byte) (bits >> 8), mode);
+					}
+				}
+			}
+		}
+		return w;
+	}
+	
+	private static void combine(byte[] buf, int i, byte bits, int mode){
+		if (bits == 0){
+			return;
+		}
+		if (mode == MODE_OR){
+			buf[i] |= bits;
+		} else if (mode == MODE_CLEAR){
+			buf[i] &= ~bits;
+		} else {
+			buf[i] ^= bits;
+		}
+	}
+	
+	/**
+	 * Draws a string with the top left corner of its line at a point. Line breaks are not interpreted.
+	 * @param buf The packed 1-bit buffer, LSB first
+	 * @param stride The bytes per row of the buffer
+	 * @param bufHeight The rows of the buffer
+	 * @param str The string
+	 * @param x The left, in pixels
+	 * @param y The top, in pixels
+	 * @param mode <code>MODE_OR</code>, <code>MODE_CLEAR</code> or <code>MODE_XOR</code>
+	 * @return The x coordinate after the string
+	 */
+	public int drawString(byte[] buf, int stride, int bufHeight, CharSequence str, int x, int y, int mode){
+		int limit = stride * 8;
+		for (int i = 0; i < str.length() && x < limit; i++){
+			x += drawChar(buf, stride, bufHeight, str.charAt(i), x, y, mode);
+		}
+		return x;
+	}
+	
+	/**
+	 * Draws a string in black into an LCD frame, with the top left corner of its line at a point
+	 * @param frame The frame in the framebuffer format
+	 * @param str The string
+	 * @param x The left, in pixels
+	 * @param y The top, in pixels
+	 * @return The x coordinate after the string
+	 */
+	public int drawString(byte[] frame, CharSequence str, int x, int y){
+		return drawString(frame, LCDGraphics.LINE_LEN, LCD.SCREEN_HEIGHT, str, x, y, MODE_OR);
+	}
+	
+}
\ No newline at end of file
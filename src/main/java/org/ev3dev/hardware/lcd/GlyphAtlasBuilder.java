@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+import org.ev3dev.exception.EV3LibraryException;
+
+/**
+ * Builds GlyphAtlas from AWT fonts. This is the only part of the text rendering that needs AWT: build the
+ *  atlases once, on a computer or on the first run, and load them with <code>GlyphAtlas.load()</code> afterwards.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * GlyphAtlas atlas = GlyphAtlasBuilder.buildCached(new Font(Font.MONOSPACED, Font.PLAIN, 10), new File("mono10.atlas"));
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class GlyphAtlasBuilder {
+	
+	/**
+	 * The printable ASCII characters
+	 */
+	public static final String ASCII = buildAscii();
+	
+	private GlyphAtlasBuilder(){
+	}
+	
+	private static String buildAscii(){
+		StringBuilder sb = new StringBuilder();
+		for (char c = 32; c < 127; c++){
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Builds an atlas of the printable ASCII characters
+	 * @param font The font
+	 * @return The atlas
+	 */
+	public static GlyphAtlas build(Font font){
+		return build(font, ASCII);
+	}
+	
+	/**
+	 * Builds an atlas. Glyphs are rasterized without anti-aliasing, so that no pixel is lost to a threshold.
+	 * @param font The font
+	 * @param characters The characters, duplicates and characters the font cannot display are ignored
+	 * @return The atlas
+	 */
+	public static GlyphAtlas build(Font font, String characters){
+		char[] chars = characters.toCharArray();
+		Arrays.sort(chars);
+		int count = 0;
+		for (int i = 0; i < chars.length; i++){
+			if ((count == 0 || chars[i] != chars[count - 1]) && font.canDisplay(chars[i])){
+				chars[count++] = chars[i];
+			}
+		}
+		chars = Arrays.copyOf(chars, count);
+		
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY);
+		Graphics2D g2d = scratch.createGraphics();
+		g2d.setFont(font);
+		FontMetrics fm = g2d.getFontMetrics();
+		int height = fm.getHeight();
+		int ascent = fm.getAscent();
+		int[] widths = new int[count];
+		int maxWidth = 1;
+		for (int i = 0; i < count; i++){
+			widths[i] = fm.charWidth(chars[i]);
+			maxWidth = Math.max(maxWidth, widths[i]);
+		}
+		g2d.dispose();
+		
+		BufferedImage cell = new BufferedImage(maxWidth, height, BufferedImage.TYPE_BYTE_GRAY);
+		g2d = cell.createGraphics();
+		g2d.setFont(font);
+		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+		int[] row = new int[maxWidth];
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < count; i++){
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, maxWidth, height);
+			g2d.setColor(Color.BLACK);
+			g2d.drawString(String.valueOf(chars[i]), 0, ascent);
+			int w = widths[i];
+			int gStride = (w + 7) / 8;
+			for (int y = 0; y < height; y++){
+				cell.getRaster().getSamples(0, y, maxWidth, 1, 0, row);
+				for (int b = 0; b < gStride; b++){
+					int bits = 0;
+					for (int k = 0; k < 8 && b * 8 + k < w; k++){
+						if (row[b * 8 + k] < 128){
+							bits |= 1 << k;
+						}
+					}
+					data.write(bits);
+				}
+			}
+		}
+		g2d.dispose();
+		return new GlyphAtlas(getSource(font), height, ascent, chars, widths, data.toByteArray());
+	}
+	
+	/**
+	 * Returns the description of a font that is saved with its atlases: the font name, style and size
+	 * @param font The font
+	 * @return Source
+	 */
+	public static String getSource(Font font){
+		return font.getName() + "," + font.getStyle() + "," + font.getSize2D();
+	}
+	
+	/**
+	 * Loads an atlas from a cache file, or builds the atlas of the printable ASCII characters and saves it there.
+	 *  A cache built from another font, style or size is rebuilt.
+	 * @param font The font
+	 * @param cache The cache file
+	 * @return The atlas
+	 * @throws EV3LibraryException If the cache cannot be written
+	 */
+	public static GlyphAtlas buildCached(Font font, File cache) throws EV3LibraryException{
+		if (cache.isFile()){
+			try {
+				GlyphAtlas atlas = GlyphAtlas.load(cache);
+				if (getSource(font).equals(atlas.getSource())){
+					return atlas;
+				}
+			} catch (EV3LibraryException e){
+				//Rebuilt below
+			}
+		}
+		GlyphAtlas atlas = build(font);
+		atlas.save(cache);
+		return atlas;
+	}
+	
+}
\ No newline at end of file
@@ -33,6 +33,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.ev3dev.exception.EV3LibraryException;
 
@@ -49,6 +50,8 @@ public class LCD {
 	public static final int SCREEN_WIDTH = 178;
 	
 	public static final int SCREEN_HEIGHT = 128;
+	
+	private static final CopyOnWriteArrayList<LCDListener> listeners = new CopyOnWriteArrayList<LCDListener>();
 
 	public LCD() {
 		
@@ -72,6 +75,33 @@ public class LCD {
 		} catch (IOException e) {
 			throw new EV3LibraryException("Unable to draw the LCD", e);
 		}
+		fireFrameDrawn(data);
+	}
+	
+	/**
+	 * Calls the listeners with a frame drawn. Subclasses drawing elsewhere than the framebuffer call it themselves.
+	 * @param data The frame drawn
+	 */
+	protected void fireFrameDrawn(byte[] data){
+		for (LCDListener listener : listeners){
+			listener.frameDrawn(this, data);
+		}
+	}
+	
+	/**
+	 * Adds a listener receiving the frames drawn to every LCD
+	 * @param listener The listener
+	 */
+	public static void addListener(LCDListener listener){
+		listeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * Removes a listener
+	 * @param listener The listener
+	 */
+	public static void removeListener(LCDListener listener){
+		listeners.remove(listener);
 	}
 
 }
@@ -0,0 +1,581 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import java.util.Arrays;
+
+import org.ev3dev.exception.EV3LibraryException;
+
+/**
+ * A lightweight 1-bit graphics engine drawing straight into a packed buffer in the framebuffer format
+ *  (LSB first, 1 is black), by default a frame of the EV3 LCD with 24 bytes per row. It never loads AWT, so it
+ *  starts in milliseconds where LCDGraphics needs Java2D.<br>
+ * <br>
+ * Shapes are drawn in the current color, either copied or XORed onto the buffer, and clipped to the clip
+ *  rectangle. Horizontal spans, and so filled rectangles, circles and polygons, are filled a byte at a time.
+ *  In XOR mode every pixel of a shape is drawn exactly once, except the vertices of polygon outlines.
+ *  Coordinates follow AWT: <code>drawRect</code> covers <code>width + 1</code> pixels, <code>fillRect</code>
+ *  covers <code>width</code> pixels.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * LCDCanvas canvas = new LCDCanvas();
+ * canvas.drawRect(0, 0, 177, 127);
+ * canvas.fillCircle(89, 64, 20);
+ * canvas.setMode(LCDCanvas.MODE_XOR);
+ * canvas.fillRect(60, 54, 58, 20);
+ * canvas.flush(new LCD());
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class LCDCanvas {
+	
+	public static final int COLOR_WHITE = 0;
+	
+	public static final int COLOR_BLACK = 1;
+	
+	/**
+	 * Pixels drawn are set to the current color
+	 */
+	public static final int MODE_COPY = 0;
+	
+	/**
+	 * Pixels drawn are inverted, whatever the current color
+	 */
+	public static final int MODE_XOR = 1;
+	
+	private final byte[] buf;
+	
+	private final int width;
+	
+	private final int height;
+	
+	private final int stride;
+	
+	private int color = COLOR_BLACK;
+	
+	private int mode = MODE_COPY;
+	
+	private int clipX;
+	
+	private int clipY;
+	
+	/**
+	 * The clip rectangle, exclusive
+	 */
+	private int clipX2;
+	
+	private int clipY2;
+	
+	/**
+	 * Creates a canvas on a new blank LCD frame
+	 */
+	public LCDCanvas(){
+		this(new byte[LCDGraphics.BUF_SIZE], LCD.SCREEN_WIDTH, LCD.SCREEN_HEIGHT, LCDGraphics.LINE_LEN);
+	}
+	
+	/**
+	 * Creates a canvas on a buffer
+	 * @param buf The packed buffer, LSB first, 1 is black
+	 * @param width The width in pixels
+	 * @param height The height in pixels
+	 * @param stride The bytes per row
+	 * @throws IllegalArgumentException If the buffer is too short for the size
+	 */
+	public LCDCanvas(byte[] buf, int width, int height, int stride){
+		if (width <= 0 || height <= 0 || stride * 8 < width || buf.length < stride * height){
+			throw new IllegalArgumentException("Invalid canvas: " + width + "x" + height + ", stride " + stride + ", " + buf.length + " bytes");
+		}
+		this.buf = buf;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		resetClip();
+	}
+	
+	/**
+	 * Sets the color of the shapes drawn in <code>MODE_COPY</code>
+	 * @param color <code>COLOR_BLACK</code> or <code>COLOR_WHITE</code>
+	 */
+	public void setColor(int color){
+		this.color = color;
+	}
+	
+	public int getColor(){
+		return color;
+	}
+	
+	/**
+	 * Sets how pixels are drawn
+	 * @param mode <code>MODE_COPY</code> or <code>MODE_XOR</code>
+	 */
+	public void setMode(int mode){
+		this.mode = mode;
+	}
+	
+	public int getMode(){
+		return mode;
+	}
+	
+	/**
+	 * Restricts drawing to a rectangle, intersected with the canvas
+	 * @param x The left
+	 * @param y The top
+	 * @param w The width
+	 * @param h The height
+	 */
+	public void setClip(int x, int y, int w, int h){
+		clipX = Math.max(0, x);
+		clipY = Math.max(0, y);
+		clipX2 = Math.max(clipX, Math.min(width, x + w));
+		clipY2 = Math.max(clipY, Math.min(height, y + h));
+	}
+	
+	/**
+	 * Allows drawing on the whole canvas
+	 */
+	public void resetClip(){
+		clipX = 0;
+		clipY = 0;
+		clipX2 = width;
+		clipY2 = height;
+	}
+	
+	/**
+	 * Clears the whole canvas to white, ignoring the clip
+	 */
+	public void clear(){
+		Arrays.fill(buf, 0, stride * height, (byte) 0);
+	}
+	
+	/**
+	 * Draws a pixel
+	 * @param x x
+	 * @param y y
+	 */
+	public void setPixel(int x, int y){
+		if (x >= clipX && x < clipX2 && y >= clipY && y < clipY2){
+			apply(y * stride + (x >> 3), 1 << (x & 7));
+		}
+	}
+	
+	/**
+	 * Returns whether a pixel is black
+	 * @param x x
+	 * @param y y
+	 * @return Black, <code>false</code> outside the canvas
+	 */
+	public boolean getPixel(int x, int y){
+		if (x < 0 || x >= width || y < 0 || y >= height){
+			return false;
+		}
+		return (buf[y * stride + (x >> 3)] & (1 << (x & 7))) != 0;
+	}
+	
+	private void apply(int i, int mask){
+		if (mode == MODE_XOR){
+			buf[i] ^= mask;
+		} else if (color == COLOR_BLACK){
+			buf[i] |= mask;
+		} else {
+			buf[i] &= ~mask;
+		}
+	}
+	
+	/**
+	 * Fills the pixels from x0 to x1 inclusive on a row, a byte at a time
+	 */
+	private void span(int y, int x0, int x1){
+		if (y < clipY || y >= clipY2){
+			return;
+		}
+		x0 = Math.max(x0, clipX);
+		x1 = Math.min(x1, clipX2 - 1);
+		if (x0 > x1){
+			return;
+		}
+		int row = y * stride;
+		int b0 = x0 >> 3;
+		int b1 = x1 >> 3;
+		int first = (0xff << (x0 & 7)) & 0xff;
+		int last = 0xff >>> (7 - (x1 & 7));
+		if (b0 == b1){
+			apply(row + b0, first & last);
+			return;
+		}
+		apply(row + b0, first);
+		if (b1 - b0 > 1){
+			if (mode == MODE_XOR){
+				for (int i = row + b0 + 1; i < row + b1; i++){
+					buf[i] ^= (byte) 0xff;
+				}
+			} else {
+				Arrays.fill(buf, row + b0 + 1, row + b1, color == COLOR_BLACK ? (byte) 0xff : (byte) 0);
+			}
+		}
+		apply(row + b1, last);
+	}
+	
+	/**
+	 * Draws a line with Bresenham's algorithm
+	 * @param x0 The first x
+	 * @param y0 The first y
+	 * @param x1 The second x
+	 * @param y1 The second y
+	 */
+	public void drawLine(int x0, int y0, int x1, int y1){
+		if (y0 == y1){
+			span(y0, Math.min(x0, x1), Math.max(x0, x1));
+			return;
+		}
+		//Entirely on one side of the clip
+		if ((x0 < clipX && x1 < clipX) || (x0 >= clipX2 && x1 >= clipX2)
+				|| (y0 < clipY && y1 < clipY) || (y0 >= clipY2 && y1 >= clipY2)){
+			return;
+		}
+		int dx = Math.abs(x1 - x0);
+		int dy = -Math.abs(y1 - y0);
+		int sx = x0 < x1 ? 1 : -1;
+		int sy = y0 < y1 ? 1 : -1;
+		int err = dx + dy;
+		if (x0 >= clipX && x0 < clipX2 && x1 >= clipX && x1 < clipX2
+				&& y0 >= clipY && y0 < clipY2 && y1 >= clipY && y1 < clipY2){
+			//Inside the clip, step through the buffer without checks
+			int i = y0 * stride + (x0 >> 3);
+			int bit = x0 & 7;
+			int rowStep = sy * stride;
+			for (int n = Math.max(dx, -dy); n >= 0; n--){
+				apply(i, 1 << bit);
+				int e2 = 2 * err;
+				if (e2 >= dy){
+					err += dy;
+					bit += sx;
+					if (bit == 8){
+						bit = 0;
+						i++;
+					} else if (bit < 0){
+						bit = 7;
+						i--;
+					}
+				}
+				if (e2 <= dx){
+					err += dx;
+					i += rowStep;
+				}
+			}
+			return;
+		}
+		while (true){
+			setPixel(x0, y0);
+			if (x0 == x1 && y0 == y1){
+				return;
+			}
+			int e2 = 2 * err;
+			if (e2 >= dy){
+				err += dy;
+				x0 += sx;
+			}
+			if (e2 <= dx){
+				err += dx;
+				y0 += sy;
+			}
+		}
+	}
+	
+	/**
+	 * Draws the outline of a rectangle, covering <code>w + 1</code> by <code>h + 1</code> pixels
+	 * @param x The left
+	 * @param y The top
+	 * @param w The width
+	 * @param h The height
+	 */
+	public void drawRect(int x, int y, int w, int h){
+		if (w < 0 || h < 0){
+			return;
+		}
+		span(y, x, x + w);
+		if (h > 0){
+			span(y + h, x, x + w);
+		}
+		for (int r = Math.max(y + 1, clipY); r < Math.min(y + h, clipY2); r++){
+			setPixel(x, r);
+			if (w > 0){
+				setPixel(x + w, r);
+			}
+		}
+	}
+	
+	/**
+	 * Fills a rectangle, a byte at a time
+	 * @param x The left
+	 * @param y The top
+	 * @param w The width
+	 * @param h The height
+	 */
+	public void fillRect(int x, int y, int w, int h){
+		if (w <= 0){
+			return;
+		}
+		for (int r = Math.max(y, clipY); r < Math.min(y + h, clipY2); r++){
+			span(r, x, x + w - 1);
+		}
+	}
+	
+	/**
+	 * Draws the outline of a circle with the midpoint algorithm
+	 * @param cx The center x
+	 * @param cy The center y
+	 * @param r The radius
+	 */
+	public void drawCircle(int cx, int cy, int r){
+		if (r < 0){
+			return;
+		} else if (r == 0){
+			setPixel(cx, cy);
+			return;
+		}
+		int x = r;
+		int y = 0;
+		int err = 1 - r;
+		while (x >= y){
+			plot4(cx, cy, x, y);
+			if (x != y){
+				plot4(cx, cy, y, x);
+			}
+			y++;
+			if (err < 0){
+				err += 2 * y + 1;
+			} else {
+				x--;
+				err += 2 * (y - x) + 1;
+			}
+		}
+	}
+	
+	/**
+	 * Plots the points mirrored around a center, once each
+	 */
+	private void plot4(int cx, int cy, int dx, int dy){
+		setPixel(cx + dx, cy + dy);
+		if (dx != 0){
+			setPixel(cx - dx, cy + dy);
+		}
+		if (dy != 0){
+			setPixel(cx + dx, cy - dy);
+			if (dx != 0){
+				setPixel(cx - dx, cy - dy);
+			}
+		}
+	}
+	
+	/**
+	 * Fills a circle, a span per row
+	 * @param cx The center x
+	 * @param cy The center y
+	 * @param r The radius
+	 */
+	public void fillCircle(int cx, int cy, int r){
+		if (r < 0){
+			return;
+		}
+		int dx = r;
+		int limit = r * r + r;
+		for (int dy = 0; dy <= r; dy++){
+			while (dx * dx + dy * dy > limit){
+				dx--;
+			}
+			span(cy + dy, cx - dx, cx + dx);
+			if (dy != 0){
+				span(cy - dy, cx - dx, cx + dx);
+			}
+		}
+	}
+	
+	/**
+	 * Draws the outline of a closed polygon
+	 * @param xs The x of the vertices
+	 * @param ys The y of the vertices
+	 * @param n The number of vertices
+	 */
+	public void drawPolygon(int[] xs, int[] ys, int n){
+		for (int i = 0; i < n; i++){
+			int j = (i + 1) % n;
+			drawLine(xs[i], ys[i], xs[j], ys[j]);
+		}
+	}
+	
+	/**
+	 * Fills a polygon with the even-odd rule, sampling each row at the pixel centers
+	 * @param xs The x of the vertices
+	 * @param ys The y of the vertices
+	 * @param n The number of vertices
+	 */
+	public void fillPolygon(int[] xs, int[] ys, int n){
+		if (n < 3){
+			return;
+		}
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++){
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		int[] crossings = new int[n];
+		for (int y = Math.max(minY, clipY); y < Math.min(maxY, clipY2); y++){
+			int count = 0;
+			for (int i = 0; i < n; i++){
+				int j = (i + 1) % n;
+				int yi = ys[i];
+				int yj = ys[j];
+				if ((yi <= y && y < yj) || (yj <= y && y < yi)){
+					double x = xs[i] + (y + 0.5 - yi) * (xs[j] - xs[i]) / (double) (yj - yi);
+					int c = (int) Math.floor(x + 0.5);
+					//Insertion sort, polygons have few edges
+					int k = count++;
+					while (k > 0 && crossings[k - 1] > c){
+						crossings[k] = crossings[k - 1];
+						k--;
+					}
+					crossings[k] = c;
+				}
+			}
+			for (int k = 0; k + 1 < count; k += 2){
+				span(y, crossings[k], crossings[k + 1] - 1);
+			}
+		}
+	}
+	
+	/**
+	 * Draws the set pixels of a packed bitmap in the current color, or inverts them in XOR mode
+	 * @param src The bitmap, LSB first
+	 * @param srcStride The bytes per row of the bitmap
+	 * @param w The width of the bitmap
+	 * @param h The height of the bitmap
+	 * @param x The left
+	 * @param y The top
+	 */
+	public void drawBitmap(byte[] src, int srcStride, int w, int h, int x, int y){
+		drawBitmap(src, 0, srcStride, w, h, x, y);
+	}
+	
+	/**
+	 * Draws the set pixels of a packed bitmap in the current color, or inverts them in XOR mode. Each destination
+	 *  byte is built from the two source bytes it overlaps, so rows are drawn a byte at a time at any x.
+	 * @param src The array of the bitmap, LSB first
+	 * @param srcOffset The index of the bitmap in the array
+	 * @param srcStride The bytes per row of the bitmap
+	 * @param w The width of the bitmap
+	 * @param h The height of the bitmap
+	 * @param x The left
+	 * @param y The top
+	 */
+	public void drawBitmap(byte[] src, int srcOffset, int srcStride, int w, int h, int x, int y){
+		int xa = Math.max(x, clipX);
+		int xb = Math.min(x + w, clipX2) - 1;
+		int ya = Math.max(y, clipY);
+		int yb = Math.min(y + h, clipY2) - 1;
+		if (xa > xb || ya > yb){
+			return;
+		}
+		int shift = x & 7;
+		int bx = x >> 3;
+		int db0 = xa >> 3;
+		int db1 = xb >> 3;
+		for (int yy = ya; yy <= yb; yy++){
+			int srow = srcOffset + (yy - y) * srcStride;
+			int drow = yy * stride;
+			for (int db = db0; db <= db1; db++){
+				int i = db - bx;
+				int bits = i < srcStride ? (src[srow + i] & 0xff) << shift : 0;
+				if (shift != 0 && i > 0){
+					bits |= (src[srow + i - 1] & 0xff) >>> (8 - shift);
+				}
+				int lo = Math.max(xa - db * 8, 0);
+				int hi = Math.min(xb - db * 8, 7);
+				bits &= (0xff << lo) & (0xff >>> (7 - hi));
+				if (bits != 0){
+					apply(drow + db, bits);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Draws a string with the top left corner of its line at a point. Line breaks are not interpreted.
+	 * @param atlas The font
+	 * @param str The string
+	 * @param x The left
+	 * @param y The top
+	 * @return The x coordinate after the string
+	 */
+	public int drawString(GlyphAtlas atlas, CharSequence str, int x, int y){
+		byte[] data = atlas.glyphData();
+		for (int i = 0; i < str.length() && x < clipX2; i++){
+			int g = atlas.glyph(str.charAt(i));
+			if (g < 0){
+				continue;
+			}
+			int w = atlas.glyphWidth(g);
+			drawBitmap(data, atlas.glyphOffset(g), (w + 7) / 8, w, atlas.getHeight(), x, y);
+			x += w;
+		}
+		return x;
+	}
+	
+	/**
+	 * Draws the canvas to an LCD
+	 * @param lcd The LCD
+	 * @throws EV3LibraryException If the LCD cannot be drawn
+	 */
+	public void flush(LCD lcd) throws EV3LibraryException{
+		lcd.draw(buf);
+	}
+	
+	/**
+	 * Returns the buffer drawn on
+	 * @return The packed buffer
+	 */
+	public byte[] getBuffer(){
+		return buf;
+	}
+	
+	public int getWidth(){
+		return width;
+	}
+	
+	public int getHeight(){
+		return height;
+	}
+	
+	public int getStride(){
+		return stride;
+	}
+	
+}
\ No newline at end of file
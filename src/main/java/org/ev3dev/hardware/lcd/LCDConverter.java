@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts images into the 1-bit format of the EV3 framebuffer (24 bytes per row, LSB first, 1 is black).<br>
+ * <br>
+ * Pixels are read in bulk, directly from the data buffer of common image types, and converted to Rec. 709
+ *  luminance. The luminance is then turned into black and white by a threshold, an 8x8 Bayer ordered dither,
+ *  or Floyd-Steinberg or Atkinson error diffusion. On a multi-core machine (e.g. a remote graphics processing
+ *  host), rows are converted in parallel on a fork-join pool; error diffusion itself runs over the rows in order,
+ *  as each row depends on the one before. Images that are already 1-bit are repacked byte by byte without any
+ *  conversion.<br>
+ * <br>
+ * Only the top-left <code>SCREEN_WIDTH</code> by <code>SCREEN_HEIGHT</code> pixels are converted, the rest of the
+ *  frame is white. A converter can be shared between threads.
+ * @author Anthony
+ *
+ */
+public class LCDConverter {
+	
+	/**
+	 * Black below a luminance threshold
+	 */
+	public static final int METHOD_THRESHOLD = 0;
+	
+	/**
+	 * Ordered dither with an 8x8 Bayer matrix
+	 */
+	public static final int METHOD_BAYER = 1;
+	
+	/**
+	 * Floyd-Steinberg error diffusion, scanning the rows in a serpentine
+	 */
+	public static final int METHOD_FLOYD_STEINBERG = 2;
+	
+	/**
+	 * Atkinson error diffusion, which diffuses 3/4 of the error and keeps more contrast
+	 */
+	public static final int METHOD_ATKINSON = 3;
+	
+	/**
+	 * The default luminance threshold
+	 */
+	public static final int DEFAULT_THRESHOLD = 128;
+	
+	/**
+	 * The number of bytes of a framebuffer row
+	 */
+	public static final int LINE_LEN = 24;
+	
+	/**
+	 * The number of bytes of a framebuffer
+	 */
+	public static final int BUF_SIZE = LINE_LEN * LCD.SCREEN_HEIGHT;
+	
+	private static final int ROWS_PER_TASK = 16;
+	
+	private static final int[] BAYER = {
+		 0, 32,  8, 40,  2, 34, 10, 42,
+		48, 16, 56, 24, 50, 18, 58, 26,
+		12, 44,  4, 36, 14, 46,  6, 38,
+		60, 28, 52, 20, 62, 30, 54, 22,
+		 3, 35, 11, 43,  1, 33,  9, 41,
+		51, 19, 59, 27, 49, 17, 57, 25,
+		15, 47,  7, 39, 13, 45,  5, 37,
+		63, 31, 55, 23, 61, 29, 53, 21
+	};
+	
+	/**
+	 * Bits of each byte value in reverse order, to repack MSB first rasters
+	 */
+	private static final byte[] REVERSED = new byte[256];
+	
+	static {
+		for (int i = 0; i < 256; i++){
+			REVERSED[i] = (byte) (Integer.reverse(i) >>> 24);
+		}
+	}
+	
+	private static ForkJoinPool pool = null;
+	
+	private volatile int method;
+	
+	private volatile int threshold = DEFAULT_THRESHOLD;
+	
+	private volatile boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+	
+	/**
+	 * Creates a new converter with a threshold
+	 */
+	public LCDConverter(){
+		this(METHOD_THRESHOLD);
+	}
+	
+	/**
+	 * Creates a new converter
+	 * @param method One of the <code>METHOD_*</code> fields
+	 */
+	public LCDConverter(int method){
+		setMethod(method);
+	}
+	
+	/**
+	 * Returns the Rec. 709 luminance of an RGB color
+	 * @param rgb The RGB color
+	 * @return Luminance from 0 to 255
+	 */
+	public static int luminance(int rgb){
+		return (54 * ((rgb >> 16) & 0xff) + 183 * ((rgb >> 8) & 0xff) + 19 * (rgb & 0xff)) >> 8;
+	}
+	
+	/**
+	 * Converts an image into a new framebuffer
+	 * @param image The image
+	 * @return The framebuffer, <code>BUF_SIZE</code> bytes
+	 */
+	public byte[] convert(BufferedImage image){
+		byte[] buf = new byte[BUF_SIZE];
+		convert(image, buf);
+		return buf;
+	}
+	
+	/**
+	 * Converts an image into a framebuffer
+	 * @param image The image
+	 * @param buf The framebuffer, at least <code>BUF_SIZE</code> bytes
+	 */
+	public void convert(BufferedImage image, byte[] buf){
+		if (buf.length < BUF_SIZE){
+			throw new IllegalArgumentException("The buffer must be at least " + BUF_SIZE + " bytes");
+		}
+		int width = Math.min(image.getWidth(), LCD.SCREEN_WIDTH);
+		int height = Math.min(image.getHeight(), LCD.SCREEN_HEIGHT);
+		for (int i = 0; i < BUF_SIZE; i++){
+			buf[i] = 0;
+		}
+		if (width <= 0 || height <= 0){
+			return;
+		}
+		if (repackBinary(image, width, height, buf)){
+			return;
+		}
+		
+		int method = this.method;
+		if (method == METHOD_THRESHOLD || method == METHOD_BAYER){
+			run(new RowTask(image, width, method, threshold, null, buf, 0, height));
+			return;
+		}
+		
+		int[] lum = new int[width * height];
+		run(new RowTask(image, width, method, threshold, lum, null, 0, height));
+		if (method == METHOD_FLOYD_STEINBERG){
+			floydSteinberg(lum, width, height, buf);
+		} else {
+			atkinson(lum, width, height, buf);
+		}
+	}
+	
+	private void run(RowTask task){
+		if (parallel && task.end - task.start > ROWS_PER_TASK){
+			getPool().invoke(task);
+		} else {
+			task.compute();
+		}
+	}
+	
+	private static synchronized ForkJoinPool getPool(){
+		if (pool == null){
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+	
+	/**
+	 * Repacks a 1-bit indexed image, 8 pixels at a time
+	 * @return Whether the image was 1-bit
+	 */
+	private static boolean repackBinary(BufferedImage image, int width, int height, byte[] buf){
+		if (image.getType() != BufferedImage.TYPE_BYTE_BINARY || !(image.getColorModel() instanceof IndexColorModel)){
+			return false;
+		}
+		IndexColorModel cm = (IndexColorModel) image.getColorModel();
+		SampleModel sm = image.getRaster().getSampleModel();
+		DataBuffer db = image.getRaster().getDataBuffer();
+		if (cm.getMapSize() != 2 || !(sm instanceof MultiPixelPackedSampleModel) || sm.getSampleSize(0) != 1 ||
+				!(db instanceof DataBufferByte) || image.getRaster().getParent() != null){
+			return false;
+		}
+		MultiPixelPackedSampleModel mpp = (MultiPixelPackedSampleModel) sm;
+		if (mpp.getDataBitOffset() != 0){
+			return false;
+		}
+		byte[] data = ((DataBufferByte) db).getData();
+		int offset = db.getOffset();
+		int stride = mpp.getScanlineStride();
+		//The framebuffer bit is set for black, invert if index 1 is the lighter color
+		boolean invert = luminance(cm.getRGB(1)) > luminance(cm.getRGB(0));
+		int fullBytes = width / 8;
+		int lastBits = width % 8;
+		int lastMask = (1 << lastBits) - 1;
+		for (int y = 0; y < height; y++){
+			int src = offset + y * stride;
+			int dst = y * LINE_LEN;
+			for (int x = 0; x < fullBytes; x++){
+				byte b = REVERSED[data[src + x] & 0xff];
+				buf[dst + x] = invert ? (byte) ~b : b;
+			}
+			if (lastBits > 0){
+				int b = REVERSED[data[src + fullBytes] & 0xff];
+				if (invert){
+					b = ~b;
+				}
+				buf[dst + fullBytes] = (byte) (b & lastMask);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Reads a row of pixels as luminance
+	 */
+	private static void readLuminance(BufferedImage image, int y, int width, int[] row, int[] out, int outOffset){
+		DataBuffer db = image.getRaster().getDataBuffer();
+		int type = image.getType();
+		boolean direct = image.getRaster().getParent() == null;
+		if (direct && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) && db instanceof DataBufferInt){
+			int[] data = ((DataBufferInt) db).getData();
+			int src = db.getOffset() + y * image.getWidth();
+			for (int x = 0; x < width; x++){
+				out[outOffset + x] = luminance(data[src + x]);
+			}
+		} else if (direct && type == BufferedImage.TYPE_BYTE_GRAY && db instanceof DataBufferByte){
+			byte[] data = ((DataBufferByte) db).getData();
+			int src = db.getOffset() + y * image.getWidth();
+			for (int x = 0; x < width; x++){
+				out[outOffset + x] = data[src + x] & 0xff;
+			}
+		} else if (direct && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR) && db instanceof DataBufferByte){
+			byte[] data = ((DataBufferByte) db).getData();
+			int channels = type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+			int first = channels - 3;
+			int src = db.getOffset() + y * image.getWidth() * channels;
+			for (int x = 0; x < width; x++){
+				int p = src + x * channels + first;
+				out[outOffset + x] = (19 * (data[p] & 0xff) + 183 * (data[p + 1] & 0xff) + 54 * (data[p + 2] & 0xff)) >> 8;
+			}
+		} else {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			for (int x = 0; x < width; x++){
+				out[outOffset + x] = luminance(row[x]);
+			}
+		}
+	}
+	
+	private static void floydSteinberg(int[] lum, int width, int height, byte[] buf){
+		for (int y = 0; y < height; y++){
+			boolean reverse = (y & 1) == 1;
+			int dir = reverse ? -1 : 1;
+			int x = reverse ? width - 1 : 0;
+			for (int i = 0; i < width; i++, x += dir){
+				int p = y * width + x;
+				int old = lum[p];
+				int error;
+				if (old < 128){
+					buf[y * LINE_LEN + (x >> 3)] |= 1 << (x & 7);
+					error = old;
+				} else {
+					error = old - 255;
+				}
+				int xn = x + dir;
+				int xp = x - dir;
+				if (xn >= 0 && xn < width){
+					lum[p + dir] += error * 7 >> 4;
+				}
+				if (y + 1 < height){
+					int below = p + width;
+					if (xp >= 0 && xp < width){
+						lum[below - dir] += error * 3 >> 4;
+					}
+					lum[below] += error * 5 >> 4;
+					if (xn >= 0 && xn < width){
+						lum[below + dir] += error >> 4;
+					}
+				}
+			}
+		}
+	}
+	
+	private static void atkinson(int[] lum, int width, int height, byte[] buf){
+		for (int y = 0; y < height; y++){
+			for (int x = 0; x < width; x++){
+				int p = y * width + x;
+				int old = lum[p];
+				int error;
+				if (old < 128){
+					buf[y * LINE_LEN + (x >> 3)] |= 1 << (x & 7);
+					error = old >> 3;
+				} else {
+					error = (old - 255) >> 3;
+				}
+				if (x + 1 < width){
+					lum[p + 1] += error;
+				}
+				if (x + 2 < width){
+					lum[p + 2] += error;
+				}
+				if (y + 1 < height){
+					int below = p + width;
+					if (x > 0){
+						lum[below - 1] += error;
+					}
+					lum[below] += error;
+					if (x + 1 < width){
+						lum[below + 1] += error;
+					}
+					if (y + 2 < height){
+						lum[below + width] += error;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sets the conversion method
+	 * @param method One of the <code>METHOD_*</code> fields
+	 */
+	public void setMethod(int method){
+		if (method < METHOD_THRESHOLD || method > METHOD_ATKINSON){
+			throw new IllegalArgumentException("Unknown conversion method: " + method);
+		}
+		this.method = method;
+	}
+	
+	/**
+	 * Returns the conversion method
+	 * @return One of the <code>METHOD_*</code> fields
+	 */
+	public int getMethod(){
+		return method;
+	}
+	
+	/**
+	 * Sets the luminance below which a pixel is black with <code>METHOD_THRESHOLD</code>
+	 * @param threshold Luminance from 0 to 256
+	 */
+	public void setThreshold(int threshold){
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Returns the luminance below which a pixel is black with <code>METHOD_THRESHOLD</code>
+	 * @return Luminance from 0 to 256
+	 */
+	public int getThreshold(){
+		return threshold;
+	}
+	
+	/**
+	 * Sets whether rows are converted in parallel. (Default: enabled on multi-core machines)
+	 * @param parallel Enabled
+	 */
+	public void setParallel(boolean parallel){
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * Returns whether rows are converted in parallel
+	 * @return Enabled
+	 */
+	public boolean isParallel(){
+		return parallel;
+	}
+	
+	/**
+	 * Converts a range of rows, splitting it in halves on the fork-join pool. It either writes black and white
+	 *  directly into the framebuffer (threshold and Bayer), or only the luminance for error diffusion.
+	 */
+	private static class RowTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+
+		private final BufferedImage image;
+		
+		private final int width;
+		
+		private final int method;
+		
+		private final int threshold;
+		
+		private final int[] lum;
+		
+		private final byte[] buf;
+		
+		private final int start;
+		
+		private final int end;
+		
+		private RowTask(BufferedImage image, int width, int method, int threshold, int[] lum, byte[] buf, int start, int end){
+			this.image = image;
+			this.width = width;
+			this.method = method;
+			this.threshold = threshold;
+			this.lum = lum;
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > ROWS_PER_TASK && inForkJoinPool()){
+				int mid = (start + end) >>> 1;
+				invokeAll(new RowTask(image, width, method, threshold, lum, buf, start, mid),
+						new RowTask(image, width, method, threshold, lum, buf, mid, end));
+				return;
+			}
+			int[] row = new int[width];
+			if (lum != null){
+				for (int y = start; y < end; y++){
+					readLuminance(image, y, width, row, lum, y * width);
+				}
+				return;
+			}
+			int[] line = new int[width];
+			for (int y = start; y < end; y++){
+				readLuminance(image, y, width, row, line, 0);
+				int dst = y * LINE_LEN;
+				for (int x = 0; x < width; x++){
+					int t = method == METHOD_BAYER ? BAYER[(y & 7) * 8 + (x & 7)] * 4 + 2 : threshold;
+					if (line[x] < t){
+						buf[dst + (x >> 3)] |= 1 << (x & 7);
+					}
+				}
+			}
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -78,6 +78,10 @@ public class LCDGraphics extends Graphics2D {
 	private BufferedImage image;
 	
 	private Graphics2D g2d;
+	
+	private final LCDConverter converter = new LCDConverter();
+	
+	private final byte[] buf = new byte[BUF_SIZE];
 
 	/**
 	 * Creates an instance that uses the default ev3dev LCD
@@ -129,56 +133,18 @@ public class LCDGraphics extends Graphics2D {
 	 * Applies the Graphics context onto the ev3dev's LCD
 	 */
 	public void flush(){
-		byte[] buf = new byte[BUF_SIZE];
-		
-		byte[] pixel = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-		//System.out.println("pixel[] len: " + pixel.length);
-		//System.out.println("content: " + Arrays.toString(pixel));
-		
-		int bitPos;
-		for (int i = 0; i < LCD.SCREEN_HEIGHT; i++){
-			//System.out.println("rendering row " + i + "...");
-			//long t = System.currentTimeMillis();
-			bitPos = 0;
-			for (int j = 0; j < LCD.SCREEN_WIDTH; j++){
-				//int val = image.getRGB(j, i);
-				//int cmb = val & 0xff + (val & 0xff00) >> 8 + (val & 0xff0000) >> 16;
-				
-				if (bitPos > 7){
-					//System.out.println("Overload");
-					bitPos = 0;
-				}
-				
-				
-				//TODO: Rewrite not to use getRGB()! It results in low performance
-				Color color = new Color(image.getRGB(j, i));
-				
-				int y = (int) (0.2126 * color.getRed() + 0.7152 * color.getBlue() + 0.0722 * color.getGreen()); //Combine all colours together 255+255+255 = 765
-				//System.out.println("(" + j + ", " + i + "): " + cmb);
-				
-				
-				//byte pixelBit = pixel[i * LINE_LEN + j / 8];
-				
-				//System.out.println(Integer.toHexString(pixelBit));
-				
-				//System.out.println("Pixel: " + (i * LINE_LEN + j / 8) + " bit " + bitPos + ": " + y + " fill? " + (y < 128));
-				if (y < 128){
-					//System.out.println("pixel black: " + (i * LINE_LEN + j / 8 + "@bit" + bitPos) + "y: " + y + " r:" + color.getRed() + "g:" + color.getGreen() + "b:" + color.getBlue());
-					//System.out.println("Black: " + (pixelBit & 0xff));
-					buf[i * LINE_LEN + j / 8] |= (1 << bitPos);
-				} else {
-					//System.out.println("White");
-					buf[i * LINE_LEN + j / 8] &= ~(1 << bitPos);
-				}
-				
-				bitPos++;
-			}
-			//System.out.println("row (" + (i) + ") getRGB used: " + (System.currentTimeMillis() - t) + " ms");
-		}
-		
-		
+		converter.convert(image, buf);
 		lcd.draw(buf);
 	}
+	
+	/**
+	 * Returns the converter of the image into the framebuffer format. The image of LCDGraphics is 1-bit,
+	 *  so it is repacked directly, whatever the conversion method.
+	 * @return LCDConverter
+	 */
+	public LCDConverter getConverter(){
+		return converter;
+	}
 
 	@Override
 	public void draw(Shape s) {
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import java.util.Arrays;
+
+import org.ev3dev.exception.EV3LibraryException;
+
+/**
+ * A scrolling, line-wrapped text console drawn with a GlyphAtlas into its own frame in the framebuffer format,
+ *  without AWT. Text wraps at the right edge of the screen, and a new line at the bottom scrolls the frame up
+ *  by one line with a single copy. Only the glyphs printed are drawn, the rest of the frame is left as is.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * TextConsole console = new TextConsole(GlyphAtlas.load(new File("mono10.atlas")));
+ * console.println("Battery: " + battery.getVoltage() + " V");
+ * console.flush(new LCD());
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class TextConsole {
+	
+	private static final int TAB_SPACES = 4;
+	
+	private final GlyphAtlas atlas;
+	
+	private final byte[] frame = new byte[LCDGraphics.BUF_SIZE];
+	
+	private final int stride = LCDGraphics.LINE_LEN;
+	
+	private final int width = LCD.SCREEN_WIDTH;
+	
+	private final int rows;
+	
+	private int row = 0;
+	
+	private int x = 0;
+	
+	/**
+	 * Creates a blank console
+	 * @param atlas The font
+	 * @throws IllegalArgumentException If a line of the font is higher than the screen
+	 */
+	public TextConsole(GlyphAtlas atlas){
+		this.atlas = atlas;
+		rows = LCD.SCREEN_HEIGHT / atlas.getHeight();
+		if (rows == 0){
+			throw new IllegalArgumentException("The font is higher than the screen: " + atlas.getHeight());
+		}
+	}
+	
+	/**
+	 * Prints text. <code>'\n'</code> starts a new line, <code>'\r'</code> returns to the start of the line and
+	 *  clears it, and <code>'\t'</code> advances to the next tab stop.
+	 * @param str The text
+	 */
+	public synchronized void print(CharSequence str){
+		for (int i = 0; i < str.length(); i++){
+			char c = str.charAt(i);
+			if (c == '\n'){
+				newLine();
+			} else if (c == '\r'){
+				clearLine(row);
+				x = 0;
+			} else if (c == '\t'){
+				int tab = atlas.getAdvance(' ') * TAB_SPACES;
+				x = tab == 0 ? x : (x / tab + 1) * tab;
+				if (x >= width){
+					newLine();
+				}
+			} else {
+				int w = atlas.getAdvance(c);
+				if (x + w > width && x > 0){
+					newLine();
+				}
+				x += atlas.drawChar(frame, stride, rows * atlas.getHeight(), c, x, row * atlas.getHeight(), GlyphAtlas.MODE_OR);
+			}
+		}
+	}
+	
+	/**
+	 * Prints text and starts a new line
+	 * @param str The text
+	 */
+	public synchronized void println(CharSequence str){
+		print(str);
+		newLine();
+	}
+	
+	private void newLine(){
+		x = 0;
+		if (row < rows - 1){
+			row++;
+			return;
+		}
+		//Scroll the lines up by one
+		int line = atlas.getHeight() * stride;
+		System.arraycopy(frame, line, frame, 0, (rows - 1) * line);
+		clearLine(row);
+	}
+	
+	private void clearLine(int r){
+		int line = atlas.getHeight() * stride;
+		Arrays.fill(frame, r * line, (r + 1) * line, (byte) 0);
+	}
+	
+	/**
+	 * Clears the console and moves to the first line
+	 */
+	public synchronized void clear(){
+		Arrays.fill(frame, (byte) 0);
+		row = 0;
+		x = 0;
+	}
+	
+	/**
+	 * Draws the console to an LCD
+	 * @param lcd The LCD
+	 * @throws EV3LibraryException If the LCD cannot be drawn
+	 */
+	public synchronized void flush(LCD lcd) throws EV3LibraryException{
+		lcd.draw(frame);
+	}
+	
+	/**
+	 * Returns the frame of the console. It must only be read or changed while holding the lock of the console.
+	 * @return The frame in the framebuffer format
+	 */
+	public byte[] getFrame(){
+		return frame;
+	}
+	
+	/**
+	 * Returns the font
+	 * @return The atlas
+	 */
+	public GlyphAtlas getAtlas(){
+		return atlas;
+	}
+	
+	/**
+	 * Returns the number of lines on the screen
+	 * @return Lines
+	 */
+	public int getRows(){
+		return rows;
+	}
+	
+	/**
+	 * Returns the line of the cursor
+	 * @return Line from 0 at the top
+	 */
+	public synchronized int getRow(){
+		return row;
+	}
+	
+	/**
+	 * Returns the horizontal position of the cursor
+	 * @return x in pixels
+	 */
+	public synchronized int getX(){
+		return x;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd.dev;
+
+import java.awt.Color;
+
+import org.ev3dev.hardware.lcd.LCD;
+import org.ev3dev.hardware.lcd.LCDCanvas;
+import org.ev3dev.hardware.lcd.LCDGraphics;
+
+/**
+ * Compares LCDCanvas with LCDGraphics: the time to create each (including loading AWT for LCDGraphics) and the
+ *  time per operation of the common drawing calls, ending with a flush to an LCD that discards the frames.<br>
+ * <br>
+ * Run on the brick with:
+ * <pre>
+ * java -cp ev3dev-lang-java.jar org.ev3dev.hardware.lcd.dev.CanvasBenchmark [iterations]
+ * </pre>
+ * LCDCanvas is measured first, and the LCD sink never touches AWT, so that nothing AWT is loaded before the startup
+ *  of LCDGraphics is timed.
+ * @author Anthony
+ *
+ */
+public class CanvasBenchmark {
+	
+	private static final int DEFAULT_ITERATIONS = 2000;
+	
+	private static volatile int sink;
+	
+	private CanvasBenchmark(){
+	}
+	
+	/**
+	 * Runs the benchmark
+	 * @param args The number of iterations of each operation, optional
+	 */
+	public static void main(String[] args){
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+		NullLCD lcd = new NullLCD();
+		
+		long start = System.nanoTime();
+		LCDCanvas canvas = new LCDCanvas();
+		long canvasStartup = System.nanoTime() - start;
+		long[] canvasTimes = runCanvas(canvas, lcd, iterations);
+		
+		start = System.nanoTime();
+		LCDGraphics g = new LCDGraphics(lcd);
+		long graphicsStartup = System.nanoTime() - start;
+		long[] graphicsTimes = runGraphics(g, iterations);
+		
+		//Warm up both, then measure again
+		canvasTimes = runCanvas(canvas, lcd, iterations);
+		graphicsTimes = runGraphics(g, iterations);
+		
+		System.out.println("Iterations: " + iterations);
+		System.out.println(String.format("%-12s %14s %14s %8s", "Operation", "LCDCanvas us", "LCDGraphics us", "Speedup"));
+		System.out.println(String.format("%-12s %14.1f %14.1f %8.1f", "startup", canvasStartup / 1000.0, graphicsStartup / 1000.0, (double) graphicsStartup / Math.max(1, canvasStartup)));
+		String[] names = {"drawLine", "drawRect", "fillRect", "drawCircle", "fillCircle", "fillPolygon", "xorFill", "flush"};
+		for (int i = 0; i < names.length; i++){
+			double c = canvasTimes[i] / 1000.0 / iterations;
+			double j = graphicsTimes[i] / 1000.0 / iterations;
+			System.out.println(String.format("%-12s %14.2f %14.2f %8.1f", names[i], c, j, j / Math.max(c, 0.001)));
+		}
+		sink += lcd.frames > 0 ? 1 : 0;
+	}
+	
+	private static long[] runCanvas(LCDCanvas canvas, LCD lcd, int n){
+		int[] xs = {10, 90, 170, 120, 40};
+		int[] ys = {10, 5, 60, 120, 100};
+		long[] t = new long[8];
+		long s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.drawLine(i % 178, 0, 177 - i % 178, 127);
+		}
+		t[0] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.drawRect(i % 40, i % 30, 100, 80);
+		}
+		t[1] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.fillRect(i % 40, i % 30, 100, 80);
+		}
+		t[2] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.drawCircle(89, 64, 10 + i % 50);
+		}
+		t[3] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.fillCircle(89, 64, 10 + i % 50);
+		}
+		t[4] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.fillPolygon(xs, ys, xs.length);
+		}
+		t[5] = System.nanoTime() - s;
+		canvas.setMode(LCDCanvas.MODE_XOR);
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.fillRect(i % 40, i % 30, 100, 80);
+		}
+		t[6] = System.nanoTime() - s;
+		canvas.setMode(LCDCanvas.MODE_COPY);
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			canvas.flush(lcd);
+		}
+		t[7] = System.nanoTime() - s;
+		sink += canvas.getBuffer()[100];
+		return t;
+	}
+	
+	private static long[] runGraphics(LCDGraphics g, int n){
+		int[] xs = {10, 90, 170, 120, 40};
+		int[] ys = {10, 5, 60, 120, 100};
+		g.setColor(Color.BLACK);
+		long[] t = new long[8];
+		long s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			g.drawLine(i % 178, 0, 177 - i % 178, 127);
+		}
+		t[0] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			g.drawRect(i % 40, i % 30, 100, 80);
+		}
+		t[1] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			g.fillRect(i % 40, i % 30, 100, 80);
+		}
+		t[2] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			int r = 10 + i % 50;
+			g.drawOval(89 - r, 64 - r, 2 * r, 2 * r);
+		}
+		t[3] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			int r = 10 + i % 50;
+			g.fillOval(89 - r, 64 - r, 2 * r, 2 * r);
+		}
+		t[4] = System.nanoTime() - s;
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			g.fillPolygon(xs, ys, xs.length);
+		}
+		t[5] = System.nanoTime() - s;
+		g.setXORMode(Color.WHITE);
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			g.fillRect(i % 40, i % 30, 100, 80);
+		}
+		t[6] = System.nanoTime() - s;
+		g.setPaintMode();
+		s = System.nanoTime();
+		for (int i = 0; i < n; i++){
+			g.flush();
+		}
+		t[7] = System.nanoTime() - s;
+		return t;
+	}
+	
+	//Counts the frames instead of drawing them, and unlike VirtualLCD never loads AWT
+	private static final class NullLCD extends LCD {
+		
+		private int frames = 0;
+		
+		@Override
+		public void draw(byte[] data){
+			frames++;
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -29,6 +29,8 @@
 package org.ev3dev.hardware.lcd.dev;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
 
 import org.ev3dev.hardware.lcd.LCDGraphics;
 
@@ -45,13 +47,27 @@ import org.ev3dev.hardware.lcd.LCDGraphics;
  *
  */
 public class FakeVirtualLCD extends VirtualLCD {
+	
+	private static final long RASTER_POLL_MILLIS = 20;
 
 	private LCDGraphics g;
 	
+	private byte[] lastRaster = null;
+	
 	public FakeVirtualLCD(LCDGraphics g) {
 		this.g = g;
 	}
 	
+	/**
+	 * Creates a new FakeVirtualLCD capturing the frames flushed
+	 * @param g The LCDGraphics providing the image
+	 * @param captureCapacity The number of frames kept in the capture ring buffer
+	 */
+	public FakeVirtualLCD(LCDGraphics g, int captureCapacity) {
+		super(false, captureCapacity);
+		this.g = g;
+	}
+	
 	@Override
 	public void showVLCD(){
 		VLCDFrame frame = new VLCDFrame(this);
@@ -68,11 +84,47 @@ public class FakeVirtualLCD extends VirtualLCD {
 	}
 	
 	/**
-	 * Calling this method will have no effect.
+	 * The image is not unpacked from the data, as it comes from LCDGraphics directly.
+	 *  This only captures the frame and notifies the viewers of a new frame.
 	 */
 	@Override
 	public void draw(byte[] data){
-		return;
+		if (data == null){
+			return;
+		}
+		frameDrawn(data);
+	}
+	
+	/**
+	 * Waits until a frame is flushed to this LCD, or until the image of LCDGraphics changes, as it is usually
+	 *  flushed to another LCD. The image is compared every 20 milliseconds while waiting.
+	 */
+	@Override
+	public long waitForFrame(long lastFrame, long timeoutMillis) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true){
+			long left = deadline - System.currentTimeMillis();
+			long count = super.waitForFrame(lastFrame, Math.min(RASTER_POLL_MILLIS, Math.max(0, left)));
+			if (count != lastFrame){
+				return count;
+			}
+			if (rasterChanged()){
+				frameDrawn(null);
+				return getFrameCount();
+			}
+			if (left <= 0){
+				return count;
+			}
+		}
+	}
+	
+	private synchronized boolean rasterChanged(){
+		byte[] raster = ((DataBufferByte) g.getImage().getRaster().getDataBuffer()).getData();
+		if (lastRaster != null && Arrays.equals(raster, lastRaster)){
+			return false;
+		}
+		lastRaster = raster.clone();
+		return true;
 	}
 
 }
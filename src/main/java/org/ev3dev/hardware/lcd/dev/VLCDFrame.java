@@ -30,14 +30,11 @@ package org.ev3dev.hardware.lcd.dev;
 
 import java.awt.BorderLayout;
 import java.awt.EventQueue;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import javax.swing.Timer;
-import javax.swing.border.EmptyBorder;
 
 import org.ev3dev.hardware.lcd.dev.VirtualLCD;
 
@@ -55,8 +52,10 @@ public class VLCDFrame extends JFrame {
 	private VirtualLCD lcd;
 	private Thread thread;
 	private JLabel lblImg;
+	private BufferedImage shown = null;
 
-	private boolean running = false;
+	private volatile boolean running = false;
+	private volatile boolean repaintPending = false;
 	/**
 	 * Create the frame.
 	 */
@@ -79,15 +78,54 @@ public class VLCDFrame extends JFrame {
 			public void run() {
 				if (!running){
 					running = true;
+					long seen = -1;
 					while(running){
-						lblImg.setIcon(new ImageIcon(lcd.getImage()));
+						try {
+							long frame = lcd.waitForFrame(seen, 100);
+							if (frame != seen){
+								seen = frame;
+								repaintImage();
+							}
+						} catch (InterruptedException e){
+							break;
+						}
 					}
 					running = false;
 				}
 			}
 			
-		});
+		}, "VLCDFrame");
+		thread.setDaemon(true);
 		thread.start();
 	}
+	
+	private void repaintImage(){
+		if (repaintPending){
+			//The previous frame is not painted yet, it will show the newest image anyway
+			return;
+		}
+		repaintPending = true;
+		EventQueue.invokeLater(new Runnable(){
+
+			public void run() {
+				repaintPending = false;
+				BufferedImage image = lcd.getImage();
+				if (image != shown){
+					shown = image;
+					lblImg.setIcon(new ImageIcon(image));
+				} else {
+					lblImg.repaint();
+				}
+			}
+			
+		});
+	}
+	
+	@Override
+	public void dispose(){
+		running = false;
+		thread.interrupt();
+		super.dispose();
+	}
 
 }
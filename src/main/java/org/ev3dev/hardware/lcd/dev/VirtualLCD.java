@@ -28,10 +28,9 @@
  *******************************************************************************/
 package org.ev3dev.hardware.lcd.dev;
 
-import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
@@ -39,24 +38,95 @@ import javax.imageio.ImageIO;
 import org.ev3dev.hardware.lcd.LCD;
 
 /**
- * Provides an interface for developers to emulate the LCD in ev3
+ * Provides an interface for developers to emulate the LCD in ev3.<br>
+ * <br>
+ * Frames drawn are unpacked from the 1-bit framebuffer format (24-byte stride, LSB first, 1 is black) straight into
+ *  the integer raster of the image, eight pixels at a time through a lookup table. Every frame increments a frame
+ *  counter that viewers can wait on, so they repaint only when a new frame arrives.<br>
+ * <br>
+ * In headless mode, frames are not unpacked when drawn: they are captured into a ring buffer, and the image is
+ *  unpacked from the newest frame only when it is requested. This measures the frame rate of a program without
+ *  any display.
  * @author Anthony
  *
  */
 public class VirtualLCD extends LCD{
+	
+	/**
+	 * The number of bytes of a row in the framebuffer
+	 */
+	public static final int STRIDE = 24;
+	
+	/**
+	 * The number of bytes of a frame
+	 */
+	public static final int FRAME_LENGTH = STRIDE * SCREEN_HEIGHT;
+	
+	private static final int WHITE = 0xFFFFFF;
+	
+	private static final int BLACK = 0x000000;
+	
+	/**
+	 * Eight pixels for each byte value, LSB first
+	 */
+	private static final int[] PIXELS = new int[256 * 8];
+	
+	static {
+		for (int b = 0; b < 256; b++){
+			for (int bit = 0; bit < 8; bit++){
+				PIXELS[b * 8 + bit] = ((b >> bit) & 1) == 0 ? WHITE : BLACK;
+			}
+		}
+	}
 
 	private BufferedImage image;
 	
-	private byte[] lastbuf = null;
+	private int[] pixels;
+	
+	private final boolean headless;
+	
+	private final Object frameLock = new Object();
+	
+	private final byte[][] captured;
+	
+	private final long[] capturedTimes;
+	
+	private int captureHead = 0;
+	
+	private long frameCount = 0;
+	
+	private long capturedCount = 0;
+	
+	private boolean imageDirty = false;
 	
 	/**
 	 * Creates a new virtual LCD instance
 	 */
 	public VirtualLCD(){
-		//image = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		this(false, 0);
+	}
+	
+	/**
+	 * Creates a new virtual LCD instance
+	 * @param headless Whether frames are only captured, and unpacked only when the image is requested
+	 * @param captureCapacity The number of frames kept in the capture ring buffer, at least 1 in headless mode
+	 */
+	public VirtualLCD(boolean headless, int captureCapacity){
+		this.headless = headless;
+		if (headless){
+			captureCapacity = Math.max(1, captureCapacity);
+		}
+		captured = new byte[captureCapacity][FRAME_LENGTH];
+		capturedTimes = new long[captureCapacity];
+		image = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 		try {
-			image = ImageIO.read(VirtualLCD.class.getResource("/org/ev3dev/hardware/defaultvirtuallcd.fw.png"));
+			BufferedImage splash = ImageIO.read(VirtualLCD.class.getResource("/org/ev3dev/hardware/defaultvirtuallcd.fw.png"));
+			Graphics g = image.getGraphics();
+			g.drawImage(splash, 0, 0, null);
+			g.dispose();
 		} catch (IOException e) {
+		} catch (IllegalArgumentException e) {
 		}
 	}
 	
@@ -65,6 +135,15 @@ public class VirtualLCD extends LCD{
 	 * @return BufferedImage
 	 */
 	public BufferedImage getImage(){
+		if (headless){
+			synchronized (frameLock){
+				if (imageDirty){
+					int newest = (captureHead - 1 + captured.length) % captured.length;
+					unpack(captured[newest], pixels);
+					imageDirty = false;
+				}
+			}
+		}
 		return image;
 	}
 	
@@ -86,32 +165,140 @@ public class VirtualLCD extends LCD{
 			System.out.println("Null data");
 			return;
 		}
-		Graphics g = image.getGraphics();
-		
-		int bitPos;
-		for (int i = 0; i < 128; i++){
-			bitPos = 0;
-			for (int j = 0; j < 178; j++){
-				if (bitPos > 7){
-					bitPos = 0;
-				}
-				
-				//System.out.println("(" + j + ", " + i + ")");
-				byte bit = (byte) ((data[i * 24 + j / 8] >> bitPos) & 1);
-				
-				if ((bit & 0xff) == 0){
-					//System.out.println("White");
-					g.setColor(Color.WHITE);
-					g.drawLine(j, i, j, i);
-				} else {
-					//System.out.println("Black");
-					g.setColor(Color.BLACK);
-					g.drawLine(j, i, j, i);
-				}
-				
-				bitPos++;
+		if (!headless){
+			unpack(data, pixels);
+		}
+		frameDrawn(data);
+	}
+	
+	/**
+	 * Captures a frame if capturing is enabled, increments the frame counter, wakes up the viewers waiting and calls
+	 *  the LCD listeners.
+	 * @param data The frame in the framebuffer format, or <code>null</code> to only notify a new frame
+	 */
+	protected void frameDrawn(byte[] data){
+		synchronized (frameLock){
+			if (data != null && captured.length > 0){
+				System.arraycopy(data, 0, captured[captureHead], 0, Math.min(data.length, FRAME_LENGTH));
+				capturedTimes[captureHead] = System.nanoTime();
+				captureHead = (captureHead + 1) % captured.length;
+				capturedCount++;
+				imageDirty = true;
+			}
+			frameCount++;
+			frameLock.notifyAll();
+		}
+		if (data != null){
+			fireFrameDrawn(data);
+		}
+	}
+	
+	/**
+	 * Unpacks a frame in the framebuffer format into an RGB raster of <code>SCREEN_WIDTH</code> by <code>SCREEN_HEIGHT</code>
+	 * @param data The frame, 24 bytes per row, LSB first, 1 is black
+	 * @param raster The RGB raster
+	 */
+	public static void unpack(byte[] data, int[] raster){
+		int fullBytes = SCREEN_WIDTH / 8;
+		int lastBits = SCREEN_WIDTH % 8;
+		for (int y = 0; y < SCREEN_HEIGHT; y++){
+			int src = y * STRIDE;
+			int dst = y * SCREEN_WIDTH;
+			for (int x = 0; x < fullBytes; x++){
+				System.arraycopy(PIXELS, (data[src + x] & 0xff) * 8, raster, dst, 8);
+				dst += 8;
+			}
+			if (lastBits > 0){
+				System.arraycopy(PIXELS, (data[src + fullBytes] & 0xff) * 8, raster, dst, lastBits);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of frames drawn
+	 * @return Frame count
+	 */
+	public long getFrameCount(){
+		synchronized (frameLock){
+			return frameCount;
+		}
+	}
+	
+	/**
+	 * Waits until a frame newer than the one specified is drawn
+	 * @param lastFrame The last frame count seen
+	 * @param timeoutMillis The maximum time to wait in milliseconds
+	 * @return The current frame count, equal to <code>lastFrame</code> if timed out
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public long waitForFrame(long lastFrame, long timeoutMillis) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (frameLock){
+			long left = timeoutMillis;
+			while (frameCount == lastFrame && left > 0){
+				frameLock.wait(left);
+				left = deadline - System.currentTimeMillis();
+			}
+			return frameCount;
+		}
+	}
+	
+	/**
+	 * Returns whether frames are only captured, and unpacked only when the image is requested
+	 * @return Headless
+	 */
+	public boolean isHeadless(){
+		return headless;
+	}
+	
+	/**
+	 * Returns the number of frames kept in the capture ring buffer
+	 * @return Capacity
+	 */
+	public int getCaptureCapacity(){
+		return captured.length;
+	}
+	
+	/**
+	 * Returns the number of frames currently in the capture ring buffer
+	 * @return Frames
+	 */
+	public int getCapturedFrameCount(){
+		synchronized (frameLock){
+			return (int) Math.min(capturedCount, captured.length);
+		}
+	}
+	
+	/**
+	 * Returns a copy of a captured frame
+	 * @param age 0 for the newest frame, 1 for the one before, etc.
+	 * @return The frame in the framebuffer format
+	 */
+	public byte[] getCapturedFrame(int age){
+		synchronized (frameLock){
+			if (age < 0 || age >= getCapturedFrameCount()){
+				throw new IndexOutOfBoundsException("No captured frame of age " + age);
+			}
+			return captured[(captureHead - 1 - age + 2 * captured.length) % captured.length].clone();
+		}
+	}
+	
+	/**
+	 * Returns the frame rate over the frames in the capture ring buffer
+	 * @return Frames per second, or 0 if less than two frames were captured
+	 */
+	public double getCapturedFramesPerSecond(){
+		synchronized (frameLock){
+			int count = getCapturedFrameCount();
+			if (count < 2){
+				return 0;
+			}
+			long newest = capturedTimes[(captureHead - 1 + captured.length) % captured.length];
+			long oldest = capturedTimes[(captureHead - count + captured.length) % captured.length];
+			if (newest == oldest){
+				return 0;
 			}
+			return (count - 1) * 1e9 / (newest - oldest);
 		}
-		g.dispose();
 	}
 }
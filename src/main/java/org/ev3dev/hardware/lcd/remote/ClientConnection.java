@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One connection of a GraphicsProccessorClient to a GraphicsProccessorServer. Requests are written by
+ * the calling threads and tagged with a connection-unique ID. A single reader thread matches the
+ * <code>DONE</code> responses to the waiting requests by their ID, so several requests can be in flight.<br>
+ * <br>
+ * The reader wakes up every <code>TICK_MILLIS</code> through the socket timeout to expire the requests
+ * past their deadline, even when the server sends nothing.
+ * @author Anthony
+ *
+ */
+class ClientConnection {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ClientConnection.class);
+    
+    /**
+     * The socket timeout of the reader, the granularity of the deadlines
+     */
+    public static final int TICK_MILLIS = 100;
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    private final Socket socket;
+    
+    private final OutputStream out;
+    
+    private final Map<Integer, Response<?>> pending = new ConcurrentHashMap<Integer, Response<?>>();
+    
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    
+    private final Thread reader;
+    
+    private volatile boolean closed = false;
+    
+    /**
+     * Connects to a server
+     * @param hostname The hostname
+     * @param port The port
+     * @param connectTimeout The connect timeout in milliseconds
+     * @throws IOException If the connection cannot be made
+     */
+    public ClientConnection(String hostname, int port, int connectTimeout) throws IOException{
+        this(connect(hostname, port, connectTimeout));
+    }
+    
+    /**
+     * Takes over a connected socket
+     * @param socket The socket
+     * @throws IOException If the socket cannot be used
+     */
+    public ClientConnection(Socket socket) throws IOException{
+        this.socket = socket;
+        socket.setSoTimeout(TICK_MILLIS);
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        final InputStream in = socket.getInputStream();
+        reader = new Thread(new Runnable(){
+
+            @Override
+            public void run() {
+                readLoop(in);
+            }
+            
+        }, "GraphicsProccessorClient-" + socket.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    private static Socket connect(String hostname, int port, int connectTimeout) throws IOException{
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostname, port), connectTimeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+    
+    /**
+     * Sends a request. The line sent is <code>command id args</code>.
+     * @param command The command
+     * @param args The arguments, or <code>null</code>
+     * @param response The response to complete when the reply arrives
+     * @param timeout The deadline in milliseconds from now
+     * @return The response
+     * @throws IOException If the connection is closed or the request cannot be written. The request did not reach the server.
+     */
+    public <V> Response<V> send(String command, String args, Response<V> response, long timeout) throws IOException{
+        if (closed){
+            throw new IOException("Connection is closed");
+        }
+        int id = nextId.getAndIncrement();
+        response.deadline = System.currentTimeMillis() + timeout;
+        pending.put(id, response);
+        
+        byte[] line = (command + " " + id + (args == null ? "" : " " + args) + "\n").getBytes(ASCII);
+        try {
+            synchronized (out){
+                out.write(line);
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            close(e);
+            throw e;
+        }
+        
+        //The reader may have failed the pending requests before this one was added
+        if (closed){
+            pending.remove(id);
+            response.fail(new IOException("Connection is closed"));
+        }
+        return response;
+    }
+    
+    private void readLoop(InputStream in){
+        byte[] chunk = new byte[8192];
+        byte[] line = new byte[8192];
+        int length = 0;
+        IOException cause = null;
+        try {
+            while (!closed){
+                int n;
+                try {
+                    n = in.read(chunk);
+                } catch (SocketTimeoutException e) {
+                    expire();
+                    continue;
+                }
+                if (n < 0){
+                    cause = new IOException("Connection closed by the server");
+                    break;
+                }
+                for (int i = 0; i < n; i++){
+                    byte b = chunk[i];
+                    if (b == '\n'){
+                        dispatch(new String(line, 0, length, ASCII));
+                        length = 0;
+                    } else if (b != '\r'){
+                        if (length == line.length){
+                            if (length >= GraphicsProccessorServer.MAX_LINE_LENGTH){
+                                throw new IOException("Response line too long");
+                            }
+                            byte[] grown = new byte[Math.min(length * 2, GraphicsProccessorServer.MAX_LINE_LENGTH)];
+                            System.arraycopy(line, 0, grown, 0, length);
+                            line = grown;
+                        }
+                        line[length++] = b;
+                    }
+                }
+                expire();
+            }
+        } catch (IOException e) {
+            cause = e;
+        }
+        close(cause == null ? new IOException("Connection is closed") : cause);
+    }
+    
+    private void dispatch(String line){
+        //DONE id data
+        int first = line.indexOf(' ');
+        int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+        if (first < 0 || !line.startsWith("DONE")){
+            logger.warn("Unexpected response: " + (line.length() > 64 ? line.substring(0, 64) + "..." : line));
+            return;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(second < 0 ? line.substring(first + 1) : line.substring(first + 1, second));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid response ID: " + line.substring(0, Math.min(line.length(), 64)));
+            return;
+        }
+        Response<?> response = pending.remove(id);
+        if (response == null){
+            logger.debug("Response to an expired request: " + id);
+            return;
+        }
+        response.complete(second < 0 ? "" : line.substring(second + 1));
+    }
+    
+    private void expire(){
+        if (pending.isEmpty()){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Response<?>> it = pending.values().iterator();
+        while (it.hasNext()){
+            Response<?> response = it.next();
+            if (now >= response.deadline){
+                it.remove();
+                response.expire();
+            }
+        }
+    }
+    
+    /**
+     * Closes the connection, failing the requests in flight
+     */
+    public void close(){
+        close(new IOException("Connection is closed"));
+    }
+    
+    private void close(IOException cause){
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+        Iterator<Response<?>> it = pending.values().iterator();
+        while (it.hasNext()){
+            Response<?> response = it.next();
+            it.remove();
+            response.fail(cause);
+        }
+    }
+    
+    public boolean isClosed(){
+        return closed;
+    }
+    
+    /**
+     * Returns the number of requests in flight
+     * @return Requests waiting for a response
+     */
+    public int getPendingCount(){
+        return pending.size();
+    }
+    
+    public Socket getSocket(){
+        return socket;
+    }
+    
+    /**
+     * A response to a request. The <code>DONE</code> data is decoded by the waiting thread.
+     * @param <V> The decoded type
+     */
+    static abstract class Response<V> implements Future<V> {
+        
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        private volatile long deadline;
+        
+        private volatile String data;
+        
+        private volatile IOException error;
+        
+        private volatile boolean timedOut = false;
+        
+        private volatile boolean cancelled = false;
+        
+        /**
+         * Decodes the data of the response
+         * @param data The base64 data after the ID
+         * @return The value
+         * @throws IOException If the data is invalid
+         */
+        protected abstract V decode(String data) throws IOException;
+        
+        void complete(String data){
+            this.data = data;
+            done.countDown();
+        }
+        
+        void fail(IOException error){
+            this.error = error;
+            done.countDown();
+        }
+        
+        void expire(){
+            timedOut = true;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()){
+                return false;
+            }
+            cancelled = true;
+            done.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)){
+                throw new TimeoutException();
+            }
+            return result();
+        }
+        
+        /**
+         * Waits for the response until its deadline
+         * @return The value
+         * @throws IOException If the request failed, timed out or was interrupted
+         */
+        public V await() throws IOException{
+            try {
+                long wait = deadline - System.currentTimeMillis() + TICK_MILLIS;
+                if (!done.await(Math.max(wait, 0), TimeUnit.MILLISECONDS)){
+                    expire();
+                }
+                return result();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the response", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException){
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        
+        private V result() throws ExecutionException{
+            if (cancelled){
+                throw new CancellationException();
+            } else if (timedOut){
+                throw new ExecutionException(new SocketTimeoutException("Remote graphics processor does not respond before the deadline"));
+            } else if (error != null){
+                throw new ExecutionException(error);
+            }
+            try {
+                return decode(data);
+            } catch (IOException e) {
+                throw new ExecutionException(e);
+            }
+        }
+        
+    }
+    
+}
\ No newline at end of file
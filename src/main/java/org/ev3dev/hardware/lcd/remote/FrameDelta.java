@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd.remote;
+
+/**
+ * Encodes 1-bit frames as run-length encoded XOR deltas, so that only the changed bytes of a frame are
+ * transferred and patched.<br>
+ * <br>
+ * A message is a 9-byte big-endian header, followed by runs until the end of the message:
+ * <pre>
+ * u8      type (TYPE_KEYFRAME or TYPE_DELTA)
+ * u32     frame ID
+ * u32     base frame ID, 0 for a keyframe
+ * runs:   varint number of unchanged bytes to skip,
+ *         varint number of changed bytes,
+ *         the changed bytes, XOR the base frame
+ * </pre>
+ * A keyframe is encoded against a blank (all 0) frame, so it is applied to a cleared buffer.
+ * @author Anthony
+ *
+ */
+public final class FrameDelta {
+    
+    public static final int TYPE_KEYFRAME = 0;
+    
+    public static final int TYPE_DELTA = 1;
+    
+    public static final int HEADER_LENGTH = 9;
+    
+    /**
+     * The number of unchanged bytes that ends a run, as a new run costs at least 2 bytes
+     */
+    private static final int MIN_GAP = 3;
+    
+    private FrameDelta(){
+    }
+    
+    /**
+     * Encodes a frame against a base frame
+     * @param frameId The ID of the frame
+     * @param baseId The ID of the base frame
+     * @param base The base frame, or <code>null</code> for a keyframe
+     * @param frame The frame
+     * @param length The number of bytes of the frames
+     * @return The message
+     */
+    public static byte[] encode(int frameId, int baseId, byte[] base, byte[] frame, int length){
+        byte[] out = new byte[HEADER_LENGTH + length + (length / MIN_GAP + 1) * 6];
+        out[0] = (byte) (base == null ? TYPE_KEYFRAME : TYPE_DELTA);
+        putInt(out, 1, frameId);
+        putInt(out, 5, base == null ? 0 : baseId);
+        int o = HEADER_LENGTH;
+        int i = 0;
+        while (i < length){
+            int start = i;
+            while (i < length && xor(base, frame, i) == 0){
+                i++;
+            }
+            if (i == length){
+                break;
+            }
+            int skip = i - start;
+            int litStart = i;
+            int litEnd = i;
+            while (i < length){
+                if (xor(base, frame, i) != 0){
+                    i++;
+                    litEnd = i;
+                } else if (i - litEnd + 1 < MIN_GAP){
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            i = litEnd;
+            o = putVarint(out, o, skip);
+            o = putVarint(out, o, litEnd - litStart);
+            for (int j = litStart; j < litEnd; j++){
+                out[o++] = xor(base, frame, j);
+            }
+        }
+        byte[] result = new byte[o];
+        System.arraycopy(out, 0, result, 0, o);
+        return result;
+    }
+    
+    /**
+     * Applies a message to a frame, patching only the changed bytes. A keyframe clears the frame first.
+     * @param message The message
+     * @param target The frame
+     * @return The number of bytes patched
+     * @throws IllegalArgumentException If the message is malformed or does not fit the frame
+     */
+    public static int apply(byte[] message, byte[] target){
+        if (message.length < HEADER_LENGTH){
+            throw new IllegalArgumentException("Frame delta too short: " + message.length);
+        }
+        if (getType(message) == TYPE_KEYFRAME){
+            for (int i = 0; i < target.length; i++){
+                target[i] = 0;
+            }
+        }
+        int[] pos = {HEADER_LENGTH};
+        int t = 0;
+        int patched = 0;
+        while (pos[0] < message.length){
+            t += getVarint(message, pos);
+            int count = getVarint(message, pos);
+            if (t + count > target.length || pos[0] + count > message.length){
+                throw new IllegalArgumentException("Frame delta does not fit the frame");
+            }
+            for (int j = 0; j < count; j++){
+                target[t++] ^= message[pos[0]++];
+            }
+            patched += count;
+        }
+        return patched;
+    }
+    
+    public static int getType(byte[] message){
+        return message[0] & 0xff;
+    }
+    
+    public static int getFrameId(byte[] message){
+        return getInt(message, 1);
+    }
+    
+    public static int getBaseId(byte[] message){
+        return getInt(message, 5);
+    }
+    
+    private static byte xor(byte[] base, byte[] frame, int i){
+        return base == null ? frame[i] : (byte) (base[i] ^ frame[i]);
+    }
+    
+    private static void putInt(byte[] b, int o, int v){
+        b[o] = (byte) (v >>> 24);
+        b[o + 1] = (byte) (v >>> 16);
+        b[o + 2] = (byte) (v >>> 8);
+        b[o + 3] = (byte) v;
+    }
+    
+    private static int getInt(byte[] b, int o){
+        return (b[o] & 0xff) << 24 | (b[o + 1] & 0xff) << 16 | (b[o + 2] & 0xff) << 8 | (b[o + 3] & 0xff);
+    }
+    
+    private static int putVarint(byte[] b, int o, int v){
+        while ((v & ~0x7f) != 0){
+            b[o++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        b[o++] = (byte) v;
+        return o;
+    }
+    
+    private static int getVarint(byte[] b, int[] pos){
+        int v = 0;
+        int shift = 0;
+        while (true){
+            if (pos[0] >= b.length || shift > 28){
+                throw new IllegalArgumentException("Malformed varint in frame delta");
+            }
+            int x = b[pos[0]++] & 0xff;
+            v |= (x & 0x7f) << shift;
+            if ((x & 0x80) == 0){
+                return v;
+            }
+            shift += 7;
+        }
+    }
+    
+}
\ No newline at end of file
@@ -29,39 +29,99 @@
 package org.ev3dev.hardware.lcd.remote;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.security.SecureRandom;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 
 import org.apache.commons.codec.binary.Base64;
 
-public class GraphicsProccessorClient extends Thread{
+/**
+ * A client of a GraphicsProccessorServer.<br>
+ * <br>
+ * Requests are sent over persistent connections and answered asynchronously, so several requests can be
+ * in flight: the <code>...Async</code> methods return a future, and the others wait for it. Every request
+ * has a deadline of <code>getTimeout()</code> milliseconds. A closed or broken connection is opened again
+ * on the next request, and a request that could not be written is sent once more over the new connection.<br>
+ * <br>
+ * The server keeps the image drawn and the frames sent per connection, so <code>INVOKE</code>,
+ * <code>GETIMAGE</code> and the processed frame requests use the primary connection. Plain
+ * <code>PROCESS</code> requests are spread over a pool of <code>poolSize</code> connections, which lets
+ * multi-threaded renderers process images in parallel.<br>
+ * <br>
+ * If the primary connection is lost after something was drawn, the image drawn is lost with it. Requests
+ * on that image then fail, instead of silently running on a blank image over a new connection, until
+ * <code>newSocket()</code> or <code>setSocket()</code> starts over. <code>getReconnectCount()</code> counts
+ * the primary connections found closed or broken, which had to be opened again.
+ * @author Anthony
+ *
+ */
+public class GraphicsProccessorClient {
 
     public static final int DEFAULT_PORT = 6718;
     
+    public static final int DEFAULT_TIMEOUT = 5000;
+    
+    public static final int DEFAULT_POOL_SIZE = 1;
+    
     private final String hostname;
     
     private final int port;
     
-    private Socket socket = null;
+    /**
+     * The connections, the first being the primary one. <code>null</code> slots are connected when needed.
+     */
+    private final ClientConnection[] pool;
+    
+    private volatile int timeout = DEFAULT_TIMEOUT;
+    
+    private final byte[] frame = new byte[ServerSocketHandler.BUF_SIZE];
+    
+    private int frameId = 0;
+    
+    /**
+     * The connection that sent the frame held, as frame IDs are only known to it
+     */
+    private ClientConnection frameConnection = null;
+    
+    private int lastPatchedBytes = 0;
+    
+    /**
+     * Whether the primary connection has drawn on its image, and whether that image was lost with the connection
+     */
+    private boolean primaryDrawn = false;
+    
+    private boolean imageLost = false;
+    
+    private int reconnects = 0;
     
     public GraphicsProccessorClient(String hostname){
         this(hostname, DEFAULT_PORT);
     }
     
     public GraphicsProccessorClient(String hostname, int port){
+        this(hostname, port, DEFAULT_POOL_SIZE);
+    }
+    
+    /**
+     * Creates a client. No connection is made until the first request.
+     * @param hostname The hostname of the server
+     * @param port The port of the server
+     * @param poolSize The number of connections that <code>PROCESS</code> requests are spread over
+     */
+    public GraphicsProccessorClient(String hostname, int port, int poolSize){
+        if (poolSize < 1){
+            throw new IllegalArgumentException("The pool size must be at least 1: " + poolSize);
+        }
         this.hostname = hostname;
         this.port = port;
+        this.pool = new ClientConnection[poolSize];
     }
 
     public String getHostname() {
@@ -72,198 +132,372 @@ public class GraphicsProccessorClient extends Thread{
         return port;
     }
     
-    public void newSocket() throws IOException{
-        if (socket != null){
-            socket.close();
+    public int getPoolSize() {
+        return pool.length;
+    }
+    
+    /**
+     * Returns the deadline of requests
+     * @return The timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+    
+    /**
+     * Sets the deadline of requests, also used as the connect timeout
+     * @param timeout The timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        if (timeout <= 0){
+            throw new IllegalArgumentException("The timeout must be positive: " + timeout);
         }
-        socket = new Socket(hostname, port);
+        this.timeout = timeout;
     }
     
-    public BufferedImage getImage() throws IOException{
-        
-        SecureRandom rand = new SecureRandom();
-        int num = rand.nextInt();
-        
-        PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-        writer.println("GETIMAGE " + num);
-        
-        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        String line;
-        long startTime = System.currentTimeMillis();
-        while ((line = reader.readLine()) != null){
-            if (line.startsWith("DONE " + num + " ")){
-                break;
-            } else if (System.currentTimeMillis() - startTime >= 5000){
-                socket.close();
-                throw new IOException("Invoker does not respond in 5000 ms");
+    /**
+     * Opens a new primary connection, closing the current one. The image drawn on the server starts over.
+     * @throws IOException If the connection cannot be made
+     */
+    public void newSocket() throws IOException{
+        synchronized (pool){
+            if (pool[0] != null){
+                pool[0].close();
             }
+            pool[0] = null;
+            primaryDrawn = false;
+            imageLost = false;
+            pool[0] = new ClientConnection(hostname, port, timeout);
         }
-        
-        String[] splitData = line.split(" ");
-        
-        ByteArrayInputStream in = new ByteArrayInputStream(Base64.decodeBase64(splitData[2]));
-        ObjectInput objIn = new ObjectInputStream(in);
-        BufferedImage obj;
-        try {
-            obj = (BufferedImage) objIn.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Returned object's cannot be found", e);
+    }
+
+    /**
+     * Returns the socket of the primary connection
+     * @return The socket, or <code>null</code> if not connected
+     */
+    public Socket getSocket() {
+        synchronized (pool){
+            return pool[0] == null ? null : pool[0].getSocket();
+        }
+    }
+
+    /**
+     * Uses a connected socket as the primary connection, closing the current one. The image drawn on the server starts over.
+     * @param socket The socket
+     * @throws IllegalArgumentException If the socket cannot be used, e.g. it is not connected
+     */
+    public void setSocket(Socket socket) {
+        synchronized (pool){
+            if (pool[0] != null){
+                pool[0].close();
+            }
+            pool[0] = null;
+            primaryDrawn = false;
+            imageLost = false;
+            try {
+                pool[0] = new ClientConnection(socket);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("The socket cannot be used", e);
+            }
         }
-        
-        return obj;
     }
     
-    public Object invokeG2dMethod(Class<?> g2dClass, String methodName, Object... args) throws IOException{
-        if (socket == null){
-            throw new IOException ("Socket not initialized");
-        } else if (socket.isClosed()){
-            throw new IOException("Socket is closed. Please renew it using newSocket()");
+    /**
+     * Returns the number of times the primary connection was found closed or broken, and had to be opened again
+     * @return Reconnect count
+     */
+    public int getReconnectCount() {
+        synchronized (pool){
+            return reconnects;
         }
-        
-        String paraTypeStr = "";
-        for (int i = 0; i < args.length; i++){
-            paraTypeStr += args[i].getClass().getName();
-            if (i != args.length - 1){
-                paraTypeStr += ",";
+    }
+    
+    /**
+     * Closes all connections, failing the requests in flight
+     */
+    public void close(){
+        synchronized (pool){
+            for (int i = 0; i < pool.length; i++){
+                if (pool[i] != null){
+                    pool[i].close();
+                    pool[i] = null;
+                }
             }
         }
-        
-        if (paraTypeStr.isEmpty()){
-            paraTypeStr = "none";
+    }
+    
+    /**
+     * Returns the primary connection, opening it again if it was lost
+     * @param imageBound Whether the request works on the image drawn, and must fail if that image was lost
+     */
+    private ClientConnection primary(boolean imageBound) throws IOException{
+        synchronized (pool){
+            if (pool[0] != null && pool[0].isClosed()){
+                pool[0] = null;
+                reconnects++;
+                if (primaryDrawn){
+                    imageLost = true;
+                }
+                primaryDrawn = false;
+            }
+            if (imageBound && imageLost){
+                throw new IOException("The connection was lost with the image drawn on the server, call newSocket() to start over");
+            }
+            if (pool[0] == null){
+                pool[0] = new ClientConnection(hostname, port, timeout);
+            }
+            return pool[0];
         }
-        
-        String valStr = "";
+    }
+    
+    /**
+     * Picks the connection with the fewest requests in flight, connecting another slot if all are busy
+     */
+    private ClientConnection pooled() throws IOException{
+        synchronized (pool){
+            //A lost primary connection goes through primary() so that the lost image is recorded
+            primary(false);
+            int best = -1;
+            int free = -1;
+            for (int i = 0; i < pool.length; i++){
+                if (pool[i] == null || pool[i].isClosed()){
+                    pool[i] = null;
+                    if (free < 0){
+                        free = i;
+                    }
+                } else if (best < 0 || pool[i].getPendingCount() < pool[best].getPendingCount()){
+                    best = i;
+                }
+            }
+            if (best >= 0 && (free < 0 || pool[best].getPendingCount() == 0)){
+                return pool[best];
+            }
+            pool[free] = new ClientConnection(hostname, port, timeout);
+            return pool[free];
+        }
+    }
+    
+    private <V> ClientConnection.Response<V> submit(boolean pooled, String command, String args, ClientConnection.Response<V> response) throws IOException{
+        ClientConnection connection = pooled ? pooled() : primary(true);
+        try {
+            return connection.send(command, args, response, timeout);
+        } catch (IOException e) {
+            //Not written, so it is safe to send again, unless the image was lost with the connection
+            connection = pooled ? pooled() : primary(true);
+            return connection.send(command, args, response, timeout);
+        }
+    }
+    
+    /**
+     * Fetches the image drawn by the primary connection. It is transferred as its raw 1-bit raster, which
+     * the returned image shares without copying.
+     * @return The image
+     * @throws IOException If I/O goes wrong
+     */
+    public BufferedImage getImage() throws IOException{
+        return await(getImageAsync());
+    }
+    
+    /**
+     * Fetches the image drawn by the primary connection
+     * @return The future image
+     * @throws IOException If the request cannot be sent
+     * @see #getImage()
+     */
+    public Future<BufferedImage> getImageAsync() throws IOException{
+        return submit(false, "GETIMAGE", null, new ClientConnection.Response<BufferedImage>(){
+
+            @Override
+            protected BufferedImage decode(String data) throws IOException {
+                try {
+                    return RawImage.decode(Base64.decodeBase64(data));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid image received", e);
+                }
+            }
+            
+        });
+    }
+    
+    public Object invokeG2dMethod(Class<?> g2dClass, String methodName, Object... args) throws IOException{
+        return await(invokeG2dMethodAsync(g2dClass, methodName, args));
+    }
+    
+    /**
+     * Invokes a Graphics2D method on the image of the primary connection
+     * @param g2dClass The Graphics2D class declaring the method
+     * @param methodName The method name
+     * @param args The serializable arguments
+     * @return The future return value
+     * @throws IOException If the request cannot be sent
+     */
+    public Future<Object> invokeG2dMethodAsync(Class<?> g2dClass, String methodName, Object... args) throws IOException{
+        StringBuilder paraTypeStr = new StringBuilder();
+        StringBuilder valStr = new StringBuilder();
         for (int i = 0; i < args.length; i++){
+            if (i != 0){
+                paraTypeStr.append(',');
+                valStr.append(',');
+            }
+            paraTypeStr.append(args[i].getClass().getName());
+            
             ByteArrayOutputStream out = new ByteArrayOutputStream();
-            ObjectOutput objOut = null;
-            objOut = new ObjectOutputStream(out);
+            ObjectOutput objOut = new ObjectOutputStream(out);
             objOut.writeObject(args[i]);
-            objOut.flush();
-            valStr += Base64.encodeBase64String(out.toByteArray());
-            out.close();
-        }
-        
-        if (valStr.isEmpty()){
-            valStr = "none";
+            objOut.close();
+            valStr.append(Base64.encodeBase64String(out.toByteArray()));
         }
         
-        SecureRandom rand = new SecureRandom();
-        int num = rand.nextInt();
+        String argsStr = g2dClass.getName() + " " + methodName + " " + (args.length == 0 ? "none" : paraTypeStr) + " " + (args.length == 0 ? "none" : valStr);
+        Future<Object> future = submit(false, "INVOKE", argsStr, new ClientConnection.Response<Object>(){
 
-        PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-        writer.println("INVOKE " + num + " " + g2dClass.getName() + " " + methodName + " " + paraTypeStr + " " + valStr);
-        
-        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        String line;
-        long startTime = System.currentTimeMillis();
-        while ((line = reader.readLine()) != null){
-            if (line.startsWith("DONE " + num + " ")){
-                break;
-            } else if (System.currentTimeMillis() - startTime >= 5000){
-                socket.close();
-                throw new IOException("Invoker does not respond in 5000 ms");
+            @Override
+            protected Object decode(String data) throws IOException {
+                ObjectInput objIn = new ObjectInputStream(new ByteArrayInputStream(Base64.decodeBase64(data)));
+                try {
+                    return objIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Returned object's cannot be found", e);
+                } finally {
+                    objIn.close();
+                }
             }
+            
+        });
+        synchronized (pool){
+            primaryDrawn = true;
         }
-        
-        String[] splitData = line.split(" ");
-        
-        
-        ByteArrayInputStream in = new ByteArrayInputStream(Base64.decodeBase64(splitData[2]));
-        ObjectInput objIn = new ObjectInputStream(in);
-        Object obj;
-        try {
-            obj = objIn.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Returned object's cannot be found", e);
-        }
-        
-        return obj;
+        return future;
     }
     
     public byte[] getProcessed() throws IOException{
-        if (socket == null){
-            throw new IOException ("Socket not initialized");
-        } else if (socket.isClosed()){
-            throw new IOException("Socket is closed. Please renew it using newSocket()");
-        }
-        
-        SecureRandom rand = new SecureRandom();
-        int num = rand.nextInt();
-        
-        PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-        writer.println("GETPROCESSED " + num);
-        
-        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        String line;
-        long startTime = System.currentTimeMillis();
-        while ((line = reader.readLine()) != null){
-            if (line.startsWith("DONE " + num + " ")){
-                break;
-            } else if (System.currentTimeMillis() - startTime >= 5000){
-                socket.close();
-                throw new IOException("Remote image processing does not respond in 5000 ms");
-            }
-        }
-        writer.close();
-        reader.close();
-        
-        String[] splitData = line.split(" ");
-        
-        if (splitData.length < 3){
-            socket.close();
-            throw new IOException("Invalid response received. Array length is " + splitData.length + " / 3");
-        }
-        
-        String data = splitData[2];
-        
-        return Base64.decodeBase64(data);
+        return await(getProcessedAsync());
+    }
+    
+    /**
+     * Fetches the image of the primary connection processed into the framebuffer format
+     * @return The future framebuffer
+     * @throws IOException If the request cannot be sent
+     */
+    public Future<byte[]> getProcessedAsync() throws IOException{
+        return submit(false, "GETPROCESSED", null, new BytesResponse());
     }
     
     public byte[] process(BufferedImage image) throws IOException{
-        Socket socket = new Socket(hostname, port);
-        socket.setSoTimeout(10000);
-        
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        
-        ImageIO.write(image, "png", out);
-        
-        SecureRandom rand = new SecureRandom();
-        int num = rand.nextInt();
-        PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-        writer.println("PROCESS " + num + " " + Base64.encodeBase64String(out.toByteArray()));
-        
-        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        String line;
-        long startTime = System.currentTimeMillis();
-        while ((line = reader.readLine()) != null){
-            if (line.startsWith("DONE " + num + " ")){
-                break;
-            } else if (System.currentTimeMillis() - startTime >= 5000){
-                socket.close();
-                throw new IOException("Remote image processing does not respond in 5000 ms");
+        return await(processAsync(image));
+    }
+    
+    /**
+     * Processes an image remotely into the framebuffer format, over the least busy pooled connection
+     * @param image The image
+     * @return The future framebuffer
+     * @throws IOException If the image cannot be encoded or the request cannot be sent
+     */
+    public Future<byte[]> processAsync(BufferedImage image) throws IOException{
+        return submit(true, "PROCESS", encodePng(image), new BytesResponse());
+    }
+
+    /**
+     * Fetches the processed image of the primary connection as a delta against the frame held by this
+     * client, and patches the changed bytes into it.
+     * @return The frame held by this client, in the framebuffer format
+     * @throws IOException If I/O goes wrong
+     */
+    public synchronized byte[] getProcessedDelta() throws IOException{
+        return requestDelta("GETPROCESSEDDELTA", null);
+    }
+    
+    /**
+     * Processes an image remotely, receiving the result as a delta against the frame held by this client,
+     * and patches the changed bytes into it.
+     * @param image The image
+     * @return The frame held by this client, in the framebuffer format
+     * @throws IOException If I/O goes wrong
+     */
+    public synchronized byte[] processDelta(BufferedImage image) throws IOException{
+        return requestDelta("PROCESSDELTA", encodePng(image));
+    }
+    
+    private byte[] requestDelta(String command, String png) throws IOException{
+        for (int attempt = 0; ; attempt++){
+            //A processed image carries its own image, only the drawn one is lost with the connection
+            ClientConnection connection = primary(png == null);
+            if (connection != frameConnection){
+                frameId = 0;
+                frameConnection = connection;
+            }
+            byte[] message = connection.send(command, frameId + (png == null ? "" : " " + png), new BytesResponse(), timeout).await();
+            if (applyDelta(message) || attempt > 0){
+                return frame;
             }
         }
-        writer.close();
-        reader.close();
-        
-        String[] splitData = line.split(" ");
-        
-        if (splitData.length < 3){
-            socket.close();
-            throw new IOException("Invalid response received. Array length is " + splitData.length + " / 3");
+    }
+    
+    /**
+     * Patches a delta into the frame
+     * @return Whether it was applied, <code>false</code> if its base is not the frame held
+     */
+    private boolean applyDelta(byte[] message) throws IOException{
+        if (message.length < FrameDelta.HEADER_LENGTH){
+            frameId = 0;
+            throw new IOException("Invalid frame delta received");
         }
-        
-        String data = splitData[2];
-        
-        socket.close();
-        return Base64.decodeBase64(data);
+        if (FrameDelta.getType(message) == FrameDelta.TYPE_DELTA && FrameDelta.getBaseId(message) != frameId){
+            //Ask for a keyframe
+            frameId = 0;
+            return false;
+        }
+        try {
+            lastPatchedBytes = FrameDelta.apply(message, frame);
+        } catch (IllegalArgumentException e) {
+            frameId = 0;
+            throw new IOException("Invalid frame delta received", e);
+        }
+        frameId = FrameDelta.getFrameId(message);
+        return true;
     }
-
-    public Socket getSocket() {
-        return socket;
+    
+    /**
+     * Returns the frame held by this client, patched by the deltas received
+     * @return The frame in the framebuffer format
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
+    
+    /**
+     * Returns the ID of the frame held by this client, acknowledged to the server on the next delta request
+     * @return The frame ID, 0 if none
+     */
+    public int getFrameId() {
+        return frameId;
+    }
+    
+    /**
+     * Returns the number of bytes patched by the last delta received
+     * @return Bytes patched
+     */
+    public int getLastPatchedBytes() {
+        return lastPatchedBytes;
+    }
+    
+    private static <V> V await(Future<V> future) throws IOException{
+        return ((ClientConnection.Response<V>) future).await();
+    }
+    
+    private static String encodePng(BufferedImage image) throws IOException{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return Base64.encodeBase64String(out.toByteArray());
     }
+    
+    private static class BytesResponse extends ClientConnection.Response<byte[]> {
 
-    public void setSocket(Socket socket) {
-        this.socket = socket;
+        @Override
+        protected byte[] decode(String data) throws IOException {
+            return Base64.decodeBase64(data);
+        }
+        
     }
-}
+    
+}
\ No newline at end of file
@@ -29,20 +29,88 @@
 package org.ev3dev.hardware.lcd.remote;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A server processing LCD graphics for remote bricks.<br>
+ * <br>
+ * A single selector thread accepts the connections and reads their command lines. The commands are
+ * handled by a pool of at most <code>maxThreads</code> workers. The commands of one connection run one
+ * at a time and in order. A connection with too many commands waiting, or too much output not yet sent,
+ * is not read until it drains. Connections that stay idle longer than the idle timeout are closed.
+ * @author Anthony
+ *
+ */
 public class GraphicsProccessorServer extends Thread{
+    
+    private static final Logger logger = LoggerFactory.getLogger(GraphicsProccessorServer.class);
 
     public static final int DEFAULT_MAX_THREADS = 50;
     
     public static final int DEFAULT_PORT = 6718;
     
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+    
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    
+    /**
+     * The number of commands of a connection waiting to be handled before it is no longer read
+     */
+    public static final int MAX_PENDING_COMMANDS = 16;
+    
+    /**
+     * The number of bytes of a connection waiting to be sent before it is no longer read
+     */
+    public static final int MAX_PENDING_OUTPUT = 1 << 20;
+    
+    /**
+     * The maximum length of a command line
+     */
+    public static final int MAX_LINE_LENGTH = 4 << 20;
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
     private final int port;
     
     private final int maxThreads;
     
-    private boolean running = false;
+    private final List<Session> sessions = new ArrayList<Session>();
+    
+    private final ConcurrentLinkedQueue<Session> completed = new ConcurrentLinkedQueue<Session>();
+    
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    
+    private volatile boolean running = false;
+    
+    private volatile Selector selector;
+    
+    private volatile ServerSocketChannel serverChannel;
+    
+    private ThreadPoolExecutor workers;
     
     public GraphicsProccessorServer(){
         this(DEFAULT_PORT);
@@ -53,32 +121,272 @@ public class GraphicsProccessorServer extends Thread{
     }
     
     public GraphicsProccessorServer(int port, int maxThreads){
+        super("GraphicsProccessorServer");
         this.port = port;
         this.maxThreads = maxThreads;
     }
     
     @Override
     public void run(){
-        if (!running){
-            running = true;
+        if (running){
+            return;
+        }
+        running = true;
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            logger.error("Unable to start the server on port " + port, e);
+            close();
+            running = false;
+            return;
+        }
+        
+        final AtomicInteger workerCount = new AtomicInteger();
+        workers = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GraphicsProccessor-worker-" + workerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
             
-            try {
-                ServerSocket srvSock = new ServerSocket(port);
-                Socket socket;
-                System.out.println("Server started. Waiting for new connection...");
-                while(running){
-                    socket = srvSock.accept();
-                    System.out.println("Connection incoming: " + socket.getInetAddress().getHostAddress() + " starting socket thread");
-                    ServerSocketHandler handler = new ServerSocketHandler(socket);
-                    handler.start();
+        });
+        workers.allowCoreThreadTimeOut(true);
+        
+        logger.info("Server started on port " + serverChannel.socket().getLocalPort() + " with " + maxThreads + " workers");
+        try {
+            long lastIdleCheck = System.currentTimeMillis();
+            while (running){
+                selector.select(1000);
+                Session session;
+                while ((session = completed.poll()) != null){
+                    complete(session);
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()){
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()){
+                        continue;
+                    }
+                    if (key.isAcceptable()){
+                        accept();
+                        continue;
+                    }
+                    session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()){
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()){
+                            write(session);
+                        }
+                    } catch (IOException e) {
+                        logger.debug(session.remote + ": connection failed", e);
+                        closeSession(session);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= 1000){
+                    lastIdleCheck = now;
+                    closeIdleSessions(now);
                 }
-                srvSock.close();
-                
-            } catch (IOException e) {
-                e.printStackTrace();
             }
-            
+        } catch (IOException e) {
+            logger.error("Server failed", e);
+        } finally {
+            workers.shutdownNow();
+            for (Session session : new ArrayList<Session>(sessions)){
+                closeSession(session);
+            }
+            close();
             running = false;
+            logger.info("Server stopped");
+        }
+    }
+    
+    /**
+     * Stops the server and closes all the connections
+     */
+    public void shutdown(){
+        running = false;
+        Selector sel = selector;
+        if (sel != null){
+            sel.wakeup();
+        }
+    }
+    
+    private void close(){
+        try {
+            if (serverChannel != null){
+                serverChannel.close();
+            }
+            if (selector != null){
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Close failed", e);
+        }
+    }
+    
+    private void accept() throws IOException{
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null){
+            return;
+        }
+        String remote = channel.socket().getInetAddress().getHostAddress() + ":" + channel.socket().getPort();
+        if (sessions.size() >= maxConnections){
+            logger.warn("Too many connections, rejecting " + remote);
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        Session session = new Session(channel, remote);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+        logger.debug(remote + ": connected");
+    }
+    
+    private void read(Session session) throws IOException{
+        readBuffer.clear();
+        int n = session.channel.read(readBuffer);
+        if (n < 0){
+            //Stop selecting the EOF, which stays readable, while the commands left are answered
+            session.inputClosed = true;
+            dispatch(session);
+            closeIfDone(session);
+            return;
+        }
+        session.lastActivity = System.currentTimeMillis();
+        byte[] data = readBuffer.array();
+        int start = 0;
+        for (int i = 0; i < n; i++){
+            if (data[i] == '\n'){
+                session.appendLine(data, start, i - start);
+                int length = session.lineLength;
+                if (length > 0 && session.line[length - 1] == '\r'){
+                    length--;
+                }
+                if (length > 0){
+                    session.pending.add(new String(session.line, 0, length, ASCII));
+                }
+                session.lineLength = 0;
+                start = i + 1;
+            }
+        }
+        session.appendLine(data, start, n - start);
+        if (session.lineLength > MAX_LINE_LENGTH){
+            logger.warn(session.remote + ": command line too long, closing");
+            closeSession(session);
+            return;
+        }
+        dispatch(session);
+    }
+    
+    private void write(Session session) throws IOException{
+        while (!session.output.isEmpty()){
+            ByteBuffer out = session.output.peek();
+            session.channel.write(out);
+            if (out.hasRemaining()){
+                break;
+            }
+            session.output.poll();
+            session.outputBytes -= out.limit();
+        }
+        session.lastActivity = System.currentTimeMillis();
+        dispatch(session);
+        closeIfDone(session);
+    }
+    
+    private void dispatch(final Session session){
+        if (!session.key.isValid()){
+            return;
+        }
+        if (!session.busy && !session.pending.isEmpty() && session.outputBytes < MAX_PENDING_OUTPUT){
+            final String line = session.pending.poll();
+            session.busy = true;
+            try {
+                workers.execute(new Runnable(){
+
+                    @Override
+                    public void run() {
+                        String response = null;
+                        try {
+                            response = session.handler.handle(line);
+                        } catch (IOException e) {
+                            logger.warn(session.remote + ": command failed", e);
+                        } catch (RuntimeException e) {
+                            logger.warn(session.remote + ": command failed", e);
+                        }
+                        session.response = response;
+                        completed.add(session);
+                        selector.wakeup();
+                    }
+                    
+                });
+            } catch (RejectedExecutionException e) {
+                session.busy = false;
+                closeSession(session);
+                return;
+            }
+        }
+        int ops = 0;
+        if (!session.inputClosed && session.pending.size() < MAX_PENDING_COMMANDS && session.outputBytes < MAX_PENDING_OUTPUT){
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!session.output.isEmpty()){
+            ops |= SelectionKey.OP_WRITE;
+        }
+        session.key.interestOps(ops);
+    }
+    
+    private void complete(Session session){
+        session.busy = false;
+        if (!session.key.isValid()){
+            return;
+        }
+        String response = session.response;
+        session.response = null;
+        if (response != null){
+            ByteBuffer out = ASCII.encode(response + "\n");
+            session.output.add(out);
+            session.outputBytes += out.limit();
+        }
+        session.lastActivity = System.currentTimeMillis();
+        dispatch(session);
+        closeIfDone(session);
+    }
+    
+    private void closeIfDone(Session session){
+        if (session.inputClosed && !session.busy && session.pending.isEmpty() && session.output.isEmpty()){
+            logger.debug(session.remote + ": closed");
+            closeSession(session);
+        }
+    }
+    
+    private void closeIdleSessions(long now){
+        long timeout = idleTimeoutMillis;
+        for (Session session : new ArrayList<Session>(sessions)){
+            if (!session.busy && session.pending.isEmpty() && now - session.lastActivity > timeout){
+                logger.debug(session.remote + ": idle for " + (now - session.lastActivity) + " ms, closing");
+                closeSession(session);
+            }
+        }
+    }
+    
+    private void closeSession(Session session){
+        sessions.remove(session);
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            logger.debug(session.remote + ": close failed", e);
         }
     }
 
@@ -93,4 +401,78 @@ public class GraphicsProccessorServer extends Thread{
     public boolean isRunning() {
         return running;
     }
-}
+    
+    /**
+     * Returns the port the server is bound to
+     * @return The port, or the port specified if the server is not bound yet
+     */
+    public int getLocalPort() {
+        ServerSocketChannel channel = serverChannel;
+        if (channel == null || !channel.isOpen()){
+            return port;
+        }
+        return channel.socket().getLocalPort();
+    }
+    
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+    
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+    
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+    
+    private static class Session {
+        
+        private final SocketChannel channel;
+        
+        private final String remote;
+        
+        private final ServerSocketHandler handler;
+        
+        private final ArrayDeque<String> pending = new ArrayDeque<String>();
+        
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+        
+        private SelectionKey key;
+        
+        private byte[] line = new byte[256];
+        
+        private int lineLength = 0;
+        
+        private int outputBytes = 0;
+        
+        private boolean busy = false;
+        
+        private boolean inputClosed = false;
+        
+        private volatile String response;
+        
+        private long lastActivity = System.currentTimeMillis();
+        
+        private Session(SocketChannel channel, String remote){
+            this.channel = channel;
+            this.remote = remote;
+            this.handler = new ServerSocketHandler(remote);
+        }
+        
+        private void appendLine(byte[] data, int offset, int length){
+            if (lineLength + length > line.length){
+                byte[] grown = new byte[Math.max(line.length * 2, lineLength + length)];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            System.arraycopy(data, offset, line, lineLength, length);
+            lineLength += length;
+        }
+        
+    }
+}
\ No newline at end of file
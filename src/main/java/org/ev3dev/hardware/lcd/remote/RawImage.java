@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd.remote;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.ev3dev.hardware.lcd.LCDConverter;
+
+/**
+ * Encodes images as their raw packed raster with a small header, so that they can be transferred without
+ * Java serialization and rebuilt without copying the pixels.<br>
+ * <br>
+ * A message is a 7-byte big-endian header, followed by the raster rows:
+ * <pre>
+ * u8      format (FORMAT_BINARY or FORMAT_GRAY)
+ * u16     width
+ * u16     height
+ * u16     bytes per row
+ * </pre>
+ * <code>FORMAT_BINARY</code> packs 8 pixels per byte, most significant bit first, 1 being black.
+ * <code>FORMAT_GRAY</code> stores 1 byte per pixel, 0 being black.
+ * @author Anthony
+ *
+ */
+public final class RawImage {
+    
+    public static final int FORMAT_BINARY = 1;
+    
+    public static final int FORMAT_GRAY = 8;
+    
+    public static final int HEADER_LENGTH = 7;
+    
+    private static final IndexColorModel BINARY_MODEL;
+    
+    static {
+        byte[] bwarr = {(byte) 0xff, (byte) 0x00};
+        BINARY_MODEL = new IndexColorModel(1, bwarr.length, bwarr, bwarr, bwarr);
+    }
+    
+    private RawImage(){
+    }
+    
+    /**
+     * Encodes an image. 1-bit images are sent as <code>FORMAT_BINARY</code>, others as <code>FORMAT_GRAY</code>.
+     * @param image The image
+     * @return The message
+     */
+    public static byte[] encode(BufferedImage image){
+        int w = image.getWidth();
+        int h = image.getHeight();
+        Raster raster = image.getRaster();
+        
+        if (image.getType() == BufferedImage.TYPE_BYTE_BINARY && raster.getSampleModel() instanceof MultiPixelPackedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferByte && raster.getSampleModel().getSampleSize(0) == 1){
+            MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+            IndexColorModel cm = (IndexColorModel) image.getColorModel();
+            //Whether index 1 is the brighter one, and has to be flipped to 1 being black
+            boolean invert = LCDConverter.luminance(cm.getRGB(1)) > LCDConverter.luminance(cm.getRGB(0));
+            
+            byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int srcStride = sm.getScanlineStride();
+            int srcOffset = raster.getDataBuffer().getOffset()
+                    + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            int stride = (w + 7) / 8;
+            int bitOffset = sm.getBitOffset(-raster.getSampleModelTranslateX());
+            
+            byte[] out = header(FORMAT_BINARY, w, h, stride, stride * h);
+            int o = HEADER_LENGTH;
+            for (int y = 0; y < h; y++){
+                int s = srcOffset + y * srcStride;
+                if (bitOffset == 0){
+                    System.arraycopy(src, s, out, o, stride);
+                } else {
+                    for (int x = 0; x < stride; x++){
+                        int hi = src[s + x] & 0xff;
+                        int lo = s + x + 1 < src.length ? src[s + x + 1] & 0xff : 0;
+                        out[o + x] = (byte) (hi << bitOffset | lo >>> (8 - bitOffset));
+                    }
+                }
+                if (invert){
+                    for (int x = 0; x < stride; x++){
+                        out[o + x] = (byte) ~out[o + x];
+                    }
+                }
+                //Clear the padding bits
+                if ((w & 7) != 0){
+                    out[o + stride - 1] &= (byte) (0xff00 >>> (w & 7));
+                }
+                o += stride;
+            }
+            return out;
+        }
+        
+        byte[] out = header(FORMAT_GRAY, w, h, w, w * h);
+        int[] row = new int[w];
+        int o = HEADER_LENGTH;
+        for (int y = 0; y < h; y++){
+            image.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++){
+                out[o++] = (byte) LCDConverter.luminance(row[x]);
+            }
+        }
+        return out;
+    }
+    
+    /**
+     * Rebuilds an image from a message. The image shares the message array as its raster, without copying.
+     * @param message The message
+     * @return The image
+     * @throws IllegalArgumentException If the message is malformed
+     */
+    public static BufferedImage decode(byte[] message){
+        if (message.length < HEADER_LENGTH){
+            throw new IllegalArgumentException("Raw image too short: " + message.length);
+        }
+        int format = message[0] & 0xff;
+        int w = getShort(message, 1);
+        int h = getShort(message, 3);
+        int stride = getShort(message, 5);
+        //Up to 65535 rows of 65535 bytes, which overflows an int
+        if (w == 0 || h == 0 || message.length < HEADER_LENGTH + (long) stride * h){
+            throw new IllegalArgumentException("Raw image does not fit its header: " + w + "x" + h + ", " + message.length + " bytes");
+        }
+        
+        //The header is skipped by the sample models, as not every blit honours a data buffer offset
+        DataBuffer db = new DataBufferByte(message, message.length);
+        if (format == FORMAT_BINARY){
+            if (stride < (w + 7) / 8){
+                throw new IllegalArgumentException("Raw image row too short: " + stride);
+            }
+            WritableRaster wr = Raster.createWritableRaster(new MultiPixelPackedSampleModel(DataBuffer.TYPE_BYTE, w, h, 1, stride, HEADER_LENGTH * 8), db, null);
+            return new BufferedImage(BINARY_MODEL, wr, false, null);
+        } else if (format == FORMAT_GRAY){
+            if (stride < w){
+                throw new IllegalArgumentException("Raw image row too short: " + stride);
+            }
+            WritableRaster wr = Raster.createInterleavedRaster(db, w, h, stride, 1, new int[]{HEADER_LENGTH}, null);
+            BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            return new BufferedImage(image.getColorModel(), wr, false, null);
+        }
+        throw new IllegalArgumentException("Unknown raw image format: " + format);
+    }
+    
+    private static byte[] header(int format, int w, int h, int stride, int length){
+        byte[] out = new byte[HEADER_LENGTH + length];
+        out[0] = (byte) format;
+        putShort(out, 1, w);
+        putShort(out, 3, h);
+        putShort(out, 5, stride);
+        return out;
+    }
+    
+    private static void putShort(byte[] b, int o, int v){
+        b[o] = (byte) (v >>> 8);
+        b[o + 1] = (byte) v;
+    }
+    
+    private static int getShort(byte[] b, int o){
+        return (b[o] & 0xff) << 8 | (b[o + 1] & 0xff);
+    }
+    
+}
\ No newline at end of file
@@ -36,292 +36,329 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.Socket;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.codec.binary.Base64;
 import org.ev3dev.hardware.lcd.LCD;
+import org.ev3dev.hardware.lcd.LCDConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class ServerSocketHandler extends Thread{
+/**
+ * Handles the commands of one connection to a GraphicsProccessorServer. It holds the image that the
+ * <code>INVOKE</code> commands of the connection draw on. The commands of a connection are handled
+ * one at a time, in order, by a worker thread of the server.
+ * @author Anthony
+ *
+ */
+public class ServerSocketHandler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ServerSocketHandler.class);
     
     public static final int LINE_LEN = 24;
     
     public static final int ROWS = 128;
     
     public static final int BUF_SIZE = LINE_LEN * ROWS;
-
-    private Socket socket;
     
-    private boolean running = false;
+    /**
+     * The number of frames sent that are kept as delta bases
+     */
+    public static final int MAX_DELTA_BASES = 8;
+    
+    private static final LCDConverter PROCESSOR = new LCDConverter(LCDConverter.METHOD_FLOYD_STEINBERG);
+    
+    private final String remote;
+    
+    private final BufferedImage image;
+    
+    private final Graphics2D g2d;
+    
+    private final LinkedHashMap<Integer, byte[]> sentFrames = new LinkedHashMap<Integer, byte[]>();
     
-    public ServerSocketHandler(Socket socket){
-        this.socket = socket;
+    private int nextFrameId = 1;
+    
+    /**
+     * Creates a new handler with a blank image
+     * @param remote The remote address, for logging
+     */
+    public ServerSocketHandler(String remote){
+        this.remote = remote;
+        
+        byte[] bwdata = new byte[BUF_SIZE];
+        
+        byte[] bwarr = {(byte) 0xff, (byte) 0x00};
+        IndexColorModel bwcm = new IndexColorModel(1, bwarr.length, bwarr, bwarr, bwarr);
+        
+        DataBuffer db = new DataBufferByte(bwdata, bwdata.length);
+        WritableRaster wr = Raster.createPackedRaster(db, LCD.SCREEN_WIDTH, LCD.SCREEN_HEIGHT, 1, null);
+        
+        image = new BufferedImage(bwcm, wr, false, null);
+        g2d = (Graphics2D) image.getGraphics();
+        
+        g2d.setPaint(Color.WHITE);
+        g2d.setBackground(Color.WHITE);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
     }
     
-    @Override
-    public void run(){
-        if (!running){
-            running = true;
-            
-            try {
-                socket.setSoTimeout(60000);
-                long startTime = System.currentTimeMillis();
-                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                String line;
-                System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " is awaiting commands...");
-                
-                byte[] bwdata = new byte[BUF_SIZE];
-                
-                byte[] bwarr = {(byte) 0xff, (byte) 0x00};
-                IndexColorModel bwcm = new IndexColorModel(1, bwarr.length, bwarr, bwarr, bwarr);
-                
-                DataBuffer db = new DataBufferByte(bwdata, bwdata.length);
-                WritableRaster wr = Raster.createPackedRaster(db, LCD.SCREEN_WIDTH, LCD.SCREEN_HEIGHT, 1, null);
-                
-                BufferedImage image = new BufferedImage(bwcm, wr, false, null);
-                Graphics2D g2d = (Graphics2D) image.getGraphics();
-                
-                g2d.setPaint(Color.WHITE);
-                g2d.setBackground(Color.WHITE);
-                g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
-                
-                while ((line = reader.readLine()) != null){
-                    if (line.startsWith("INVOKE")){
-                        System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " recevied invoke command since " + (System.currentTimeMillis() - startTime) + " ms");
-                        
-                        String[] splitData = line.split(" ");
-                        if (splitData.length < 5){
-                            System.out.println("Missing parameters " + splitData.length + " / 5");
-                        }
-                        String id = splitData[1];
-                        String g2dClassStr = splitData[2];
-                        String methodName = splitData[3];
-                        String[] paraTypesStr = splitData[4].split(",");
-                        String[] argsStr = splitData[5].split(",");
-                        
-                        System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " at ID \"" + id + "\" is invoking G2D method \"" + methodName + "\" with " + argsStr.length + " arguments");
-                        
-                        Class<?> paraTypes[] = null;
-                        
-                        if (splitData[3].equals("none")){
-                            paraTypes = new Class<?>[0];
-                        } else {
-                            paraTypes = new Class<?>[paraTypesStr.length];
-                            for (int i = 0; i < paraTypes.length; i++){
-                                try {
-                                    Class<?> c = Class.forName(paraTypesStr[i]);
-                                    paraTypes[i] = c;
-                                } catch (ClassNotFoundException e) {
-                                    System.out.println("WARNING: Class not found: " + e);
-                                    continue;
-                                }
-                            }
-                        }
-                        
-                        Object args[] = null;
-                        if (splitData[4].equals("none")){
-                            args = new Object[0];
-                        } else {
-                            args = new Object[argsStr.length];
-                            for (int i = 0; i < args.length; i++){
-                                ByteArrayInputStream in = new ByteArrayInputStream(Base64.decodeBase64(argsStr[i]));
-                                ObjectInput objIn = new ObjectInputStream(in);
-                                
-                                try {
-                                    args[i] = objIn.readObject();
-                                    if (args[i] instanceof Integer){
-                                        args[i] = (int) args[i];
-                                    } else if (args[i] instanceof Float){
-                                        args[i] = (float) args[i];
-                                    }
-                                } catch (ClassNotFoundException e) {
-                                    System.out.println("WARNING: Class not found: " + e);
-                                    continue;
-                                }
-                                
-                                objIn.close();
-                                in.close();
-                            }
-                        }
-                        Class<?> g2dClass = null;
-                        try {
-                            g2dClass = Class.forName(g2dClassStr);
-                        } catch (ClassNotFoundException e1) {
-                            System.out.println("WARNING: Cannot find G2D class specified");
-                            e1.printStackTrace();
-                            continue;
-                        }
-                        
-                        Method[] methods = g2dClass.getDeclaredMethods();
-                        for (int i = 0; i < methods.length; i++){
-                            System.out.println("[" + i + "] " + methods[i].getName());
-                            for (int j = 0; j < methods[i].getParameterTypes().length; j++){
-                                System.out.println("\t[" + i + "] containing [" + j + "] parameter: " + methods[i].getParameterTypes()[j].getName());
-                            }
-                        }
-                        
-                        Method method = null;
-                        try {
-                            method = g2dClass.getDeclaredMethod(methodName, paraTypes);
-                        } catch (NoSuchMethodException e) {
-                            System.out.println("WARNING: Method for G2D not found: " + e);
-                            e.printStackTrace();
-                            continue;
-                        } catch (SecurityException e) {
-                            System.out.println("WARNING: Cannot access to method of G2D: " + e);
-                            e.printStackTrace();
-                            continue;
-                        }
-                        
-                        Object objReturn = null;
-                        try {
-                            objReturn = method.invoke(g2d, args);
-                        } catch (IllegalAccessException e) {
-                            System.out.println("WARNING: Unable to invoke method: " + e);
-                            e.printStackTrace();
-                        } catch (IllegalArgumentException e) {
-                            System.out.println("WARNING: Unable to invoke method: " + e);
-                            e.printStackTrace();
-                        } catch (InvocationTargetException e) {
-                            System.out.println("WARNING: Unable to invoke method: " + e);
-                            e.printStackTrace();
-                        }
-                        
-                        ByteArrayOutputStream out = new ByteArrayOutputStream();
-                        ObjectOutput objOut;
-                        objOut = new ObjectOutputStream(out);
-                        objOut.writeObject(objReturn);
-                        objOut.flush();
-                        writer.println("DONE " + id + " " + Base64.encodeBase64String(out.toByteArray()));
-                        out.close();
-                        System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " at ID \"" + id + "\" successfully invoked G2D method \"" + methodName + "\" with " + argsStr.length + " arguments");
-                        
-                        
-                    } else if (line.startsWith("GETIMAGE")){
-                        System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " recevied GETIMAGE command since " + (System.currentTimeMillis() - startTime) + " ms");
-                    
-                        String[] splitData = line.split(" ");
-                        if (splitData.length < 2){
-                            System.out.println("Missing parameters " + splitData.length + " / 2");
-                        }
-                        String id = splitData[1];
-                        
-                        ByteArrayOutputStream out = new ByteArrayOutputStream();
-                        ObjectOutput objOut;
-                        objOut = new ObjectOutputStream(out);
-                        objOut.writeObject(image);
-                        objOut.flush();
-                        
-                        writer.println("DONE " + id + " " + Base64.encodeBase64String(out.toByteArray()));
-                        out.close();
-                    } else if (line.startsWith("GETPROCESSED")){
-                        System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " recevied GETPROCESSED command since " + (System.currentTimeMillis() - startTime) + " ms");
-                    
-                        String[] splitData = line.split(" ");
-                        if (splitData.length < 2){
-                            System.out.println("Missing parameters " + splitData.length + " / 2");
-                        }
-                        String id = splitData[1];
-                        
-                        writer.println("DONE " + id + " " + Base64.encodeBase64String(processImage(image)));
-                    } else if (line.startsWith("PROCESS")){
-                        System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " recevied process command since " + (System.currentTimeMillis() - startTime) + " ms");
-                        String[] splitData = line.split(" ");
-                        
-                        if (splitData.length < 3){
-                            System.out.println("Error processing... missing parameters: " + splitData.length);
-                            continue;
-                        }
-                        
-                        String id = splitData[1];
-                        String data = splitData[2];
-                        
-                        System.out.println("Processing data with ID: " + id + " DATA: " + data);
-                        
-                        ByteArrayInputStream in = new ByteArrayInputStream(Base64.decodeBase64(data));
-                        BufferedImage inImage = ImageIO.read(in);
-                        
-                        byte[] buf = processImage(inImage);
-                        
-                        System.out.println("Processing Done for ID: " + id);
-                        writer.println("DONE " + id + " " + Base64.encodeBase64String(buf));
-                    }
-                }
-                System.out.println("Connection of " + socket.getInetAddress().getHostAddress() + " closed. Total connection time: " + (System.currentTimeMillis() - startTime) + " ms");
-                writer.close();
-                reader.close();
-                socket.close();
-                
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Returns the image drawn by this connection
+     * @return BufferedImage
+     */
+    public BufferedImage getImage(){
+        return image;
+    }
+    
+    /**
+     * Handles a command line
+     * @param line The command line, without the line terminator
+     * @return The response line without the line terminator, or <code>null</code> if there is no response
+     * @throws IOException If the command cannot be decoded or the response encoded
+     */
+    public String handle(String line) throws IOException{
+        String[] splitData = line.split(" ");
+        String command = splitData[0];
+        if (logger.isDebugEnabled()){
+            logger.debug(remote + ": " + command + (splitData.length > 1 ? " " + splitData[1] : ""));
+        }
+        if (command.equals("INVOKE")){
+            return invoke(splitData);
+        } else if (command.equals("GETIMAGE")){
+            if (splitData.length < 2){
+                logger.warn(remote + ": GETIMAGE missing parameters " + splitData.length + " / 2");
+                return null;
+            }
+            return "DONE " + splitData[1] + " " + Base64.encodeBase64String(RawImage.encode(image));
+        } else if (command.equals("GETPROCESSED")){
+            if (splitData.length < 2){
+                logger.warn(remote + ": GETPROCESSED missing parameters " + splitData.length + " / 2");
+                return null;
+            }
+            return "DONE " + splitData[1] + " " + Base64.encodeBase64String(processImage(image));
+        } else if (command.equals("PROCESS")){
+            if (splitData.length < 3){
+                logger.warn(remote + ": PROCESS missing parameters " + splitData.length + " / 3");
+                return null;
+            }
+            BufferedImage inImage = ImageIO.read(new ByteArrayInputStream(Base64.decodeBase64(splitData[2])));
+            if (inImage == null){
+                logger.warn(remote + ": PROCESS image cannot be decoded");
+                return null;
+            }
+            return "DONE " + splitData[1] + " " + Base64.encodeBase64String(processImage(inImage));
+        } else if (command.equals("GETPROCESSEDDELTA")){
+            if (splitData.length < 3){
+                logger.warn(remote + ": GETPROCESSEDDELTA missing parameters " + splitData.length + " / 3");
+                return null;
+            }
+            byte[] frame = processImage(image);
+            return "DONE " + splitData[1] + " " + Base64.encodeBase64String(encodeDelta(parseFrameId(splitData[2]), frame));
+        } else if (command.equals("PROCESSDELTA")){
+            if (splitData.length < 4){
+                logger.warn(remote + ": PROCESSDELTA missing parameters " + splitData.length + " / 4");
+                return null;
+            }
+            BufferedImage inImage = ImageIO.read(new ByteArrayInputStream(Base64.decodeBase64(splitData[3])));
+            if (inImage == null){
+                logger.warn(remote + ": PROCESSDELTA image cannot be decoded");
+                return null;
             }
-            
-            running = false;
+            byte[] frame = processImage(inImage);
+            return "DONE " + splitData[1] + " " + Base64.encodeBase64String(encodeDelta(parseFrameId(splitData[2]), frame));
         }
+        logger.warn(remote + ": unknown command " + command);
+        return null;
     }
     
-    public static byte[] processImage(BufferedImage image){
-        byte[] buf = new byte[BUF_SIZE];
-        
-        //byte[] pixel = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        //System.out.println("pixel[] len: " + pixel.length);
-        //System.out.println("content: " + Arrays.toString(pixel));
+    private static int parseFrameId(String str){
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Encodes a processed frame as a delta against the frame the client acknowledged, or as a keyframe if that
+     * frame is no longer known or the delta would be larger. The frames older than the acknowledged one are forgotten.
+     */
+    private byte[] encodeDelta(int ackedId, byte[] frame){
+        byte[] base = ackedId == 0 ? null : sentFrames.get(ackedId);
+        if (base != null){
+            Iterator<Map.Entry<Integer, byte[]>> it = sentFrames.entrySet().iterator();
+            while (it.hasNext() && it.next().getKey() != ackedId){
+                it.remove();
+            }
+        }
+        int frameId = nextFrameId++;
+        byte[] message = FrameDelta.encode(frameId, 0, null, frame, frame.length);
+        if (base != null){
+            byte[] delta = FrameDelta.encode(frameId, ackedId, base, frame, frame.length);
+            if (delta.length < message.length){
+                message = delta;
+            }
+        }
+        sentFrames.put(frameId, frame);
+        if (sentFrames.size() > MAX_DELTA_BASES){
+            Iterator<Integer> it = sentFrames.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug(remote + ": frame " + frameId + (FrameDelta.getType(message) == FrameDelta.TYPE_DELTA ? " delta from " + ackedId : " keyframe") + ", " + message.length + " bytes");
+        }
+        return message;
+    }
+    
+    private String invoke(String[] splitData) throws IOException{
+        if (splitData.length < 6){
+            logger.warn(remote + ": INVOKE missing parameters " + splitData.length + " / 6");
+            return null;
+        }
+        String id = splitData[1];
+        String g2dClassStr = splitData[2];
+        String methodName = splitData[3];
         
-        int bitPos;
-        for (int i = 0; i < LCD.SCREEN_HEIGHT; i++){
-            //System.out.println("rendering row " + i + "...");
-            //long t = System.currentTimeMillis();
-            bitPos = 0;
-            for (int j = 0; j < LCD.SCREEN_WIDTH; j++){
-                //int val = image.getRGB(j, i);
-                //int cmb = val & 0xff + (val & 0xff00) >> 8 + (val & 0xff0000) >> 16;
-                
-                if (bitPos > 7){
-                    //System.out.println("Overload");
-                    bitPos = 0;
+        Class<?>[] paraTypes;
+        if (splitData[4].equals("none")){
+            paraTypes = new Class<?>[0];
+        } else {
+            String[] paraTypesStr = splitData[4].split(",");
+            paraTypes = new Class<?>[paraTypesStr.length];
+            for (int i = 0; i < paraTypes.length; i++){
+                try {
+                    paraTypes[i] = Class.forName(paraTypesStr[i]);
+                } catch (ClassNotFoundException e) {
+                    logger.warn(remote + ": class not found: " + paraTypesStr[i]);
+                    return null;
                 }
-                
-                
-                //TODO: Rewrite not to use getRGB()! It results in low performance
-                Color color = new Color(image.getRGB(j, i));
-                
-                int y = (int) (0.2126 * color.getRed() + 0.7152 * color.getBlue() + 0.0722 * color.getGreen()); //Combine all colours together 255+255+255 = 765
-                //System.out.println("(" + j + ", " + i + "): " + cmb);
-                
-                
-                //byte pixelBit = pixel[i * LINE_LEN + j / 8];
-                
-                //System.out.println(Integer.toHexString(pixelBit));
-                
-                //System.out.println("Pixel: " + (i * LINE_LEN + j / 8) + " bit " + bitPos + ": " + y + " fill? " + (y < 128));
-                if (y < 128){
-                    //System.out.println("pixel black: " + (i * LINE_LEN + j / 8 + "@bit" + bitPos) + "y: " + y + " r:" + color.getRed() + "g:" + color.getGreen() + "b:" + color.getBlue());
-                    //System.out.println("Black: " + (pixelBit & 0xff));
-                    buf[i * LINE_LEN + j / 8] |= (1 << bitPos);
-                } else {
-                    //System.out.println("White");
-                    buf[i * LINE_LEN + j / 8] &= ~(1 << bitPos);
+            }
+        }
+        
+        Object[] args;
+        if (splitData[5].equals("none")){
+            args = new Object[0];
+        } else {
+            String[] argsStr = splitData[5].split(",");
+            args = new Object[argsStr.length];
+            for (int i = 0; i < args.length; i++){
+                ObjectInput objIn = new ObjectInputStream(new ByteArrayInputStream(Base64.decodeBase64(argsStr[i])));
+                try {
+                    args[i] = objIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    logger.warn(remote + ": class not found: " + e.getMessage());
+                    return null;
+                } finally {
+                    objIn.close();
                 }
-                
-                bitPos++;
             }
-            //System.out.println("row (" + (i) + ") getRGB used: " + (System.currentTimeMillis() - t) + " ms");
         }
-        return buf;
+        
+        Class<?> g2dClass;
+        try {
+            g2dClass = Class.forName(g2dClassStr);
+        } catch (ClassNotFoundException e) {
+            logger.warn(remote + ": cannot find G2D class " + g2dClassStr);
+            return null;
+        }
+        
+        Method method = findMethod(g2dClass, methodName, paraTypes);
+        if (method == null){
+            logger.warn(remote + ": method for G2D not found: " + methodName);
+            return null;
+        }
+        
+        Object objReturn = null;
+        try {
+            objReturn = method.invoke(g2d, args);
+        } catch (IllegalAccessException e) {
+            logger.warn(remote + ": unable to invoke method " + methodName, e);
+        } catch (IllegalArgumentException e) {
+            logger.warn(remote + ": unable to invoke method " + methodName, e);
+        } catch (InvocationTargetException e) {
+            logger.warn(remote + ": unable to invoke method " + methodName, e);
+        }
+        
+        return "DONE " + id + " " + Base64.encodeBase64String(serialize(objReturn));
+    }
+    
+    private static Method findMethod(Class<?> g2dClass, String methodName, Class<?>[] paraTypes){
+        try {
+            return g2dClass.getMethod(methodName, paraTypes);
+        } catch (NoSuchMethodException e) {
+        }
+        //Arguments are received boxed, retry with the primitive types
+        Class<?>[] primitives = new Class<?>[paraTypes.length];
+        for (int i = 0; i < paraTypes.length; i++){
+            primitives[i] = toPrimitive(paraTypes[i]);
+        }
+        try {
+            return g2dClass.getMethod(methodName, primitives);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+    
+    private static Class<?> toPrimitive(Class<?> type){
+        if (type == Integer.class){
+            return int.class;
+        } else if (type == Float.class){
+            return float.class;
+        } else if (type == Double.class){
+            return double.class;
+        } else if (type == Boolean.class){
+            return boolean.class;
+        } else if (type == Long.class){
+            return long.class;
+        } else if (type == Short.class){
+            return short.class;
+        } else if (type == Byte.class){
+            return byte.class;
+        } else if (type == Character.class){
+            return char.class;
+        }
+        return type;
+    }
+    
+    private static byte[] serialize(Object obj) throws IOException{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutput objOut = new ObjectOutputStream(out);
+        objOut.writeObject(obj);
+        objOut.flush();
+        objOut.close();
+        return out.toByteArray();
+    }
+    
+    /**
+     * Converts an image into the framebuffer format with Floyd-Steinberg dithering. 1-bit images are repacked as is.
+     * @param image The image
+     * @return The framebuffer
+     */
+    public static byte[] processImage(BufferedImage image){
+        return PROCESSOR.convert(image);
+    }
+    
+    /**
+     * Converts an image into the framebuffer format
+     * @param image The image
+     * @param method One of the <code>LCDConverter.METHOD_*</code> fields
+     * @return The framebuffer
+     */
+    public static byte[] processImage(BufferedImage image, int method){
+        return new LCDConverter(method).convert(image);
     }
     
-}
+}
\ No newline at end of file
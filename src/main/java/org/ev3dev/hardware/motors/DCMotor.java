@@ -148,6 +148,19 @@ public class DCMotor extends Device{
 
 	private String address;
 	
+	private volatile VoltageCompensator compensator = null;
+	
+	private volatile int requestedDutyCycleSP = 0;
+	
+	private final Runnable compensationTask = new Runnable(){
+
+		@Override
+		public void run() {
+			reapplyDutyCycleSP();
+		}
+		
+	};
+	
 	/***
 	 * Creates a new DC motor object.
 	 * @param port LegoPort
@@ -254,7 +267,8 @@ public class DCMotor extends Device{
 	/**
 	 * Writing sets the duty cycle setpoint. Reading returns the current value. Units are in percent.
 	 *  Valid values are -100 to 100. A negative value causes the motor to rotate in reverse.
-	 *   This value is only used when speed_regulation is off.
+	 *   This value is only used when speed_regulation is off.<br>
+	 *   If voltage compensation is enabled, this returns the compensated value written to the motor.
 	 * @return Percentage
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
@@ -271,7 +285,93 @@ public class DCMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setDutyCycleSP(int sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_DUTY_CYCLE_SP, Integer.toString(sp));
+		this.lockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		try {
+			requestedDutyCycleSP = sp;
+			writeDutyCycleSP(sp);
+		} finally {
+			this.unlockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		}
+	}
+	
+	/**
+	 * Returns the duty cycle set-point last requested by <code>setDutyCycleSP()</code>, before voltage compensation.
+	 * @return Percentage
+	 */
+	public int getRequestedDutyCycleSP(){
+		return requestedDutyCycleSP;
+	}
+	
+	/**
+	 * Enables or disables voltage compensation of the duty cycle set-point using the default VoltageCompensator.
+	 *  When enabled, the duty cycle set-point is scaled against the smoothed battery voltage, so that the same
+	 *  set-point gives the same torque while the battery sags.
+	 * @param enabled Enabled
+	 * @throws EV3LibraryException If the battery cannot be found
+	 */
+	public void setVoltageCompensation(boolean enabled) throws EV3LibraryException{
+		setVoltageCompensator(enabled ? VoltageCompensator.getDefault() : null);
+	}
+	
+	/**
+	 * Returns whether voltage compensation of the duty cycle set-point is enabled
+	 * @return Enabled
+	 */
+	public boolean isVoltageCompensation(){
+		return compensator != null;
+	}
+	
+	/**
+	 * Sets the VoltageCompensator used to scale the duty cycle set-point, or <code>null</code> to disable voltage compensation.
+	 *  The last requested duty cycle set-point is written again with the new compensation.
+	 * @param compensator VoltageCompensator
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void setVoltageCompensator(VoltageCompensator compensator) throws EV3LibraryException{
+		VoltageCompensator old = this.compensator;
+		if (old == compensator){
+			return;
+		}
+		if (old != null){
+			old.detach(compensationTask);
+		}
+		this.compensator = compensator;
+		if (compensator != null){
+			compensator.attach(compensationTask);
+		}
+		reapplyDutyCycleSP();
+	}
+	
+	/**
+	 * Returns the VoltageCompensator used to scale the duty cycle set-point
+	 * @return VoltageCompensator, or <code>null</code> if voltage compensation is disabled
+	 */
+	public VoltageCompensator getVoltageCompensator(){
+		return compensator;
+	}
+	
+	private void reapplyDutyCycleSP() throws EV3LibraryException{
+		if (!this.isConnected()){
+			return;
+		}
+		this.lockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		try {
+			int sp = requestedDutyCycleSP;
+			//Nothing was requested, or 0 which is never scaled
+			if (sp != 0){
+				writeDutyCycleSP(sp);
+			}
+		} finally {
+			this.unlockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		}
+	}
+	
+	private void writeDutyCycleSP(int sp) throws EV3LibraryException{
+		VoltageCompensator c = compensator;
+		if (c != null){
+			sp = c.compensate(sp);
+		}
+		this.setShadowedAttribute(SYSFS_PROPERTY_DUTY_CYCLE_SP, Integer.toString(sp));
 	}
 	
 	/**
@@ -291,7 +391,7 @@ public class DCMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setPolarity(String polarity) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_POLARITY, polarity);
+		this.setShadowedAttribute(SYSFS_PROPERTY_POLARITY, polarity);
 	}
 	
 	/**
@@ -318,7 +418,7 @@ public class DCMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setRamp_Up_SP(int ramp_up_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_RAMP_UP_SP, Integer.toString(ramp_up_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_RAMP_UP_SP, Integer.toString(ramp_up_sp));
 	}
 	
 	/**
@@ -343,7 +443,7 @@ public class DCMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setRamp_Down_SP(int ramp_down_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_RAMP_DOWN_SP, Integer.toString(ramp_down_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_RAMP_DOWN_SP, Integer.toString(ramp_down_sp));
 	}
 	
 	/**
@@ -387,7 +487,7 @@ public class DCMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setStopAction(String stop_command) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_STOP_ACTION, stop_command);
+		this.setShadowedAttribute(SYSFS_PROPERTY_STOP_ACTION, stop_command);
 	}
 	
 	/**
@@ -444,6 +544,6 @@ public class DCMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setTime_SP(int time_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_TIME_SP, Integer.toString(time_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_TIME_SP, Integer.toString(time_sp));
 	}
 }
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.motors;
+
+/**
+ * A precomputed motion profile: position and velocity set-points of a move, sampled at a fixed period into primitive tables.<br>
+ * <br>
+ * Positions are in tacho counts relative to the start of the move, and velocities in tacho counts per second,
+ *  the units of <code>position</code> and <code>speed_sp</code>. A trapezoidal profile limits velocity and acceleration.
+ *  An S-curve profile also limits jerk: it is the trapezoidal profile with its velocity smoothed by a moving average as
+ *  long as the time needed to reach the maximum acceleration, which keeps the distance and makes the acceleration ramp linearly.<br>
+ * <br>
+ * Profiles are streamed to motors with a MotionStreamer.
+ * @author Anthony
+ *
+ */
+public final class MotionProfile {
+	
+	/**
+	 * The default set-point period in milliseconds
+	 */
+	public static final long DEFAULT_PERIOD_MILLIS = 10;
+	
+	private final double[] positions;
+	
+	private final double[] velocities;
+	
+	private final long periodMillis;
+	
+	private MotionProfile(double[] positions, double[] velocities, long periodMillis){
+		this.positions = positions;
+		this.velocities = velocities;
+		this.periodMillis = periodMillis;
+	}
+	
+	/**
+	 * Creates a trapezoidal profile with the default period
+	 * @param distance The distance in tacho counts, negative to move backwards
+	 * @param maxVelocity The maximum velocity in tacho counts per second
+	 * @param maxAcceleration The maximum acceleration in tacho counts per second squared
+	 * @return A MotionProfile
+	 */
+	public static MotionProfile trapezoidal(double distance, double maxVelocity, double maxAcceleration){
+		return trapezoidal(distance, maxVelocity, maxAcceleration, DEFAULT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Creates a trapezoidal profile
+	 * @param distance The distance in tacho counts, negative to move backwards
+	 * @param maxVelocity The maximum velocity in tacho counts per second
+	 * @param maxAcceleration The maximum acceleration in tacho counts per second squared
+	 * @param periodMillis The set-point period in milliseconds
+	 * @return A MotionProfile
+	 */
+	public static MotionProfile trapezoidal(double distance, double maxVelocity, double maxAcceleration, long periodMillis){
+		checkLimits(maxVelocity, maxAcceleration, periodMillis);
+		double sign = distance < 0 ? -1 : 1;
+		double d = Math.abs(distance);
+		double peak = maxVelocity;
+		double accelTime = peak / maxAcceleration;
+		if (peak * accelTime > d){
+			//Triangular: the maximum velocity is never reached
+			peak = Math.sqrt(d * maxAcceleration);
+			accelTime = peak / maxAcceleration;
+		}
+		double cruiseTime = peak > 0 ? (d - peak * accelTime) / peak : 0;
+		double duration = 2 * accelTime + cruiseTime;
+		double dt = periodMillis / 1000.0;
+		int n = (int) Math.ceil(duration / dt) + 1;
+		double[] positions = new double[n];
+		double[] velocities = new double[n];
+		for (int i = 0; i < n; i++){
+			double t = Math.min(i * dt, duration);
+			double p;
+			double v;
+			if (t < accelTime){
+				v = maxAcceleration * t;
+				p = 0.5 * maxAcceleration * t * t;
+			} else if (t < accelTime + cruiseTime){
+				v = peak;
+				p = 0.5 * peak * accelTime + peak * (t - accelTime);
+			} else {
+				double r = duration - t;
+				v = maxAcceleration * r;
+				p = d - 0.5 * maxAcceleration * r * r;
+			}
+			positions[i] = sign * p;
+			velocities[i] = sign * v;
+		}
+		positions[n - 1] = distance;
+		velocities[n - 1] = 0;
+		return new MotionProfile(positions, velocities, periodMillis);
+	}
+	
+	/**
+	 * Creates a jerk limited S-curve profile with the default period
+	 * @param distance The distance in tacho counts, negative to move backwards
+	 * @param maxVelocity The maximum velocity in tacho counts per second
+	 * @param maxAcceleration The maximum acceleration in tacho counts per second squared
+	 * @param maxJerk The maximum jerk in tacho counts per second cubed
+	 * @return A MotionProfile
+	 */
+	public static MotionProfile sCurve(double distance, double maxVelocity, double maxAcceleration, double maxJerk){
+		return sCurve(distance, maxVelocity, maxAcceleration, maxJerk, DEFAULT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Creates a jerk limited S-curve profile
+	 * @param distance The distance in tacho counts, negative to move backwards
+	 * @param maxVelocity The maximum velocity in tacho counts per second
+	 * @param maxAcceleration The maximum acceleration in tacho counts per second squared
+	 * @param maxJerk The maximum jerk in tacho counts per second cubed
+	 * @param periodMillis The set-point period in milliseconds
+	 * @return A MotionProfile
+	 */
+	public static MotionProfile sCurve(double distance, double maxVelocity, double maxAcceleration, double maxJerk, long periodMillis){
+		if (maxJerk <= 0){
+			throw new IllegalArgumentException("The maximum jerk must be positive: " + maxJerk);
+		}
+		MotionProfile trapezoid = trapezoidal(distance, maxVelocity, maxAcceleration, periodMillis);
+		double dt = periodMillis / 1000.0;
+		int window = (int) Math.round(maxAcceleration / maxJerk / dt);
+		if (window <= 1){
+			return trapezoid;
+		}
+		double[] source = trapezoid.velocities;
+		int n = source.length + window - 1;
+		double[] velocities = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++){
+			if (i < source.length){
+				sum += source[i];
+			}
+			if (i >= window){
+				sum -= source[i - window];
+			}
+			velocities[i] = sum / window;
+		}
+		double[] positions = integrate(velocities, dt);
+		//Remove the discretization error, so that the move ends exactly at the distance
+		double scale = positions[n - 1] != 0 ? distance / positions[n - 1] : 0;
+		for (int i = 0; i < n; i++){
+			positions[i] *= scale;
+			velocities[i] *= scale;
+		}
+		return new MotionProfile(positions, velocities, periodMillis);
+	}
+	
+	/**
+	 * Returns a copy of this profile slowed down to last the duration specified, so that several axes can finish together.
+	 *  Velocities are scaled accordingly, and the distance is unchanged.
+	 * @param durationMillis The new duration in milliseconds, not shorter than <code>getDurationMillis()</code>
+	 * @return A MotionProfile
+	 */
+	public MotionProfile stretch(long durationMillis){
+		long duration = getDurationMillis();
+		if (durationMillis < duration){
+			throw new IllegalArgumentException("A profile cannot be shortened: " + durationMillis + " < " + duration);
+		}
+		if (durationMillis == duration || duration == 0){
+			return this;
+		}
+		double factor = (double) duration / durationMillis;
+		int n = (int) (durationMillis / periodMillis) + 1;
+		double[] p = new double[n];
+		double[] v = new double[n];
+		for (int i = 0; i < n; i++){
+			double src = i * factor;
+			int j = Math.min((int) src, positions.length - 1);
+			int k = Math.min(j + 1, positions.length - 1);
+			double f = src - j;
+			p[i] = positions[j] + (positions[k] - positions[j]) * f;
+			v[i] = (velocities[j] + (velocities[k] - velocities[j]) * f) * factor;
+		}
+		p[n - 1] = positions[positions.length - 1];
+		v[n - 1] = 0;
+		return new MotionProfile(p, v, periodMillis);
+	}
+	
+	/**
+	 * Returns the number of set-points
+	 * @return Length
+	 */
+	public int getLength(){
+		return positions.length;
+	}
+	
+	/**
+	 * Returns the set-point period
+	 * @return Period in milliseconds
+	 */
+	public long getPeriodMillis(){
+		return periodMillis;
+	}
+	
+	/**
+	 * Returns the duration of the move
+	 * @return Duration in milliseconds
+	 */
+	public long getDurationMillis(){
+		return (positions.length - 1) * periodMillis;
+	}
+	
+	/**
+	 * Returns the distance of the move
+	 * @return Distance in tacho counts
+	 */
+	public double getDistance(){
+		return positions[positions.length - 1];
+	}
+	
+	/**
+	 * Returns a position set-point
+	 * @param index The set-point index, from 0 to <code>getLength() - 1</code>
+	 * @return Position in tacho counts, relative to the start of the move
+	 */
+	public double getPosition(int index){
+		return positions[index];
+	}
+	
+	/**
+	 * Returns a velocity set-point
+	 * @param index The set-point index, from 0 to <code>getLength() - 1</code>
+	 * @return Velocity in tacho counts per second
+	 */
+	public double getVelocity(int index){
+		return velocities[index];
+	}
+	
+	private static double[] integrate(double[] velocities, double dt){
+		double[] positions = new double[velocities.length];
+		for (int i = 1; i < velocities.length; i++){
+			positions[i] = positions[i - 1] + (velocities[i - 1] + velocities[i]) * 0.5 * dt;
+		}
+		return positions;
+	}
+	
+	private static void checkLimits(double maxVelocity, double maxAcceleration, long periodMillis){
+		if (maxVelocity <= 0 || maxAcceleration <= 0){
+			throw new IllegalArgumentException("The maximum velocity and acceleration must be positive");
+		}
+		if (periodMillis <= 0){
+			throw new IllegalArgumentException("The period must be positive: " + periodMillis);
+		}
+	}
+}
\ No newline at end of file
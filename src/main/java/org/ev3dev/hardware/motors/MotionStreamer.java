@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.motors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Sampler;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams MotionProfiles to one or more tacho motors at a fixed rate, so that moves can be jerk limited and several axes
+ *  can be coordinated, which the fixed ramps of <code>run-to-abs-pos</code> cannot do.<br>
+ * <br>
+ * Two modes are supported:<br>
+ * - <code>run-forever</code>: the velocity set-point is written to <code>speed_sp</code>, and the driver regulates the speed.<br>
+ * - <code>run-direct</code>: the velocity set-point is converted to <code>duty_cycle_sp</code> with a feedforward gain.<br>
+ * In both modes, the position error read from <code>position</code> is corrected with a proportional gain.<br>
+ * <br>
+ * All axes are time-aligned: shorter profiles are stretched to the duration of the longest one, and all axes are
+ *  written with the set-point of the same index, chosen from the time elapsed since the start, so a late tick never
+ *  makes the axes drift apart. When the move ends, the final set-point is written and each motor is handed over to
+ *  <code>run-to-abs-pos</code> on the end position of its profile, so it settles there and is stopped with its
+ *  <code>stop_action</code>. A cancelled move stops the motors at once.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * MotionStreamer streamer = new MotionStreamer(Motor.SYSFS_COMMAND_RUN_FOREVER);
+ * streamer.addAxis(left, MotionProfile.sCurve(720, 600, 1200, 6000));
+ * streamer.addAxis(right, MotionProfile.sCurve(360, 600, 1200, 6000));
+ * streamer.start();
+ * streamer.await(10000);
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class MotionStreamer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MotionStreamer.class);
+	
+	/**
+	 * The default proportional gain of the position error, in 1/s
+	 */
+	public static final double DEFAULT_POSITION_GAIN = 2.0;
+	
+	/**
+	 * The default feedforward gain of <code>run-direct</code>, in duty cycle percent per tacho count per second
+	 *  (an EV3 large motor runs about 1050 tacho counts per second at full duty cycle)
+	 */
+	public static final double DEFAULT_VELOCITY_GAIN = 100.0 / 1050;
+	
+	private final String command;
+	
+	private final List<Axis> axes = new ArrayList<Axis>();
+	
+	private volatile double positionGain = DEFAULT_POSITION_GAIN;
+	
+	private volatile double velocityGain = DEFAULT_VELOCITY_GAIN;
+	
+	private volatile int index = -1;
+	
+	private ScheduledFuture<?> task = null;
+	
+	//Counted down when the move ends, and created again only when a move starts after that
+	private CountDownLatch done = new CountDownLatch(1);
+	
+	private int length = 0;
+	
+	private long startNanos = 0;
+	
+	private long periodNanos = 0;
+	
+	/**
+	 * Creates a new MotionStreamer
+	 * @param command <code>Motor.SYSFS_COMMAND_RUN_FOREVER</code> to stream <code>speed_sp</code>,
+	 *  or <code>Motor.SYSFS_COMMAND_RUN_DIRECT</code> to stream <code>duty_cycle_sp</code>
+	 */
+	public MotionStreamer(String command){
+		if (!Motor.SYSFS_COMMAND_RUN_FOREVER.equals(command) && !Motor.SYSFS_COMMAND_RUN_DIRECT.equals(command)){
+			throw new IllegalArgumentException("Only run-forever and run-direct can be streamed: " + command);
+		}
+		this.command = command;
+	}
+	
+	/**
+	 * Adds a motor and the profile it follows. All profiles must have the same period.
+	 * @param motor The motor
+	 * @param profile The motion profile, relative to the position of the motor when the streamer starts
+	 */
+	public synchronized void addAxis(Motor motor, MotionProfile profile){
+		if (task != null){
+			throw new IllegalStateException("Axes cannot be added while streaming");
+		}
+		if (!axes.isEmpty() && axes.get(0).profile.getPeriodMillis() != profile.getPeriodMillis()){
+			throw new IllegalArgumentException("All profiles must have the same period");
+		}
+		axes.add(new Axis(motor, profile));
+	}
+	
+	/**
+	 * Sets the proportional gain of the position error. The velocity set-point is corrected by the gain multiplied by the error.
+	 * @param gain Gain in 1/s, 0 to disable the correction
+	 */
+	public void setPositionGain(double gain){
+		this.positionGain = gain;
+	}
+	
+	/**
+	 * Returns the proportional gain of the position error
+	 * @return Gain in 1/s
+	 */
+	public double getPositionGain(){
+		return positionGain;
+	}
+	
+	/**
+	 * Sets the feedforward gain used to convert velocity to duty cycle in <code>run-direct</code>
+	 * @param gain Duty cycle percent per tacho count per second
+	 */
+	public void setVelocityGain(double gain){
+		this.velocityGain = gain;
+	}
+	
+	/**
+	 * Returns the feedforward gain used to convert velocity to duty cycle in <code>run-direct</code>
+	 * @return Duty cycle percent per tacho count per second
+	 */
+	public double getVelocityGain(){
+		return velocityGain;
+	}
+	
+	/**
+	 * Starts streaming on the shared Sampler
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void start() throws EV3LibraryException{
+		start(Sampler.getShared());
+	}
+	
+	/**
+	 * Aligns the profiles, starts the motors and starts streaming on the Sampler specified
+	 * @param sampler The Sampler
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public synchronized void start(Sampler sampler) throws EV3LibraryException{
+		if (task != null){
+			return;
+		}
+		if (axes.isEmpty()){
+			throw new IllegalStateException("No axis was added");
+		}
+		long duration = 0;
+		for (Axis axis : axes){
+			duration = Math.max(duration, axis.profile.getDurationMillis());
+		}
+		try {
+			for (Axis axis : axes){
+				axis.aligned = axis.profile.stretch(duration);
+				axis.channel = axis.motor.openAttributeChannel(Motor.SYSFS_PROPERTY_POSITION, false);
+				axis.origin = axis.channel.readInt();
+				axis.holdSpeed = getHoldSpeed(axis.aligned);
+			}
+			for (Axis axis : axes){
+				write(axis, 0, axis.origin);
+				axis.motor.sendCommand(command);
+			}
+		} catch (IOException e){
+			closeChannels();
+			throw new EV3LibraryException("Read motor position failed", e);
+		} catch (EV3LibraryException e){
+			closeChannels();
+			throw e;
+		}
+		length = axes.get(0).aligned.getLength();
+		periodNanos = TimeUnit.MILLISECONDS.toNanos(axes.get(0).aligned.getPeriodMillis());
+		if (done.getCount() == 0){
+			done = new CountDownLatch(1);
+		}
+		index = -1;
+		startNanos = System.nanoTime();
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				tick();
+			}
+			
+		}, periodNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Stops streaming and stops the motors
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public synchronized void cancel() throws EV3LibraryException{
+		if (task == null){
+			return;
+		}
+		finish(false);
+	}
+	
+	/**
+	 * Waits until the move ends or is cancelled. If no move was started yet, waits for the next one to start and end.
+	 * @param timeoutMillis The maximum time to wait in milliseconds
+	 * @return Whether the move ended before the timeout
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public boolean await(long timeoutMillis) throws InterruptedException{
+		CountDownLatch latch;
+		synchronized (this){
+			latch = done;
+		}
+		return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns whether the streamer is streaming
+	 * @return Running
+	 */
+	public synchronized boolean isRunning(){
+		return task != null;
+	}
+	
+	/**
+	 * Returns the index of the last set-point written
+	 * @return Set-point index, or -1 if none was written
+	 */
+	public int getIndex(){
+		return index;
+	}
+	
+	private synchronized void tick(){
+		if (task == null){
+			return;
+		}
+		int i = (int) ((System.nanoTime() - startNanos) / periodNanos);
+		try {
+			if (i >= length - 1){
+				for (Axis axis : axes){
+					write(axis, length - 1, axis.channel.readInt());
+				}
+				finish(true);
+				return;
+			}
+			for (Axis axis : axes){
+				write(axis, i, axis.channel.readInt());
+			}
+			index = i;
+		} catch (IOException e){
+			logger.warn("Streaming motion profile failed", e);
+			abort();
+		} catch (EV3LibraryException e){
+			logger.warn("Streaming motion profile failed", e);
+			abort();
+		}
+	}
+	
+	private void write(Axis axis, int i, int position){
+		double target = axis.origin + axis.aligned.getPosition(i);
+		double velocity = axis.aligned.getVelocity(i) + positionGain * (target - position);
+		if (Motor.SYSFS_COMMAND_RUN_DIRECT.equals(command)){
+			int duty = (int) Math.round(velocity * velocityGain);
+			axis.motor.setDutyCycleSP(Math.max(-100, Math.min(100, duty)));
+		} else {
+			axis.motor.setSpeed_SP((int) Math.round(velocity));
+		}
+	}
+	
+	//Holds the end positions with run-to-abs-pos if the move completed, otherwise stops the motors
+	private void finish(boolean hold) throws EV3LibraryException{
+		task.cancel(false);
+		task = null;
+		if (hold){
+			index = length - 1;
+		}
+		try {
+			for (Axis axis : axes){
+				if (hold){
+					axis.motor.setPosition_SP((int) Math.round(axis.origin + axis.aligned.getPosition(length - 1)));
+					axis.motor.setSpeed_SP(axis.holdSpeed);
+					axis.motor.runToAbsPos();
+				} else {
+					axis.motor.stop();
+				}
+			}
+		} finally {
+			closeChannels();
+			done.countDown();
+		}
+	}
+	
+	//The peak speed of the profile, so that the hold catches up with a lagging motor as fast as the move itself
+	private static int getHoldSpeed(MotionProfile profile){
+		double peak = 0;
+		for (int i = 0; i < profile.getLength(); i++){
+			peak = Math.max(peak, Math.abs(profile.getVelocity(i)));
+		}
+		return Math.max(1, (int) Math.round(peak));
+	}
+	
+	private void abort(){
+		try {
+			finish(false);
+		} catch (EV3LibraryException e){
+			logger.warn("Stopping motors failed", e);
+		}
+	}
+	
+	private void closeChannels(){
+		for (Axis axis : axes){
+			closeQuietly(axis.channel);
+			axis.channel = null;
+		}
+	}
+	
+	private static void closeQuietly(Closeable closeable){
+		if (closeable != null){
+			try {
+				closeable.close();
+			} catch (IOException ignore){}
+		}
+	}
+	
+	private static final class Axis {
+		
+		private final Motor motor;
+		
+		private final MotionProfile profile;
+		
+		private MotionProfile aligned = null;
+		
+		private SysfsChannel channel = null;
+		
+		private int origin = 0;
+		
+		private int holdSpeed = 0;
+		
+		private Axis(Motor motor, MotionProfile profile){
+			this.motor = motor;
+			this.profile = profile;
+		}
+	}
+}
\ No newline at end of file
@@ -212,6 +212,19 @@ public class Motor extends Device{
 
 	private String address;
 	
+	private volatile VoltageCompensator compensator = null;
+	
+	private volatile int requestedDutyCycleSP = 0;
+	
+	private final Runnable compensationTask = new Runnable(){
+
+		@Override
+		public void run() {
+			reapplyDutyCycleSP();
+		}
+		
+	};
+	
 //-----------------------------------------------------------------------------
 	
 	/***
@@ -272,6 +285,10 @@ public class Motor extends Device{
 			return;
 		}
 		this.setAttribute(SYSFS_PROPERTY_COMMAND, command);
+		if (SYSFS_COMMAND_RESET.equals(command)){
+			//The driver restores every set-point to its default value
+			this.invalidateShadowRegisters();
+		}
 	}
 	
 	/***
@@ -422,7 +439,8 @@ public class Motor extends Device{
 	/**
 	 * Writing sets the duty cycle setpoint. Reading returns the current value. Units are in percent.
 	 *  Valid values are -100 to 100. A negative value causes the motor to rotate in reverse.
-	 *   This value is only used when speed_regulation is off.
+	 *   This value is only used when speed_regulation is off.<br>
+	 *   If voltage compensation is enabled, this returns the compensated value written to the motor.
 	 * @return Percentage
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
@@ -445,7 +463,93 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_DUTY_CYCLE_SP, Integer.toString(sp));
+		this.lockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		try {
+			requestedDutyCycleSP = sp;
+			writeDutyCycleSP(sp);
+		} finally {
+			this.unlockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		}
+	}
+	
+	/**
+	 * Returns the duty cycle set-point last requested by <code>setDutyCycleSP()</code>, before voltage compensation.
+	 * @return Percentage
+	 */
+	public int getRequestedDutyCycleSP(){
+		return requestedDutyCycleSP;
+	}
+	
+	/**
+	 * Enables or disables voltage compensation of the duty cycle set-point using the default VoltageCompensator.
+	 *  When enabled, the duty cycle set-point is scaled against the smoothed battery voltage, so that the same
+	 *  set-point gives the same torque while the battery sags.
+	 * @param enabled Enabled
+	 * @throws EV3LibraryException If the battery cannot be found
+	 */
+	public void setVoltageCompensation(boolean enabled) throws EV3LibraryException{
+		setVoltageCompensator(enabled ? VoltageCompensator.getDefault() : null);
+	}
+	
+	/**
+	 * Returns whether voltage compensation of the duty cycle set-point is enabled
+	 * @return Enabled
+	 */
+	public boolean isVoltageCompensation(){
+		return compensator != null;
+	}
+	
+	/**
+	 * Sets the VoltageCompensator used to scale the duty cycle set-point, or <code>null</code> to disable voltage compensation.
+	 *  The last requested duty cycle set-point is written again with the new compensation.
+	 * @param compensator VoltageCompensator
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void setVoltageCompensator(VoltageCompensator compensator) throws EV3LibraryException{
+		VoltageCompensator old = this.compensator;
+		if (old == compensator){
+			return;
+		}
+		if (old != null){
+			old.detach(compensationTask);
+		}
+		this.compensator = compensator;
+		if (compensator != null){
+			compensator.attach(compensationTask);
+		}
+		reapplyDutyCycleSP();
+	}
+	
+	/**
+	 * Returns the VoltageCompensator used to scale the duty cycle set-point
+	 * @return VoltageCompensator, or <code>null</code> if voltage compensation is disabled
+	 */
+	public VoltageCompensator getVoltageCompensator(){
+		return compensator;
+	}
+	
+	private void reapplyDutyCycleSP() throws EV3LibraryException{
+		if (!this.isConnected()){
+			return;
+		}
+		this.lockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		try {
+			int sp = requestedDutyCycleSP;
+			//Nothing was requested, or 0 which is never scaled
+			if (sp != 0){
+				writeDutyCycleSP(sp);
+			}
+		} finally {
+			this.unlockAttributes(SYSFS_PROPERTY_DUTY_CYCLE_SP);
+		}
+	}
+	
+	private void writeDutyCycleSP(int sp) throws EV3LibraryException{
+		VoltageCompensator c = compensator;
+		if (c != null){
+			sp = c.compensate(sp);
+		}
+		this.setShadowedAttribute(SYSFS_PROPERTY_DUTY_CYCLE_SP, Integer.toString(sp));
 	}
 	
 	//getFullTravelCount() Linear Motor Only (Mark down)
@@ -473,7 +577,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_POLARITY, polarity);
+		this.setShadowedAttribute(SYSFS_PROPERTY_POLARITY, polarity);
 	}
 	
 	/**
@@ -486,7 +590,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return -1;
 		}
-		String str = this.getAttribute("position_p");
+		String str = this.getAttribute(SYSFS_PROPERTY_POSITION);
 		return Integer.parseInt(str);
 	}
 	
@@ -551,7 +655,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_POSITION_P, Integer.toString(position_p));
+		this.setShadowedAttribute(SYSFS_PROPERTY_POSITION_P, Integer.toString(position_p));
 	}
 	
 	/**
@@ -563,7 +667,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_POSITION_I, Integer.toString(position_i));
+		this.setShadowedAttribute(SYSFS_PROPERTY_POSITION_I, Integer.toString(position_i));
 	}
 	
 	/**
@@ -575,7 +679,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_POSITION_D, Integer.toString(position_d));
+		this.setShadowedAttribute(SYSFS_PROPERTY_POSITION_D, Integer.toString(position_d));
 	}
 	
 	/**
@@ -602,7 +706,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_POSITION_SP, Integer.toString(position_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_POSITION_SP, Integer.toString(position_sp));
 	}
 	
 	/**
@@ -643,7 +747,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_SPEED_SP, Integer.toString(speed_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_SPEED_SP, Integer.toString(speed_sp));
 	}
 	
 	/**
@@ -676,7 +780,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_RAMP_UP_SP, Integer.toString(ramp_up_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_RAMP_UP_SP, Integer.toString(ramp_up_sp));
 	}
 	
 	/**
@@ -707,7 +811,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_RAMP_DOWN_SP, Integer.toString(ramp_down_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_RAMP_DOWN_SP, Integer.toString(ramp_down_sp));
 	}
 	
 	/**
@@ -763,7 +867,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_STOP_ACTION, stop_action);
+		this.setShadowedAttribute(SYSFS_PROPERTY_STOP_ACTION, stop_action);
 	}
 	
 	/**
@@ -832,7 +936,7 @@ public class Motor extends Device{
 		if (!this.isConnected()){
 			return;
 		}
-		this.setAttribute(SYSFS_PROPERTY_TIME_SP, Integer.toString(time_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_TIME_SP, Integer.toString(time_sp));
 	}
 	
 }
\ No newline at end of file
@@ -58,7 +58,7 @@ public class ServoMotor extends Device{
 	/**
 	 * The Sysfs class's <code>command</code> property name
 	 */
-	private static final String SYSFS_PROPERTY_COMMAND = "command";
+	public static final String SYSFS_PROPERTY_COMMAND = "command";
 	
 	/**
 	 * The Sysfs class's <code>driver_name</code> property name
@@ -73,7 +73,7 @@ public class ServoMotor extends Device{
 	/**
 	 * The Sysfs class's <code>position_sp</code> property name
 	 */
-	private static final String SYSFS_PROPERTY_POSITION_SP = "position_sp";
+	public static final String SYSFS_PROPERTY_POSITION_SP = "position_sp";
 	
 	/**
 	 * The Sysfs class's <code>state</code> property name
@@ -203,7 +203,7 @@ public class ServoMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setMaxPulse_SP(int max_pulse_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_MAX_PULSE_SP, Integer.toString(max_pulse_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_MAX_PULSE_SP, Integer.toString(max_pulse_sp));
 	}
 	
 	/**
@@ -228,7 +228,7 @@ public class ServoMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setMidPulse_SP(int mid_pulse_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_MID_PULSE_SP, Integer.toString(mid_pulse_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_MID_PULSE_SP, Integer.toString(mid_pulse_sp));
 	}
 	
 	/**
@@ -251,7 +251,7 @@ public class ServoMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setMinPulse_SP(int min_pulse_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_MIN_PULSE_SP, Integer.toString(min_pulse_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_MIN_PULSE_SP, Integer.toString(min_pulse_sp));
 	}
 	
 	/**
@@ -271,7 +271,7 @@ public class ServoMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setPolarity(String polarity) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_POLARITY, polarity);
+		this.setShadowedAttribute(SYSFS_PROPERTY_POLARITY, polarity);
 	}
 	
 	/**
@@ -294,7 +294,7 @@ public class ServoMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setPosition_SP(int position_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_POSITION_SP, Integer.toString(position_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_POSITION_SP, Integer.toString(position_sp));
 	}
 	
 	/**
@@ -307,7 +307,7 @@ public class ServoMotor extends Device{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public void setRate_SP(int rate_sp) throws EV3LibraryException{
-		this.setAttribute(SYSFS_PROPERTY_RATE_SP, Integer.toString(rate_sp));
+		this.setShadowedAttribute(SYSFS_PROPERTY_RATE_SP, Integer.toString(rate_sp));
 	}
 	
 	/**
@@ -0,0 +1,486 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.motors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Sampler;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects a stalled or jammed tacho motor earlier than the driver's <code>stalled</code> state flag.<br>
+ * <br>
+ * The <code>position</code> and <code>duty_cycle</code> attributes are kept open as persistent channels, and sampled at a
+ *  fixed rate (default every 20 ms) on a Sampler into a fixed-size ring of primitive (timestamp, position, duty cycle) samples.
+ *  Over a sliding window (default 300 ms), the velocity expected from the average duty cycle is compared with the velocity
+ *  actually measured from the positions. When the motor is driven hard enough but moves slower than a ratio of the expected
+ *  velocity, it is reported as stalled: the motor is optionally stopped at once, and the listeners are called. A stall is
+ *  reported once, until the motor moves again or is no longer driven.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * StallDetector detector = new StallDetector(motor);
+ * detector.setStopOnStall(true);
+ * detector.addStallListener(new StallDetector.StallListener(){
+ *     public void onStall(StallDetector detector, double expected, double actual){
+ *         System.out.println("Stalled!");
+ *     }
+ * });
+ * detector.start();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class StallDetector {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StallDetector.class);
+	
+	/**
+	 * The default sampling period in milliseconds
+	 */
+	public static final long DEFAULT_PERIOD_MILLIS = 20;
+	
+	/**
+	 * The default detection window in milliseconds
+	 */
+	public static final long DEFAULT_WINDOW_MILLIS = 300;
+	
+	/**
+	 * The default velocity of a free running motor per duty cycle percent, in tacho counts per second
+	 *  (an EV3 large motor runs about 1050 tacho counts per second at full duty cycle)
+	 */
+	public static final double DEFAULT_VELOCITY_PER_DUTY = 10.5;
+	
+	/**
+	 * The default minimum average duty cycle percent for a stall to be detected
+	 */
+	public static final int DEFAULT_MIN_DUTY_CYCLE = 20;
+	
+	/**
+	 * The default ratio of the expected velocity below which the motor is stalled
+	 */
+	public static final double DEFAULT_STALL_RATIO = 0.2;
+	
+	/**
+	 * The maximum number of samples kept to cover the window
+	 */
+	public static final int MAX_HISTORY = 1024;
+	
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final Motor motor;
+	
+	private final CopyOnWriteArrayList<StallListener> listeners = new CopyOnWriteArrayList<StallListener>();
+	
+	//Sized from the window and the sampling period
+	private long[] times = null;
+	
+	private int[] positions = null;
+	
+	private int[] duties = null;
+	
+	private int head = 0;
+	
+	private int size = 0;
+	
+	private ScheduledFuture<?> task = null;
+	
+	private SysfsChannel positionChannel = null;
+	
+	private SysfsChannel dutyChannel = null;
+	
+	private long periodNanos = 0;
+	
+	private volatile long windowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WINDOW_MILLIS);
+	
+	private volatile double velocityPerDuty = DEFAULT_VELOCITY_PER_DUTY;
+	
+	private volatile int minDutyCycle = DEFAULT_MIN_DUTY_CYCLE;
+	
+	private volatile double stallRatio = DEFAULT_STALL_RATIO;
+	
+	private volatile boolean stopOnStall = false;
+	
+	private volatile boolean stalled = false;
+	
+	private volatile long stallCount = 0;
+	
+	private volatile double expectedVelocity = 0;
+	
+	private volatile double actualVelocity = 0;
+	
+	/**
+	 * Creates a new StallDetector
+	 * @param motor The tacho motor
+	 */
+	public StallDetector(Motor motor){
+		this.motor = motor;
+	}
+	
+	/**
+	 * Starts sampling on the shared Sampler at the default rate
+	 * @throws EV3LibraryException If the motor attributes cannot be opened
+	 */
+	public void start() throws EV3LibraryException{
+		start(Sampler.getShared(), DEFAULT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Starts sampling on the Sampler specified
+	 * @param sampler The Sampler
+	 * @param periodMillis The sampling period in milliseconds
+	 * @throws EV3LibraryException If the motor attributes cannot be opened
+	 * @throws IllegalArgumentException If the window needs more than <code>MAX_HISTORY</code> samples at this period
+	 */
+	public synchronized void start(Sampler sampler, long periodMillis) throws EV3LibraryException{
+		if (task != null){
+			return;
+		}
+		if (periodMillis <= 0){
+			throw new IllegalArgumentException("The sampling period must be positive: " + periodMillis);
+		}
+		allocateHistory(windowNanos, TimeUnit.MILLISECONDS.toNanos(periodMillis));
+		try {
+			positionChannel = motor.openAttributeChannel(Motor.SYSFS_PROPERTY_POSITION, false);
+			dutyChannel = motor.openAttributeChannel(Motor.SYSFS_PROPERTY_DUTY_CYCLE, false);
+		} catch (EV3LibraryException e){
+			closeChannels();
+			throw e;
+		}
+		stalled = false;
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				sample();
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops sampling
+	 */
+	public synchronized void stop(){
+		if (task == null){
+			return;
+		}
+		task.cancel(false);
+		task = null;
+		closeChannels();
+	}
+	
+	/**
+	 * Returns whether the detector is sampling
+	 * @return Running
+	 */
+	public synchronized boolean isRunning(){
+		return task != null;
+	}
+	
+	/**
+	 * Reads one sample and checks for a stall. This is called periodically after <code>start()</code>.
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void sample() throws EV3LibraryException{
+		double expected;
+		double actual;
+		boolean fire = false;
+		synchronized (this){
+			if (task == null){
+				return;
+			}
+			int position;
+			int duty;
+			try {
+				position = positionChannel.readInt();
+				duty = dutyChannel.readInt();
+			} catch (IOException e){
+				throw new EV3LibraryException("Sample motor failed", e);
+			}
+			long now = System.nanoTime();
+			times[head] = now;
+			positions[head] = position;
+			duties[head] = duty;
+			head = (head + 1) % times.length;
+			if (size < times.length){
+				size++;
+			}
+			
+			//Walk back from the newest sample until the window is covered
+			long window = windowNanos;
+			long dutySum = 0;
+			int count = 0;
+			int oldest = -1;
+			for (int i = 1; i <= size; i++){
+				int slot = (head - i + times.length) % times.length;
+				dutySum += duties[slot];
+				count++;
+				if (now - times[slot] >= window){
+					oldest = slot;
+					break;
+				}
+			}
+			if (oldest < 0){
+				//Not enough history yet
+				return;
+			}
+			double dt = (now - times[oldest]) / NANOS_PER_SECOND;
+			double meanDuty = (double) dutySum / count;
+			expected = meanDuty * velocityPerDuty;
+			actual = (position - positions[oldest]) / dt;
+			expectedVelocity = expected;
+			actualVelocity = actual;
+			
+			boolean driven = Math.abs(meanDuty) >= minDutyCycle;
+			boolean slow = Math.abs(actual) < stallRatio * Math.abs(expected) || Math.signum(actual) == -Math.signum(expected);
+			if (driven && slow){
+				if (!stalled){
+					stalled = true;
+					stallCount++;
+					fire = true;
+				}
+			} else {
+				stalled = false;
+			}
+		}
+		if (fire){
+			if (stopOnStall){
+				try {
+					motor.stop();
+				} catch (EV3LibraryException e){
+					logger.warn("Stopping stalled motor failed", e);
+				}
+			}
+			for (StallListener listener : listeners){
+				listener.onStall(this, expected, actual);
+			}
+		}
+	}
+	
+	/**
+	 * Adds a listener called on the sampler thread when a stall is detected
+	 * @param listener The listener
+	 */
+	public void addStallListener(StallListener listener){
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener
+	 * @param listener The listener
+	 */
+	public void removeStallListener(StallListener listener){
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the motor of this detector
+	 * @return Motor
+	 */
+	public Motor getMotor(){
+		return motor;
+	}
+	
+	/**
+	 * Returns whether the motor is currently stalled
+	 * @return Stalled
+	 */
+	public boolean isStalled(){
+		return stalled;
+	}
+	
+	/**
+	 * Returns the number of stalls detected
+	 * @return Stall count
+	 */
+	public long getStallCount(){
+		return stallCount;
+	}
+	
+	/**
+	 * Returns the velocity expected from the average duty cycle over the last window
+	 * @return Tacho counts per second
+	 */
+	public double getExpectedVelocity(){
+		return expectedVelocity;
+	}
+	
+	/**
+	 * Returns the velocity measured over the last window
+	 * @return Tacho counts per second
+	 */
+	public double getActualVelocity(){
+		return actualVelocity;
+	}
+	
+	/**
+	 * Sets whether the motor is stopped as soon as a stall is detected, before the listeners are called. (Default: disabled)
+	 * @param stop Enabled
+	 */
+	public void setStopOnStall(boolean stop){
+		this.stopOnStall = stop;
+	}
+	
+	/**
+	 * Returns whether the motor is stopped as soon as a stall is detected
+	 * @return Enabled
+	 */
+	public boolean isStopOnStall(){
+		return stopOnStall;
+	}
+	
+	/**
+	 * Sets the detection window. The history is sized to hold it when sampling starts, or at once while sampling,
+	 *  which starts the history over.
+	 * @param windowMillis The window in milliseconds
+	 * @throws IllegalArgumentException If the window is not positive, or too long for the sampling period in use
+	 */
+	public synchronized void setWindowMillis(long windowMillis){
+		if (windowMillis <= 0){
+			throw new IllegalArgumentException("The window must be positive: " + windowMillis);
+		}
+		long window = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		if (task != null){
+			allocateHistory(window, periodNanos);
+		}
+		this.windowNanos = window;
+	}
+	
+	private void allocateHistory(long window, long period){
+		//Twice the samples the window needs, so that samples bunched up by a late Sampler still cover it
+		long capacity = 2 * (window / period + 1);
+		if (capacity > MAX_HISTORY){
+			throw new IllegalArgumentException("The window of " + TimeUnit.NANOSECONDS.toMillis(window) + " ms is too long for a sampling period of " + TimeUnit.NANOSECONDS.toMillis(period) + " ms");
+		}
+		if (times == null || times.length != capacity){
+			times = new long[(int) capacity];
+			positions = new int[(int) capacity];
+			duties = new int[(int) capacity];
+		}
+		periodNanos = period;
+		head = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Returns the detection window
+	 * @return The window in milliseconds
+	 */
+	public long getWindowMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+	}
+	
+	/**
+	 * Sets the velocity of the free running motor per duty cycle percent
+	 * @param velocityPerDuty Tacho counts per second per duty cycle percent
+	 */
+	public void setVelocityPerDuty(double velocityPerDuty){
+		this.velocityPerDuty = velocityPerDuty;
+	}
+	
+	/**
+	 * Returns the velocity of the free running motor per duty cycle percent
+	 * @return Tacho counts per second per duty cycle percent
+	 */
+	public double getVelocityPerDuty(){
+		return velocityPerDuty;
+	}
+	
+	/**
+	 * Sets the minimum average duty cycle for a stall to be detected
+	 * @param minDutyCycle Percentage
+	 */
+	public void setMinDutyCycle(int minDutyCycle){
+		this.minDutyCycle = minDutyCycle;
+	}
+	
+	/**
+	 * Returns the minimum average duty cycle for a stall to be detected
+	 * @return Percentage
+	 */
+	public int getMinDutyCycle(){
+		return minDutyCycle;
+	}
+	
+	/**
+	 * Sets the ratio of the expected velocity below which the motor is stalled
+	 * @param ratio From 0 to 1
+	 */
+	public void setStallRatio(double ratio){
+		this.stallRatio = ratio;
+	}
+	
+	/**
+	 * Returns the ratio of the expected velocity below which the motor is stalled
+	 * @return Stall ratio
+	 */
+	public double getStallRatio(){
+		return stallRatio;
+	}
+	
+	private void closeChannels(){
+		closeQuietly(positionChannel);
+		closeQuietly(dutyChannel);
+		positionChannel = null;
+		dutyChannel = null;
+	}
+	
+	private static void closeQuietly(Closeable closeable){
+		if (closeable != null){
+			try {
+				closeable.close();
+			} catch (IOException ignore){}
+		}
+	}
+	
+	/**
+	 * Receives stalls detected by a StallDetector. Listeners are called on the sampler thread, so they must not block.
+	 * @author Anthony
+	 *
+	 */
+	public interface StallListener {
+		
+		/**
+		 * Called when a stall is detected
+		 * @param detector The detector
+		 * @param expectedVelocity The velocity expected from the duty cycle, in tacho counts per second
+		 * @param actualVelocity The velocity measured, in tacho counts per second
+		 */
+		public void onStall(StallDetector detector, double expectedVelocity, double actualVelocity);
+		
+	}
+}
\ No newline at end of file
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.motors;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.BatteryMonitor;
+import org.ev3dev.hardware.PowerSupply;
+import org.ev3dev.hardware.Sampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scales duty cycle set-points against the battery voltage, so that the same <code>duty_cycle_sp</code>
+ *  gives the same motor torque while the battery sags.<br>
+ * <br>
+ * The compensated duty cycle is <code>duty_cycle_sp * nominal voltage / battery voltage</code>, limited to -100 to 100.
+ *  The battery voltage is the smoothed voltage of a BatteryMonitor, and the scale factor is only updated at a low rate
+ *  (default every second), so compensating a set-point costs one multiplication and no Sysfs reads. On every update,
+ *  the duty cycle set-points of the attached motors are written again with the new scale factor, which keeps
+ *  <code>run-direct</code> motors compensated even if the program does not change their set-points.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * Motor motor = new LargeMotor(new LegoPort(LegoPort.OUTPUT_A));
+ * motor.setVoltageCompensation(true);
+ * motor.setDutyCycleSP(50);
+ * motor.runDirect();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class VoltageCompensator {
+    
+    private static final Logger logger = LoggerFactory.getLogger(VoltageCompensator.class);
+	
+	/**
+	 * The default nominal voltage, the voltage at which set-points are not scaled
+	 */
+	public static final double DEFAULT_NOMINAL_VOLTAGE = 7.5;
+	
+	/**
+	 * The default maximum scale factor
+	 */
+	public static final double DEFAULT_MAX_SCALE = 1.5;
+	
+	/**
+	 * The default scale factor update period in milliseconds
+	 */
+	public static final long DEFAULT_PERIOD_MILLIS = 1000;
+	
+	private static VoltageCompensator defaultCompensator = null;
+	
+	private final BatteryMonitor monitor;
+	
+	private final double nominalVoltage;
+	
+	private final CopyOnWriteArrayList<Runnable> targets = new CopyOnWriteArrayList<Runnable>();
+	
+	private volatile double maxScale = DEFAULT_MAX_SCALE;
+	
+	private volatile double scale = 1;
+	
+	private ScheduledFuture<?> task = null;
+	
+	/**
+	 * Creates a compensator using the BatteryMonitor specified. The monitor must be started separately.
+	 * @param monitor BatteryMonitor
+	 * @param nominalVoltage The voltage at which set-points are not scaled
+	 */
+	public VoltageCompensator(BatteryMonitor monitor, double nominalVoltage){
+		this.monitor = monitor;
+		this.nominalVoltage = nominalVoltage;
+	}
+	
+	/**
+	 * Returns the compensator shared by motors using <code>setVoltageCompensation(true)</code>.
+	 *  It uses <code>PowerSupply.getMonitor()</code> and the default nominal voltage, and is updated on the shared Sampler.
+	 * @return The default VoltageCompensator
+	 * @throws EV3LibraryException If the battery cannot be found
+	 */
+	public static synchronized VoltageCompensator getDefault() throws EV3LibraryException{
+		if (defaultCompensator == null){
+			VoltageCompensator compensator = new VoltageCompensator(PowerSupply.getMonitor(), DEFAULT_NOMINAL_VOLTAGE);
+			compensator.start(Sampler.getShared(), DEFAULT_PERIOD_MILLIS);
+			defaultCompensator = compensator;
+		}
+		return defaultCompensator;
+	}
+	
+	/**
+	 * Starts updating the scale factor periodically on the Sampler specified
+	 * @param sampler The Sampler
+	 * @param periodMillis The update period in milliseconds
+	 */
+	public synchronized void start(Sampler sampler, long periodMillis){
+		if (task != null){
+			return;
+		}
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				update();
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops updating the scale factor. The last scale factor stays in use.
+	 */
+	public synchronized void stop(){
+		if (task != null){
+			task.cancel(false);
+			task = null;
+		}
+	}
+	
+	/**
+	 * Updates the scale factor from the battery voltage, and writes the set-points of the attached motors again
+	 *  if it has changed. This is called periodically once started.
+	 */
+	public void update(){
+		double voltage = monitor.getVoltage();
+		double newScale;
+		if (voltage <= 0){
+			//Not sampled yet
+			newScale = 1;
+		} else {
+			newScale = Math.min(nominalVoltage / voltage, maxScale);
+		}
+		if (newScale == scale){
+			return;
+		}
+		scale = newScale;
+		for (Runnable target : targets){
+			try {
+				target.run();
+			} catch (EV3LibraryException e){
+				logger.warn("Unable to write a compensated duty cycle set-point", e);
+			}
+		}
+	}
+	
+	/**
+	 * Compensates a duty cycle set-point with the current scale factor
+	 * @param dutyCycleSP The duty cycle set-point in percent
+	 * @return The compensated duty cycle set-point, from -100 to 100
+	 */
+	public int compensate(int dutyCycleSP){
+		long sp = Math.round(dutyCycleSP * scale);
+		if (sp > 100){
+			return 100;
+		} else if (sp < -100){
+			return -100;
+		}
+		return (int) sp;
+	}
+	
+	/**
+	 * Returns the current scale factor
+	 * @return Scale factor
+	 */
+	public double getScale(){
+		return scale;
+	}
+	
+	/**
+	 * Returns the nominal voltage, the voltage at which set-points are not scaled
+	 * @return Voltage in volts
+	 */
+	public double getNominalVoltage(){
+		return nominalVoltage;
+	}
+	
+	/**
+	 * Sets the maximum scale factor, which limits the compensation when the battery is nearly empty
+	 * @param maxScale The maximum scale factor
+	 */
+	public void setMaxScale(double maxScale){
+		this.maxScale = maxScale;
+	}
+	
+	/**
+	 * Returns the maximum scale factor
+	 * @return The maximum scale factor
+	 */
+	public double getMaxScale(){
+		return maxScale;
+	}
+	
+	/**
+	 * Returns the BatteryMonitor used by this compensator
+	 * @return BatteryMonitor
+	 */
+	public BatteryMonitor getMonitor(){
+		return monitor;
+	}
+	
+	//Called by motors to have their set-points written again on every scale factor change
+	void attach(Runnable target){
+		targets.addIfAbsent(target);
+	}
+	
+	void detach(Runnable target){
+		targets.remove(target);
+	}
+}
@@ -28,11 +28,18 @@
  *******************************************************************************/
 package org.ev3dev.hardware.ports;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.ev3dev.exception.EV3LibraryException;
 import org.ev3dev.exception.InvalidPortException;
 import org.ev3dev.io.Sysfs;
+import org.ev3dev.io.SysfsChannel;
 
 /***
  * The lego-port class provides an interface for working with input and output ports that are compatible with LEGO MINDSTORMS RCX/NXT/EV3,
@@ -50,7 +57,10 @@ import org.ev3dev.io.Sysfs;
  *     attribute is used to specify the exact type of sensor that is connected. Note: the mode must be correctly set before setting
  *      the sensor type.<br>
  * <br>
- * Ports can be found at /sys/class/lego-port/port[N] where [N] is incremented each time a new port is registered. Note: The number is not related to the actual port at all - use the address attribute to find a specific port.
+ * Ports can be found at /sys/class/lego-port/port[N] where [N] is incremented each time a new port is registered. Note: The number is not related to the actual port at all - use the address attribute to find a specific port.<br>
+ * <br>
+ * The attributes that never change (<code>address</code>, <code>driver_name</code> and <code>modes</code>) are read for all ports
+ *  in one pass and kept in a port table, see <code>getPortTable()</code>. <code>mode</code> and <code>status</code> are always read from the port.
  * @author Anthony
  *
  */
@@ -58,11 +68,62 @@ public class LegoPort{
 	
 	private int port = 0;
 	
+	private final String node;
+	
 	/**
 	 * The sysfs class name of LegoPort
 	 */
 	public static final String CLASS_NAME = "lego-port";
 	
+	/**
+	 * The Sysfs class's <code>address</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_ADDRESS = "address";
+	
+	/**
+	 * The Sysfs class's <code>driver_name</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_DRIVER_NAME = "driver_name";
+	
+	/**
+	 * The Sysfs class's <code>modes</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_MODES = "modes";
+	
+	/**
+	 * The Sysfs class's <code>mode</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_MODE = "mode";
+	
+	/**
+	 * The Sysfs class's <code>set_device</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_SET_DEVICE = "set_device";
+	
+	/**
+	 * The Sysfs class's <code>status</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_STATUS = "status";
+	
+	/**
+	 * The Sysfs classes that devices attached to a port are registered in
+	 */
+	public static final String[] DEVICE_CLASS_NAMES = {"lego-sensor", "tacho-motor", "dc-motor", "servo-motor"};
+	
+	private static final String SENSOR_CLASS_NAME = "lego-sensor";
+	
+	private static final String MOTOR_MODE_SUFFIX = "-motor";
+	
+	//Sensor modes that load a driver by themselves. nxt-i2c, other-i2c and other-uart register nothing until set_device
+	private static final String[] SENSOR_DRIVER_MODES = {"nxt-analog", "nxt-color", "ev3-analog", "ev3-uart"};
+	
+	private static final String MODE_AUTO = "auto";
+	
+	//Sysfs does not notify file watchers of new device nodes, so waits back off exponentially up to this delay
+	private static final long MAX_AWAIT_POLL_MILLIS = 10;
+	
+	private static volatile Map<String, PortInfo> portTable = null;
+	
 	/**
 	 * Sensor Port 1 on the EV3
 	 */
@@ -115,6 +176,7 @@ public class LegoPort{
 			throw new InvalidPortException("Port is higher than " + OUTPUT_D + ", Port: " + port);
 		}
 		this.port = port;
+		this.node = "port" + port;
 	}
 	
 	/**
@@ -123,13 +185,7 @@ public class LegoPort{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public String getAddress() throws EV3LibraryException{
-		String address;
-		try {
-			address = Sysfs.getAttribute(CLASS_NAME, "port" + port, "address");
-		} catch (IOException e) {
-			throw new EV3LibraryException("Get address attribute failed", e);
-		}
-		return address;
+		return getPortInfo().getAddress();
 	}
 	
 	/**
@@ -138,13 +194,7 @@ public class LegoPort{
 	 * @throws EV3LibraryException if I/O goes wrong
 	 */
 	public String getDriverName() throws EV3LibraryException{
-		String drivername;
-		try {
-			drivername = Sysfs.getAttribute(CLASS_NAME, "port" + port, "driver_name");
-		} catch (IOException e) {
-			throw new EV3LibraryException("Get driver name attribute failed", e);
-		}
-		return drivername;
+		return getPortInfo().getDriverName();
 	}
 	
 	/**
@@ -153,13 +203,7 @@ public class LegoPort{
 	 * @throws EV3LibraryException If I/O goes wrong
 	 */
 	public String[] getModes() throws EV3LibraryException{
-		String modesstr;
-		try {
-			modesstr = Sysfs.getAttribute(CLASS_NAME, "port" + port, "modes");
-		} catch (IOException e) {
-			throw new EV3LibraryException("Get modes attribute failed", e);
-		}
-		return Sysfs.separateSpace(modesstr);
+		return getPortInfo().getModes();
 	}
 	
 	/**
@@ -173,7 +217,7 @@ public class LegoPort{
 	public String getMode() throws EV3LibraryException{
 		String mode;
 		try {
-			mode = Sysfs.getAttribute(CLASS_NAME, "port" + port, "mode");
+			mode = Sysfs.getAttribute(CLASS_NAME, node, SYSFS_PROPERTY_MODE);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get mode attribute failed", e);
 		}
@@ -190,7 +234,7 @@ public class LegoPort{
 	 */
 	public void setMode(String mode) throws EV3LibraryException{
 		try {
-			Sysfs.setAttribute(CLASS_NAME, "port" + port, "mode", mode);
+			Sysfs.setAttribute(CLASS_NAME, node, SYSFS_PROPERTY_MODE, mode);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Set mode attribute failed", e);
 		}
@@ -205,7 +249,7 @@ public class LegoPort{
 	 */
 	public void setDevice(String driver) throws EV3LibraryException{
 		try {
-			Sysfs.setAttribute(CLASS_NAME, "port" + port, "set_device", driver);
+			Sysfs.setAttribute(CLASS_NAME, node, SYSFS_PROPERTY_SET_DEVICE, driver);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Set device attribute failed", e);
 		}
@@ -221,10 +265,253 @@ public class LegoPort{
 	public String getStatus() throws EV3LibraryException{
 		String status;
 		try {
-			status = Sysfs.getAttribute(CLASS_NAME, "port" + port, "status");
+			status = Sysfs.getAttribute(CLASS_NAME, node, SYSFS_PROPERTY_STATUS);
 		} catch (IOException e) {
 			throw new EV3LibraryException("Get status attribute failed", e);
 		}
 		return status;
 	}
+	
+	/**
+	 * Sets the mode, and waits until the port reports the new mode and the device loaded for it
+	 *  (if the mode loads one, e.g. <code>dc-motor</code> or <code>nxt-analog</code>) is registered.
+	 *  Modes such as <code>nxt-i2c</code> or <code>other-uart</code> do not register a device until
+	 *  <code>setDevice()</code> is called, so only the status is awaited for them. For <code>auto</code>,
+	 *  the port is ready once its status changes or a device is detected on it.
+	 * @param mode A available mode listed using <code>getModes()</code>
+	 * @param timeoutMillis The maximum time to wait in milliseconds
+	 * @return Whether the port became ready before the timeout
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public boolean setModeAndAwait(String mode, long timeoutMillis) throws EV3LibraryException{
+		if (MODE_AUTO.equals(mode)){
+			String previousStatus = getStatus();
+			setMode(mode);
+			return await(null, previousStatus, null, null, timeoutMillis);
+		}
+		setMode(mode);
+		String deviceClass = null;
+		if (mode.endsWith(MOTOR_MODE_SUFFIX)){
+			deviceClass = mode;
+		} else {
+			for (String driverMode : SENSOR_DRIVER_MODES){
+				if (mode.equals(driverMode)){
+					deviceClass = SENSOR_CLASS_NAME;
+					break;
+				}
+			}
+		}
+		return await(mode, null, deviceClass, null, timeoutMillis);
+	}
+	
+	/**
+	 * Sets the device driver, and waits until a device using that driver is registered on this port.
+	 * @param driver A generic driver name
+	 * @param timeoutMillis The maximum time to wait in milliseconds
+	 * @return Whether the device was registered before the timeout
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public boolean setDeviceAndAwait(String driver, long timeoutMillis) throws EV3LibraryException{
+		setDevice(driver);
+		return await(null, null, null, driver, timeoutMillis);
+	}
+	
+	/**
+	 * Returns the port table entry of this port
+	 * @return PortInfo
+	 * @throws EV3LibraryException If the port does not exist or I/O goes wrong
+	 */
+	public PortInfo getPortInfo() throws EV3LibraryException{
+		PortInfo info = getPortTable0().get(node);
+		if (info == null){
+			//The port may have been registered after the table was built (e.g. a sensor multiplexer)
+			info = refreshPortTable0().get(node);
+			if (info == null){
+				throw new EV3LibraryException("The port does not exist: " + node);
+			}
+		}
+		return info;
+	}
+	
+	/**
+	 * Returns the port table, which holds the attributes that never change of all ports in <code>/sys/class/lego-port</code>.
+	 *  The table is built once on first use.
+	 * @return A list of PortInfo
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public static List<PortInfo> getPortTable() throws EV3LibraryException{
+		return Collections.unmodifiableList(new ArrayList<PortInfo>(getPortTable0().values()));
+	}
+	
+	/**
+	 * Rebuilds the port table. Call this after ports are added or removed (e.g. a sensor multiplexer is connected).
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public static void refreshPortTable() throws EV3LibraryException{
+		refreshPortTable0();
+	}
+	
+	/**
+	 * Returns the port table entry of the port with the address specified
+	 * @param address The port address (e.g. in1, outA)
+	 * @return PortInfo, or <code>null</code> if no port has the address
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public static PortInfo findPort(String address) throws EV3LibraryException{
+		for (PortInfo info : getPortTable0().values()){
+			if (info.getAddress().equals(address)){
+				return info;
+			}
+		}
+		return null;
+	}
+	
+	private static Map<String, PortInfo> getPortTable0() throws EV3LibraryException{
+		Map<String, PortInfo> table = portTable;
+		if (table == null){
+			table = refreshPortTable0();
+		}
+		return table;
+	}
+	
+	private static synchronized Map<String, PortInfo> refreshPortTable0() throws EV3LibraryException{
+		Map<String, PortInfo> table = new HashMap<String, PortInfo>();
+		File[] files = Sysfs.getAllSubClass(CLASS_NAME);
+		if (files != null){
+			for (File file : files){
+				String name = file.getName();
+				try {
+					String address = Sysfs.getAttribute(CLASS_NAME, name, SYSFS_PROPERTY_ADDRESS);
+					String driverName = Sysfs.getAttribute(CLASS_NAME, name, SYSFS_PROPERTY_DRIVER_NAME);
+					String modes = Sysfs.getAttribute(CLASS_NAME, name, SYSFS_PROPERTY_MODES);
+					table.put(name, new PortInfo(name, address, driverName, Sysfs.separateSpace(modes)));
+				} catch (IOException e) {
+					throw new EV3LibraryException("Read port table failed: " + name, e);
+				}
+			}
+		}
+		portTable = table;
+		return table;
+	}
+	
+	//With previousStatus set, waits for the status to differ from it or for any device to appear on the port instead
+	private boolean await(String expectedStatus, String previousStatus, String deviceClass, String driver, long timeoutMillis) throws EV3LibraryException{
+		String address = getAddress();
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		long delay = 1;
+		SysfsChannel status = null;
+		try {
+			if (expectedStatus != null || previousStatus != null){
+				status = Sysfs.openChannel(CLASS_NAME, node, SYSFS_PROPERTY_STATUS, false);
+			}
+			while (true){
+				if (previousStatus != null){
+					if (!status.readString().equals(previousStatus) || findDevice(null, address, null) != null){
+						return true;
+					}
+				} else if ((status == null || status.readString().equals(expectedStatus)) && 
+						(deviceClass == null && driver == null || findDevice(deviceClass, address, driver) != null)){
+					return true;
+				}
+				long remaining = (deadline - System.nanoTime()) / 1000000L;
+				if (remaining <= 0){
+					return false;
+				}
+				Thread.sleep(Math.min(delay, remaining));
+				delay = Math.min(delay * 2, MAX_AWAIT_POLL_MILLIS);
+			}
+		} catch (IOException e) {
+			throw new EV3LibraryException("Wait for port status failed", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			if (status != null){
+				try {
+					status.close();
+				} catch (IOException ignore){}
+			}
+		}
+	}
+	
+	//Returns the device node registered on the address, in the class specified, or in any device class
+	private static String findDevice(String deviceClass, String address, String driver){
+		String[] classNames = deviceClass == null ? DEVICE_CLASS_NAMES : new String[]{deviceClass};
+		for (String className : classNames){
+			File[] files = Sysfs.getAllSubClass(className);
+			if (files == null){
+				continue;
+			}
+			for (File file : files){
+				try {
+					String devAddress = Sysfs.getAttribute(className, file.getName(), SYSFS_PROPERTY_ADDRESS);
+					if (!devAddress.equals(address) && !devAddress.startsWith(address + ":")){
+						continue;
+					}
+					if (driver != null && !driver.equals(Sysfs.getAttribute(className, file.getName(), SYSFS_PROPERTY_DRIVER_NAME))){
+						continue;
+					}
+					return file.getName();
+				} catch (IOException ignore){
+					//The device is being removed
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * An entry of the port table, holding the attributes of a port that never change
+	 * @author Anthony
+	 *
+	 */
+	public static final class PortInfo {
+		
+		private final String node;
+		
+		private final String address;
+		
+		private final String driverName;
+		
+		private final String[] modes;
+		
+		private PortInfo(String node, String address, String driverName, String[] modes){
+			this.node = node;
+			this.address = address;
+			this.driverName = driverName;
+			this.modes = modes;
+		}
+		
+		/**
+		 * Returns the port node name (e.g. port0)
+		 * @return Node name
+		 */
+		public String getNode(){
+			return node;
+		}
+		
+		/**
+		 * Returns the name of the port (e.g. in1, outA)
+		 * @return Address
+		 */
+		public String getAddress(){
+			return address;
+		}
+		
+		/**
+		 * Returns the name of the driver that loaded this port
+		 * @return Driver name
+		 */
+		public String getDriverName(){
+			return driverName;
+		}
+		
+		/**
+		 * Returns a list of the available modes of the port
+		 * @return A String Array with a list of available modes
+		 */
+		public String[] getModes(){
+			return modes.clone();
+		}
+	}
 }
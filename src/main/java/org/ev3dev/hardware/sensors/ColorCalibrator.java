@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ev3dev.exception.EV3LibraryException;
+
+/**
+ * Learns color classes from RGB readings and bakes them into a ColorLookupTable.<br>
+ * <br>
+ * Each class keeps the mean and the standard deviation of each component of its samples. A reading belongs to the class
+ *  with the smallest distance measured in standard deviations, or to no class if every distance is above the reject
+ *  distance. The distances are computed once per table cell when the table is built, never when a reading is classified.
+ * <pre>
+ * ColorCalibrator calibrator = new ColorCalibrator(sensor);
+ * int black = calibrator.addClass("black");
+ * int white = calibrator.addClass("white");
+ * //Place the sensor over black, then over white
+ * calibrator.sample(sensor, black, 50, 10);
+ * calibrator.sample(sensor, white, 50, 10);
+ * ColorLookupTable table = calibrator.build();
+ * table.save(new File("colors.lut"));
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class ColorCalibrator {
+	
+	/**
+	 * The default number of bits each component is quantized to
+	 */
+	public static final int DEFAULT_BITS = 5;
+	
+	/**
+	 * The default reject distance, in standard deviations
+	 */
+	public static final double DEFAULT_REJECT_DISTANCE = 4.0;
+	
+	/**
+	 * The minimum standard deviation of a component, as a ratio of the maximum value,
+	 *  so that a class sampled on a perfectly stable reading still covers its neighbourhood
+	 */
+	public static final double MIN_DEVIATION_RATIO = 0.02;
+	
+	private static final int MAX_CLASSES = 254;
+	
+	private final int maxValue;
+	
+	private final List<ColorClass> classes = new ArrayList<ColorClass>();
+	
+	private double rejectDistance = DEFAULT_REJECT_DISTANCE;
+	
+	/**
+	 * Creates a ColorCalibrator for the sensor specified
+	 * @param sensor The sensor
+	 */
+	public ColorCalibrator(RGBSensor sensor){
+		this(sensor.getMaxRGBValue());
+	}
+	
+	/**
+	 * Creates a ColorCalibrator for readings up to the value specified
+	 * @param maxValue The maximum component value, at most 65535
+	 */
+	public ColorCalibrator(int maxValue){
+		if (maxValue < 1 || maxValue > ColorLookupTable.MAX_VALUE_LIMIT){
+			throw new IllegalArgumentException("The maximum value must be in [1, " + ColorLookupTable.MAX_VALUE_LIMIT + "]: " + maxValue);
+		}
+		this.maxValue = maxValue;
+	}
+	
+	/**
+	 * Adds a color class, or returns the id of the class with the same name
+	 * @param name The class name
+	 * @return The class id
+	 */
+	public synchronized int addClass(String name){
+		for (int i = 0; i < classes.size(); i++){
+			if (classes.get(i).name.equals(name)){
+				return i;
+			}
+		}
+		if (classes.size() == MAX_CLASSES){
+			throw new IllegalStateException("Too many color classes: " + MAX_CLASSES);
+		}
+		classes.add(new ColorClass(name));
+		return classes.size() - 1;
+	}
+	
+	/**
+	 * Adds a reading to a class
+	 * @param classId The class id
+	 * @param red The red component
+	 * @param green The green component
+	 * @param blue The blue component
+	 */
+	public synchronized void addSample(int classId, int red, int green, int blue){
+		classes.get(classId).add(red, green, blue);
+	}
+	
+	/**
+	 * Reads samples from a sensor and adds them to a class
+	 * @param sensor The sensor
+	 * @param classId The class id
+	 * @param samples The number of samples
+	 * @param intervalMillis The time between two samples in milliseconds
+	 * @throws EV3LibraryException If I/O goes wrong or the thread is interrupted
+	 */
+	public void sample(RGBSensor sensor, int classId, int samples, long intervalMillis) throws EV3LibraryException{
+		int[] rgb = new int[3];
+		for (int i = 0; i < samples; i++){
+			if (i > 0 && intervalMillis > 0){
+				try {
+					Thread.sleep(intervalMillis);
+				} catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new EV3LibraryException("Interrupted while sampling color class " + classId, e);
+				}
+			}
+			sensor.readRGB(rgb);
+			addSample(classId, rgb[0], rgb[1], rgb[2]);
+		}
+	}
+	
+	/**
+	 * Removes the samples of a class
+	 * @param classId The class id
+	 */
+	public synchronized void clearSamples(int classId){
+		classes.get(classId).clear();
+	}
+	
+	/**
+	 * Returns the number of classes
+	 * @return Class count
+	 */
+	public synchronized int getClassCount(){
+		return classes.size();
+	}
+	
+	/**
+	 * Returns the number of samples of a class
+	 * @param classId The class id
+	 * @return Sample count
+	 */
+	public synchronized long getSampleCount(int classId){
+		return classes.get(classId).count;
+	}
+	
+	/**
+	 * Returns the mean reading of a class
+	 * @param classId The class id
+	 * @return An array of the red, green and blue means
+	 */
+	public synchronized double[] getMean(int classId){
+		ColorClass c = classes.get(classId);
+		return new double[]{c.mean(0), c.mean(1), c.mean(2)};
+	}
+	
+	/**
+	 * Sets the distance in standard deviations beyond which a reading is <code>UNKNOWN</code>. (Default: 4)
+	 * @param sigmas The distance, or 0 to always choose the nearest class
+	 */
+	public synchronized void setRejectDistance(double sigmas){
+		this.rejectDistance = sigmas;
+	}
+	
+	/**
+	 * Returns the distance in standard deviations beyond which a reading is <code>UNKNOWN</code>
+	 * @return The distance
+	 */
+	public synchronized double getRejectDistance(){
+		return rejectDistance;
+	}
+	
+	/**
+	 * Builds a lookup table with the default quantization
+	 * @return A ColorLookupTable
+	 */
+	public ColorLookupTable build(){
+		return build(DEFAULT_BITS);
+	}
+	
+	/**
+	 * Builds a lookup table
+	 * @param bits The number of bits each component is quantized to, from 1 to 8
+	 * @return A ColorLookupTable
+	 */
+	public synchronized ColorLookupTable build(int bits){
+		if (bits < 1 || bits > 8){
+			throw new IllegalArgumentException("The bits per component must be in [1, 8]: " + bits);
+		}
+		int n = classes.size();
+		String[] names = new String[n];
+		double[][] means = new double[n][3];
+		double[][] inverseDeviations = new double[n][3];
+		double minDeviation = MIN_DEVIATION_RATIO * maxValue;
+		for (int i = 0; i < n; i++){
+			ColorClass c = classes.get(i);
+			if (c.count == 0){
+				throw new IllegalStateException("The color class has no sample: " + c.name);
+			}
+			names[i] = c.name;
+			for (int k = 0; k < 3; k++){
+				means[i][k] = c.mean(k);
+				inverseDeviations[i][k] = 1 / Math.max(minDeviation, c.deviation(k));
+			}
+		}
+		double reject = rejectDistance > 0 ? rejectDistance * rejectDistance : Double.MAX_VALUE;
+		int levels = 1 << bits;
+		double cell = (maxValue + 1.0) / levels;
+		byte[] table = new byte[levels * levels * levels];
+		int index = 0;
+		for (int r = 0; r < levels; r++){
+			double red = (r + 0.5) * cell;
+			for (int g = 0; g < levels; g++){
+				double green = (g + 0.5) * cell;
+				for (int b = 0; b < levels; b++){
+					double blue = (b + 0.5) * cell;
+					int best = -1;
+					double bestDistance = reject;
+					for (int i = 0; i < n; i++){
+						double dr = (red - means[i][0]) * inverseDeviations[i][0];
+						double dg = (green - means[i][1]) * inverseDeviations[i][1];
+						double db = (blue - means[i][2]) * inverseDeviations[i][2];
+						double d = dr * dr + dg * dg + db * db;
+						if (d <= bestDistance){
+							bestDistance = d;
+							best = i;
+						}
+					}
+					table[index++] = (byte) (best + 1);
+				}
+			}
+		}
+		return new ColorLookupTable(bits, maxValue, names, table);
+	}
+	
+	private static final class ColorClass {
+		
+		private final String name;
+		
+		private final double[] sum = new double[3];
+		
+		private final double[] sumOfSquares = new double[3];
+		
+		private long count = 0;
+		
+		private ColorClass(String name){
+			this.name = name;
+		}
+		
+		private void add(int red, int green, int blue){
+			sum[0] += red;
+			sum[1] += green;
+			sum[2] += blue;
+			sumOfSquares[0] += (double) red * red;
+			sumOfSquares[1] += (double) green * green;
+			sumOfSquares[2] += (double) blue * blue;
+			count++;
+		}
+		
+		private void clear(){
+			for (int k = 0; k < 3; k++){
+				sum[k] = 0;
+				sumOfSquares[k] = 0;
+			}
+			count = 0;
+		}
+		
+		private double mean(int k){
+			return count == 0 ? 0 : sum[k] / count;
+		}
+		
+		private double deviation(int k){
+			if (count == 0){
+				return 0;
+			}
+			double mean = sum[k] / count;
+			return Math.sqrt(Math.max(0, sumOfSquares[k] / count - mean * mean));
+		}
+	}
+}
\ No newline at end of file
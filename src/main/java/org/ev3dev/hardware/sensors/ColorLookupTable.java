@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A quantized 3D lookup table classifying RGB readings into color classes, built by a ColorCalibrator.<br>
+ * <br>
+ * Each component is quantized to 2^bits levels (default 5 bits, a 32 KiB table), and every cell holds the class
+ *  of its center, so classifying a reading costs three quantizer lookups and a single table index, without any
+ *  floating point math. A table can be saved to a file and loaded at startup, so calibration is done once.
+ * <pre>
+ * ColorLookupTable table = ColorLookupTable.load(new File("colors.lut"));
+ * int[] rgb = new int[3];
+ * sensor.readRGB(rgb);
+ * System.out.println(table.getClassName(table.classify(rgb)));
+ * </pre>
+ * @author Anthony
+ *
+ */
+public final class ColorLookupTable {
+	
+	/**
+	 * The class returned for a reading that is not close to any calibrated class
+	 */
+	public static final int UNKNOWN = -1;
+	
+	private static final int MAGIC = 0x45564c54;
+	
+	private static final int VERSION = 1;
+	
+	//Raw RGB readings are at most 1020, so a larger range in a file is corrupted rather than allocated
+	static final int MAX_VALUE_LIMIT = 65535;
+	
+	private final int bits;
+	
+	private final int maxValue;
+	
+	private final String[] names;
+	
+	//Class id + 1 of each cell, 0 is unknown
+	private final byte[] table;
+	
+	private final int[] redIndex;
+	
+	private final int[] greenIndex;
+	
+	private final int[] blueIndex;
+	
+	ColorLookupTable(int bits, int maxValue, String[] names, byte[] table){
+		if (bits < 1 || bits > 8){
+			throw new IllegalArgumentException("The bits per component must be in [1, 8]: " + bits);
+		}
+		if (maxValue < 1 || maxValue > MAX_VALUE_LIMIT){
+			throw new IllegalArgumentException("The maximum value must be in [1, " + MAX_VALUE_LIMIT + "]: " + maxValue);
+		}
+		if (table.length != 1 << (3 * bits)){
+			throw new IllegalArgumentException("The table size does not match the bits per component");
+		}
+		this.bits = bits;
+		this.maxValue = maxValue;
+		this.names = names;
+		this.table = table;
+		int levels = 1 << bits;
+		redIndex = new int[maxValue + 1];
+		greenIndex = new int[maxValue + 1];
+		blueIndex = new int[maxValue + 1];
+		for (int v = 0; v <= maxValue; v++){
+			int q = (int) ((long) v * levels / (maxValue + 1));
+			redIndex[v] = q << (2 * bits);
+			greenIndex[v] = q << bits;
+			blueIndex[v] = q;
+		}
+	}
+	
+	/**
+	 * Classifies a reading
+	 * @param red The red component
+	 * @param green The green component
+	 * @param blue The blue component
+	 * @return The class id, or <code>UNKNOWN</code>
+	 */
+	public int classify(int red, int green, int blue){
+		return (table[redIndex[clamp(red)] + greenIndex[clamp(green)] + blueIndex[clamp(blue)]] & 0xff) - 1;
+	}
+	
+	/**
+	 * Classifies a reading
+	 * @param rgb An array of red, green and blue
+	 * @return The class id, or <code>UNKNOWN</code>
+	 */
+	public int classify(int[] rgb){
+		return classify(rgb[0], rgb[1], rgb[2]);
+	}
+	
+	/**
+	 * Returns the name of a class
+	 * @param classId The class id
+	 * @return The class name, or <code>null</code> for <code>UNKNOWN</code>
+	 */
+	public String getClassName(int classId){
+		return classId == UNKNOWN ? null : names[classId];
+	}
+	
+	/**
+	 * Returns the number of classes
+	 * @return Class count
+	 */
+	public int getClassCount(){
+		return names.length;
+	}
+	
+	/**
+	 * Returns the number of bits each component is quantized to
+	 * @return Bits per component
+	 */
+	public int getBits(){
+		return bits;
+	}
+	
+	/**
+	 * Returns the maximum component value of the sensor the table was calibrated for
+	 * @return Maximum component value
+	 */
+	public int getMaxValue(){
+		return maxValue;
+	}
+	
+	/**
+	 * Saves the table to a file
+	 * @param file The file
+	 * @throws IOException If I/O goes wrong
+	 */
+	public void save(File file) throws IOException{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			save(out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Writes the table to a stream. The stream is not closed.
+	 * @param out The stream
+	 * @throws IOException If I/O goes wrong
+	 */
+	public void save(OutputStream out) throws IOException{
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(bits);
+		data.writeInt(maxValue);
+		data.writeInt(names.length);
+		for (int i = 0; i < names.length; i++){
+			data.writeUTF(names[i]);
+		}
+		data.write(table);
+		data.flush();
+	}
+	
+	/**
+	 * Loads a table from a file
+	 * @param file The file
+	 * @return A ColorLookupTable
+	 * @throws IOException If I/O goes wrong or the file is not a color lookup table
+	 */
+	public static ColorLookupTable load(File file) throws IOException{
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return load(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads a table from a stream. The stream is not closed.
+	 * @param in The stream
+	 * @return A ColorLookupTable
+	 * @throws IOException If I/O goes wrong or the stream does not hold a color lookup table
+	 */
+	public static ColorLookupTable load(InputStream in) throws IOException{
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC){
+			throw new IOException("Not a color lookup table");
+		}
+		int version = data.readInt();
+		if (version != VERSION){
+			throw new IOException("Unsupported color lookup table version: " + version);
+		}
+		int bits = data.readInt();
+		int maxValue = data.readInt();
+		int count = data.readInt();
+		if (bits < 1 || bits > 8 || maxValue < 1 || maxValue > MAX_VALUE_LIMIT || count < 0 || count > 254){
+			throw new IOException("Corrupted color lookup table");
+		}
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++){
+			names[i] = data.readUTF();
+		}
+		byte[] table = new byte[1 << (3 * bits)];
+		data.readFully(table);
+		return new ColorLookupTable(bits, maxValue, names, table);
+	}
+	
+	private int clamp(int value){
+		return value < 0 ? 0 : value > maxValue ? maxValue : value;
+	}
+}
\ No newline at end of file
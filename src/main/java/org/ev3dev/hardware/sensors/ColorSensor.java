@@ -39,7 +39,7 @@ import org.ev3dev.hardware.ports.LegoPort;
  * @author Anthony
  *
  */
-public class ColorSensor extends Sensor {
+public class ColorSensor extends Sensor implements RGBSensor {
 	
 	/**
 	 * Reflected Light Intensity required Sysfs mode
@@ -211,6 +211,42 @@ public class ColorSensor extends Sensor {
 		return Integer.parseInt(str);
 	}
 	
+	/**
+	 * The maximum value of a RGB component
+	 */
+	public static final int MAX_RGB_VALUE = 1020;
+	
+	/**
+	 * Red, green and blue components of the detected color, in the range 0-1020, read with a single mode check
+	 * @return An array of red, green and blue
+	 * @throws EV3LibraryException If I/O goes wrong
+	 * @throws InvalidModeException The mode selected wasn't valid, or <b>Auto Switch Mode</b> has disabled.
+	 */
+	public int[] getRGB() throws EV3LibraryException, InvalidModeException{
+		int[] rgb = new int[3];
+		readRGB(rgb);
+		return rgb;
+	}
+	
+	@Override
+	public void readRGB(int[] rgb) throws EV3LibraryException, InvalidModeException{
+		if (!this.getMode().equals(SYSFS_RGB_MODE)){
+			if (autoSwitchMode){
+				this.setMode(SYSFS_RGB_MODE);
+			} else {
+				throw new InvalidModeException("[Auto-switch is off] You are not using a correct mode(" + SYSFS_RGB_MODE + ")! Yours: " + this.getMode());
+			}
+		}
+		rgb[0] = Integer.parseInt(this.getAttribute("value" + SYSFS_RGB_R_VALUE_INDEX));
+		rgb[1] = Integer.parseInt(this.getAttribute("value" + SYSFS_RGB_G_VALUE_INDEX));
+		rgb[2] = Integer.parseInt(this.getAttribute("value" + SYSFS_RGB_B_VALUE_INDEX));
+	}
+	
+	@Override
+	public int getMaxRGBValue(){
+		return MAX_RGB_VALUE;
+	}
+	
 	/**
 	 * Blue component of the detected color, in the range 0-1020
 	 * @return Blue Red component
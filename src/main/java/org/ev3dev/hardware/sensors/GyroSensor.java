@@ -61,6 +61,21 @@ public class GyroSensor extends Sensor {
 	 */
 	public static final int SYSFS_RATE_VALUE_INDEX = 0;
 	
+	/**
+	 * Gyro angle and rate combined Sysfs mode
+	 */
+	public static final String SYSFS_ANGLE_AND_RATE_MODE = "GYRO-G&A";
+	
+	/**
+	 * Gyro angle Sysfs value index in the angle and rate combined mode
+	 */
+	public static final int SYSFS_ANGLE_AND_RATE_ANGLE_VALUE_INDEX = 0;
+	
+	/**
+	 * Gyro rate Sysfs value index in the angle and rate combined mode
+	 */
+	public static final int SYSFS_ANGLE_AND_RATE_RATE_VALUE_INDEX = 1;
+	
 	/**
 	 * This device's default driver name
 	 */
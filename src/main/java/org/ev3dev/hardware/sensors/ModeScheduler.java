@@ -0,0 +1,595 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Sampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads values of several modes of one sensor without switching the mode on every read.<br>
+ * <br>
+ * Reading values of two modes alternately with <b>Auto Switch Mode</b> (e.g. <code>GyroSensor.getAngle()</code> and
+ *  <code>getRate()</code>) writes the <code>mode</code> attribute on every call, and an EV3 UART sensor stops sending
+ *  data for tens to hundreds of milliseconds after each mode switch. A ModeScheduler instead collects the values
+ *  requested as channels, groups them by mode, and stays in each mode for a time slice proportional to the
+ *  weights of its channels, reading all the values of the mode on every poll. The values read are published
+ *  to the channels through volatile fields, so reading a channel never blocks and never touches Sysfs.<br>
+ * <br>
+ * If the sensor driver offers a combined mode that reports the values of several modes at once
+ *  (e.g. <code>GYRO-G&amp;A</code> reports both angle and rate), the channels are moved to the combined mode, so that
+ *  no mode switch is needed at all. Combined modes are registered with <code>registerCombinedMode()</code>.<br>
+ * <br>
+ * The sensor must not be read through its own mode switching methods while the scheduler is running.
+ *  Note that some modes reset their values when they are selected (e.g. <code>GYRO-ANG</code>).<br>
+ * <br>
+ * Example:
+ * <pre>
+ * ModeScheduler scheduler = new ModeScheduler(gyro);
+ * ModeScheduler.Channel angle = scheduler.addChannel(GyroSensor.SYSFS_ANGLE_MODE, GyroSensor.SYSFS_ANGLE_VALUE_INDEX);
+ * ModeScheduler.Channel rate = scheduler.addChannel(GyroSensor.SYSFS_RATE_MODE, GyroSensor.SYSFS_RATE_VALUE_INDEX);
+ * scheduler.start();
+ * int degrees = angle.getValue();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class ModeScheduler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ModeScheduler.class);
+	
+	/**
+	 * The default polling period in milliseconds
+	 */
+	public static final long DEFAULT_PERIOD_MILLIS = 10;
+	
+	/**
+	 * The default time slice in milliseconds given to a mode for each unit of channel weight
+	 */
+	public static final long DEFAULT_SLICE_MILLIS = 100;
+	
+	/**
+	 * The default time in milliseconds to wait after a mode switch before the values are read
+	 */
+	public static final long DEFAULT_SETTLE_MILLIS = 40;
+	
+	private static final Map<String, List<CombinedMode>> combinedModes = new ConcurrentHashMap<String, List<CombinedMode>>();
+	
+	static {
+		registerCombinedMode(GyroSensor.DRIVER_NAME, GyroSensor.SYSFS_ANGLE_AND_RATE_MODE,
+				GyroSensor.SYSFS_ANGLE_MODE, GyroSensor.SYSFS_ANGLE_VALUE_INDEX, GyroSensor.SYSFS_ANGLE_AND_RATE_ANGLE_VALUE_INDEX);
+		registerCombinedMode(GyroSensor.DRIVER_NAME, GyroSensor.SYSFS_ANGLE_AND_RATE_MODE,
+				GyroSensor.SYSFS_RATE_MODE, GyroSensor.SYSFS_RATE_VALUE_INDEX, GyroSensor.SYSFS_ANGLE_AND_RATE_RATE_VALUE_INDEX);
+	}
+	
+	private final Sensor sensor;
+	
+	private final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<Channel>();
+	
+	private volatile long sliceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLICE_MILLIS);
+	
+	private volatile long settleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SETTLE_MILLIS);
+	
+	private volatile boolean preferCombinedModes = true;
+	
+	private volatile long modeSwitches = 0;
+	
+	private ScheduledFuture<?> task = null;
+	
+	private String driverName = null;
+	
+	private String[] modes = null;
+	
+	private ModeGroup[] groups = null;
+	
+	private int groupIndex = -1;
+	
+	private String currentMode = null;
+	
+	private long switchNanos = 0;
+	
+	/**
+	 * Creates a new ModeScheduler of the sensor specified
+	 * @param sensor The sensor
+	 */
+	public ModeScheduler(Sensor sensor){
+		this.sensor = sensor;
+	}
+	
+	/**
+	 * Registers a combined mode of a sensor driver, which reports the value of another mode at another value index.
+	 *  The EV3 gyro sensor's <code>GYRO-G&amp;A</code> mode is registered by default.
+	 * @param driverName The sensor driver name
+	 * @param combinedMode The combined mode
+	 * @param mode The mode whose value the combined mode reports
+	 * @param valueIndex The value index in the mode
+	 * @param combinedValueIndex The value index in the combined mode
+	 */
+	public static synchronized void registerCombinedMode(String driverName, String combinedMode, String mode, int valueIndex, int combinedValueIndex){
+		List<CombinedMode> list = combinedModes.get(driverName);
+		List<CombinedMode> copy = list == null ? new ArrayList<CombinedMode>() : new ArrayList<CombinedMode>(list);
+		copy.add(new CombinedMode(combinedMode, mode, valueIndex, combinedValueIndex));
+		combinedModes.put(driverName, copy);
+	}
+	
+	/**
+	 * Returns the sensor of this scheduler
+	 * @return Sensor
+	 */
+	public Sensor getSensor(){
+		return sensor;
+	}
+	
+	/**
+	 * Requests the value of a mode with a weight of 1
+	 * @param mode The mode listed using <code>getModes()</code>
+	 * @param valueIndex The value[N] index
+	 * @return A Channel holding the latest value
+	 */
+	public Channel addChannel(String mode, int valueIndex){
+		return addChannel(mode, valueIndex, 1);
+	}
+	
+	/**
+	 * Requests the value of a mode. The time spent in a mode is proportional to the sum of the weights of its channels.
+	 * @param mode The mode listed using <code>getModes()</code>
+	 * @param valueIndex The value[N] index
+	 * @param weight The weight of the channel, at least 1
+	 * @return A Channel holding the latest value
+	 */
+	public synchronized Channel addChannel(String mode, int valueIndex, int weight){
+		if (weight < 1){
+			throw new IllegalArgumentException("The weight must be at least 1: " + weight);
+		}
+		Channel channel = new Channel(this, mode, valueIndex, weight);
+		channels.add(channel);
+		groups = null;
+		return channel;
+	}
+	
+	/**
+	 * Removes a channel. It no longer receives values.
+	 * @param channel The channel
+	 */
+	public synchronized void removeChannel(Channel channel){
+		if (channels.remove(channel)){
+			groups = null;
+		}
+	}
+	
+	/**
+	 * Returns the channels of this scheduler
+	 * @return A list of channels
+	 */
+	public List<Channel> getChannels(){
+		return new ArrayList<Channel>(channels);
+	}
+	
+	/**
+	 * Sets the time slice given to a mode for each unit of channel weight
+	 * @param sliceMillis The time slice in milliseconds
+	 */
+	public void setSliceMillis(long sliceMillis){
+		this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+	}
+	
+	/**
+	 * Returns the time slice given to a mode for each unit of channel weight
+	 * @return The time slice in milliseconds
+	 */
+	public long getSliceMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(sliceNanos);
+	}
+	
+	/**
+	 * Sets the time to wait after a mode switch before the values are read
+	 * @param settleMillis The time in milliseconds
+	 */
+	public void setSettleMillis(long settleMillis){
+		this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+	}
+	
+	/**
+	 * Returns the time to wait after a mode switch before the values are read
+	 * @return The time in milliseconds
+	 */
+	public long getSettleMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(settleNanos);
+	}
+	
+	/**
+	 * Sets whether channels are moved to a combined mode offered by the driver. (Default: enabled)
+	 * @param prefer Enabled
+	 */
+	public synchronized void setPreferCombinedModes(boolean prefer){
+		this.preferCombinedModes = prefer;
+		groups = null;
+	}
+	
+	/**
+	 * Returns whether channels are moved to a combined mode offered by the driver
+	 * @return Enabled
+	 */
+	public boolean isPreferCombinedModes(){
+		return preferCombinedModes;
+	}
+	
+	/**
+	 * Returns the number of mode switches done by this scheduler
+	 * @return The number of mode switches
+	 */
+	public long getModeSwitchCount(){
+		return modeSwitches;
+	}
+	
+	/**
+	 * Starts polling on the shared Sampler at the default rate
+	 */
+	public void start(){
+		start(Sampler.getShared(), DEFAULT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Starts polling on the Sampler specified
+	 * @param sampler The Sampler
+	 * @param periodMillis The polling period in milliseconds
+	 */
+	public synchronized void start(Sampler sampler, long periodMillis){
+		if (task != null){
+			return;
+		}
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					poll();
+				} catch (EV3LibraryException e){
+					logger.debug("Polling sensor modes failed", e);
+				}
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops polling. The last values remain available.
+	 */
+	public synchronized void stop(){
+		if (task == null){
+			return;
+		}
+		task.cancel(false);
+		task = null;
+	}
+	
+	/**
+	 * Returns whether the scheduler is polling on a Sampler
+	 * @return Running
+	 */
+	public synchronized boolean isRunning(){
+		return task != null;
+	}
+	
+	/**
+	 * Polls the sensor once: switches to the next mode if the time slice of the current mode has ended,
+	 *  otherwise reads the values of the current mode once it has settled. Call this periodically
+	 *  if the scheduler is not started on a Sampler.
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public synchronized void poll() throws EV3LibraryException{
+		if (groups == null){
+			groups = buildGroups();
+			groupIndex = -1;
+		}
+		if (groups.length == 0){
+			return;
+		}
+		long now = System.nanoTime();
+		if (groupIndex < 0 || (groups.length > 1 && now - switchNanos >= settleNanos + groups[groupIndex].weight * sliceNanos)){
+			groupIndex = (groupIndex + 1) % groups.length;
+			String mode = groups[groupIndex].mode;
+			if (currentMode == null){
+				currentMode = sensor.getMode();
+			}
+			if (!mode.equals(currentMode)){
+				sensor.setMode(mode);
+				currentMode = mode;
+				modeSwitches++;
+				switchNanos = now;
+				return;
+			}
+			switchNanos = now - settleNanos;
+		}
+		if (now - switchNanos < settleNanos){
+			return;
+		}
+		ModeGroup group = groups[groupIndex];
+		for (int i = 0; i < group.valueIndexes.length; i++){
+			String str = sensor.getAttribute("value" + group.valueIndexes[i]);
+			int value = Integer.parseInt(str);
+			long timestamp = System.nanoTime();
+			for (Channel channel : group.channels[i]){
+				channel.publish(value, timestamp);
+			}
+		}
+	}
+	
+	private ModeGroup[] buildGroups() throws EV3LibraryException{
+		List<CombinedMode> combined = null;
+		if (preferCombinedModes){
+			if (driverName == null){
+				driverName = sensor.getDriverName();
+			}
+			combined = combinedModes.get(driverName);
+			if (combined != null && modes == null){
+				modes = sensor.getModes();
+			}
+		}
+		Map<String, ModeGroup> map = new LinkedHashMap<String, ModeGroup>();
+		for (Channel channel : channels){
+			String mode = channel.mode;
+			int valueIndex = channel.valueIndex;
+			if (combined != null){
+				for (CombinedMode cm : combined){
+					if (cm.mode.equals(mode) && cm.valueIndex == valueIndex && Arrays.asList(modes).contains(cm.combinedMode)){
+						mode = cm.combinedMode;
+						valueIndex = cm.combinedValueIndex;
+						break;
+					}
+				}
+			}
+			channel.activeMode = mode;
+			ModeGroup group = map.get(mode);
+			if (group == null){
+				group = new ModeGroup(mode);
+				map.put(mode, group);
+			}
+			group.add(valueIndex, channel);
+		}
+		return map.values().toArray(new ModeGroup[map.size()]);
+	}
+	
+	/**
+	 * Holds the latest value read for a requested mode and value index
+	 * @author Anthony
+	 *
+	 */
+	public static final class Channel {
+		
+		private final ModeScheduler scheduler;
+		
+		private final String mode;
+		
+		private final int valueIndex;
+		
+		private final int weight;
+		
+		private volatile String activeMode = null;
+		
+		private volatile int value = 0;
+		
+		private volatile long timestamp = 0;
+		
+		private volatile long updateCount = 0;
+		
+		private final CopyOnWriteArrayList<ChannelListener> listeners = new CopyOnWriteArrayList<ChannelListener>();
+		
+		private Channel(ModeScheduler scheduler, String mode, int valueIndex, int weight){
+			this.scheduler = scheduler;
+			this.mode = mode;
+			this.valueIndex = valueIndex;
+			this.weight = weight;
+		}
+		
+		private void publish(int value, long timestamp){
+			this.value = value;
+			this.timestamp = timestamp;
+			this.updateCount++;
+			for (ChannelListener listener : listeners){
+				listener.onValue(this, value, timestamp);
+			}
+		}
+		
+		/**
+		 * Adds a listener that receives every value read for this channel, on the polling thread
+		 * @param listener The listener
+		 */
+		public void addListener(ChannelListener listener){
+			listeners.add(listener);
+		}
+		
+		/**
+		 * Removes a listener
+		 * @param listener The listener
+		 */
+		public void removeListener(ChannelListener listener){
+			listeners.remove(listener);
+		}
+		
+		/**
+		 * Returns the scheduler of this channel
+		 * @return ModeScheduler
+		 */
+		public ModeScheduler getScheduler(){
+			return scheduler;
+		}
+		
+		/**
+		 * Returns the requested mode
+		 * @return Mode
+		 */
+		public String getMode(){
+			return mode;
+		}
+		
+		/**
+		 * Returns the mode that is actually read, which is a combined mode if one was chosen
+		 * @return Mode, or <code>null</code> if the scheduler has not polled yet
+		 */
+		public String getActiveMode(){
+			return activeMode;
+		}
+		
+		/**
+		 * Returns the requested value[N] index
+		 * @return Value index
+		 */
+		public int getValueIndex(){
+			return valueIndex;
+		}
+		
+		/**
+		 * Returns the weight of this channel
+		 * @return Weight
+		 */
+		public int getWeight(){
+			return weight;
+		}
+		
+		/**
+		 * Returns the latest value read
+		 * @return The value, or 0 if no value has been read yet
+		 */
+		public int getValue(){
+			return value;
+		}
+		
+		/**
+		 * Returns whether a value has been read
+		 * @return Whether a value is available
+		 */
+		public boolean hasValue(){
+			return updateCount > 0;
+		}
+		
+		/**
+		 * Returns the number of values read
+		 * @return Update count
+		 */
+		public long getUpdateCount(){
+			return updateCount;
+		}
+		
+		/**
+		 * Returns the <code>System.nanoTime()</code> when the latest value was read
+		 * @return Timestamp in nanoseconds
+		 */
+		public long getTimestampNanos(){
+			return timestamp;
+		}
+		
+		/**
+		 * Returns the time elapsed since the latest value was read
+		 * @return Age in milliseconds, or <code>Long.MAX_VALUE</code> if no value has been read yet
+		 */
+		public long getAgeMillis(){
+			if (updateCount == 0){
+				return Long.MAX_VALUE;
+			}
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timestamp);
+		}
+	}
+	
+	/**
+	 * Receives the values read for a channel. Listeners are called on the polling thread, so they must not block.
+	 * @author Anthony
+	 *
+	 */
+	public interface ChannelListener {
+		
+		/**
+		 * Called when a value is read for a channel
+		 * @param channel The channel
+		 * @param value The value read
+		 * @param timestampNanos The <code>System.nanoTime()</code> when the value was read
+		 */
+		public void onValue(Channel channel, int value, long timestampNanos);
+		
+	}
+	
+	private static final class ModeGroup {
+		
+		private final String mode;
+		
+		private int weight = 0;
+		
+		private int[] valueIndexes = new int[0];
+		
+		private Channel[][] channels = new Channel[0][];
+		
+		private ModeGroup(String mode){
+			this.mode = mode;
+		}
+		
+		private void add(int valueIndex, Channel channel){
+			weight += channel.weight;
+			for (int i = 0; i < valueIndexes.length; i++){
+				if (valueIndexes[i] == valueIndex){
+					channels[i] = Arrays.copyOf(channels[i], channels[i].length + 1);
+					channels[i][channels[i].length - 1] = channel;
+					return;
+				}
+			}
+			valueIndexes = Arrays.copyOf(valueIndexes, valueIndexes.length + 1);
+			valueIndexes[valueIndexes.length - 1] = valueIndex;
+			channels = Arrays.copyOf(channels, channels.length + 1);
+			channels[channels.length - 1] = new Channel[]{channel};
+		}
+	}
+	
+	private static final class CombinedMode {
+		
+		private final String combinedMode;
+		
+		private final String mode;
+		
+		private final int valueIndex;
+		
+		private final int combinedValueIndex;
+		
+		private CombinedMode(String combinedMode, String mode, int valueIndex, int combinedValueIndex){
+			this.combinedMode = combinedMode;
+			this.mode = mode;
+			this.valueIndex = valueIndex;
+			this.combinedValueIndex = combinedValueIndex;
+		}
+	}
+}
\ No newline at end of file
@@ -55,6 +55,16 @@ public class Sensor extends Device{
 	 */
 	public static final String SYSFS_PROPERTY_ADDRESS = "address";
 	
+	/**
+	 * The Sysfs class's <code>bin_data</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_BIN_DATA = "bin_data";
+	
+	/**
+	 * The Sysfs class's <code>bin_data_format</code> property name
+	 */
+	public static final String SYSFS_PROPERTY_BIN_DATA_FORMAT = "bin_data_format";
+	
 	/**
 	 * The Sysfs class's <code>command</code> property name
 	 */
@@ -238,4 +248,70 @@ public class Sensor extends Device{
 		return this.getAttribute(SYSFS_PROPERTY_UNITS);
 	}
 	
+	/**
+	 * Returns the format of the values in <code>bin_data</code> for the current mode.
+	 *  One of <code>u8</code>, <code>s8</code>, <code>u16</code>, <code>s16</code>, <code>s16_be</code>, <code>s32</code>, <code>s32_be</code> or <code>float</code>.
+	 * @return The bin_data format
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public String getBinDataFormat() throws EV3LibraryException{
+		return this.getAttribute(SYSFS_PROPERTY_BIN_DATA_FORMAT);
+	}
+	
+	/**
+	 * Returns the size in bytes of one value of a <code>bin_data</code> format
+	 * @param format The bin_data format
+	 * @return Size in bytes
+	 */
+	public static int getBinDataValueSize(String format){
+		if (format.equals("u8") || format.equals("s8")){
+			return 1;
+		} else if (format.equals("u16") || format.equals("s16") || format.equals("s16_be")){
+			return 2;
+		} else if (format.equals("s32") || format.equals("s32_be") || format.equals("float")){
+			return 4;
+		}
+		throw new EV3LibraryException("Unknown bin_data format: " + format);
+	}
+	
+	/**
+	 * Decodes the raw values of <code>bin_data</code>, which holds all the value[N] of the current mode read in a single pass.
+	 *  Values of the <code>float</code> format are rounded.
+	 * @param format The bin_data format
+	 * @param data The bytes read from bin_data
+	 * @param length The number of bytes read
+	 * @param values An array receiving the values
+	 * @return The number of values decoded
+	 */
+	public static int decodeBinData(String format, byte[] data, int length, int[] values){
+		int size = getBinDataValueSize(format);
+		int count = Math.min(length / size, values.length);
+		for (int i = 0; i < count; i++){
+			int o = i * size;
+			int v;
+			if (format.equals("u8")){
+				v = data[o] & 0xff;
+			} else if (format.equals("s8")){
+				v = data[o];
+			} else if (format.equals("u16")){
+				v = (data[o] & 0xff) | (data[o + 1] & 0xff) << 8;
+			} else if (format.equals("s16")){
+				v = (short) ((data[o] & 0xff) | (data[o + 1] & 0xff) << 8);
+			} else if (format.equals("s16_be")){
+				v = (short) ((data[o] & 0xff) << 8 | (data[o + 1] & 0xff));
+			} else {
+				int le = (data[o] & 0xff) | (data[o + 1] & 0xff) << 8 | (data[o + 2] & 0xff) << 16 | (data[o + 3] & 0xff) << 24;
+				if (format.equals("s32")){
+					v = le;
+				} else if (format.equals("s32_be")){
+					v = Integer.reverseBytes(le);
+				} else {
+					v = Math.round(Float.intBitsToFloat(le));
+				}
+			}
+			values[i] = v;
+		}
+		return count;
+	}
+	
 }
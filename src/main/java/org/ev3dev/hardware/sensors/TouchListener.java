@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors;
+
+/**
+ * Receives the debounced events of a TouchSensor in event mode. Listeners are called on the sampler thread,
+ *  so they must not block. Extend TouchAdapter to implement only some of the events.
+ * @author Anthony
+ *
+ */
+public interface TouchListener {
+	
+	/**
+	 * Called when the sensor is pressed
+	 * @param sensor The touch sensor
+	 */
+	public void onPress(TouchSensor sensor);
+	
+	/**
+	 * Called when the sensor is released
+	 * @param sensor The touch sensor
+	 * @param heldMillis The time the sensor was held in milliseconds
+	 */
+	public void onRelease(TouchSensor sensor, long heldMillis);
+	
+	/**
+	 * Called when the sensor is released before a long press
+	 * @param sensor The touch sensor
+	 */
+	public void onClick(TouchSensor sensor);
+	
+	/**
+	 * Called once when the sensor has been held for the long press time
+	 * @param sensor The touch sensor
+	 */
+	public void onLongPress(TouchSensor sensor);
+	
+}
\ No newline at end of file
@@ -28,13 +28,42 @@
  *******************************************************************************/
 package org.ev3dev.hardware.sensors;
 
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.ev3dev.exception.EV3LibraryException;
 import org.ev3dev.exception.InvalidModeException;
 import org.ev3dev.exception.InvalidPortException;
 import org.ev3dev.exception.InvalidSensorException;
+import org.ev3dev.hardware.Sampler;
 import org.ev3dev.hardware.ports.LegoPort;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * LEGO EV3/NXT touch sensor.<br>
+ * <br>
+ * Besides reading the state with <code>isPressed()</code>, the sensor can run in event mode: its value is sampled
+ *  on a Sampler (default every 2 ms) through a persistent channel, debounced, and press, release, click and long press
+ *  events are sent to TouchListeners, so that user code does not have to poll it. By default, the touch sensors in
+ *  event mode share one Sampler of their own, as a 2 ms period cannot be kept on a Sampler shared with slower tasks.
+ * <pre>
+ * sensor.addTouchListener(new TouchAdapter(){
+ *     public void onClick(TouchSensor sensor){
+ *         System.out.println("Clicked!");
+ *     }
+ * });
+ * sensor.startEvents();
+ * </pre>
+ * @author Anthony
+ *
+ */
 public class TouchSensor extends Sensor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TouchSensor.class);
 	
 	/**
 	 * Sysfs class TouchSensor required mode
@@ -56,8 +85,55 @@ public class TouchSensor extends Sensor {
 	 */
 	public static final String DRIVER_NAME_NXT = "lego-nxt-touch"; 
 	
+	/**
+	 * The default sampling period of event mode in milliseconds
+	 */
+	public static final long DEFAULT_EVENT_PERIOD_MILLIS = 2;
+	
+	/**
+	 * The default time in milliseconds a new state must be held before it is reported
+	 */
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 6;
+	
+	/**
+	 * The default time in milliseconds the sensor must be held for a long press
+	 */
+	public static final long DEFAULT_LONG_PRESS_MILLIS = 800;
+	
+	private static Sampler eventSampler = null;
+	
 	public boolean autoSwitchMode = true;
 	
+	private final CopyOnWriteArrayList<TouchListener> listeners = new CopyOnWriteArrayList<TouchListener>();
+	
+	private ScheduledFuture<?> eventTask = null;
+	
+	private SysfsChannel valueChannel = null;
+	
+	private volatile long debounceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEBOUNCE_MILLIS);
+	
+	private volatile long longPressNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LONG_PRESS_MILLIS);
+	
+	private volatile boolean pressed = false;
+	
+	private volatile long pressCount = 0;
+	
+	private volatile long releaseCount = 0;
+	
+	private volatile long rawTransitionCount = 0;
+	
+	private volatile long readErrorCount = 0;
+	
+	private boolean readFailing = false;
+	
+	private boolean candidate = false;
+	
+	private long candidateSince = 0;
+	
+	private long pressedSince = 0;
+	
+	private boolean longPressed = false;
+	
 	/**
 	 * Creates a new TouchSensor instance.
 	 * @param port LegoPort
@@ -111,4 +187,234 @@ public class TouchSensor extends Sensor {
 	public boolean isAutoSwitchMode(){
 		return autoSwitchMode;
 	}
+	
+	/**
+	 * Returns the Sampler shared by the touch sensors started with <code>startEvents()</code>
+	 * @return The event Sampler
+	 */
+	public static synchronized Sampler getEventSampler(){
+		if (eventSampler == null){
+			eventSampler = new Sampler("ev3dev-touch-events");
+		}
+		return eventSampler;
+	}
+	
+	/**
+	 * Starts event mode at the default rate, on the Sampler shared by the touch sensors in event mode
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void startEvents() throws EV3LibraryException{
+		startEvents(getEventSampler(), DEFAULT_EVENT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Starts event mode on the Sampler specified. The sensor is switched to the <code>TOUCH</code> mode if needed.
+	 *  Tasks of a Sampler run one after another, so the period is only kept if the other tasks of the Sampler
+	 *  are shorter than it; the debounce and long press times are measured, and are not shortened by a late sample.
+	 * @param sampler The Sampler
+	 * @param periodMillis The sampling period in milliseconds
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public synchronized void startEvents(Sampler sampler, long periodMillis) throws EV3LibraryException{
+		if (eventTask != null){
+			return;
+		}
+		if (!this.getMode().equals(SYSFS_REQUIRED_MODE)){
+			this.setMode(SYSFS_REQUIRED_MODE);
+		}
+		valueChannel = this.openAttributeChannel("value" + SYSFS_VALUE_INDEX, false);
+		try {
+			pressed = valueChannel.readInt() == 1;
+		} catch (IOException e){
+			closeValueChannel();
+			throw new EV3LibraryException("Read touch sensor value failed", e);
+		}
+		candidate = pressed;
+		candidateSince = System.nanoTime();
+		pressedSince = candidateSince;
+		longPressed = false;
+		eventTask = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				sampleEvents();
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops event mode
+	 */
+	public synchronized void stopEvents(){
+		if (eventTask == null){
+			return;
+		}
+		eventTask.cancel(false);
+		eventTask = null;
+		closeValueChannel();
+	}
+	
+	/**
+	 * Returns whether event mode is running
+	 * @return Running
+	 */
+	public synchronized boolean isEventMode(){
+		return eventTask != null;
+	}
+	
+	/**
+	 * Adds a listener of the events sent in event mode
+	 * @param listener The listener
+	 */
+	public void addTouchListener(TouchListener listener){
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener
+	 * @param listener The listener
+	 */
+	public void removeTouchListener(TouchListener listener){
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the debounced state of event mode, without reading Sysfs
+	 * @return The touch sensor is pressed or not.
+	 */
+	public boolean isPressedDebounced(){
+		return pressed;
+	}
+	
+	/**
+	 * Sets the time a new state must be held before it is reported in event mode
+	 * @param debounceMillis The time in milliseconds
+	 */
+	public void setDebounceMillis(long debounceMillis){
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+	}
+	
+	/**
+	 * Returns the time a new state must be held before it is reported in event mode
+	 * @return The time in milliseconds
+	 */
+	public long getDebounceMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(debounceNanos);
+	}
+	
+	/**
+	 * Sets the time the sensor must be held for a long press
+	 * @param longPressMillis The time in milliseconds
+	 */
+	public void setLongPressMillis(long longPressMillis){
+		this.longPressNanos = TimeUnit.MILLISECONDS.toNanos(longPressMillis);
+	}
+	
+	/**
+	 * Returns the time the sensor must be held for a long press
+	 * @return The time in milliseconds
+	 */
+	public long getLongPressMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(longPressNanos);
+	}
+	
+	/**
+	 * Returns the number of debounced presses in event mode
+	 * @return Press count
+	 */
+	public long getPressCount(){
+		return pressCount;
+	}
+	
+	/**
+	 * Returns the number of debounced releases in event mode
+	 * @return Release count
+	 */
+	public long getReleaseCount(){
+		return releaseCount;
+	}
+	
+	/**
+	 * Returns the number of raw state changes seen in event mode before debouncing. Many more raw
+	 *  transitions than presses and releases means the contact bounces or the debounce time is too short.
+	 * @return Raw transition count
+	 */
+	public long getRawTransitionCount(){
+		return rawTransitionCount;
+	}
+	
+	/**
+	 * Returns the number of failed reads in event mode. Only the first failure of a run of failures is logged as a warning.
+	 * @return Read error count
+	 */
+	public long getReadErrorCount(){
+		return readErrorCount;
+	}
+	
+	private synchronized void sampleEvents(){
+		if (eventTask == null){
+			return;
+		}
+		boolean raw;
+		try {
+			raw = valueChannel.readInt() == 1;
+		} catch (IOException e){
+			readErrorCount++;
+			if (!readFailing){
+				readFailing = true;
+				logger.warn("Read touch sensor value failed, further failures are logged at debug level", e);
+			} else {
+				logger.debug("Read touch sensor value failed", e);
+			}
+			return;
+		}
+		if (readFailing){
+			readFailing = false;
+			logger.info("Read touch sensor value recovered after " + readErrorCount + " failures in total");
+		}
+		long now = System.nanoTime();
+		if (raw != candidate){
+			candidate = raw;
+			candidateSince = now;
+			rawTransitionCount++;
+		}
+		if (candidate != pressed && now - candidateSince >= debounceNanos){
+			pressed = candidate;
+			if (pressed){
+				pressCount++;
+				pressedSince = candidateSince;
+				longPressed = false;
+				for (TouchListener listener : listeners){
+					listener.onPress(this);
+				}
+			} else {
+				releaseCount++;
+				long held = TimeUnit.NANOSECONDS.toMillis(candidateSince - pressedSince);
+				for (TouchListener listener : listeners){
+					listener.onRelease(this, held);
+				}
+				if (!longPressed){
+					for (TouchListener listener : listeners){
+						listener.onClick(this);
+					}
+				}
+			}
+		}
+		if (pressed && !longPressed && now - pressedSince >= longPressNanos){
+			longPressed = true;
+			for (TouchListener listener : listeners){
+				listener.onLongPress(this);
+			}
+		}
+	}
+	
+	private void closeValueChannel(){
+		if (valueChannel != null){
+			try {
+				valueChannel.close();
+			} catch (IOException ignore){}
+			valueChannel = null;
+		}
+	}
 }
@@ -0,0 +1,680 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors.charmedlabs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Sampler;
+import org.ev3dev.hardware.sensors.Sensor;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the blocks detected by a Pixy CMUcam5 across frames.<br>
+ * <br>
+ * Every frame is read in a single pass from the <code>bin_data</code> attribute, kept open as a persistent channel,
+ *  instead of one attribute read per value. The <code>pixy-lego</code> driver reports the largest block of the
+ *  <code>ALL</code> mode, or the largest block of one signature in the <code>SIG[N]</code> modes. By default the tracker
+ *  reads the <code>ALL</code> mode; when signatures are specified with <code>setSignatures()</code>, it cycles through
+ *  their <code>SIG[N]</code> modes. The first frame read after each mode switch may still hold the values of the
+ *  previous mode, so it is skipped and each signature takes two frames.<br>
+ * <br>
+ * Frames are read on a Sampler at the camera frame rate, bounded by the driver polling period. Blocks are associated
+ *  with the tracks of the same signature by nearest neighbour against a constant velocity prediction, within a gating
+ *  distance, and smoothed by an alpha-beta filter. Each track keeps a stable ID until it has not been seen for a while.
+ *  The latest tracks are published as an immutable snapshot that can be read from any thread without locking.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * PixyTracker tracker = new PixyTracker(pixy);
+ * tracker.setSignatures(1, 2);
+ * tracker.start();
+ * for (PixyTracker.Track track : tracker.getTracks()){
+ *     System.out.println(track.getId() + ": " + track.getX() + "," + track.getY());
+ * }
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class PixyTracker {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PixyTracker.class);
+	
+	/**
+	 * The frame period of the Pixy CMUcam5 in milliseconds (50 frames per second)
+	 */
+	public static final long FRAME_PERIOD_MILLIS = 20;
+	
+	/**
+	 * The default gating distance in pixels
+	 */
+	public static final double DEFAULT_GATE_PIXELS = 40;
+	
+	/**
+	 * The default time in milliseconds after which a track that has not been seen is dropped
+	 */
+	public static final long DEFAULT_LOST_MILLIS = 500;
+	
+	/**
+	 * The default position gain of the alpha-beta filter
+	 */
+	public static final double DEFAULT_ALPHA = 0.8;
+	
+	/**
+	 * The default velocity gain of the alpha-beta filter
+	 */
+	public static final double DEFAULT_BETA = 0.3;
+	
+	/**
+	 * The maximum number of tracks
+	 */
+	public static final int MAX_TRACKS = 16;
+	
+	private static final int MAX_VALUES = 8;
+	
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final PixyCmucam5Sensor pixy;
+	
+	private final List<TrackState> states = new ArrayList<TrackState>(MAX_TRACKS);
+	
+	private final byte[] data = new byte[MAX_VALUES * 4];
+	
+	private final int[] values = new int[MAX_VALUES];
+	
+	private int[] signatures = new int[0];
+	
+	private String[] formats;
+	
+	private int cursor = 0;
+	
+	private boolean settling = false;
+	
+	private int nextId = 1;
+	
+	private ScheduledFuture<?> task = null;
+	
+	private SysfsChannel channel = null;
+	
+	private volatile List<Track> snapshot = Collections.emptyList();
+	
+	private volatile double gate = DEFAULT_GATE_PIXELS;
+	
+	private volatile long lostNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LOST_MILLIS);
+	
+	private volatile double alpha = DEFAULT_ALPHA;
+	
+	private volatile double beta = DEFAULT_BETA;
+	
+	private volatile long frameCount = 0;
+	
+	private volatile long shortFrameCount = 0;
+	
+	/**
+	 * Creates a new PixyTracker
+	 * @param pixy The Pixy CMUcam5 sensor
+	 */
+	public PixyTracker(PixyCmucam5Sensor pixy){
+		this.pixy = pixy;
+	}
+	
+	/**
+	 * Sets the signatures to track, cycling through their <code>SIG[N]</code> modes. With no signatures, the
+	 *  <code>ALL</code> mode is read. This takes effect on the next <code>start()</code>.
+	 * @param signatures Signatures from 1 to 7
+	 */
+	public synchronized void setSignatures(int... signatures){
+		for (int sig : signatures){
+			if (sig < 1 || sig > 7){
+				throw new IllegalArgumentException("The signature must be between 1 and 7");
+			}
+		}
+		this.signatures = signatures.clone();
+	}
+	
+	/**
+	 * Returns the signatures tracked
+	 * @return Signatures, empty if the <code>ALL</code> mode is read
+	 */
+	public synchronized int[] getSignatures(){
+		return signatures.clone();
+	}
+	
+	/**
+	 * Starts tracking on the shared Sampler, at the camera frame rate bounded by the driver polling period
+	 * @throws EV3LibraryException If the sensor cannot be set up
+	 */
+	public void start() throws EV3LibraryException{
+		long period = FRAME_PERIOD_MILLIS;
+		try {
+			period = Math.max(period, pixy.getPollMs());
+		} catch (EV3LibraryException e){
+			logger.debug("Unable to read the polling period, using the frame period", e);
+		} catch (NumberFormatException e){
+			logger.debug("Unable to read the polling period, using the frame period", e);
+		}
+		start(Sampler.getShared(), period);
+	}
+	
+	/**
+	 * Starts tracking on the Sampler specified
+	 * @param sampler The Sampler
+	 * @param periodMillis The frame period in milliseconds
+	 * @throws EV3LibraryException If the sensor cannot be set up
+	 */
+	public synchronized void start(Sampler sampler, long periodMillis) throws EV3LibraryException{
+		if (task != null){
+			return;
+		}
+		cursor = 0;
+		formats = new String[Math.max(1, signatures.length)];
+		pixy.setMode(getMode(0));
+		settling = true;
+		channel = pixy.openAttributeChannel(Sensor.SYSFS_PROPERTY_BIN_DATA, false);
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				update();
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops tracking. The last tracks remain available.
+	 */
+	public synchronized void stop(){
+		if (task == null){
+			return;
+		}
+		task.cancel(false);
+		task = null;
+		try {
+			channel.close();
+		} catch (IOException e){
+			logger.debug("Closing bin_data channel failed", e);
+		}
+		channel = null;
+	}
+	
+	/**
+	 * Returns whether the tracker is running
+	 * @return Running
+	 */
+	public synchronized boolean isRunning(){
+		return task != null;
+	}
+	
+	/**
+	 * Removes all tracks
+	 */
+	public synchronized void clear(){
+		states.clear();
+		snapshot = Collections.emptyList();
+	}
+	
+	/**
+	 * Reads one frame and updates the tracks. This is called periodically after <code>start()</code>.
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public void update() throws EV3LibraryException{
+		synchronized (this){
+			if (task == null){
+				return;
+			}
+			long now = System.nanoTime();
+			boolean changed = false;
+			if (settling){
+				//The driver updates the values and the format of a new mode on its next poll, which may come after this frame
+				settling = false;
+			} else {
+				String format = formats[cursor];
+				if (format == null){
+					format = pixy.getBinDataFormat();
+					formats[cursor] = format;
+				}
+				int n;
+				try {
+					n = channel.read(data);
+				} catch (IOException e){
+					throw new EV3LibraryException("Read Pixy frame failed", e);
+				}
+				int count = Sensor.decodeBinData(format, data, n, values);
+				now = System.nanoTime();
+				
+				//A short frame is read as no blocks in this frame
+				if (signatures.length == 0){
+					if (count < 6){
+						shortFrameCount++;
+					} else {
+						int sig = values[PixyCmucam5Sensor.MODE_ALL_SIG_LOW_BYTE_VALUE_INDEX] | values[PixyCmucam5Sensor.MODE_ALL_SIG_HIGH_BYTE_VALUE_INDEX] << 8;
+						if (sig != 0 && (values[PixyCmucam5Sensor.MODE_ALL_WIDTH_VALUE_INDEX] != 0 || values[PixyCmucam5Sensor.MODE_ALL_HEIGHT_VALUE_INDEX] != 0)){
+							observe(now, sig,
+									values[PixyCmucam5Sensor.MODE_ALL_X_VALUE_INDEX],
+									values[PixyCmucam5Sensor.MODE_ALL_Y_VALUE_INDEX],
+									values[PixyCmucam5Sensor.MODE_ALL_WIDTH_VALUE_INDEX],
+									values[PixyCmucam5Sensor.MODE_ALL_HEIGHT_VALUE_INDEX]);
+							changed = true;
+						}
+					}
+				} else {
+					if (count < 5){
+						shortFrameCount++;
+					} else if (values[PixyCmucam5Sensor.MODE_SIG_COUNT_VALUE_INDEX] > 0){
+						observe(now, signatures[cursor],
+								values[PixyCmucam5Sensor.MODE_SIG_X_VALUE_INDEX],
+								values[PixyCmucam5Sensor.MODE_SIG_Y_VALUE_INDEX],
+								values[PixyCmucam5Sensor.MODE_SIG_WIDTH_VALUE_INDEX],
+								values[PixyCmucam5Sensor.MODE_SIG_HEIGHT_VALUE_INDEX]);
+						changed = true;
+					}
+					if (signatures.length > 1){
+						cursor = (cursor + 1) % signatures.length;
+						pixy.setMode(getMode(cursor));
+						settling = true;
+					}
+				}
+			}
+			
+			//Drop the tracks that have not been seen for too long
+			long lost = lostNanos;
+			for (int i = states.size() - 1; i >= 0; i--){
+				if (now - states.get(i).time > lost){
+					states.remove(i);
+					changed = true;
+				}
+			}
+			
+			//The published snapshot may still be held by readers, so it is kept as long as the tracks are unchanged
+			if (changed){
+				Track[] tracks = new Track[states.size()];
+				for (int i = 0; i < tracks.length; i++){
+					tracks[i] = new Track(states.get(i));
+				}
+				snapshot = Collections.unmodifiableList(Arrays.asList(tracks));
+			}
+			frameCount++;
+		}
+	}
+	
+	private String getMode(int index){
+		if (signatures.length == 0){
+			return PixyCmucam5Sensor.MODE_ALL;
+		}
+		return PixyCmucam5Sensor.PREFIX_MODE_SIG + signatures[index];
+	}
+	
+	private void observe(long now, int sig, int x, int y, int width, int height){
+		//Nearest neighbour of the same signature against the constant velocity prediction
+		TrackState best = null;
+		double bestDistance = gate;
+		for (TrackState state : states){
+			if (state.signature != sig){
+				continue;
+			}
+			double dt = (now - state.time) / NANOS_PER_SECOND;
+			double dx = x - (state.x + state.vx * dt);
+			double dy = y - (state.y + state.vy * dt);
+			double distance = Math.sqrt(dx * dx + dy * dy);
+			if (distance <= bestDistance){
+				best = state;
+				bestDistance = distance;
+			}
+		}
+		
+		if (best == null){
+			if (states.size() >= MAX_TRACKS){
+				//Replace the track seen the longest time ago
+				TrackState oldest = states.get(0);
+				for (TrackState state : states){
+					if (state.time < oldest.time){
+						oldest = state;
+					}
+				}
+				states.remove(oldest);
+			}
+			TrackState state = new TrackState();
+			state.id = nextId++;
+			state.signature = sig;
+			state.x = x;
+			state.y = y;
+			state.width = width;
+			state.height = height;
+			state.firstTime = now;
+			state.time = now;
+			state.hits = 1;
+			states.add(state);
+			return;
+		}
+		
+		double dt = (now - best.time) / NANOS_PER_SECOND;
+		if (dt <= 0){
+			return;
+		}
+		if (best.hits == 1){
+			best.vx = (x - best.x) / dt;
+			best.vy = (y - best.y) / dt;
+			best.x = x;
+			best.y = y;
+		} else {
+			double px = best.x + best.vx * dt;
+			double py = best.y + best.vy * dt;
+			double rx = x - px;
+			double ry = y - py;
+			best.x = px + alpha * rx;
+			best.y = py + alpha * ry;
+			best.vx += beta * rx / dt;
+			best.vy += beta * ry / dt;
+		}
+		best.width = width;
+		best.height = height;
+		best.time = now;
+		best.hits++;
+	}
+	
+	/**
+	 * Returns the latest tracks. The list is an immutable snapshot, safe to read from any thread.
+	 * @return Tracks
+	 */
+	public List<Track> getTracks(){
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the latest track with the ID specified
+	 * @param id The track ID
+	 * @return The track, or <code>null</code> if it is no longer tracked
+	 */
+	public Track getTrack(int id){
+		for (Track track : snapshot){
+			if (track.getId() == id){
+				return track;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the number of frames read
+	 * @return Frame count
+	 */
+	public long getFrameCount(){
+		return frameCount;
+	}
+	
+	/**
+	 * Returns the number of frames read with too few values, which are tracked as frames without blocks
+	 * @return Short frame count
+	 */
+	public long getShortFrameCount(){
+		return shortFrameCount;
+	}
+	
+	/**
+	 * Returns the Pixy CMUcam5 sensor of this tracker
+	 * @return Sensor
+	 */
+	public PixyCmucam5Sensor getSensor(){
+		return pixy;
+	}
+	
+	/**
+	 * Sets the maximum distance between a block and the predicted position of a track for them to be associated
+	 * @param pixels Distance in pixels
+	 */
+	public void setGatePixels(double pixels){
+		this.gate = pixels;
+	}
+	
+	/**
+	 * Returns the gating distance
+	 * @return Distance in pixels
+	 */
+	public double getGatePixels(){
+		return gate;
+	}
+	
+	/**
+	 * Sets the time after which a track that has not been seen is dropped
+	 * @param lostMillis Time in milliseconds
+	 */
+	public void setLostMillis(long lostMillis){
+		this.lostNanos = TimeUnit.MILLISECONDS.toNanos(lostMillis);
+	}
+	
+	/**
+	 * Returns the time after which a track that has not been seen is dropped
+	 * @return Time in milliseconds
+	 */
+	public long getLostMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(lostNanos);
+	}
+	
+	/**
+	 * Sets the gains of the alpha-beta filter smoothing the tracks
+	 * @param alpha Position gain between 0 and 1
+	 * @param beta Velocity gain between 0 and 1
+	 */
+	public void setGains(double alpha, double beta){
+		this.alpha = alpha;
+		this.beta = beta;
+	}
+	
+	private static class TrackState {
+		
+		private int id;
+		
+		private int signature;
+		
+		private double x;
+		
+		private double y;
+		
+		private double vx;
+		
+		private double vy;
+		
+		private int width;
+		
+		private int height;
+		
+		private long firstTime;
+		
+		private long time;
+		
+		private int hits;
+		
+	}
+	
+	/**
+	 * An immutable snapshot of a tracked block
+	 * @author Anthony
+	 *
+	 */
+	public static class Track {
+		
+		private final int id;
+		
+		private final int signature;
+		
+		private final double x;
+		
+		private final double y;
+		
+		private final double vx;
+		
+		private final double vy;
+		
+		private final int width;
+		
+		private final int height;
+		
+		private final long firstTime;
+		
+		private final long time;
+		
+		private final int hits;
+		
+		private Track(TrackState state){
+			this.id = state.id;
+			this.signature = state.signature;
+			this.x = state.x;
+			this.y = state.y;
+			this.vx = state.vx;
+			this.vy = state.vy;
+			this.width = state.width;
+			this.height = state.height;
+			this.firstTime = state.firstTime;
+			this.time = state.time;
+			this.hits = state.hits;
+		}
+		
+		/**
+		 * Returns the stable ID of this track
+		 * @return ID
+		 */
+		public int getId(){
+			return id;
+		}
+		
+		/**
+		 * Returns the signature of the block
+		 * @return Signature
+		 */
+		public int getSignature(){
+			return signature;
+		}
+		
+		/**
+		 * Returns the filtered X coordinate of the block center when it was last seen
+		 * @return X coordinate in pixels
+		 */
+		public double getX(){
+			return x;
+		}
+		
+		/**
+		 * Returns the filtered Y coordinate of the block center when it was last seen
+		 * @return Y coordinate in pixels
+		 */
+		public double getY(){
+			return y;
+		}
+		
+		/**
+		 * Returns the X velocity of the block
+		 * @return Pixels per second
+		 */
+		public double getVelocityX(){
+			return vx;
+		}
+		
+		/**
+		 * Returns the Y velocity of the block
+		 * @return Pixels per second
+		 */
+		public double getVelocityY(){
+			return vy;
+		}
+		
+		/**
+		 * Returns the width of the block when it was last seen
+		 * @return Width in pixels
+		 */
+		public int getWidth(){
+			return width;
+		}
+		
+		/**
+		 * Returns the height of the block when it was last seen
+		 * @return Height in pixels
+		 */
+		public int getHeight(){
+			return height;
+		}
+		
+		/**
+		 * Predicts the X coordinate of the block at a time, assuming a constant velocity
+		 * @param nanos A <code>System.nanoTime()</code> timestamp
+		 * @return X coordinate in pixels
+		 */
+		public double predictX(long nanos){
+			return x + vx * (nanos - time) / NANOS_PER_SECOND;
+		}
+		
+		/**
+		 * Predicts the Y coordinate of the block at a time, assuming a constant velocity
+		 * @param nanos A <code>System.nanoTime()</code> timestamp
+		 * @return Y coordinate in pixels
+		 */
+		public double predictY(long nanos){
+			return y + vy * (nanos - time) / NANOS_PER_SECOND;
+		}
+		
+		/**
+		 * Returns the <code>System.nanoTime()</code> timestamp of the first frame this block was seen
+		 * @return Timestamp in nanoseconds
+		 */
+		public long getFirstSeenNanos(){
+			return firstTime;
+		}
+		
+		/**
+		 * Returns the <code>System.nanoTime()</code> timestamp of the last frame this block was seen
+		 * @return Timestamp in nanoseconds
+		 */
+		public long getLastSeenNanos(){
+			return time;
+		}
+		
+		/**
+		 * Returns the number of frames this block was seen in
+		 * @return Frame count
+		 */
+		public int getHits(){
+			return hits;
+		}
+		
+		@Override
+		public String toString(){
+			return "Track " + id + " (sig " + signature + ") at " + Math.round(x) + "," + Math.round(y) + " moving " + Math.round(vx) + "," + Math.round(vy) + " px/s";
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -33,8 +33,9 @@ import org.ev3dev.exception.InvalidPortException;
 import org.ev3dev.exception.InvalidSensorException;
 import org.ev3dev.hardware.ports.LegoPort;
 import org.ev3dev.hardware.sensors.I2CSensor;
+import org.ev3dev.hardware.sensors.RGBSensor;
 
-public class HTNXTColorSensor extends I2CSensor {
+public class HTNXTColorSensor extends I2CSensor implements RGBSensor {
 	
 	/**
 	 * HiTechnic NXT Color sensor
@@ -145,6 +146,11 @@ public class HTNXTColorSensor extends I2CSensor {
 	 * I2C Address
 	 */
 	public static final byte address = 0x01;
+	
+	/**
+	 * The maximum value of a color component
+	 */
+	public static final int MAX_RGB_VALUE = 255;
 
 	/**
 	 * Creates a HTNXTColorSensor instance.
@@ -251,4 +257,54 @@ public class HTNXTColorSensor extends I2CSensor {
 		}
 		return Integer.parseInt(str);
 	}
+	
+	/**
+	 * <b>This function requires mode <code>RAW</code>, <code>NORM</code> or <code>ALL</code>.</b><br>
+	 * <br>
+	 * Get the green component
+	 * @return a integer from 0 to 255
+	 */
+	public int getGreenComponent(){
+		return Integer.parseInt(getAttribute(VALUE_PREFIX + (getComponentOffset() + INDEX_GREEN_COMP)));
+	}
+	
+	/**
+	 * <b>This function requires mode <code>RAW</code>, <code>NORM</code> or <code>ALL</code>.</b><br>
+	 * <br>
+	 * Get the blue component
+	 * @return a integer from 0 to 255
+	 */
+	public int getBlueComponent(){
+		return Integer.parseInt(getAttribute(VALUE_PREFIX + (getComponentOffset() + INDEX_BLUE_COMP)));
+	}
+	
+	/**
+	 * <b>This function requires mode <code>RAW</code>, <code>NORM</code> or <code>ALL</code>.</b><br>
+	 * <br>
+	 * Reads the red, green and blue components with a single mode check
+	 * @param rgb An array of at least 3 elements, receiving red, green and blue
+	 */
+	@Override
+	public void readRGB(int[] rgb){
+		int offset = getComponentOffset();
+		rgb[0] = Integer.parseInt(getAttribute(VALUE_PREFIX + (offset + INDEX_RED_COMP)));
+		rgb[1] = Integer.parseInt(getAttribute(VALUE_PREFIX + (offset + INDEX_GREEN_COMP)));
+		rgb[2] = Integer.parseInt(getAttribute(VALUE_PREFIX + (offset + INDEX_BLUE_COMP)));
+	}
+	
+	@Override
+	public int getMaxRGBValue(){
+		return MAX_RGB_VALUE;
+	}
+	
+	//Mode "All" reports the color first, so the components are shifted by one
+	private int getComponentOffset(){
+		String mode = getMode();
+		if (mode.equals(MODE_ALL)){
+			return INDEX_MODE_ALL_RED - INDEX_RED_COMP;
+		} else if (mode.equals(MODE_RAW) || mode.equals(MODE_NORM)){
+			return 0;
+		}
+		throw new EV3LibraryException("The function does not support with the current mode: " + mode);
+	}
 }
@@ -35,11 +35,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
 
 /***
- * A class for reading/writing to the EV3 driver system classes
+ * A class for reading/writing to the EV3 driver system classes.<br>
+ * <br>
+ * All methods are stateless apart from the Sysfs path and the incompatibility check flag,
+ *  which are published through volatile fields and may be changed from any thread.
  * @author Anthony
  *
  */
@@ -50,9 +51,9 @@ public class Sysfs {
 	 */
 	public static final String DEFAULT_SYSTEM_CLASS_PATH = "/sys/class/";
 	
-	private static String SYSTEM_CLASS_PATH = DEFAULT_SYSTEM_CLASS_PATH;
+	private static volatile String SYSTEM_CLASS_PATH = DEFAULT_SYSTEM_CLASS_PATH;
 	
-	private static boolean incompat_check = true;
+	private static volatile boolean incompat_check = true;
 	
 	/**
 	 * Sets the library incompatibility check to be enabled or not
@@ -181,35 +182,31 @@ public class Sysfs {
 		out.close();
 	}
 	
+	/**
+	 * Opens a persistent channel to the property of the class and subclass specified.
+	 * @param class_name The class name.
+	 * @param subclass The Sub-class name.
+	 * @param property The property name of the class
+	 * @param writable Whether the channel is used for writing instead of reading
+	 * @return A SysfsChannel
+	 * @throws FileNotFoundException If the specified class isn't exist.
+	 * @throws IOException If the API couldn't open the class's property
+	 */
+	public static SysfsChannel openChannel(String class_name, String subclass, String property, boolean writable) throws FileNotFoundException, IOException{
+		return new SysfsChannel(new File(SYSTEM_CLASS_PATH + class_name + "/" + subclass + "/" + property), writable);
+	}
+	
 	/***
 	 * A function to separate space from a spaced-array.
 	 * @param space_array A string
 	 * @return A array of the string/space-array
 	 */
 	public static String[] separateSpace(String space_array){
-		int i;
-		int j;
-		String sep;
-		List<String> list = new ArrayList<String>(50);
-		for (i = 0; i < space_array.length(); i++){
-			for (j = i; j < space_array.length(); j++){
-				if (space_array.charAt(j) == ' '){
-					break;
-				}
-			}
-			if (j == space_array.length()){
-				break;
-			}
-			sep = space_array.substring(i, j + 1);
-			list.add(sep);
-			i = j;
-		}
-		Object[] objarr = list.toArray();
-		String[] strarr = new String[objarr.length];
-		for (i = 0; i < strarr.length; i++){
-			strarr[i] = (String) objarr[i];
+		String trimmed = space_array.trim();
+		if (trimmed.isEmpty()){
+			return new String[0];
 		}
-		return strarr;
+		return trimmed.split(" +");
 	}
 	
 	private static String readFile(File file) throws IOException{
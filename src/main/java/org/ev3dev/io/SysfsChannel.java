@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A persistent channel to a single Sysfs attribute file.<br>
+ * <br>
+ * Unlike <code>Sysfs.getAttribute()</code> and <code>Sysfs.setAttribute()</code>, which open, parse and close the file
+ *  on every call, a channel keeps the file open and reuses one buffer. Each read is a positional read at offset 0, which
+ *  makes the driver produce a fresh value, and numbers are parsed straight from the buffer without creating Strings.
+ *  This makes channels suitable for sampling loops.<br>
+ * <br>
+ * A channel is safe to be used by multiple threads. Remember to <code>close()</code> it when it is no longer needed.
+ * @author Anthony
+ *
+ */
+public class SysfsChannel implements Closeable {
+	
+	/**
+	 * The default channel buffer size in bytes
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256;
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private final File file;
+	
+	private final FileChannel channel;
+	
+	private final boolean writable;
+	
+	private final byte[] buf;
+	
+	private final ByteBuffer buffer;
+	
+	/**
+	 * Opens a read-only channel to the Sysfs attribute file specified
+	 * @param file The attribute file
+	 * @throws IOException If the file cannot be opened
+	 */
+	public SysfsChannel(File file) throws IOException{
+		this(file, false);
+	}
+	
+	/**
+	 * Opens a channel to the Sysfs attribute file specified
+	 * @param file The attribute file
+	 * @param writable Whether the channel is opened for writing instead of reading
+	 * @throws IOException If the file cannot be opened
+	 */
+	public SysfsChannel(File file, boolean writable) throws IOException{
+		this.file = file;
+		this.writable = writable;
+		if (writable){
+			channel = new FileOutputStream(file).getChannel();
+		} else {
+			channel = new FileInputStream(file).getChannel();
+		}
+		buf = new byte[DEFAULT_BUFFER_SIZE];
+		buffer = ByteBuffer.wrap(buf);
+	}
+	
+	/**
+	 * Returns the attribute file of this channel
+	 * @return File
+	 */
+	public File getFile(){
+		return file;
+	}
+	
+	/**
+	 * Returns whether this channel was opened for writing
+	 * @return Writable
+	 */
+	public boolean isWritable(){
+		return writable;
+	}
+	
+	/**
+	 * Reads the raw content of the attribute into the array specified
+	 * @param dst The destination array
+	 * @return The number of bytes read
+	 * @throws IOException If the attribute couldn't be read
+	 */
+	public synchronized int read(byte[] dst) throws IOException{
+		ByteBuffer bb = ByteBuffer.wrap(dst);
+		int total = 0;
+		int n;
+		while (bb.hasRemaining() && (n = channel.read(bb, total)) > 0){
+			total += n;
+		}
+		return total;
+	}
+	
+	/**
+	 * Reads the attribute as an integer
+	 * @return The value of the attribute
+	 * @throws IOException If the attribute couldn't be read
+	 * @throws NumberFormatException If the attribute isn't an integer
+	 */
+	public synchronized int readInt() throws IOException{
+		long value = readLong();
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE){
+			throw new NumberFormatException("Value out of integer range: " + value);
+		}
+		return (int) value;
+	}
+	
+	/**
+	 * Reads the attribute as a long integer
+	 * @return The value of the attribute
+	 * @throws IOException If the attribute couldn't be read
+	 * @throws NumberFormatException If the attribute isn't an integer
+	 */
+	public synchronized long readLong() throws IOException{
+		int len = fill();
+		int i = 0;
+		boolean negative = false;
+		if (len > 0 && (buf[0] == '-' || buf[0] == '+')){
+			negative = buf[0] == '-';
+			i++;
+		}
+		if (i >= len || buf[i] < '0' || buf[i] > '9'){
+			throw new NumberFormatException("Not an integer: " + new String(buf, 0, len, ASCII));
+		}
+		long value = 0;
+		while (i < len && buf[i] >= '0' && buf[i] <= '9'){
+			value = value * 10 + (buf[i++] - '0');
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Reads the attribute as a String, without the trailing new line
+	 * @return The value of the attribute
+	 * @throws IOException If the attribute couldn't be read
+	 */
+	public synchronized String readString() throws IOException{
+		int len = fill();
+		return new String(buf, 0, len, ASCII);
+	}
+	
+	/**
+	 * Writes an integer to the attribute
+	 * @param value The new value
+	 * @throws IOException If the attribute couldn't be written
+	 */
+	public synchronized void writeInt(int value) throws IOException{
+		int pos = buf.length;
+		long v = value;
+		boolean negative = v < 0;
+		if (negative){
+			v = -v;
+		}
+		do {
+			buf[--pos] = (byte) ('0' + (v % 10));
+			v /= 10;
+		} while (v != 0);
+		if (negative){
+			buf[--pos] = '-';
+		}
+		writeBuffer(pos, buf.length - pos);
+	}
+	
+	/**
+	 * Writes a String to the attribute
+	 * @param value The new value
+	 * @throws IOException If the attribute couldn't be written
+	 */
+	public synchronized void writeString(String value) throws IOException{
+		byte[] data = value.getBytes(ASCII);
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		while (bb.hasRemaining()){
+			channel.write(bb, bb.position());
+		}
+	}
+	
+	/**
+	 * Closes this channel
+	 */
+	@Override
+	public void close() throws IOException{
+		channel.close();
+	}
+	
+	//Reads the whole attribute into buf, stripping the trailing new line
+	private int fill() throws IOException{
+		buffer.clear();
+		int n;
+		do {
+			n = channel.read(buffer, buffer.position());
+		} while (n > 0 && buffer.hasRemaining());
+		int len = buffer.position();
+		while (len > 0 && (buf[len - 1] == '\n' || buf[len - 1] == ' ')){
+			len--;
+		}
+		return len;
+	}
+	
+	private void writeBuffer(int off, int len) throws IOException{
+		ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+		while (bb.hasRemaining()){
+			channel.write(bb, bb.position() - off);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.navigation;
+
+/**
+ * An immutable snapshot of the position, heading and velocities of a robot on a plane.<br>
+ * <br>
+ * The heading is in radians, 0 along the X axis and increasing counter-clockwise.
+ *  Distances are in the unit of the wheel diameter given to the PoseEstimator.
+ * @author Anthony
+ *
+ */
+public final class Pose {
+	
+	private final double x;
+	
+	private final double y;
+	
+	private final double heading;
+	
+	private final double linearVelocity;
+	
+	private final double angularVelocity;
+	
+	private final long timestamp;
+	
+	private final long sampleCount;
+	
+	/**
+	 * Creates a new Pose
+	 * @param x The X position
+	 * @param y The Y position
+	 * @param heading The heading in radians
+	 * @param linearVelocity The linear velocity in units per second
+	 * @param angularVelocity The angular velocity in radians per second
+	 * @param timestamp The <code>System.nanoTime()</code> of the sample
+	 * @param sampleCount The number of samples integrated
+	 */
+	public Pose(double x, double y, double heading, double linearVelocity, double angularVelocity, long timestamp, long sampleCount){
+		this.x = x;
+		this.y = y;
+		this.heading = heading;
+		this.linearVelocity = linearVelocity;
+		this.angularVelocity = angularVelocity;
+		this.timestamp = timestamp;
+		this.sampleCount = sampleCount;
+	}
+	
+	/**
+	 * Returns the X position
+	 * @return X
+	 */
+	public double getX(){
+		return x;
+	}
+	
+	/**
+	 * Returns the Y position
+	 * @return Y
+	 */
+	public double getY(){
+		return y;
+	}
+	
+	/**
+	 * Returns the heading in radians, not wrapped (e.g. two turns are 4&pi;)
+	 * @return Heading in radians
+	 */
+	public double getHeading(){
+		return heading;
+	}
+	
+	/**
+	 * Returns the heading in degrees, wrapped to [-180, 180)
+	 * @return Heading in degrees
+	 */
+	public double getHeadingDegrees(){
+		double deg = Math.toDegrees(heading) % 360;
+		if (deg >= 180){
+			deg -= 360;
+		} else if (deg < -180){
+			deg += 360;
+		}
+		return deg;
+	}
+	
+	/**
+	 * Returns the linear velocity
+	 * @return Units per second
+	 */
+	public double getLinearVelocity(){
+		return linearVelocity;
+	}
+	
+	/**
+	 * Returns the angular velocity, counter-clockwise positive
+	 * @return Radians per second
+	 */
+	public double getAngularVelocity(){
+		return angularVelocity;
+	}
+	
+	/**
+	 * Returns the <code>System.nanoTime()</code> when the sample of this pose was read
+	 * @return Timestamp in nanoseconds
+	 */
+	public long getTimestampNanos(){
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the number of samples integrated into this pose
+	 * @return Sample count
+	 */
+	public long getSampleCount(){
+		return sampleCount;
+	}
+	
+	@Override
+	public String toString(){
+		return "Pose[x=" + x + ", y=" + y + ", heading=" + getHeadingDegrees() + "]";
+	}
+}
\ No newline at end of file
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.navigation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Sampler;
+import org.ev3dev.hardware.motors.Motor;
+import org.ev3dev.hardware.sensors.GyroSensor;
+import org.ev3dev.io.SysfsChannel;
+
+/**
+ * Estimates the pose of a differential drive robot from the encoders of its two wheel motors, and optionally a gyro sensor.<br>
+ * <br>
+ * The <code>position</code> attributes of both motors and the gyro angle are kept open as persistent channels, and sampled
+ *  at a fixed rate (default every 10 ms) on a Sampler. Every sample is timestamped, and the wheel travel is integrated
+ *  into X, Y and heading. If a gyro is used, the heading change of each sample is a complementary blend of the gyro
+ *  heading change (which is not affected by wheel slip) and the encoder heading change (which does not drift with
+ *  temperature). The pose is published as an immutable Pose snapshot through a volatile field, so reading it never blocks.<br>
+ * <br>
+ * The motor polarities must be set so that the positions of both motors increase when the robot drives forward.
+ * @author Anthony
+ *
+ */
+public class PoseEstimator {
+	
+	/**
+	 * The default sampling period in milliseconds
+	 */
+	public static final long DEFAULT_PERIOD_MILLIS = 10;
+	
+	/**
+	 * The default weight of the gyro heading change, from 0 (encoders only) to 1 (gyro only)
+	 */
+	public static final double DEFAULT_GYRO_WEIGHT = 0.98;
+	
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final Motor left;
+	
+	private final Motor right;
+	
+	private final GyroSensor gyro;
+	
+	private final double wheelDiameter;
+	
+	private final double trackWidth;
+	
+	private volatile double gyroWeight = DEFAULT_GYRO_WEIGHT;
+	
+	private volatile double gyroSign = -1;
+	
+	private volatile Pose pose = new Pose(0, 0, 0, 0, 0, 0, 0);
+	
+	private ScheduledFuture<?> task = null;
+	
+	private SysfsChannel leftChannel = null;
+	
+	private SysfsChannel rightChannel = null;
+	
+	private SysfsChannel gyroChannel = null;
+	
+	private double leftDistancePerCount;
+	
+	private double rightDistancePerCount;
+	
+	private boolean primed = false;
+	
+	private int lastLeft;
+	
+	private int lastRight;
+	
+	private int lastGyro;
+	
+	private long lastNanos;
+	
+	private double x = 0;
+	
+	private double y = 0;
+	
+	private double heading = 0;
+	
+	private long sampleCount = 0;
+	
+	/**
+	 * Creates a new PoseEstimator using the encoders only
+	 * @param left The left wheel motor
+	 * @param right The right wheel motor
+	 * @param wheelDiameter The wheel diameter, in the distance unit of the pose (e.g. mm)
+	 * @param trackWidth The distance between the wheel contact points, in the distance unit of the pose
+	 */
+	public PoseEstimator(Motor left, Motor right, double wheelDiameter, double trackWidth){
+		this(left, right, null, wheelDiameter, trackWidth);
+	}
+	
+	/**
+	 * Creates a new PoseEstimator using the encoders and a gyro sensor
+	 * @param left The left wheel motor
+	 * @param right The right wheel motor
+	 * @param gyro The gyro sensor, mounted upright, or <code>null</code> to use the encoders only
+	 * @param wheelDiameter The wheel diameter, in the distance unit of the pose (e.g. mm)
+	 * @param trackWidth The distance between the wheel contact points, in the distance unit of the pose
+	 */
+	public PoseEstimator(Motor left, Motor right, GyroSensor gyro, double wheelDiameter, double trackWidth){
+		if (wheelDiameter <= 0 || trackWidth <= 0){
+			throw new IllegalArgumentException("The wheel diameter and track width must be positive");
+		}
+		this.left = left;
+		this.right = right;
+		this.gyro = gyro;
+		this.wheelDiameter = wheelDiameter;
+		this.trackWidth = trackWidth;
+	}
+	
+	/**
+	 * Starts sampling on the shared Sampler at the default rate
+	 * @throws EV3LibraryException If the attributes cannot be opened
+	 */
+	public void start() throws EV3LibraryException{
+		start(Sampler.getShared(), DEFAULT_PERIOD_MILLIS);
+	}
+	
+	/**
+	 * Starts sampling on the Sampler specified. If a gyro is used and it is not in an angle mode, it is switched
+	 *  to <code>GYRO-G&amp;A</code> if available, or else <code>GYRO-ANG</code>.
+	 * @param sampler The Sampler
+	 * @param periodMillis The sampling period in milliseconds
+	 * @throws EV3LibraryException If the attributes cannot be opened
+	 */
+	public synchronized void start(Sampler sampler, long periodMillis) throws EV3LibraryException{
+		if (task != null){
+			return;
+		}
+		leftDistancePerCount = Math.PI * wheelDiameter / left.getCountPerRot();
+		rightDistancePerCount = Math.PI * wheelDiameter / right.getCountPerRot();
+		try {
+			leftChannel = left.openAttributeChannel(Motor.SYSFS_PROPERTY_POSITION, false);
+			rightChannel = right.openAttributeChannel(Motor.SYSFS_PROPERTY_POSITION, false);
+			if (gyro != null){
+				String mode = gyro.getMode();
+				if (!mode.equals(GyroSensor.SYSFS_ANGLE_MODE) && !mode.equals(GyroSensor.SYSFS_ANGLE_AND_RATE_MODE)){
+					if (Arrays.asList(gyro.getModes()).contains(GyroSensor.SYSFS_ANGLE_AND_RATE_MODE)){
+						gyro.setMode(GyroSensor.SYSFS_ANGLE_AND_RATE_MODE);
+					} else {
+						gyro.setMode(GyroSensor.SYSFS_ANGLE_MODE);
+					}
+				}
+				gyroChannel = gyro.openAttributeChannel("value" + GyroSensor.SYSFS_ANGLE_VALUE_INDEX, false);
+			}
+		} catch (EV3LibraryException e){
+			closeChannels();
+			throw e;
+		}
+		primed = false;
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				sample();
+			}
+			
+		}, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops sampling. The last pose remains available.
+	 */
+	public synchronized void stop(){
+		if (task == null){
+			return;
+		}
+		task.cancel(false);
+		task = null;
+		closeChannels();
+	}
+	
+	/**
+	 * Returns whether the estimator is sampling
+	 * @return Running
+	 */
+	public synchronized boolean isRunning(){
+		return task != null;
+	}
+	
+	/**
+	 * Reads one sample and integrates it into the pose. This is called periodically after <code>start()</code>.
+	 * @throws EV3LibraryException If I/O goes wrong
+	 */
+	public synchronized void sample() throws EV3LibraryException{
+		if (task == null){
+			return;
+		}
+		int l;
+		int r;
+		int g = 0;
+		long before = System.nanoTime();
+		try {
+			l = leftChannel.readInt();
+			r = rightChannel.readInt();
+			if (gyroChannel != null){
+				g = gyroChannel.readInt();
+			}
+		} catch (IOException e){
+			throw new EV3LibraryException("Sample odometry failed", e);
+		}
+		long now = before + (System.nanoTime() - before) / 2;
+		if (!primed){
+			lastLeft = l;
+			lastRight = r;
+			lastGyro = g;
+			lastNanos = now;
+			primed = true;
+			return;
+		}
+		double dl = (l - lastLeft) * leftDistancePerCount;
+		double dr = (r - lastRight) * rightDistancePerCount;
+		double distance = (dl + dr) / 2;
+		double turn = (dr - dl) / trackWidth;
+		if (gyroChannel != null){
+			double weight = gyroWeight;
+			turn = weight * Math.toRadians(g - lastGyro) * gyroSign + (1 - weight) * turn;
+		}
+		double mid = heading + turn / 2;
+		x += distance * Math.cos(mid);
+		y += distance * Math.sin(mid);
+		heading += turn;
+		sampleCount++;
+		double dt = (now - lastNanos) / NANOS_PER_SECOND;
+		lastLeft = l;
+		lastRight = r;
+		lastGyro = g;
+		lastNanos = now;
+		pose = new Pose(x, y, heading, dt > 0 ? distance / dt : 0, dt > 0 ? turn / dt : 0, now, sampleCount);
+	}
+	
+	/**
+	 * Returns the latest pose estimate
+	 * @return Pose
+	 */
+	public Pose getPose(){
+		return pose;
+	}
+	
+	/**
+	 * Resets the pose to the origin, heading along the X axis
+	 */
+	public void reset(){
+		reset(0, 0, 0);
+	}
+	
+	/**
+	 * Resets the pose to the position and heading specified
+	 * @param x The X position
+	 * @param y The Y position
+	 * @param heading The heading in radians, counter-clockwise from the X axis
+	 */
+	public synchronized void reset(double x, double y, double heading){
+		this.x = x;
+		this.y = y;
+		this.heading = heading;
+		this.sampleCount = 0;
+		pose = new Pose(x, y, heading, 0, 0, System.nanoTime(), 0);
+	}
+	
+	/**
+	 * Sets the weight of the gyro heading change in the complementary filter. (Default: 0.98)
+	 * @param weight From 0 (encoders only) to 1 (gyro only)
+	 */
+	public void setGyroWeight(double weight){
+		if (weight < 0 || weight > 1){
+			throw new IllegalArgumentException("The gyro weight must be in [0, 1]: " + weight);
+		}
+		this.gyroWeight = weight;
+	}
+	
+	/**
+	 * Returns the weight of the gyro heading change in the complementary filter
+	 * @return Gyro weight
+	 */
+	public double getGyroWeight(){
+		return gyroWeight;
+	}
+	
+	/**
+	 * Sets whether the gyro angle increases counter-clockwise (e.g. the gyro is mounted upside down).
+	 *  By default the gyro angle is expected to increase clockwise, as the EV3 gyro sensor does when mounted upright.
+	 * @param inverted Inverted
+	 */
+	public void setGyroInverted(boolean inverted){
+		this.gyroSign = inverted ? 1 : -1;
+	}
+	
+	/**
+	 * Returns whether the gyro angle is expected to increase counter-clockwise
+	 * @return Inverted
+	 */
+	public boolean isGyroInverted(){
+		return gyroSign > 0;
+	}
+	
+	/**
+	 * Returns the wheel diameter
+	 * @return Wheel diameter
+	 */
+	public double getWheelDiameter(){
+		return wheelDiameter;
+	}
+	
+	/**
+	 * Returns the track width
+	 * @return Track width
+	 */
+	public double getTrackWidth(){
+		return trackWidth;
+	}
+	
+	private void closeChannels(){
+		closeQuietly(leftChannel);
+		closeQuietly(rightChannel);
+		closeQuietly(gyroChannel);
+		leftChannel = null;
+		rightChannel = null;
+		gyroChannel = null;
+	}
+	
+	private static void closeQuietly(Closeable closeable){
+		if (closeable != null){
+			try {
+				closeable.close();
+			} catch (IOException ignore){}
+		}
+	}
+}
\ No newline at end of file
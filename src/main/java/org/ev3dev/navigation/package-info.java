@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+/**
+ * Navigation classes of a robot. e.g. PoseEstimator<br>
+ * Example:
+ * <pre>
+ * LargeMotor left = new LargeMotor(new LegoPort(LegoPort.OUTPUT_B));
+ * LargeMotor right = new LargeMotor(new LegoPort(LegoPort.OUTPUT_C));
+ * PoseEstimator estimator = new PoseEstimator(left, right, 56, 120);
+ * estimator.start();
+ * while(true){
+ * 		Pose pose = estimator.getPose();
+ * 		System.out.println(pose.getX() + ", " + pose.getY());
+ * }
+ * </pre>
+ * @author Anthony
+ *
+ */
+package org.ev3dev.navigation;
\ No newline at end of file
@@ -0,0 +1,766 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Device;
+import org.ev3dev.hardware.LED;
+import org.ev3dev.hardware.motors.DCMotor;
+import org.ev3dev.hardware.motors.Motor;
+import org.ev3dev.hardware.motors.ServoMotor;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives remote control commands over UDP and writes them straight to the motors and LEDs.<br>
+ * <br>
+ * Every command is a fixed 16-byte big-endian datagram:
+ * <pre>
+ * offset  size  field
+ *  0      u8    magic (0xEC)
+ *  1      u8    opcode
+ *  2      u16   target ID, as returned by addDevice()
+ *  4      u32   sequence
+ *  8      s32   argument 1
+ * 12      s32   argument 2
+ * </pre>
+ * Opcodes:
+ * <ul>
+ * <li><code>OP_HEARTBEAT</code>: keeps the dead-man timer alive. The datagram is echoed back, to measure the round trip.</li>
+ * <li><code>OP_SET</code>: writes the set-point <code>SP_*</code> in argument 1 with the value in argument 2</li>
+ * <li><code>OP_COMMAND</code>: writes the command <code>CMD_*</code> in argument 1</li>
+ * <li><code>OP_RUN</code>: writes the main set-point of the command in argument 1 with the value in argument 2, then
+ *  the command. The main set-point is <code>speed_sp</code> for <code>run-forever</code> of a tacho motor,
+ *  <code>duty_cycle_sp</code> for <code>run-forever</code> of a DC motor and for <code>run-direct</code>,
+ *  <code>position_sp</code> for the position commands and servo <code>run</code>, and <code>time_sp</code> for
+ *  <code>run-timed</code>. While a motor is still running in <code>run-direct</code>, the command itself is not
+ *  written again; if its <code>state</code> shows that it was stopped by anything else, the command is re-issued.</li>
+ * <li><code>OP_STOP_ALL</code>: stops every motor</li>
+ * </ul>
+ * The server follows one controller at a time, the first address it hears from, until that controller is silent for
+ *  longer than the dead-man timeout. Datagrams whose sequence is not newer than the last one accepted are dropped as
+ *  stale; a sequence of 0 restarts the sequence of a controller that was silent for longer than the dead-man timeout.<br>
+ * <br>
+ * A dedicated thread receives and writes through persistent attribute channels, so a command reaches Sysfs without
+ *  any queue in between. If no valid datagram arrives for the dead-man timeout (default 250 ms) after a motor has been
+ *  written to, every motor added is stopped (servo motors are floated).<br>
+ * <br>
+ * Example:
+ * <pre>
+ * CommandServer server = new CommandServer();
+ * int left = server.addDevice(leftMotor);
+ * int right = server.addDevice(rightMotor);
+ * server.start();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class CommandServer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CommandServer.class);
+	
+	/**
+	 * The default UDP port
+	 */
+	public static final int DEFAULT_PORT = 6720;
+	
+	/**
+	 * The default dead-man timeout in milliseconds
+	 */
+	public static final long DEFAULT_DEAD_MAN_MILLIS = 250;
+	
+	/**
+	 * The length of a command datagram in bytes
+	 */
+	public static final int MESSAGE_LENGTH = 16;
+	
+	/**
+	 * The first byte of every command datagram
+	 */
+	public static final int MAGIC = 0xEC;
+	
+	/**
+	 * Opcode keeping the dead-man timer alive
+	 */
+	public static final int OP_HEARTBEAT = 0x00;
+	
+	/**
+	 * Opcode writing a set-point
+	 */
+	public static final int OP_SET = 0x01;
+	
+	/**
+	 * Opcode writing a command
+	 */
+	public static final int OP_COMMAND = 0x02;
+	
+	/**
+	 * Opcode writing the main set-point of a command, then the command
+	 */
+	public static final int OP_RUN = 0x03;
+	
+	/**
+	 * Opcode stopping every motor
+	 */
+	public static final int OP_STOP_ALL = 0x04;
+	
+	/**
+	 * Set-point <code>speed_sp</code> of a tacho motor
+	 */
+	public static final int SP_SPEED = 1;
+	
+	/**
+	 * Set-point <code>duty_cycle_sp</code> of a tacho or DC motor
+	 */
+	public static final int SP_DUTY_CYCLE = 2;
+	
+	/**
+	 * Set-point <code>position_sp</code> of a tacho or servo motor
+	 */
+	public static final int SP_POSITION = 3;
+	
+	/**
+	 * Set-point <code>time_sp</code> of a tacho or DC motor
+	 */
+	public static final int SP_TIME = 4;
+	
+	/**
+	 * Set-point <code>brightness</code> of a LED
+	 */
+	public static final int SP_BRIGHTNESS = 5;
+	
+	/**
+	 * Command <code>run-forever</code> of a tacho or DC motor
+	 */
+	public static final int CMD_RUN_FOREVER = 1;
+	
+	/**
+	 * Command <code>run-to-abs-pos</code> of a tacho motor
+	 */
+	public static final int CMD_RUN_TO_ABS_POS = 2;
+	
+	/**
+	 * Command <code>run-to-rel-pos</code> of a tacho motor
+	 */
+	public static final int CMD_RUN_TO_REL_POS = 3;
+	
+	/**
+	 * Command <code>run-timed</code> of a tacho or DC motor
+	 */
+	public static final int CMD_RUN_TIMED = 4;
+	
+	/**
+	 * Command <code>run-direct</code> of a tacho or DC motor
+	 */
+	public static final int CMD_RUN_DIRECT = 5;
+	
+	/**
+	 * Command <code>stop</code> of a tacho or DC motor
+	 */
+	public static final int CMD_STOP = 6;
+	
+	/**
+	 * Command <code>reset</code> of a tacho motor
+	 */
+	public static final int CMD_RESET = 7;
+	
+	/**
+	 * Command <code>run</code> of a servo motor
+	 */
+	public static final int CMD_RUN = 8;
+	
+	/**
+	 * Command <code>float</code> of a servo motor
+	 */
+	public static final int CMD_FLOAT = 9;
+	
+	private static final int TYPE_TACHO = 0;
+	
+	private static final int TYPE_DC = 1;
+	
+	private static final int TYPE_SERVO = 2;
+	
+	private static final int TYPE_LED = 3;
+	
+	//Flag in the state attribute of tacho and DC motors while they run
+	private static final String STATE_RUNNING = "running";
+	
+	private final int port;
+	
+	private final List<Target> targets = new ArrayList<Target>();
+	
+	private final byte[] buffer = new byte[MESSAGE_LENGTH];
+	
+	private Target[] table;
+	
+	private DatagramSocket socket;
+	
+	private Thread thread;
+	
+	private SocketAddress controller = null;
+	
+	private long lastSequence = 0;
+	
+	private long lastValidNanos = 0;
+	
+	private boolean armed = false;
+	
+	private volatile boolean running = false;
+	
+	private volatile long deadManNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEAD_MAN_MILLIS);
+	
+	private volatile long accepted = 0;
+	
+	private volatile long stale = 0;
+	
+	private volatile long rejected = 0;
+	
+	private volatile long writeErrors = 0;
+	
+	private volatile long replyErrors = 0;
+	
+	private volatile long deadManStops = 0;
+	
+	private volatile long lastLatencyNanos = 0;
+	
+	private volatile long maxLatencyNanos = 0;
+	
+	/**
+	 * Creates a new CommandServer on the default port
+	 */
+	public CommandServer(){
+		this(DEFAULT_PORT);
+	}
+	
+	/**
+	 * Creates a new CommandServer
+	 * @param port The UDP port, or 0 for any free port
+	 */
+	public CommandServer(int port){
+		this.port = port;
+	}
+	
+	/**
+	 * Adds a device that can be commanded. Devices can only be added while the server is stopped.
+	 * @param device A Motor, DCMotor, ServoMotor or LED
+	 * @return The target ID of the device
+	 */
+	public synchronized int addDevice(Device device){
+		if (running){
+			throw new IllegalStateException("Devices cannot be added while the server is running");
+		}
+		int type;
+		if (device instanceof Motor){
+			type = TYPE_TACHO;
+		} else if (device instanceof DCMotor){
+			type = TYPE_DC;
+		} else if (device instanceof ServoMotor){
+			type = TYPE_SERVO;
+		} else if (device instanceof LED){
+			type = TYPE_LED;
+		} else {
+			throw new IllegalArgumentException("Unsupported device: " + device.getClass().getName());
+		}
+		targets.add(new Target(device, type));
+		return targets.size() - 1;
+	}
+	
+	/**
+	 * Starts the server
+	 * @throws EV3LibraryException If the port cannot be bound
+	 */
+	public synchronized void start() throws EV3LibraryException{
+		if (running){
+			return;
+		}
+		table = targets.toArray(new Target[targets.size()]);
+		try {
+			socket = new DatagramSocket(new InetSocketAddress(port));
+		} catch (SocketException e){
+			throw new EV3LibraryException("Start command server failed", e);
+		}
+		controller = null;
+		armed = false;
+		running = true;
+		thread = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				serve();
+			}
+			
+		}, "CommandServer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY + 1);
+		thread.start();
+		logger.info("Command server started on port " + socket.getLocalPort() + " with " + table.length + " devices");
+	}
+	
+	/**
+	 * Stops the server. Every motor commanded is stopped.
+	 */
+	public synchronized void stop(){
+		if (!running){
+			return;
+		}
+		running = false;
+		socket.close();
+		try {
+			thread.join();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		logger.info("Command server stopped");
+	}
+	
+	/**
+	 * Returns whether the server is running
+	 * @return Running
+	 */
+	public boolean isRunning(){
+		return running;
+	}
+	
+	/**
+	 * Returns the port the server is bound to
+	 * @return The port, or the port specified at construction if the server is stopped
+	 */
+	public synchronized int getLocalPort(){
+		if (running){
+			return socket.getLocalPort();
+		}
+		return port;
+	}
+	
+	private void serve(){
+		DatagramPacket packet = new DatagramPacket(buffer, MESSAGE_LENGTH);
+		ByteBuffer message = ByteBuffer.wrap(buffer);
+		try {
+			while (running){
+				long timeout = 1000;
+				if (armed){
+					long left = lastValidNanos + deadManNanos - System.nanoTime();
+					if (left <= 0){
+						logger.warn("Dead-man timeout, stopping all motors");
+						deadManStops++;
+						stopAll();
+						continue;
+					}
+					timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+				}
+				try {
+					socket.setSoTimeout((int) timeout);
+					packet.setLength(MESSAGE_LENGTH);
+					socket.receive(packet);
+				} catch (SocketTimeoutException e){
+					continue;
+				}
+				long received = System.nanoTime();
+				if (packet.getLength() != MESSAGE_LENGTH){
+					rejected++;
+					continue;
+				}
+				handle(packet, message, received);
+			}
+		} catch (IOException e){
+			if (running){
+				logger.error("Command server failed", e);
+			}
+		} finally {
+			stopAll();
+			for (Target target : table){
+				target.close();
+			}
+			socket.close();
+			running = false;
+		}
+	}
+	
+	private void handle(DatagramPacket packet, ByteBuffer message, long received){
+		SocketAddress from = packet.getSocketAddress();
+		int magic = message.get(0) & 0xff;
+		int op = message.get(1) & 0xff;
+		int id = message.getShort(2) & 0xffff;
+		long sequence = message.getInt(4) & 0xffffffffL;
+		int arg1 = message.getInt(8);
+		int arg2 = message.getInt(12);
+		if (magic != MAGIC){
+			rejected++;
+			return;
+		}
+		
+		if (!from.equals(controller)){
+			if (controller != null && received - lastValidNanos <= deadManNanos){
+				//Another controller is active
+				rejected++;
+				return;
+			}
+			logger.info("Command server controlled by " + from);
+			controller = from;
+			lastSequence = sequence;
+		} else if ((sequence != 0 || received - lastValidNanos <= deadManNanos) && (int) (sequence - lastSequence) <= 0){
+			//A late or duplicated 0 must not move the window back while the controller is active
+			stale++;
+			return;
+		}
+		lastSequence = sequence;
+		lastValidNanos = received;
+		accepted++;
+		
+		switch (op){
+		case OP_HEARTBEAT:
+			try {
+				socket.send(packet);
+			} catch (IOException e){
+				//The controller may be unreachable for a moment, which the dead-man timeout takes care of
+				replyErrors++;
+				logger.warn("Heartbeat reply to " + from + " failed", e);
+			}
+			return;
+		case OP_STOP_ALL:
+			stopAll();
+			break;
+		case OP_SET:
+		case OP_COMMAND:
+		case OP_RUN:
+			if (id >= table.length){
+				rejected++;
+				return;
+			}
+			Target target = table[id];
+			try {
+				if (!execute(target, op, arg1, arg2)){
+					rejected++;
+					return;
+				}
+			} catch (EV3LibraryException e){
+				writeErrors++;
+				logger.warn("Command to device " + id + " failed", e);
+				return;
+			}
+			if (target.type != TYPE_LED){
+				armed = true;
+			}
+			break;
+		default:
+			rejected++;
+			return;
+		}
+		long latency = System.nanoTime() - received;
+		lastLatencyNanos = latency;
+		if (latency > maxLatencyNanos){
+			maxLatencyNanos = latency;
+		}
+	}
+	
+	private boolean execute(Target target, int op, int arg1, int arg2){
+		if (op == OP_SET){
+			String property = getSetPoint(target.type, arg1);
+			if (property == null){
+				return false;
+			}
+			target.write(property, arg2);
+			return true;
+		}
+		String command = getCommand(target.type, arg1);
+		if (command == null){
+			return false;
+		}
+		if (op == OP_RUN){
+			String property = getMainSetPoint(target.type, arg1);
+			if (property != null){
+				target.write(property, arg2);
+			}
+		}
+		if (arg1 == CMD_RUN_DIRECT && target.lastCommand == CMD_RUN_DIRECT && target.isRunning()){
+			//duty_cycle_sp is applied at once in run-direct
+			return true;
+		}
+		target.write(Motor.SYSFS_PROPERTY_COMMAND, command);
+		target.lastCommand = arg1;
+		return true;
+	}
+	
+	private static String getSetPoint(int type, int code){
+		switch (code){
+		case SP_SPEED:
+			return type == TYPE_TACHO ? Motor.SYSFS_PROPERTY_SPEED_SP : null;
+		case SP_DUTY_CYCLE:
+			return type == TYPE_TACHO || type == TYPE_DC ? Motor.SYSFS_PROPERTY_DUTY_CYCLE_SP : null;
+		case SP_POSITION:
+			return type == TYPE_TACHO || type == TYPE_SERVO ? Motor.SYSFS_PROPERTY_POSITION_SP : null;
+		case SP_TIME:
+			return type == TYPE_TACHO || type == TYPE_DC ? Motor.SYSFS_PROPERTY_TIME_SP : null;
+		case SP_BRIGHTNESS:
+			return type == TYPE_LED ? LED.SYSFS_PROPERTY_BRIGHTNESS : null;
+		default:
+			return null;
+		}
+	}
+	
+	private static String getCommand(int type, int code){
+		switch (code){
+		case CMD_RUN_FOREVER:
+			return type == TYPE_TACHO || type == TYPE_DC ? Motor.SYSFS_COMMAND_RUN_FOREVER : null;
+		case CMD_RUN_TO_ABS_POS:
+			return type == TYPE_TACHO ? Motor.SYSFS_COMMAND_RUN_TO_ABS_POS : null;
+		case CMD_RUN_TO_REL_POS:
+			return type == TYPE_TACHO ? Motor.SYSFS_COMMAND_RUN_TO_REL_POS : null;
+		case CMD_RUN_TIMED:
+			return type == TYPE_TACHO || type == TYPE_DC ? Motor.SYSFS_COMMAND_RUN_TIMED : null;
+		case CMD_RUN_DIRECT:
+			return type == TYPE_TACHO || type == TYPE_DC ? Motor.SYSFS_COMMAND_RUN_DIRECT : null;
+		case CMD_STOP:
+			return type == TYPE_TACHO || type == TYPE_DC ? Motor.SYSFS_COMMAND_STOP : null;
+		case CMD_RESET:
+			return type == TYPE_TACHO ? Motor.SYSFS_COMMAND_RESET : null;
+		case CMD_RUN:
+			return type == TYPE_SERVO ? ServoMotor.SYSFS_COMMAND_RUN : null;
+		case CMD_FLOAT:
+			return type == TYPE_SERVO ? ServoMotor.SYSFS_COMMAND_FLOAT : null;
+		default:
+			return null;
+		}
+	}
+	
+	private static String getMainSetPoint(int type, int command){
+		switch (command){
+		case CMD_RUN_FOREVER:
+			return type == TYPE_TACHO ? Motor.SYSFS_PROPERTY_SPEED_SP : DCMotor.SYSFS_PROPERTY_DUTY_CYCLE_SP;
+		case CMD_RUN_DIRECT:
+			return Motor.SYSFS_PROPERTY_DUTY_CYCLE_SP;
+		case CMD_RUN_TO_ABS_POS:
+		case CMD_RUN_TO_REL_POS:
+			return Motor.SYSFS_PROPERTY_POSITION_SP;
+		case CMD_RUN:
+			return ServoMotor.SYSFS_PROPERTY_POSITION_SP;
+		case CMD_RUN_TIMED:
+			return Motor.SYSFS_PROPERTY_TIME_SP;
+		default:
+			return null;
+		}
+	}
+	
+	private void stopAll(){
+		armed = false;
+		for (Target target : table){
+			//Motors driven only through OP_SET (e.g. duty_cycle_sp in run-direct) have no command recorded, so stop them all
+			if (target.type == TYPE_LED){
+				continue;
+			}
+			try {
+				if (target.type == TYPE_SERVO){
+					target.write(ServoMotor.SYSFS_PROPERTY_COMMAND, ServoMotor.SYSFS_COMMAND_FLOAT);
+				} else {
+					target.write(Motor.SYSFS_PROPERTY_COMMAND, Motor.SYSFS_COMMAND_STOP);
+				}
+				target.lastCommand = 0;
+			} catch (EV3LibraryException e){
+				writeErrors++;
+				logger.error("Stopping motor failed", e);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the time without a valid command after which every motor is stopped
+	 * @param deadManMillis Time in milliseconds
+	 */
+	public void setDeadManMillis(long deadManMillis){
+		this.deadManNanos = TimeUnit.MILLISECONDS.toNanos(deadManMillis);
+	}
+	
+	/**
+	 * Returns the time without a valid command after which every motor is stopped
+	 * @return Time in milliseconds
+	 */
+	public long getDeadManMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(deadManNanos);
+	}
+	
+	/**
+	 * Returns the number of datagrams accepted
+	 * @return Datagrams
+	 */
+	public long getAcceptedCount(){
+		return accepted;
+	}
+	
+	/**
+	 * Returns the number of datagrams dropped because their sequence was not newer than the last one
+	 * @return Datagrams
+	 */
+	public long getStaleCount(){
+		return stale;
+	}
+	
+	/**
+	 * Returns the number of datagrams rejected because they were malformed, from another controller, or not
+	 *  supported by their target
+	 * @return Datagrams
+	 */
+	public long getRejectedCount(){
+		return rejected;
+	}
+	
+	/**
+	 * Returns the number of writes to the devices that failed
+	 * @return Errors
+	 */
+	public long getWriteErrorCount(){
+		return writeErrors;
+	}
+	
+	/**
+	 * Returns the number of heartbeat replies that could not be sent
+	 * @return Errors
+	 */
+	public long getReplyErrorCount(){
+		return replyErrors;
+	}
+	
+	/**
+	 * Returns the number of times the motors were stopped by the dead-man timeout
+	 * @return Stops
+	 */
+	public long getDeadManStopCount(){
+		return deadManStops;
+	}
+	
+	/**
+	 * Returns the time from the reception of the last command to the end of its writes
+	 * @return Latency in nanoseconds
+	 */
+	public long getLastLatencyNanos(){
+		return lastLatencyNanos;
+	}
+	
+	/**
+	 * Returns the longest time from the reception of a command to the end of its writes
+	 * @return Latency in nanoseconds
+	 */
+	public long getMaxLatencyNanos(){
+		return maxLatencyNanos;
+	}
+	
+	private static final class Target {
+		
+		private final Device device;
+		
+		private final int type;
+		
+		private final Map<String, SysfsChannel> channels = new HashMap<String, SysfsChannel>();
+		
+		private int lastCommand = 0;
+		
+		private SysfsChannel stateChannel = null;
+		
+		private Target(Device device, int type){
+			this.device = device;
+			this.type = type;
+		}
+		
+		private SysfsChannel getChannel(String property){
+			SysfsChannel channel = channels.get(property);
+			if (channel == null){
+				channel = device.openAttributeChannel(property, true);
+				channels.put(property, channel);
+			}
+			return channel;
+		}
+		
+		//Whether the motor is still running, as it may have been stopped without going through the server
+		private boolean isRunning(){
+			try {
+				if (stateChannel == null){
+					stateChannel = device.openAttributeChannel(Motor.SYSFS_PROPERTY_STATE, false);
+				}
+				return stateChannel.readString().contains(STATE_RUNNING);
+			} catch (IOException e){
+				throw new EV3LibraryException("Read state failed", e);
+			}
+		}
+		
+		private void write(String property, int value){
+			try {
+				getChannel(property).writeInt(value);
+			} catch (IOException e){
+				throw new EV3LibraryException("Write " + property + " failed", e);
+			}
+			//The channel bypasses the shadow registers
+			device.invalidateShadowRegisters();
+		}
+		
+		private void write(String property, String value){
+			try {
+				getChannel(property).writeString(value);
+			} catch (IOException e){
+				throw new EV3LibraryException("Write " + property + " failed", e);
+			}
+			device.invalidateShadowRegisters();
+		}
+		
+		private void close(){
+			for (SysfsChannel channel : channels.values()){
+				try {
+					channel.close();
+				} catch (IOException e){
+					logger.debug("Closing command channel failed", e);
+				}
+			}
+			channels.clear();
+			if (stateChannel != null){
+				try {
+					stateChannel.close();
+				} catch (IOException e){
+					logger.debug("Closing command channel failed", e);
+				}
+				stateChannel = null;
+			}
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,607 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.lcd.LCD;
+import org.ev3dev.hardware.lcd.LCDListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mirrors the frames drawn to the LCD of the brick to any number of viewers over TCP.<br>
+ * <br>
+ * The server listens to every frame drawn to an LCD and keeps the latest one, split into tiles of
+ *  <code>TILE_WIDTH</code> bytes by <code>TILE_HEIGHT</code> rows. Each drawn frame is compared once against the
+ *  latest frame: the tiles that changed are copied and stamped with a new version. A viewer only remembers the
+ *  version it has been sent, and receives the tiles stamped after it. Viewers at the same version share the same
+ *  encoded message, so drawing costs one frame comparison however many viewers are attached. A viewer that has not
+ *  drained its previous message is skipped, and later receives every tile changed meanwhile in one message.<br>
+ * <br>
+ * Every message from the server is big-endian, prefixed by an unsigned 16-bit length of the rest of the message,
+ *  then an 8-bit type:
+ * <ul>
+ * <li><code>INFO (0x01)</code>: sent on connection. u16 width in pixels, u16 height in pixels, u16 bytes per row,
+ *  u16 tile width in bytes, u16 tile height in rows, u16 tile count. Tiles are numbered row by row.</li>
+ * <li><code>TILES (0x02)</code>: u32 version, u8 tile count, then for each tile its u8 number and its rows, in the
+ *  framebuffer format (LSB first, 1 is black)</li>
+ * </ul>
+ * Viewers send nothing, and start from a blank frame.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * LCDMirrorServer mirror = new LCDMirrorServer();
+ * mirror.start();
+ * //Every frame drawn from now on is mirrored, e.g. by LCDGraphics.flush()
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class LCDMirrorServer implements LCDListener {
+	
+    private static final Logger logger = LoggerFactory.getLogger(LCDMirrorServer.class);
+	
+	/**
+	 * The default TCP port
+	 */
+	public static final int DEFAULT_PORT = 6721;
+	
+	/**
+	 * The default maximum number of viewers
+	 */
+	public static final int DEFAULT_MAX_VIEWERS = 16;
+	
+	/**
+	 * The default minimum interval in milliseconds between two messages to a viewer
+	 */
+	public static final long DEFAULT_MIN_INTERVAL_MILLIS = 20;
+	
+	/**
+	 * Bytes per row of the framebuffer
+	 */
+	public static final int STRIDE = 24;
+	
+	/**
+	 * Tile width in bytes (64 pixels)
+	 */
+	public static final int TILE_WIDTH = 8;
+	
+	/**
+	 * Tile height in rows
+	 */
+	public static final int TILE_HEIGHT = 16;
+	
+	public static final int TILE_COLUMNS = STRIDE / TILE_WIDTH;
+	
+	public static final int TILE_ROWS = LCD.SCREEN_HEIGHT / TILE_HEIGHT;
+	
+	public static final int TILE_COUNT = TILE_COLUMNS * TILE_ROWS;
+	
+	public static final int TILE_LENGTH = TILE_WIDTH * TILE_HEIGHT;
+	
+	public static final int FRAME_LENGTH = STRIDE * LCD.SCREEN_HEIGHT;
+	
+	/**
+	 * Information message
+	 */
+	public static final int MESSAGE_INFO = 0x01;
+	
+	/**
+	 * Tiles message
+	 */
+	public static final int MESSAGE_TILES = 0x02;
+	
+	private static final byte[] INFO;
+	
+	static {
+		ByteBuffer bb = ByteBuffer.allocate(15);
+		bb.putShort((short) 13);
+		bb.put((byte) MESSAGE_INFO);
+		bb.putShort((short) LCD.SCREEN_WIDTH);
+		bb.putShort((short) LCD.SCREEN_HEIGHT);
+		bb.putShort((short) STRIDE);
+		bb.putShort((short) TILE_WIDTH);
+		bb.putShort((short) TILE_HEIGHT);
+		bb.putShort((short) TILE_COUNT);
+		INFO = bb.array();
+	}
+	
+	private final int port;
+	
+	private final List<Viewer> viewers = new ArrayList<Viewer>();
+	
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+	
+	/**
+	 * Guards the latest frame and its tile versions, shared by the drawing threads and the network thread
+	 */
+	private final Object frameLock = new Object();
+	
+	private final byte[] latest = new byte[FRAME_LENGTH];
+	
+	private final int[] tileVersions = new int[TILE_COUNT];
+	
+	private int version = 0;
+	
+	/**
+	 * The last message encoded, reused for every viewer at the same version
+	 */
+	private byte[] cached;
+	
+	private int cachedFrom = -1;
+	
+	private int cachedTo = -1;
+	
+	private Selector selector;
+	
+	private ServerSocketChannel tcp;
+	
+	private Thread thread;
+	
+	private volatile boolean running = false;
+	
+	private volatile int viewerCount = 0;
+	
+	private volatile int maxViewers = DEFAULT_MAX_VIEWERS;
+	
+	private volatile long minIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+	
+	private final AtomicLong framesDrawn = new AtomicLong();
+	
+	private volatile long framesChanged = 0;
+	
+	private volatile long messagesSent = 0;
+	
+	/**
+	 * Creates a mirror server on the default port
+	 */
+	public LCDMirrorServer(){
+		this(DEFAULT_PORT);
+	}
+	
+	/**
+	 * Creates a mirror server
+	 * @param port The TCP port, or 0 for any free port
+	 */
+	public LCDMirrorServer(int port){
+		this.port = port;
+	}
+	
+	/**
+	 * Starts the server and starts listening to the LCD frames
+	 * @throws EV3LibraryException If the port cannot be bound
+	 */
+	public synchronized void start() throws EV3LibraryException{
+		if (running){
+			return;
+		}
+		try {
+			selector = Selector.open();
+			tcp = ServerSocketChannel.open();
+			tcp.configureBlocking(false);
+			tcp.socket().setReuseAddress(true);
+			tcp.bind(new InetSocketAddress(port));
+			tcp.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e){
+			closeQuietly(tcp);
+			closeQuietly(selector);
+			throw new EV3LibraryException("Start LCD mirror server failed", e);
+		}
+		running = true;
+		LCD.addListener(this);
+		thread = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				serve();
+			}
+			
+		}, "LCDMirrorServer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		thread.start();
+		logger.info("LCD mirror server started on port " + getLocalPort());
+	}
+	
+	/**
+	 * Stops listening to the LCD frames, stops the server and disconnects all the viewers
+	 */
+	public synchronized void stop(){
+		if (thread == null){
+			return;
+		}
+		//Also removed by the network thread on its way out, in case it failed before
+		LCD.removeListener(this);
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		logger.info("LCD mirror server stopped");
+	}
+	
+	/**
+	 * Returns whether the server is running
+	 * @return Running
+	 */
+	public boolean isRunning(){
+		return running;
+	}
+	
+	/**
+	 * Returns the port the server is bound to
+	 * @return The port, or the port specified at construction if the server is stopped
+	 */
+	public synchronized int getLocalPort(){
+		if (running){
+			return tcp.socket().getLocalPort();
+		}
+		return port;
+	}
+	
+	/**
+	 * Compares a frame drawn against the latest frame, and stamps the tiles changed with a new version
+	 */
+	@Override
+	public void frameDrawn(LCD lcd, byte[] data){
+		if (data.length < FRAME_LENGTH){
+			return;
+		}
+		framesDrawn.incrementAndGet();
+		boolean changed = false;
+		synchronized (frameLock){
+			int next = version + 1;
+			for (int t = 0; t < TILE_COUNT; t++){
+				int start = (t / TILE_COLUMNS) * TILE_HEIGHT * STRIDE + (t % TILE_COLUMNS) * TILE_WIDTH;
+				if (!tileEquals(data, latest, start)){
+					for (int r = 0; r < TILE_HEIGHT; r++){
+						System.arraycopy(data, start + r * STRIDE, latest, start + r * STRIDE, TILE_WIDTH);
+					}
+					tileVersions[t] = next;
+					changed = true;
+				}
+			}
+			if (changed){
+				version = next;
+				framesChanged++;
+			}
+		}
+		if (changed){
+			if (viewerCount > 0){
+				selector.wakeup();
+			}
+		}
+	}
+	
+	private static boolean tileEquals(byte[] a, byte[] b, int start){
+		for (int r = 0; r < TILE_HEIGHT; r++){
+			int o = start + r * STRIDE;
+			for (int i = o; i < o + TILE_WIDTH; i++){
+				if (a[i] != b[i]){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns a copy of the latest frame drawn
+	 * @return The frame in the framebuffer format
+	 */
+	public byte[] getLatestFrame(){
+		synchronized (frameLock){
+			return latest.clone();
+		}
+	}
+	
+	private void serve(){
+		try {
+			while (running){
+				long wait = sendChanges(System.nanoTime());
+				selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()){
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()){
+						continue;
+					}
+					try {
+						if (key.isAcceptable()){
+							accept();
+						} else {
+							Viewer v = (Viewer) key.attachment();
+							if (key.isReadable()){
+								receive(v);
+							}
+							if (key.isValid() && key.isWritable()){
+								flush(v);
+							}
+						}
+					} catch (IOException e){
+						logger.debug("LCD mirror connection failed", e);
+						if (key.attachment() instanceof Viewer){
+							remove((Viewer) key.attachment());
+						}
+					}
+				}
+			}
+		} catch (IOException e){
+			logger.error("LCD mirror server failed", e);
+		} finally {
+			for (Viewer v : viewers){
+				closeQuietly(v.channel);
+			}
+			viewers.clear();
+			viewerCount = 0;
+			closeQuietly(tcp);
+			closeQuietly(selector);
+			LCD.removeListener(this);
+			running = false;
+		}
+	}
+	
+	private long sendChanges(long now){
+		long wait = TimeUnit.SECONDS.toNanos(1);
+		int current;
+		synchronized (frameLock){
+			current = version;
+		}
+		long interval = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+		for (int i = viewers.size() - 1; i >= 0; i--){
+			Viewer v = viewers.get(i);
+			if (v.version == current || v.out.hasRemaining()){
+				//Up to date, or still draining: the changes are coalesced into the next message
+				continue;
+			}
+			if (now - v.due < 0){
+				wait = Math.min(wait, v.due - now);
+				continue;
+			}
+			v.out = ByteBuffer.wrap(encodeTiles(v.version));
+			v.version = cachedTo;
+			v.due = now + interval;
+			try {
+				v.channel.write(v.out);
+			} catch (IOException e){
+				logger.debug("LCD mirror connection failed", e);
+				remove(v);
+				continue;
+			}
+			messagesSent++;
+			if (v.out.hasRemaining()){
+				v.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+		return wait;
+	}
+	
+	/**
+	 * Encodes the tiles changed after a version, or returns the cached message if it is the same
+	 */
+	private byte[] encodeTiles(int from){
+		synchronized (frameLock){
+			if (from == cachedFrom && version == cachedTo){
+				return cached;
+			}
+			int count = 0;
+			for (int t = 0; t < TILE_COUNT; t++){
+				if (tileVersions[t] > from){
+					count++;
+				}
+			}
+			ByteBuffer bb = ByteBuffer.allocate(8 + count * (1 + TILE_LENGTH));
+			bb.putShort((short) (bb.capacity() - 2));
+			bb.put((byte) MESSAGE_TILES);
+			bb.putInt(version);
+			bb.put((byte) count);
+			for (int t = 0; t < TILE_COUNT; t++){
+				if (tileVersions[t] > from){
+					bb.put((byte) t);
+					int start = (t / TILE_COLUMNS) * TILE_HEIGHT * STRIDE + (t % TILE_COLUMNS) * TILE_WIDTH;
+					for (int r = 0; r < TILE_HEIGHT; r++){
+						bb.put(latest, start + r * STRIDE, TILE_WIDTH);
+					}
+				}
+			}
+			cached = bb.array();
+			cachedFrom = from;
+			cachedTo = version;
+			return cached;
+		}
+	}
+	
+	private void accept() throws IOException{
+		SocketChannel channel = tcp.accept();
+		if (channel == null){
+			return;
+		}
+		if (viewers.size() >= maxViewers){
+			logger.warn("Too many LCD mirror viewers, rejecting " + channel.socket().getRemoteSocketAddress());
+			closeQuietly(channel);
+			return;
+		}
+		Viewer v = new Viewer(channel);
+		v.due = System.nanoTime();
+		v.out = ByteBuffer.wrap(INFO);
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			v.key = channel.register(selector, SelectionKey.OP_READ, v);
+			channel.write(v.out);
+		} catch (IOException e){
+			logger.debug("LCD mirror viewer failed on connection", e);
+			closeQuietly(channel);
+			return;
+		}
+		if (v.out.hasRemaining()){
+			v.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+		viewers.add(v);
+		viewerCount = viewers.size();
+		logger.debug("LCD mirror viewer connected: " + channel.socket().getRemoteSocketAddress());
+	}
+	
+	private void receive(Viewer v) throws IOException{
+		//Viewers send nothing, only the end of the stream matters
+		readBuffer.clear();
+		if (v.channel.read(readBuffer) < 0){
+			logger.debug("LCD mirror viewer disconnected: " + v.channel.socket().getRemoteSocketAddress());
+			remove(v);
+		}
+	}
+	
+	private void flush(Viewer v) throws IOException{
+		v.channel.write(v.out);
+		if (!v.out.hasRemaining()){
+			v.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+	
+	private void remove(Viewer v){
+		viewers.remove(v);
+		viewerCount = viewers.size();
+		closeQuietly(v.channel);
+	}
+	
+	private static void closeQuietly(Closeable closeable){
+		if (closeable == null){
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e){
+			logger.debug("Close failed", e);
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of viewers
+	 * @param maxViewers Maximum viewers
+	 */
+	public void setMaxViewers(int maxViewers){
+		this.maxViewers = maxViewers;
+	}
+	
+	/**
+	 * Returns the maximum number of viewers
+	 * @return Maximum viewers
+	 */
+	public int getMaxViewers(){
+		return maxViewers;
+	}
+	
+	/**
+	 * Sets the minimum interval between two messages to a viewer. Changes within the interval are coalesced.
+	 * @param minIntervalMillis Interval in milliseconds
+	 */
+	public void setMinIntervalMillis(long minIntervalMillis){
+		this.minIntervalMillis = minIntervalMillis;
+	}
+	
+	/**
+	 * Returns the minimum interval between two messages to a viewer
+	 * @return Interval in milliseconds
+	 */
+	public long getMinIntervalMillis(){
+		return minIntervalMillis;
+	}
+	
+	/**
+	 * Returns the number of viewers connected
+	 * @return Viewers
+	 */
+	public int getViewerCount(){
+		return viewerCount;
+	}
+	
+	/**
+	 * Returns the number of frames drawn while the server was running
+	 * @return Frames
+	 */
+	public long getFramesDrawn(){
+		return framesDrawn.get();
+	}
+	
+	/**
+	 * Returns the number of frames drawn that changed at least one tile
+	 * @return Frames
+	 */
+	public long getFramesChanged(){
+		return framesChanged;
+	}
+	
+	/**
+	 * Returns the number of tile messages sent to the viewers
+	 * @return Messages
+	 */
+	public long getMessagesSent(){
+		return messagesSent;
+	}
+	
+	private static final class Viewer {
+		
+		private final SocketChannel channel;
+		
+		private ByteBuffer out;
+		
+		private SelectionKey key;
+		
+		/**
+		 * The version of the tiles sent
+		 */
+		private int version;
+		
+		private long due;
+		
+		private Viewer(SocketChannel channel){
+			this.channel = channel;
+		}
+		
+	}
+	
+}
\ No newline at end of file
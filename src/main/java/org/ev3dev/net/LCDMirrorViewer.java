@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.net;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.lcd.LCD;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Views the LCD of a brick running an LCDMirrorServer. The tiles received are patched into a local frame, which is
+ *  drawn to a target LCD after every message, such as a VirtualLCD shown in a VLCDFrame. One viewer per brick lets
+ *  several screens be watched at once.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * VirtualLCD lcd = new VirtualLCD();
+ * new VLCDFrame(lcd);
+ * LCDMirrorViewer viewer = new LCDMirrorViewer("ev3dev.local", LCDMirrorServer.DEFAULT_PORT, lcd);
+ * viewer.start();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class LCDMirrorViewer {
+	
+    private static final Logger logger = LoggerFactory.getLogger(LCDMirrorViewer.class);
+	
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	
+	private final String hostname;
+	
+	private final int port;
+	
+	private final LCD target;
+	
+	private final byte[] frame = new byte[LCDMirrorServer.FRAME_LENGTH];
+	
+	private Socket socket;
+	
+	private Thread thread;
+	
+	private volatile boolean running = false;
+	
+	private volatile int version = 0;
+	
+	private volatile long messagesReceived = 0;
+	
+	/**
+	 * Creates a viewer
+	 * @param hostname The hostname of the brick
+	 * @param port The port of the LCDMirrorServer
+	 * @param target The LCD drawn to with every frame received, or <code>null</code>
+	 */
+	public LCDMirrorViewer(String hostname, int port, LCD target){
+		this.hostname = hostname;
+		this.port = port;
+		this.target = target;
+	}
+	
+	/**
+	 * Connects to the brick and starts receiving frames
+	 * @throws EV3LibraryException If the connection cannot be made
+	 */
+	public synchronized void start() throws EV3LibraryException{
+		if (running){
+			return;
+		}
+		final DataInputStream in;
+		try {
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(hostname, port), CONNECT_TIMEOUT_MILLIS);
+			in = new DataInputStream(socket.getInputStream());
+		} catch (IOException e){
+			try {
+				socket.close();
+			} catch (IOException ignore){
+			}
+			throw new EV3LibraryException("Connect to LCD mirror " + hostname + ":" + port + " failed", e);
+		}
+		running = true;
+		thread = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				receive(in);
+			}
+			
+		}, "LCDMirrorViewer-" + hostname);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Disconnects from the brick
+	 */
+	public synchronized void stop(){
+		if (!running){
+			return;
+		}
+		running = false;
+		try {
+			socket.close();
+		} catch (IOException ignore){
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+	
+	/**
+	 * Returns whether the viewer is connected
+	 * @return Running
+	 */
+	public boolean isRunning(){
+		return running;
+	}
+	
+	private void receive(DataInputStream in){
+		int tileWidth = LCDMirrorServer.TILE_WIDTH;
+		int tileHeight = LCDMirrorServer.TILE_HEIGHT;
+		int stride = LCDMirrorServer.STRIDE;
+		int columns = LCDMirrorServer.TILE_COLUMNS;
+		try {
+			while (running){
+				int length = in.readUnsignedShort();
+				int type = in.readUnsignedByte();
+				if (type == LCDMirrorServer.MESSAGE_INFO){
+					in.readUnsignedShort();
+					in.readUnsignedShort();
+					stride = in.readUnsignedShort();
+					tileWidth = in.readUnsignedShort();
+					tileHeight = in.readUnsignedShort();
+					int count = in.readUnsignedShort();
+					if (tileWidth == 0 || tileHeight == 0 || stride < tileWidth || length < 13){
+						throw new IOException("Invalid LCD mirror info: stride " + stride + ", tile " + tileWidth + "x" + tileHeight);
+					}
+					columns = stride / tileWidth;
+					if (stride * ((count + columns - 1) / columns) * tileHeight > frame.length){
+						throw new IOException("LCD mirror frame does not fit: " + count + " tiles");
+					}
+					in.skipBytes(length - 13);
+				} else if (type == LCDMirrorServer.MESSAGE_TILES){
+					int v = in.readInt();
+					int count = in.readUnsignedByte();
+					synchronized (frame){
+						for (int i = 0; i < count; i++){
+							int t = in.readUnsignedByte();
+							int start = (t / columns) * tileHeight * stride + (t % columns) * tileWidth;
+							if (start + (tileHeight - 1) * stride + tileWidth > frame.length){
+								throw new IOException("LCD mirror tile out of the frame: " + t);
+							}
+							for (int r = 0; r < tileHeight; r++){
+								in.readFully(frame, start + r * stride, tileWidth);
+							}
+						}
+					}
+					version = v;
+					messagesReceived++;
+					if (target != null){
+						target.draw(getFrame());
+					}
+				} else {
+					in.skipBytes(length - 1);
+				}
+			}
+		} catch (EOFException e){
+			logger.info("LCD mirror " + hostname + ":" + port + " closed the connection");
+		} catch (IOException e){
+			if (running){
+				logger.warn("LCD mirror " + hostname + ":" + port + " failed", e);
+			}
+		} catch (EV3LibraryException e){
+			logger.warn("Draw LCD mirror " + hostname + ":" + port + " failed", e);
+		} finally {
+			running = false;
+			try {
+				socket.close();
+			} catch (IOException ignore){
+			}
+		}
+	}
+	
+	/**
+	 * Returns a copy of the frame received
+	 * @return The frame in the framebuffer format
+	 */
+	public byte[] getFrame(){
+		synchronized (frame){
+			return frame.clone();
+		}
+	}
+	
+	/**
+	 * Returns the version of the frame received
+	 * @return The version, 0 before any tiles
+	 */
+	public int getVersion(){
+		return version;
+	}
+	
+	/**
+	 * Returns the number of tile messages received
+	 * @return Messages
+	 */
+	public long getMessagesReceived(){
+		return messagesReceived;
+	}
+	
+}
\ No newline at end of file
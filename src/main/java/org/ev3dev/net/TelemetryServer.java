@@ -0,0 +1,996 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.ev3dev.hardware.Button;
+import org.ev3dev.hardware.Device;
+import org.ev3dev.hardware.PowerSupply;
+import org.ev3dev.hardware.Sampler;
+import org.ev3dev.hardware.motors.Motor;
+import org.ev3dev.hardware.sensors.Sensor;
+import org.ev3dev.io.Sysfs;
+import org.ev3dev.io.SysfsChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams telemetry channels of the brick (motors, sensors, power supply, buttons) to subscribers over TCP or UDP.<br>
+ * <br>
+ * The channels are read on a Sampler at a fixed rate (default every 20 ms), only while someone is subscribed, and
+ *  the latest sample is published without locking. A single non-blocking network thread, running below the normal
+ *  priority, serves every subscriber: it never blocks on a slow client, and a TCP subscriber that has not drained its
+ *  previous frame simply skips frames. Each subscriber chooses its channels and its minimum interval between frames.
+ *  Frames are delta encoded against the values last sent to the subscriber, with a keyframe every 50 frames.<br>
+ * <br>
+ * TCP and UDP share the same port and framing. Every message is big-endian, prefixed by an unsigned 16-bit length of
+ *  the rest of the message, then an 8-bit type. Over UDP, one datagram carries whole messages, and a UDP subscriber
+ *  is dropped when nothing has been received from it for 10 seconds, so it should repeat its subscription.<br>
+ * <br>
+ * Requests from a client:
+ * <ul>
+ * <li><code>LIST (0x01)</code>: no payload, answered by a <code>CATALOG</code></li>
+ * <li><code>SUBSCRIBE (0x02)</code>: u16 interval in milliseconds, u16 channel count, u16 channel IDs. A count of 0
+ *  subscribes to all the channels. The next frame is a keyframe.</li>
+ * <li><code>UNSUBSCRIBE (0x03)</code>: no payload</li>
+ * </ul>
+ * Frames from the server:
+ * <ul>
+ * <li><code>CATALOG (0x81)</code>: u16 channel count, then for each channel u16 ID, u8 name length, UTF-8 name</li>
+ * <li><code>KEYFRAME (0x82)</code>: u32 frame sequence, u32 sample time in milliseconds, u16 count, then s32 values
+ *  in the subscription order</li>
+ * <li><code>DELTA (0x83)</code>: u32 frame sequence, u32 sample time in milliseconds, u16 count, then for each
+ *  changed value its u16 index in the subscription and the zigzag varint difference from the previous frame</li>
+ * </ul>
+ * The frame sequence of a subscriber increases by one on every frame. A client that sees a gap must ignore the deltas
+ *  until the next keyframe, or subscribe again.<br>
+ * <br>
+ * Example:
+ * <pre>
+ * TelemetryServer server = new TelemetryServer();
+ * server.addMotorChannels("motorA", motorA);
+ * server.addSensorChannel("gyro", gyro, 0);
+ * server.addPowerSupplyChannels();
+ * server.start();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class TelemetryServer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TelemetryServer.class);
+	
+	/**
+	 * The default TCP and UDP port
+	 */
+	public static final int DEFAULT_PORT = 6719;
+	
+	/**
+	 * The default sampling period in milliseconds
+	 */
+	public static final long DEFAULT_SAMPLE_PERIOD_MILLIS = 20;
+	
+	/**
+	 * The default maximum number of TCP and UDP subscribers
+	 */
+	public static final int DEFAULT_MAX_SUBSCRIBERS = 8;
+	
+	/**
+	 * The default number of frames between keyframes
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+	
+	/**
+	 * The time in milliseconds after which a silent UDP subscriber is dropped
+	 */
+	public static final long UDP_TIMEOUT_MILLIS = 10000;
+	
+	/**
+	 * Request of the channel catalog
+	 */
+	public static final int REQUEST_LIST = 0x01;
+	
+	/**
+	 * Request of a subscription
+	 */
+	public static final int REQUEST_SUBSCRIBE = 0x02;
+	
+	/**
+	 * Request to end a subscription
+	 */
+	public static final int REQUEST_UNSUBSCRIBE = 0x03;
+	
+	/**
+	 * Frame of the channel catalog
+	 */
+	public static final int FRAME_CATALOG = 0x81;
+	
+	/**
+	 * Frame with all the subscribed values
+	 */
+	public static final int FRAME_KEYFRAME = 0x82;
+	
+	/**
+	 * Frame with the changed subscribed values
+	 */
+	public static final int FRAME_DELTA = 0x83;
+	
+	private static final int MAX_REQUEST_LENGTH = 1024;
+	
+	private static final int FRAME_HEADER_LENGTH = 13;
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private final int port;
+	
+	private final List<String> names = new ArrayList<String>();
+	
+	private final List<TelemetrySource> sources = new ArrayList<TelemetrySource>();
+	
+	private final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+	
+	private final ByteBuffer datagram = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+	
+	private ByteBuffer frame = ByteBuffer.allocate(256);
+	
+	private TelemetrySource[] sampled;
+	
+	private byte[] catalog;
+	
+	private Selector selector;
+	
+	private ServerSocketChannel tcp;
+	
+	private DatagramChannel udp;
+	
+	private Thread thread;
+	
+	private ScheduledFuture<?> task;
+	
+	private long startNanos;
+	
+	private volatile boolean running = false;
+	
+	private volatile Sample latest = null;
+	
+	private volatile int activeSubscribers = 0;
+	
+	private volatile int maxSubscribers = DEFAULT_MAX_SUBSCRIBERS;
+	
+	private volatile int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+	
+	private volatile long samplePeriodMillis = DEFAULT_SAMPLE_PERIOD_MILLIS;
+	
+	private volatile long sampleErrors = 0;
+	
+	private volatile long framesSent = 0;
+	
+	private volatile long framesSkipped = 0;
+	
+	/**
+	 * Creates a new TelemetryServer on the default port
+	 */
+	public TelemetryServer(){
+		this(DEFAULT_PORT);
+	}
+	
+	/**
+	 * Creates a new TelemetryServer
+	 * @param port The TCP and UDP port, or 0 for any free port
+	 */
+	public TelemetryServer(int port){
+		this.port = port;
+	}
+	
+	/**
+	 * Adds a channel. Channels can only be added while the server is stopped.
+	 * @param name The channel name, at most 255 bytes in UTF-8
+	 * @param source The source of the values
+	 * @return The channel ID
+	 */
+	public synchronized int addChannel(String name, TelemetrySource source){
+		if (running){
+			throw new IllegalStateException("Channels cannot be added while the server is running");
+		}
+		if (name.getBytes(UTF_8).length > 255){
+			throw new IllegalArgumentException("The channel name is too long: " + name);
+		}
+		names.add(name);
+		sources.add(source);
+		return names.size() - 1;
+	}
+	
+	/**
+	 * Adds a channel reading an integer attribute of a device through a persistent channel
+	 * @param name The channel name
+	 * @param device The device
+	 * @param property The attribute name
+	 * @return The channel ID
+	 */
+	public int addAttributeChannel(String name, final Device device, final String property){
+		return addChannel(name, new AttributeSource(){
+
+			@Override
+			protected SysfsChannel open() throws IOException {
+				return device.openAttributeChannel(property, false);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Adds the <code>position</code>, <code>speed</code> and <code>duty_cycle</code> channels of a tacho motor,
+	 *  named with the prefix specified (e.g. <code>motorA.position</code>)
+	 * @param prefix The channel name prefix
+	 * @param motor The tacho motor
+	 */
+	public void addMotorChannels(String prefix, Motor motor){
+		addAttributeChannel(prefix + "." + Motor.SYSFS_PROPERTY_POSITION, motor, Motor.SYSFS_PROPERTY_POSITION);
+		addAttributeChannel(prefix + "." + Motor.SYSFS_PROPERTY_SPEED, motor, Motor.SYSFS_PROPERTY_SPEED);
+		addAttributeChannel(prefix + "." + Motor.SYSFS_PROPERTY_DUTY_CYCLE, motor, Motor.SYSFS_PROPERTY_DUTY_CYCLE);
+	}
+	
+	/**
+	 * Adds a channel of a sensor value[N] in its current mode
+	 * @param name The channel name
+	 * @param sensor The sensor
+	 * @param index The value index
+	 * @return The channel ID
+	 */
+	public int addSensorChannel(String name, Sensor sensor, int index){
+		return addAttributeChannel(name, sensor, "value" + index);
+	}
+	
+	/**
+	 * Adds the <code>battery.voltage</code> and <code>battery.current</code> channels of the power supply, in microvolts
+	 *  and microamps
+	 */
+	public void addPowerSupplyChannels(){
+		addPowerSupplyChannel("battery.voltage", PowerSupply.SYSFS_MEASURED_VOLTAGE);
+		addPowerSupplyChannel("battery.current", PowerSupply.SYSFS_MEASURED_CURRENT);
+	}
+	
+	private void addPowerSupplyChannel(String name, final String property){
+		addChannel(name, new AttributeSource(){
+
+			@Override
+			protected SysfsChannel open() throws IOException {
+				return Sysfs.openChannel(PowerSupply.POWER_SUPPLY_CLASS_NAME, PowerSupply.getDeviceName(), property, false);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Adds a channel of a button, 1 if pressed and 0 otherwise
+	 * @param name The channel name
+	 * @param button The button
+	 * @return The channel ID
+	 */
+	public int addButtonChannel(String name, final Button button){
+		return addChannel(name, new TelemetrySource(){
+
+			@Override
+			public int read() throws EV3LibraryException {
+				return button.isPressed() ? 1 : 0;
+			}
+			
+		});
+	}
+	
+	/**
+	 * Returns the channel names, indexed by channel ID
+	 * @return Channel names
+	 */
+	public synchronized List<String> getChannelNames(){
+		return Collections.unmodifiableList(new ArrayList<String>(names));
+	}
+	
+	/**
+	 * Starts the server, sampling on the shared Sampler
+	 * @throws EV3LibraryException If the port cannot be bound
+	 */
+	public void start() throws EV3LibraryException{
+		start(Sampler.getShared());
+	}
+	
+	/**
+	 * Starts the server, sampling on the Sampler specified
+	 * @param sampler The Sampler
+	 * @throws EV3LibraryException If the port cannot be bound
+	 */
+	public synchronized void start(Sampler sampler) throws EV3LibraryException{
+		if (running){
+			return;
+		}
+		sampled = sources.toArray(new TelemetrySource[sources.size()]);
+		catalog = encodeCatalog();
+		try {
+			selector = Selector.open();
+			tcp = ServerSocketChannel.open();
+			tcp.configureBlocking(false);
+			tcp.socket().setReuseAddress(true);
+			tcp.bind(new InetSocketAddress(port));
+			tcp.register(selector, SelectionKey.OP_ACCEPT);
+			udp = DatagramChannel.open();
+			udp.configureBlocking(false);
+			udp.bind(new InetSocketAddress(tcp.socket().getLocalPort()));
+			udp.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e){
+			closeQuietly(udp);
+			closeQuietly(tcp);
+			closeQuietly(selector);
+			throw new EV3LibraryException("Start telemetry server failed", e);
+		}
+		startNanos = System.nanoTime();
+		latest = null;
+		running = true;
+		task = sampler.schedule(new Runnable(){
+
+			@Override
+			public void run() {
+				sample();
+			}
+			
+		}, samplePeriodMillis, TimeUnit.MILLISECONDS);
+		thread = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				serve();
+			}
+			
+		}, "TelemetryServer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		thread.start();
+		logger.info("Telemetry server started on port " + getLocalPort() + " with " + sampled.length + " channels");
+	}
+	
+	/**
+	 * Stops the server and disconnects all the subscribers
+	 */
+	public synchronized void stop(){
+		if (thread == null){
+			return;
+		}
+		//The network thread releases everything on its way out, even if it failed before
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		task = null;
+		logger.info("Telemetry server stopped");
+	}
+	
+	/**
+	 * Returns whether the server is running
+	 * @return Running
+	 */
+	public boolean isRunning(){
+		return running;
+	}
+	
+	/**
+	 * Returns the port the server is bound to
+	 * @return The port, or the port specified at construction if the server is stopped
+	 */
+	public synchronized int getLocalPort(){
+		if (running){
+			return tcp.socket().getLocalPort();
+		}
+		return port;
+	}
+	
+	private void sample(){
+		if (activeSubscribers == 0){
+			//Nobody is watching, leave the devices alone
+			return;
+		}
+		Sample prev = latest;
+		TelemetrySource[] srcs = sampled;
+		int[] values = new int[srcs.length];
+		for (int i = 0; i < srcs.length; i++){
+			try {
+				values[i] = srcs[i].read();
+			} catch (EV3LibraryException e){
+				values[i] = prev == null ? 0 : prev.values[i];
+				sampleErrors++;
+				logger.debug("Sample telemetry channel " + i + " failed", e);
+			} catch (NumberFormatException e){
+				values[i] = prev == null ? 0 : prev.values[i];
+				sampleErrors++;
+				logger.debug("Sample telemetry channel " + i + " failed", e);
+			}
+		}
+		long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		latest = new Sample(prev == null ? 1 : prev.seq + 1, (int) time, values);
+	}
+	
+	private void serve(){
+		try {
+			while (running){
+				long wait = sendDueFrames(System.nanoTime());
+				selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()){
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()){
+						continue;
+					}
+					try {
+						if (key.isAcceptable()){
+							accept();
+						} else if (key.channel() == udp){
+							receiveDatagrams();
+						} else {
+							Subscriber s = (Subscriber) key.attachment();
+							if (key.isReadable()){
+								receive(s);
+							}
+							if (key.isValid() && key.isWritable()){
+								flush(s);
+							}
+						}
+					} catch (IOException e){
+						logger.debug("Telemetry connection failed", e);
+						if (key.attachment() instanceof Subscriber){
+							remove((Subscriber) key.attachment());
+						}
+					}
+				}
+			}
+		} catch (IOException e){
+			logger.error("Telemetry server failed", e);
+		} finally {
+			for (Subscriber s : subscribers){
+				closeQuietly(s.channel);
+			}
+			subscribers.clear();
+			activeSubscribers = 0;
+			closeQuietly(udp);
+			closeQuietly(tcp);
+			closeQuietly(selector);
+			task.cancel(false);
+			for (TelemetrySource source : sampled){
+				if (source instanceof Closeable){
+					closeQuietly((Closeable) source);
+				}
+			}
+			running = false;
+		}
+	}
+	
+	private long sendDueFrames(long now) throws IOException{
+		long wait = TimeUnit.MILLISECONDS.toNanos(100);
+		long udpTimeout = TimeUnit.MILLISECONDS.toNanos(UDP_TIMEOUT_MILLIS);
+		Sample sample = latest;
+		for (int i = subscribers.size() - 1; i >= 0; i--){
+			Subscriber s = subscribers.get(i);
+			if (s.address != null && now - s.heard > udpTimeout){
+				logger.debug("UDP subscriber " + s.address + " timed out");
+				remove(s);
+				continue;
+			}
+			if (s.ids == null){
+				continue;
+			}
+			if (now - s.due >= 0){
+				if (sample == null || sample.seq == s.sampleSeq){
+					//Due, but no new sample yet
+					wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(1));
+					continue;
+				}
+				if (s.channel != null && s.out.hasRemaining()){
+					//The previous frame is not drained yet, skip this one
+					framesSkipped++;
+				} else {
+					encodeFrame(s, sample);
+					deliver(s);
+					framesSent++;
+				}
+				s.sampleSeq = sample.seq;
+				s.due = now + s.interval;
+			}
+			wait = Math.min(wait, s.due - now);
+		}
+		return wait;
+	}
+	
+	private void accept() throws IOException{
+		SocketChannel channel = tcp.accept();
+		if (channel == null){
+			return;
+		}
+		if (subscribers.size() >= maxSubscribers){
+			logger.warn("Too many telemetry subscribers, rejecting " + channel.socket().getRemoteSocketAddress());
+			closeQuietly(channel);
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Subscriber s = new Subscriber(channel, null);
+		s.key = channel.register(selector, SelectionKey.OP_READ, s);
+		subscribers.add(s);
+		logger.debug("Telemetry subscriber connected: " + channel.socket().getRemoteSocketAddress());
+	}
+	
+	private void receive(Subscriber s) throws IOException{
+		int n = s.channel.read(s.in);
+		if (n < 0){
+			logger.debug("Telemetry subscriber disconnected: " + s.channel.socket().getRemoteSocketAddress());
+			remove(s);
+			return;
+		}
+		s.in.flip();
+		boolean valid = handleRequests(s, s.in);
+		s.in.compact();
+		if (!valid || !s.in.hasRemaining()){
+			logger.debug("Invalid telemetry request from " + s.channel.socket().getRemoteSocketAddress());
+			remove(s);
+		}
+	}
+	
+	private void receiveDatagrams() throws IOException{
+		SocketAddress from;
+		while (true){
+			datagram.clear();
+			from = udp.receive(datagram);
+			if (from == null){
+				return;
+			}
+			datagram.flip();
+			Subscriber s = null;
+			for (Subscriber candidate : subscribers){
+				if (from.equals(candidate.address)){
+					s = candidate;
+					break;
+				}
+			}
+			boolean known = s != null;
+			if (!known){
+				//Only kept once it has subscribed, so stray datagrams cannot use up the subscriber slots
+				s = new Subscriber(null, from);
+			}
+			s.heard = System.nanoTime();
+			boolean valid = handleRequests(s, datagram) && !datagram.hasRemaining();
+			if (!valid){
+				logger.debug("Invalid telemetry datagram from " + from);
+			}
+			if (!known && valid && s.ids != null){
+				if (subscribers.size() >= maxSubscribers){
+					logger.warn("Too many telemetry subscribers, ignoring " + from);
+					continue;
+				}
+				subscribers.add(s);
+				updateActiveSubscribers();
+				logger.debug("Telemetry UDP subscriber: " + from);
+			}
+		}
+	}
+	
+	private boolean handleRequests(Subscriber s, ByteBuffer in) throws IOException{
+		while (in.remaining() >= 2){
+			int start = in.position();
+			int length = in.getShort(start) & 0xffff;
+			if (length == 0 || length > MAX_REQUEST_LENGTH - 2){
+				return false;
+			}
+			if (in.remaining() < 2 + length){
+				return true;
+			}
+			int end = start + 2 + length;
+			ByteBuffer request = in.duplicate();
+			request.position(start + 2);
+			request.limit(end);
+			in.position(end);
+			if (!handleRequest(s, request)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean handleRequest(Subscriber s, ByteBuffer request) throws IOException{
+		int type = request.get() & 0xff;
+		switch (type){
+		case REQUEST_LIST:
+			frame.clear();
+			ensureFrameCapacity(catalog.length);
+			frame.put(catalog);
+			frame.flip();
+			deliver(s);
+			return true;
+		case REQUEST_SUBSCRIBE:
+			if (request.remaining() < 4){
+				return false;
+			}
+			int interval = request.getShort() & 0xffff;
+			int count = request.getShort() & 0xffff;
+			if (request.remaining() < count * 2){
+				return false;
+			}
+			int[] ids = new int[count == 0 ? sampled.length : count];
+			for (int i = 0; i < ids.length; i++){
+				ids[i] = count == 0 ? i : request.getShort() & 0xffff;
+				if (ids[i] >= sampled.length){
+					return false;
+				}
+			}
+			s.ids = ids;
+			s.last = null;
+			s.interval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, interval));
+			s.due = System.nanoTime();
+			s.sampleSeq = 0;
+			updateActiveSubscribers();
+			return true;
+		case REQUEST_UNSUBSCRIBE:
+			if (s.address != null){
+				s.ids = null;
+				remove(s);
+			} else {
+				s.ids = null;
+				updateActiveSubscribers();
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	private byte[] encodeCatalog(){
+		ByteBuffer bb = ByteBuffer.allocate(5 + names.size() * 258);
+		bb.putShort((short) 0);
+		bb.put((byte) FRAME_CATALOG);
+		bb.putShort((short) names.size());
+		for (int i = 0; i < names.size(); i++){
+			byte[] name = names.get(i).getBytes(UTF_8);
+			bb.putShort((short) i);
+			bb.put((byte) name.length);
+			bb.put(name);
+		}
+		bb.putShort(0, (short) (bb.position() - 2));
+		byte[] out = new byte[bb.position()];
+		bb.flip();
+		bb.get(out);
+		return out;
+	}
+	
+	private void encodeFrame(Subscriber s, Sample sample){
+		int n = s.ids.length;
+		boolean keyframe = s.last == null || s.sinceKeyframe >= keyframeInterval;
+		frame.clear();
+		ensureFrameCapacity(FRAME_HEADER_LENGTH + n * 7);
+		frame.putShort((short) 0);
+		frame.put((byte) (keyframe ? FRAME_KEYFRAME : FRAME_DELTA));
+		frame.putInt(++s.frameSeq);
+		frame.putInt(sample.time);
+		if (keyframe){
+			if (s.last == null){
+				s.last = new int[n];
+			}
+			frame.putShort((short) n);
+			for (int i = 0; i < n; i++){
+				int v = sample.values[s.ids[i]];
+				frame.putInt(v);
+				s.last[i] = v;
+			}
+			s.sinceKeyframe = 0;
+		} else {
+			int countPosition = frame.position();
+			frame.putShort((short) 0);
+			int count = 0;
+			for (int i = 0; i < n; i++){
+				int v = sample.values[s.ids[i]];
+				int d = v - s.last[i];
+				if (d != 0){
+					frame.putShort((short) i);
+					putVarint(frame, (d << 1) ^ (d >> 31));
+					s.last[i] = v;
+					count++;
+				}
+			}
+			frame.putShort(countPosition, (short) count);
+			s.sinceKeyframe++;
+		}
+		frame.putShort(0, (short) (frame.position() - 2));
+		frame.flip();
+	}
+	
+	private static void putVarint(ByteBuffer bb, int value){
+		while ((value & ~0x7f) != 0){
+			bb.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		bb.put((byte) value);
+	}
+	
+	private void ensureFrameCapacity(int capacity){
+		if (frame.capacity() < capacity){
+			frame = ByteBuffer.allocate(Math.max(capacity, frame.capacity() * 2));
+		}
+	}
+	
+	private void deliver(Subscriber s) throws IOException{
+		if (s.address != null){
+			if (udp.send(frame, s.address) == 0){
+				//Dropped by a full socket buffer, resynchronize with a keyframe
+				s.sinceKeyframe = keyframeInterval;
+			}
+			return;
+		}
+		if (s.out.hasRemaining()){
+			s.out.compact();
+			if (s.out.remaining() < frame.remaining()){
+				ByteBuffer grown = ByteBuffer.allocate(s.out.position() + frame.remaining());
+				s.out.flip();
+				grown.put(s.out);
+				s.out = grown;
+			}
+			s.out.put(frame);
+			s.out.flip();
+			return;
+		}
+		s.channel.write(frame);
+		if (frame.hasRemaining()){
+			s.out.clear();
+			if (s.out.remaining() < frame.remaining()){
+				s.out = ByteBuffer.allocate(frame.remaining());
+			}
+			s.out.put(frame);
+			s.out.flip();
+			s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+	
+	private void flush(Subscriber s) throws IOException{
+		s.channel.write(s.out);
+		if (!s.out.hasRemaining()){
+			s.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+	
+	private void remove(Subscriber s){
+		subscribers.remove(s);
+		closeQuietly(s.channel);
+		updateActiveSubscribers();
+	}
+	
+	private void updateActiveSubscribers(){
+		int count = 0;
+		for (Subscriber s : subscribers){
+			if (s.ids != null){
+				count++;
+			}
+		}
+		activeSubscribers = count;
+	}
+	
+	private static void closeQuietly(Closeable closeable){
+		if (closeable == null){
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e){
+			logger.debug("Close failed", e);
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of TCP and UDP subscribers
+	 * @param maxSubscribers Maximum subscribers
+	 */
+	public void setMaxSubscribers(int maxSubscribers){
+		this.maxSubscribers = maxSubscribers;
+	}
+	
+	/**
+	 * Returns the maximum number of TCP and UDP subscribers
+	 * @return Maximum subscribers
+	 */
+	public int getMaxSubscribers(){
+		return maxSubscribers;
+	}
+	
+	/**
+	 * Sets the number of frames between keyframes
+	 * @param keyframeInterval Frames
+	 */
+	public void setKeyframeInterval(int keyframeInterval){
+		this.keyframeInterval = keyframeInterval;
+	}
+	
+	/**
+	 * Returns the number of frames between keyframes
+	 * @return Frames
+	 */
+	public int getKeyframeInterval(){
+		return keyframeInterval;
+	}
+	
+	/**
+	 * Sets the sampling period. This takes effect on the next <code>start()</code>.
+	 * @param samplePeriodMillis Period in milliseconds
+	 */
+	public void setSamplePeriodMillis(long samplePeriodMillis){
+		this.samplePeriodMillis = samplePeriodMillis;
+	}
+	
+	/**
+	 * Returns the sampling period
+	 * @return Period in milliseconds
+	 */
+	public long getSamplePeriodMillis(){
+		return samplePeriodMillis;
+	}
+	
+	/**
+	 * Returns the number of subscribers currently subscribed to channels
+	 * @return Subscribers
+	 */
+	public int getActiveSubscriberCount(){
+		return activeSubscribers;
+	}
+	
+	/**
+	 * Returns the number of channel reads that failed
+	 * @return Errors
+	 */
+	public long getSampleErrorCount(){
+		return sampleErrors;
+	}
+	
+	/**
+	 * Returns the number of frames sent
+	 * @return Frames
+	 */
+	public long getFramesSent(){
+		return framesSent;
+	}
+	
+	/**
+	 * Returns the number of frames skipped because a TCP subscriber had not drained its previous frame
+	 * @return Frames
+	 */
+	public long getFramesSkipped(){
+		return framesSkipped;
+	}
+	
+	private static final class Sample {
+		
+		private final long seq;
+		
+		private final int time;
+		
+		private final int[] values;
+		
+		private Sample(long seq, int time, int[] values){
+			this.seq = seq;
+			this.time = time;
+			this.values = values;
+		}
+		
+	}
+	
+	private static final class Subscriber {
+		
+		private final SocketChannel channel;
+		
+		private final SocketAddress address;
+		
+		private final ByteBuffer in;
+		
+		private ByteBuffer out;
+		
+		private SelectionKey key;
+		
+		private int[] ids;
+		
+		private int[] last;
+		
+		private long interval;
+		
+		private long due;
+		
+		private long sampleSeq;
+		
+		private long heard;
+		
+		private int frameSeq;
+		
+		private int sinceKeyframe;
+		
+		private Subscriber(SocketChannel channel, SocketAddress address){
+			this.channel = channel;
+			this.address = address;
+			if (channel != null){
+				in = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+				out = ByteBuffer.allocate(1024);
+				out.flip();
+			} else {
+				in = null;
+				out = null;
+			}
+		}
+		
+	}
+	
+	private static abstract class AttributeSource implements TelemetrySource, Closeable {
+		
+		private SysfsChannel channel;
+		
+		protected abstract SysfsChannel open() throws IOException;
+		
+		@Override
+		public int read() throws EV3LibraryException {
+			try {
+				if (channel == null){
+					channel = open();
+				}
+				return channel.readInt();
+			} catch (IOException e){
+				throw new EV3LibraryException("Read telemetry attribute failed", e);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (channel != null){
+				channel.close();
+				channel = null;
+			}
+		}
+		
+	}
+	
+}
\ No newline at end of file
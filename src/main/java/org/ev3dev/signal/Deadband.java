@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+/**
+ * Holds the output until the input moves further than a band away from it, so that noise
+ *  smaller than the band does not change the output (e.g. to avoid rewriting a set-point on every sample).
+ * @author Anthony
+ *
+ */
+public class Deadband implements DoubleFilter {
+	
+	private final double band;
+	
+	private double output = 0;
+	
+	private boolean initialized = false;
+	
+	/**
+	 * Creates a new Deadband
+	 * @param band The distance the input must move away from the output before the output follows it
+	 */
+	public Deadband(double band){
+		if (band < 0){
+			throw new IllegalArgumentException("The band must not be negative: " + band);
+		}
+		this.band = band;
+	}
+
+	@Override
+	public double apply(double sample) {
+		if (!initialized || Math.abs(sample - output) > band){
+			output = sample;
+			initialized = true;
+		}
+		return output;
+	}
+
+	@Override
+	public void reset() {
+		output = 0;
+		initialized = false;
+	}
+}
\ No newline at end of file
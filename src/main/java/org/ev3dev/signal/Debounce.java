@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+/**
+ * Holds the output until the input has stayed at a new value for a number of consecutive samples.
+ *  Useful for discrete signals, e.g. a touch sensor state or a color index.
+ * @author Anthony
+ *
+ */
+public class Debounce implements DoubleFilter {
+	
+	private final int samples;
+	
+	private double output = 0;
+	
+	private double candidate = 0;
+	
+	private int count = 0;
+	
+	private boolean initialized = false;
+	
+	/**
+	 * Creates a new Debounce
+	 * @param samples The number of consecutive samples a new value must be seen before the output changes
+	 */
+	public Debounce(int samples){
+		if (samples < 1){
+			throw new IllegalArgumentException("The number of samples must be at least 1: " + samples);
+		}
+		this.samples = samples;
+	}
+
+	@Override
+	public double apply(double sample) {
+		if (!initialized){
+			output = sample;
+			initialized = true;
+		} else if (sample == output){
+			count = 0;
+		} else if (count > 0 && sample == candidate){
+			if (++count >= samples){
+				output = sample;
+				count = 0;
+			}
+		} else {
+			candidate = sample;
+			count = 1;
+			if (samples == 1){
+				output = sample;
+				count = 0;
+			}
+		}
+		return output;
+	}
+
+	@Override
+	public void reset() {
+		output = 0;
+		candidate = 0;
+		count = 0;
+		initialized = false;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A fixed capacity ring buffer of <code>double</code> values. When the buffer is full, adding a value overwrites the oldest one.
+ *  The buffer never allocates memory after it is created.
+ * @author Anthony
+ *
+ */
+public class DoubleRingBuffer {
+	
+	private final double[] values;
+	
+	private int head = 0;
+	
+	private int size = 0;
+	
+	/**
+	 * Creates a new DoubleRingBuffer
+	 * @param capacity The maximum number of values held
+	 */
+	public DoubleRingBuffer(int capacity){
+		if (capacity < 1){
+			throw new IllegalArgumentException("The capacity must be at least 1: " + capacity);
+		}
+		values = new double[capacity];
+	}
+	
+	/**
+	 * Adds a value, overwriting the oldest value if the buffer is full
+	 * @param value The value
+	 * @return The slot index in which the value is stored
+	 */
+	public int add(double value){
+		int slot = head;
+		values[slot] = value;
+		head = head + 1 == values.length ? 0 : head + 1;
+		if (size < values.length){
+			size++;
+		}
+		return slot;
+	}
+	
+	/**
+	 * Returns a value by age
+	 * @param index 0 for the oldest value, <code>size() - 1</code> for the newest value
+	 * @return The value
+	 */
+	public double get(int index){
+		if (index < 0 || index >= size){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		int i = head - size + index;
+		return values[i < 0 ? i + values.length : i];
+	}
+	
+	/**
+	 * Returns the oldest value
+	 * @return The oldest value
+	 */
+	public double getOldest(){
+		if (size == 0){
+			throw new NoSuchElementException();
+		}
+		return get(0);
+	}
+	
+	/**
+	 * Returns the newest value
+	 * @return The newest value
+	 */
+	public double getNewest(){
+		if (size == 0){
+			throw new NoSuchElementException();
+		}
+		return values[head == 0 ? values.length - 1 : head - 1];
+	}
+	
+	/**
+	 * Returns the value that the next <code>add()</code> overwrites
+	 * @return The value, or 0 if the buffer is not full
+	 */
+	public double peekEvicted(){
+		return size == values.length ? values[head] : 0;
+	}
+	
+	/**
+	 * Returns the number of values held
+	 * @return Size
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * Returns the maximum number of values held
+	 * @return Capacity
+	 */
+	public int capacity(){
+		return values.length;
+	}
+	
+	/**
+	 * Returns whether the buffer is full
+	 * @return Full
+	 */
+	public boolean isFull(){
+		return size == values.length;
+	}
+	
+	/**
+	 * Removes all values
+	 */
+	public void clear(){
+		head = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Copies the values from the oldest to the newest into an array
+	 * @param dst The array, at least <code>size()</code> long
+	 * @return The number of values copied
+	 */
+	public int toArray(double[] dst){
+		int start = head - size;
+		if (start < 0){
+			int first = -start;
+			System.arraycopy(values, values.length - first, dst, 0, first);
+			System.arraycopy(values, 0, dst, first, head);
+		} else {
+			System.arraycopy(values, start, dst, 0, size);
+		}
+		return size;
+	}
+}
\ No newline at end of file
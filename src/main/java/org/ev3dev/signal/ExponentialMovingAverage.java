@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+/**
+ * An exponential moving average (first order low-pass filter). The first sample initializes the output.
+ * @author Anthony
+ *
+ */
+public class ExponentialMovingAverage implements DoubleFilter {
+	
+	private final double alpha;
+	
+	private double value = 0;
+	
+	private boolean initialized = false;
+	
+	/**
+	 * Creates a new ExponentialMovingAverage
+	 * @param alpha The weight of a new sample, from 0 (never changes) to 1 (no smoothing)
+	 */
+	public ExponentialMovingAverage(double alpha){
+		if (alpha <= 0 || alpha > 1){
+			throw new IllegalArgumentException("The smoothing factor must be in (0, 1]: " + alpha);
+		}
+		this.alpha = alpha;
+	}
+
+	@Override
+	public double apply(double sample) {
+		if (initialized){
+			value += alpha * (sample - value);
+		} else {
+			value = sample;
+			initialized = true;
+		}
+		return value;
+	}
+
+	@Override
+	public void reset() {
+		value = 0;
+		initialized = false;
+	}
+	
+	/**
+	 * Returns the weight of a new sample
+	 * @return Smoothing factor
+	 */
+	public double getAlpha(){
+		return alpha;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+import java.util.Arrays;
+
+/**
+ * Chains filters, feeding the output of each filter into the next one. A pipeline is a filter itself.
+ * @author Anthony
+ *
+ */
+public class FilterPipeline implements DoubleFilter {
+	
+	private DoubleFilter[] filters;
+	
+	/**
+	 * Creates a new FilterPipeline
+	 * @param filters The filters, in the order the samples pass through them
+	 */
+	public FilterPipeline(DoubleFilter... filters){
+		this.filters = filters.clone();
+	}
+	
+	/**
+	 * Appends a filter to the end of the pipeline
+	 * @param filter The filter
+	 * @return This pipeline
+	 */
+	public FilterPipeline add(DoubleFilter filter){
+		filters = Arrays.copyOf(filters, filters.length + 1);
+		filters[filters.length - 1] = filter;
+		return this;
+	}
+
+	@Override
+	public double apply(double sample) {
+		double value = sample;
+		for (int i = 0; i < filters.length; i++){
+			value = filters[i].apply(value);
+		}
+		return value;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < filters.length; i++){
+			filters[i].reset();
+		}
+	}
+	
+	/**
+	 * Returns the number of filters in the pipeline
+	 * @return Size
+	 */
+	public int size(){
+		return filters.length;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+import org.ev3dev.hardware.sensors.ModeScheduler;
+
+/**
+ * Feeds the samples of a sensor stream through a filter, and publishes the latest output through a volatile field,
+ *  so that reading it never blocks. A FilteredSignal is attached to a <code>ModeScheduler.Channel</code>, and the filter
+ *  is evaluated once on the polling thread for every value read. Samples can also be fed with <code>update()</code>.
+ * @author Anthony
+ *
+ */
+public class FilteredSignal implements ModeScheduler.ChannelListener {
+	
+	private final DoubleFilter filter;
+	
+	private volatile double value = 0;
+	
+	private volatile double rawValue = 0;
+	
+	private volatile long timestamp = 0;
+	
+	private volatile long sampleCount = 0;
+	
+	/**
+	 * Creates a new FilteredSignal
+	 * @param filter The filter (e.g. a FilterPipeline)
+	 */
+	public FilteredSignal(DoubleFilter filter){
+		this.filter = filter;
+	}
+	
+	/**
+	 * Creates a FilteredSignal fed by every value read for the channel specified
+	 * @param channel The channel
+	 * @param filter The filter (e.g. a FilterPipeline)
+	 * @return A FilteredSignal attached to the channel
+	 */
+	public static FilteredSignal attach(ModeScheduler.Channel channel, DoubleFilter filter){
+		FilteredSignal signal = new FilteredSignal(filter);
+		channel.addListener(signal);
+		return signal;
+	}
+	
+	/**
+	 * Stops receiving values from the channel specified
+	 * @param channel The channel
+	 */
+	public void detach(ModeScheduler.Channel channel){
+		channel.removeListener(this);
+	}
+
+	@Override
+	public void onValue(ModeScheduler.Channel channel, int value, long timestampNanos) {
+		update(value, timestampNanos);
+	}
+	
+	/**
+	 * Feeds a sample through the filter
+	 * @param sample The sample
+	 * @return The filtered output
+	 */
+	public double update(double sample){
+		return update(sample, System.nanoTime());
+	}
+	
+	/**
+	 * Feeds a sample through the filter
+	 * @param sample The sample
+	 * @param timestampNanos The <code>System.nanoTime()</code> when the sample was read
+	 * @return The filtered output
+	 */
+	public synchronized double update(double sample, long timestampNanos){
+		double out = filter.apply(sample);
+		rawValue = sample;
+		timestamp = timestampNanos;
+		value = out;
+		sampleCount++;
+		return out;
+	}
+	
+	/**
+	 * Clears the state of the filter
+	 */
+	public synchronized void reset(){
+		filter.reset();
+		sampleCount = 0;
+	}
+	
+	/**
+	 * Returns the latest filtered output
+	 * @return Filtered value
+	 */
+	public double getValue(){
+		return value;
+	}
+	
+	/**
+	 * Returns the latest sample before filtering
+	 * @return Raw value
+	 */
+	public double getRawValue(){
+		return rawValue;
+	}
+	
+	/**
+	 * Returns the <code>System.nanoTime()</code> when the latest sample was read
+	 * @return Timestamp in nanoseconds
+	 */
+	public long getTimestampNanos(){
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the number of samples fed since the signal was created or reset
+	 * @return Sample count
+	 */
+	public long getSampleCount(){
+		return sampleCount;
+	}
+	
+	/**
+	 * Returns the filter of this signal
+	 * @return Filter
+	 */
+	public DoubleFilter getFilter(){
+		return filter;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+/**
+ * A one-dimensional Kalman filter of a constant (or slowly changing) value measured with noise.
+ *  The first sample initializes the estimate.
+ * @author Anthony
+ *
+ */
+public class Kalman1D implements DoubleFilter {
+	
+	private final double processNoise;
+	
+	private final double measurementNoise;
+	
+	private final double initialError;
+	
+	private double estimate = 0;
+	
+	private double error;
+	
+	private boolean initialized = false;
+	
+	/**
+	 * Creates a new Kalman1D
+	 * @param processNoise The variance of the change of the value between two samples (Q)
+	 * @param measurementNoise The variance of the measurement noise (R)
+	 */
+	public Kalman1D(double processNoise, double measurementNoise){
+		this(processNoise, measurementNoise, measurementNoise);
+	}
+	
+	/**
+	 * Creates a new Kalman1D
+	 * @param processNoise The variance of the change of the value between two samples (Q)
+	 * @param measurementNoise The variance of the measurement noise (R)
+	 * @param initialError The variance of the first estimate (P)
+	 */
+	public Kalman1D(double processNoise, double measurementNoise, double initialError){
+		if (processNoise < 0 || measurementNoise <= 0 || initialError < 0){
+			throw new IllegalArgumentException("Invalid noise variances: Q=" + processNoise + ", R=" + measurementNoise + ", P=" + initialError);
+		}
+		this.processNoise = processNoise;
+		this.measurementNoise = measurementNoise;
+		this.initialError = initialError;
+		this.error = initialError;
+	}
+
+	@Override
+	public double apply(double sample) {
+		if (!initialized){
+			estimate = sample;
+			initialized = true;
+			return estimate;
+		}
+		error += processNoise;
+		double gain = error / (error + measurementNoise);
+		estimate += gain * (sample - estimate);
+		error *= 1 - gain;
+		return estimate;
+	}
+
+	@Override
+	public void reset() {
+		estimate = 0;
+		error = initialError;
+		initialized = false;
+	}
+	
+	/**
+	 * Returns the variance of the current estimate
+	 * @return Estimate variance (P)
+	 */
+	public double getErrorVariance(){
+		return error;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+/**
+ * A simple moving average over the last N samples. Each sample costs O(1): the sum is updated
+ *  incrementally, and recomputed once every N samples so that rounding errors cannot accumulate.
+ * @author Anthony
+ *
+ */
+public class MovingAverage implements DoubleFilter {
+	
+	private final DoubleRingBuffer window;
+	
+	private double sum = 0;
+	
+	private int sinceRecompute = 0;
+	
+	/**
+	 * Creates a new MovingAverage
+	 * @param length The number of samples averaged
+	 */
+	public MovingAverage(int length){
+		window = new DoubleRingBuffer(length);
+	}
+
+	@Override
+	public double apply(double sample) {
+		sum += sample - window.peekEvicted();
+		window.add(sample);
+		if (++sinceRecompute == window.capacity()){
+			sinceRecompute = 0;
+			sum = 0;
+			for (int i = 0; i < window.size(); i++){
+				sum += window.get(i);
+			}
+		}
+		return sum / window.size();
+	}
+
+	@Override
+	public void reset() {
+		window.clear();
+		sum = 0;
+		sinceRecompute = 0;
+	}
+	
+	/**
+	 * Returns the number of samples averaged
+	 * @return Length
+	 */
+	public int getLength(){
+		return window.capacity();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+/**
+ * A running median over the last N samples. Each sample costs O(log N): the window is kept in two indexed heaps,
+ *  a max-heap holding the lower half and a min-heap holding the upper half, and the sample leaving the window
+ *  is removed from its heap by position instead of searching for it.
+ * @author Anthony
+ *
+ */
+public class RunningMedian implements DoubleFilter {
+	
+	private final double[] values;
+	
+	//Heap membership and position of each window slot. Positions of lower heap slots are stored as -(position + 1).
+	private final int[] positions;
+	
+	private final int[] lower;
+	
+	private final int[] upper;
+	
+	private int lowerSize = 0;
+	
+	private int upperSize = 0;
+	
+	private int next = 0;
+	
+	private int size = 0;
+	
+	/**
+	 * Creates a new RunningMedian
+	 * @param length The number of samples in the window
+	 */
+	public RunningMedian(int length){
+		if (length < 1){
+			throw new IllegalArgumentException("The length must be at least 1: " + length);
+		}
+		values = new double[length];
+		positions = new int[length];
+		lower = new int[length];
+		upper = new int[length];
+	}
+
+	@Override
+	public double apply(double sample) {
+		int slot = next;
+		next = next + 1 == values.length ? 0 : next + 1;
+		if (size == values.length){
+			remove(slot);
+		} else {
+			size++;
+		}
+		values[slot] = sample;
+		if (lowerSize > 0 ? sample <= values[lower[0]] : upperSize == 0 || sample <= values[upper[0]]){
+			lower[lowerSize] = slot;
+			positions[slot] = -(lowerSize + 1);
+			siftUp(lower, lowerSize++, true);
+		} else {
+			upper[upperSize] = slot;
+			positions[slot] = upperSize;
+			siftUp(upper, upperSize++, false);
+		}
+		balance();
+		return getMedian();
+	}
+	
+	/**
+	 * Returns the median of the samples in the window
+	 * @return Median, or 0 if no sample has been fed
+	 */
+	public double getMedian(){
+		if (lowerSize == 0){
+			return 0;
+		}
+		if (lowerSize > upperSize){
+			return values[lower[0]];
+		}
+		return (values[lower[0]] + values[upper[0]]) / 2;
+	}
+
+	@Override
+	public void reset() {
+		lowerSize = 0;
+		upperSize = 0;
+		next = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Returns the number of samples in the window
+	 * @return Length
+	 */
+	public int getLength(){
+		return values.length;
+	}
+	
+	private void remove(int slot){
+		int pos = positions[slot];
+		if (pos < 0){
+			pos = -pos - 1;
+			int last = lower[--lowerSize];
+			if (pos < lowerSize){
+				lower[pos] = last;
+				positions[last] = -(pos + 1);
+				fix(lower, pos, lowerSize, true);
+			}
+		} else {
+			int last = upper[--upperSize];
+			if (pos < upperSize){
+				upper[pos] = last;
+				positions[last] = pos;
+				fix(upper, pos, upperSize, false);
+			}
+		}
+	}
+	
+	//Keeps lowerSize == upperSize or lowerSize == upperSize + 1
+	private void balance(){
+		while (lowerSize > upperSize + 1){
+			int slot = pop(lower, --lowerSize, true);
+			upper[upperSize] = slot;
+			positions[slot] = upperSize;
+			siftUp(upper, upperSize++, false);
+		}
+		while (upperSize > lowerSize){
+			int slot = pop(upper, --upperSize, false);
+			lower[lowerSize] = slot;
+			positions[slot] = -(lowerSize + 1);
+			siftUp(lower, lowerSize++, true);
+		}
+	}
+	
+	private int pop(int[] heap, int newSize, boolean max){
+		int top = heap[0];
+		if (newSize > 0){
+			heap[0] = heap[newSize];
+			setPosition(heap[0], 0, max);
+			siftDown(heap, 0, newSize, max);
+		}
+		return top;
+	}
+	
+	private void fix(int[] heap, int pos, int heapSize, boolean max){
+		if (pos > 0 && before(heap[pos], heap[(pos - 1) / 2], max)){
+			siftUp(heap, pos, max);
+		} else {
+			siftDown(heap, pos, heapSize, max);
+		}
+	}
+	
+	private void siftUp(int[] heap, int pos, boolean max){
+		int slot = heap[pos];
+		while (pos > 0){
+			int parent = (pos - 1) / 2;
+			if (!before(slot, heap[parent], max)){
+				break;
+			}
+			heap[pos] = heap[parent];
+			setPosition(heap[pos], pos, max);
+			pos = parent;
+		}
+		heap[pos] = slot;
+		setPosition(slot, pos, max);
+	}
+	
+	private void siftDown(int[] heap, int pos, int heapSize, boolean max){
+		int slot = heap[pos];
+		while (true){
+			int child = pos * 2 + 1;
+			if (child >= heapSize){
+				break;
+			}
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child], max)){
+				child++;
+			}
+			if (!before(heap[child], slot, max)){
+				break;
+			}
+			heap[pos] = heap[child];
+			setPosition(heap[pos], pos, max);
+			pos = child;
+		}
+		heap[pos] = slot;
+		setPosition(slot, pos, max);
+	}
+	
+	private boolean before(int a, int b, boolean max){
+		return max ? values[a] > values[b] : values[a] < values[b];
+	}
+	
+	private void setPosition(int slot, int pos, boolean lowerHeap){
+		positions[slot] = lowerHeap ? -(pos + 1) : pos;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import org.ev3dev.hardware.sensors.ModeScheduler;
+
+/**
+ * A sliding window of timestamped sensor values in a preallocated ring, answering windowed queries without rescanning it.<br>
+ * <br>
+ * The window holds the last N samples, and optionally only those not older than a duration (e.g. "the last 500 ms").
+ *  Minimum and maximum are kept by monotonic deques (amortized O(1) per sample, O(1) per query), mean and variance by
+ *  running sums of the integer values (exact, O(1)). Percentiles are answered from a histogram in O(buckets) if a value
+ *  range is given with <code>enablePercentiles()</code>. Otherwise the first percentile query sorts a preallocated copy
+ *  of the window once, which is then kept sorted as samples come and go (a binary search and an array shift per
+ *  sample), so later queries are O(1).<br>
+ * <br>
+ * Example:
+ * <pre>
+ * ModeScheduler.Channel distance = scheduler.addChannel(UltrasonicSensor.SYSFS_CM_MODE, UltrasonicSensor.SYSFS_CM_VALUE_INDEX);
+ * SensorHistory history = SensorHistory.attach(distance, 100, 500);
+ * int nearest = history.getMin();
+ * </pre>
+ * @author Anthony
+ *
+ */
+public class SensorHistory implements ModeScheduler.ChannelListener {
+	
+	private static final int MAX_BUCKETS = 4096;
+	
+	private final int capacity;
+	
+	private final long windowNanos;
+	
+	private final int[] values;
+	
+	private final long[] times;
+	
+	//Sequence numbers of the samples kept by the monotonic deques
+	private final long[] minDeque;
+	
+	private final long[] maxDeque;
+	
+	private int minHead = 0;
+	
+	private int minSize = 0;
+	
+	private int maxHead = 0;
+	
+	private int maxSize = 0;
+	
+	//Sequence number of the oldest sample and the next sample
+	private long first = 0;
+	
+	private long next = 0;
+	
+	private long sum = 0;
+	
+	private long sumOfSquares = 0;
+	
+	private int[] histogram = null;
+	
+	private int histogramMin = 0;
+	
+	private int bucketWidth = 1;
+	
+	//The window in ascending order, kept once a percentile is queried without a histogram
+	private int[] sorted = null;
+	
+	/**
+	 * Creates a SensorHistory holding the last samples
+	 * @param capacity The number of samples held
+	 */
+	public SensorHistory(int capacity){
+		this(capacity, 0);
+	}
+	
+	/**
+	 * Creates a SensorHistory holding the last samples not older than a duration
+	 * @param capacity The maximum number of samples held
+	 * @param windowMillis The maximum age of the samples held in milliseconds, or 0 for no limit
+	 */
+	public SensorHistory(int capacity, long windowMillis){
+		if (capacity < 1){
+			throw new IllegalArgumentException("The capacity must be at least 1: " + capacity);
+		}
+		this.capacity = capacity;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		values = new int[capacity];
+		times = new long[capacity];
+		minDeque = new long[capacity];
+		maxDeque = new long[capacity];
+	}
+	
+	/**
+	 * Creates a SensorHistory fed by every value read for the channel specified
+	 * @param channel The channel
+	 * @param capacity The maximum number of samples held
+	 * @param windowMillis The maximum age of the samples held in milliseconds, or 0 for no limit
+	 * @return A SensorHistory attached to the channel
+	 */
+	public static SensorHistory attach(ModeScheduler.Channel channel, int capacity, long windowMillis){
+		SensorHistory history = new SensorHistory(capacity, windowMillis);
+		channel.addListener(history);
+		return history;
+	}
+	
+	/**
+	 * Stops receiving values from the channel specified
+	 * @param channel The channel
+	 */
+	public void detach(ModeScheduler.Channel channel){
+		channel.removeListener(this);
+	}
+
+	@Override
+	public void onValue(ModeScheduler.Channel channel, int value, long timestampNanos) {
+		add(value, timestampNanos);
+	}
+	
+	/**
+	 * Adds a sample read now
+	 * @param value The value
+	 */
+	public void add(int value){
+		add(value, System.nanoTime());
+	}
+	
+	/**
+	 * Adds a sample
+	 * @param value The value
+	 * @param timestampNanos The <code>System.nanoTime()</code> when the value was read
+	 */
+	public synchronized void add(int value, long timestampNanos){
+		if (next - first == capacity){
+			evictOldest();
+		}
+		int slot = (int) (next % capacity);
+		values[slot] = value;
+		times[slot] = timestampNanos;
+		sum += value;
+		sumOfSquares += (long) value * value;
+		if (histogram != null){
+			histogram[bucket(value)]++;
+		}
+		if (sorted != null){
+			int n = (int) (next - first);
+			int i = Arrays.binarySearch(sorted, 0, n, value);
+			if (i < 0){
+				i = -i - 1;
+			}
+			System.arraycopy(sorted, i, sorted, i + 1, n - i);
+			sorted[i] = value;
+		}
+		while (minSize > 0 && values[slot(minDeque[(minHead + minSize - 1) % capacity])] >= value){
+			minSize--;
+		}
+		minDeque[(minHead + minSize++) % capacity] = next;
+		while (maxSize > 0 && values[slot(maxDeque[(maxHead + maxSize - 1) % capacity])] <= value){
+			maxSize--;
+		}
+		maxDeque[(maxHead + maxSize++) % capacity] = next;
+		next++;
+		evictExpired(timestampNanos);
+	}
+	
+	/**
+	 * Enables histogram percentiles for values in the range specified. Values outside the range are counted in the first or last bucket.
+	 * @param minValue The minimum value expected
+	 * @param maxValue The maximum value expected
+	 */
+	public synchronized void enablePercentiles(int minValue, int maxValue){
+		if (maxValue < minValue){
+			throw new IllegalArgumentException("Invalid range: " + minValue + " to " + maxValue);
+		}
+		long range = (long) maxValue - minValue + 1;
+		bucketWidth = (int) ((range + MAX_BUCKETS - 1) / MAX_BUCKETS);
+		histogramMin = minValue;
+		histogram = new int[(int) ((range + bucketWidth - 1) / bucketWidth)];
+		sorted = null;
+		for (long seq = first; seq < next; seq++){
+			histogram[bucket(values[slot(seq)])]++;
+		}
+	}
+	
+	/**
+	 * Returns the number of samples in the window
+	 * @return Size
+	 */
+	public synchronized int size(){
+		evictExpired(System.nanoTime());
+		return (int) (next - first);
+	}
+	
+	/**
+	 * Returns the maximum number of samples held
+	 * @return Capacity
+	 */
+	public int capacity(){
+		return capacity;
+	}
+	
+	/**
+	 * Removes all samples
+	 */
+	public synchronized void clear(){
+		first = next;
+		minSize = 0;
+		maxSize = 0;
+		sum = 0;
+		sumOfSquares = 0;
+		if (histogram != null){
+			Arrays.fill(histogram, 0);
+		}
+	}
+	
+	/**
+	 * Returns the minimum value in the window
+	 * @return Minimum
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized int getMin(){
+		checkNotEmpty();
+		return values[slot(minDeque[minHead])];
+	}
+	
+	/**
+	 * Returns the maximum value in the window
+	 * @return Maximum
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized int getMax(){
+		checkNotEmpty();
+		return values[slot(maxDeque[maxHead])];
+	}
+	
+	/**
+	 * Returns the mean of the values in the window
+	 * @return Mean
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized double getMean(){
+		checkNotEmpty();
+		return (double) sum / (next - first);
+	}
+	
+	/**
+	 * Returns the population variance of the values in the window
+	 * @return Variance
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized double getVariance(){
+		checkNotEmpty();
+		long n = next - first;
+		double mean = (double) sum / n;
+		return Math.max(0, (double) sumOfSquares / n - mean * mean);
+	}
+	
+	/**
+	 * Returns the population standard deviation of the values in the window
+	 * @return Standard deviation
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public double getStandardDeviation(){
+		return Math.sqrt(getVariance());
+	}
+	
+	/**
+	 * Returns a percentile of the values in the window (nearest rank). With histogram percentiles enabled,
+	 *  the result is the lowest value of the bucket holding the percentile. Otherwise, the first call sorts the
+	 *  window in O(N log N), and later calls are O(1).
+	 * @param percentile The percentile, from 0 to 100 (e.g. 50 for the median)
+	 * @return The value
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized int getPercentile(double percentile){
+		if (percentile < 0 || percentile > 100){
+			throw new IllegalArgumentException("The percentile must be in [0, 100]: " + percentile);
+		}
+		checkNotEmpty();
+		int n = (int) (next - first);
+		int rank = Math.max(1, (int) Math.ceil(percentile / 100 * n));
+		if (histogram != null){
+			int count = 0;
+			for (int i = 0; i < histogram.length; i++){
+				count += histogram[i];
+				if (count >= rank){
+					return histogramMin + i * bucketWidth;
+				}
+			}
+		}
+		if (sorted == null){
+			sorted = new int[capacity];
+			for (int i = 0; i < n; i++){
+				sorted[i] = values[slot(first + i)];
+			}
+			Arrays.sort(sorted, 0, n);
+		}
+		return sorted[rank - 1];
+	}
+	
+	/**
+	 * Returns the newest value
+	 * @return Newest value
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized int getNewest(){
+		checkNotEmpty();
+		return values[slot(next - 1)];
+	}
+	
+	/**
+	 * Returns the <code>System.nanoTime()</code> when the newest value was read
+	 * @return Timestamp in nanoseconds
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized long getNewestTimestampNanos(){
+		checkNotEmpty();
+		return times[slot(next - 1)];
+	}
+	
+	/**
+	 * Returns the <code>System.nanoTime()</code> when the oldest value in the window was read
+	 * @return Timestamp in nanoseconds
+	 * @throws NoSuchElementException If the window is empty
+	 */
+	public synchronized long getOldestTimestampNanos(){
+		checkNotEmpty();
+		return times[slot(first)];
+	}
+	
+	private void checkNotEmpty(){
+		evictExpired(System.nanoTime());
+		if (next == first){
+			throw new NoSuchElementException("The sensor history is empty");
+		}
+	}
+	
+	private void evictExpired(long now){
+		if (windowNanos <= 0){
+			return;
+		}
+		while (first < next && now - times[slot(first)] > windowNanos){
+			evictOldest();
+		}
+	}
+	
+	private void evictOldest(){
+		int value = values[slot(first)];
+		sum -= value;
+		sumOfSquares -= (long) value * value;
+		if (histogram != null){
+			histogram[bucket(value)]--;
+		}
+		if (sorted != null){
+			int n = (int) (next - first);
+			int i = Arrays.binarySearch(sorted, 0, n, value);
+			System.arraycopy(sorted, i + 1, sorted, i, n - i - 1);
+		}
+		if (minSize > 0 && minDeque[minHead] == first){
+			minHead = (minHead + 1) % capacity;
+			minSize--;
+		}
+		if (maxSize > 0 && maxDeque[maxHead] == first){
+			maxHead = (maxHead + 1) % capacity;
+			maxSize--;
+		}
+		first++;
+	}
+	
+	private int slot(long seq){
+		return (int) (seq % capacity);
+	}
+	
+	private int bucket(int value){
+		long index = ((long) value - histogramMin) / bucketWidth;
+		return (int) Math.max(0, Math.min(histogram.length - 1, index));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests that a cached GlyphAtlas is only reused for the font it was built from
+ * @author Anthony
+ *
+ */
+public class GlyphAtlasBuilderTest {
+	
+	@Test
+	public void cacheFollowsFont() throws IOException{
+		File cache = File.createTempFile("glyph", ".atlas");
+		try {
+			cache.delete();
+			Font small = new Font(Font.MONOSPACED, Font.PLAIN, 10);
+			Font large = small.deriveFont(20f);
+			
+			GlyphAtlas built = GlyphAtlasBuilder.buildCached(small, cache);
+			assertEquals(GlyphAtlasBuilder.getSource(small), built.getSource());
+			GlyphAtlas cached = GlyphAtlasBuilder.buildCached(small, cache);
+			assertEquals(built.getHeight(), cached.getHeight());
+			assertEquals(built.getSource(), cached.getSource());
+			
+			GlyphAtlas rebuilt = GlyphAtlasBuilder.buildCached(large, cache);
+			assertEquals(GlyphAtlasBuilder.getSource(large), rebuilt.getSource());
+			assertNotEquals(built.getHeight(), rebuilt.getHeight());
+			assertEquals(rebuilt.getSource(), GlyphAtlas.load(cache).getSource());
+		} finally {
+			cache.delete();
+		}
+	}
+	
+}
\ No newline at end of file
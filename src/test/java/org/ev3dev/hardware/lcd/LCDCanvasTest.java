@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that LCDCanvas draws every pixel of a shape once, so XOR drawing twice restores the canvas
+ * @author Anthony
+ *
+ */
+public class LCDCanvasTest {
+	
+	@Test
+	public void xorTwiceRestoresCanvas(){
+		Random random = new Random(14);
+		LCDCanvas canvas = new LCDCanvas();
+		random.nextBytes(canvas.getBuffer());
+		byte[] original = canvas.getBuffer().clone();
+		byte[] bitmap = new byte[3 * 12];
+		random.nextBytes(bitmap);
+		int[] xs = {10, 90, 170, 120, 40, 60};
+		int[] ys = {10, 5, 60, 120, 100, 30};
+		
+		canvas.setMode(LCDCanvas.MODE_XOR);
+		for (int pass = 0; pass < 2; pass++){
+			canvas.resetClip();
+			drawShapes(canvas, bitmap, xs, ys);
+			//Shapes crossing the clip and the edges
+			canvas.setClip(13, 7, 101, 77);
+			drawShapes(canvas, bitmap, xs, ys);
+			canvas.resetClip();
+			canvas.drawLine(-20, -5, 200, 140);
+			canvas.fillCircle(170, 120, 30);
+			canvas.fillRect(-5, 100, 40, 60);
+		}
+		assertArrayEquals(original, canvas.getBuffer());
+	}
+	
+	@Test
+	public void xorInvertsShape(){
+		LCDCanvas reference = new LCDCanvas();
+		reference.fillRect(21, 9, 37, 50);
+		
+		LCDCanvas canvas = new LCDCanvas();
+		canvas.fillRect(0, 0, LCD.SCREEN_WIDTH, LCD.SCREEN_HEIGHT);
+		canvas.setMode(LCDCanvas.MODE_XOR);
+		canvas.fillRect(21, 9, 37, 50);
+		for (int y = 0; y < LCD.SCREEN_HEIGHT; y++){
+			for (int x = 0; x < LCD.SCREEN_WIDTH; x++){
+				assertEquals("pixel " + x + "," + y, !reference.getPixel(x, y), canvas.getPixel(x, y));
+			}
+		}
+	}
+	
+	@Test
+	public void bitmapAtUnalignedX(){
+		Random random = new Random(15);
+		byte[] bitmap = new byte[2 * 5];
+		random.nextBytes(bitmap);
+		LCDCanvas canvas = new LCDCanvas();
+		canvas.drawBitmap(bitmap, 2, 13, 5, 29, 40);
+		for (int y = 0; y < LCD.SCREEN_HEIGHT; y++){
+			for (int x = 0; x < LCD.SCREEN_WIDTH; x++){
+				boolean set = x >= 29 && x < 42 && y >= 40 && y < 45
+						&& (bitmap[(y - 40) * 2 + ((x - 29) >> 3)] & (1 << ((x - 29) & 7))) != 0;
+				assertEquals("pixel " + x + "," + y, set, canvas.getPixel(x, y));
+			}
+		}
+	}
+	
+	private static void drawShapes(LCDCanvas canvas, byte[] bitmap, int[] xs, int[] ys){
+		canvas.drawLine(3, 4, 170, 111);
+		canvas.drawLine(100, 2, 100, 120);
+		canvas.drawLine(5, 60, 160, 60);
+		canvas.drawRect(7, 9, 100, 80);
+		canvas.fillRect(11, 3, 57, 41);
+		canvas.drawCircle(89, 64, 40);
+		canvas.fillCircle(60, 50, 25);
+		canvas.drawPolygon(xs, ys, xs.length);
+		canvas.fillPolygon(xs, ys, xs.length);
+		canvas.drawBitmap(bitmap, 3, 21, 12, 37, 61);
+		canvas.setPixel(0, 0);
+	}
+	
+}
\ No newline at end of file
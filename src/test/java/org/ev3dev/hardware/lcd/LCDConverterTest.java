@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the threshold conversion and the 1-bit repacking of LCDConverter
+ * @author Anthony
+ *
+ */
+public class LCDConverterTest {
+	
+	@Test
+	public void thresholdsLuminance(){
+		Random random = new Random(12);
+		//Larger than the screen, so the rest is cropped
+		BufferedImage image = new BufferedImage(LCD.SCREEN_WIDTH + 10, LCD.SCREEN_HEIGHT + 3, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++){
+			for (int x = 0; x < image.getWidth(); x++){
+				image.setRGB(x, y, random.nextInt(0x1000000));
+			}
+		}
+		LCDConverter converter = new LCDConverter(LCDConverter.METHOD_THRESHOLD);
+		for (int threshold : new int[]{0, 64, LCDConverter.DEFAULT_THRESHOLD, 256}){
+			converter.setThreshold(threshold);
+			byte[] buf = converter.convert(image);
+			assertEquals(LCDConverter.BUF_SIZE, buf.length);
+			for (int y = 0; y < LCD.SCREEN_HEIGHT; y++){
+				for (int x = 0; x < LCDConverter.LINE_LEN * 8; x++){
+					boolean black = x < LCD.SCREEN_WIDTH && LCDConverter.luminance(image.getRGB(x, y)) < threshold;
+					assertEquals("pixel " + x + "," + y + " threshold " + threshold, black, isBlack(buf, x, y));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void repacksBinaryLikeConverting(){
+		Random random = new Random(13);
+		BufferedImage binary = new BufferedImage(LCD.SCREEN_WIDTH, LCD.SCREEN_HEIGHT, BufferedImage.TYPE_BYTE_BINARY);
+		BufferedImage rgb = new BufferedImage(LCD.SCREEN_WIDTH, LCD.SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < LCD.SCREEN_HEIGHT; y++){
+			for (int x = 0; x < LCD.SCREEN_WIDTH; x++){
+				int color = random.nextBoolean() ? 0xffffff : 0;
+				binary.setRGB(x, y, color);
+				rgb.setRGB(x, y, color);
+			}
+		}
+		LCDConverter converter = new LCDConverter();
+		byte[] expected = converter.convert(rgb);
+		assertArrayEquals(expected, converter.convert(binary));
+		converter.setParallel(!converter.isParallel());
+		assertArrayEquals(expected, converter.convert(binary));
+		assertArrayEquals(expected, converter.convert(rgb));
+	}
+	
+	@Test
+	public void clearsPreviousFrame(){
+		LCDConverter converter = new LCDConverter();
+		byte[] buf = new byte[LCDConverter.BUF_SIZE];
+		Arrays.fill(buf, (byte) 0xff);
+		converter.convert(new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY), buf);
+		for (int y = 0; y < LCD.SCREEN_HEIGHT; y++){
+			for (int x = 0; x < LCD.SCREEN_WIDTH; x++){
+				assertEquals(x < 8 && y < 8, isBlack(buf, x, y));
+			}
+		}
+	}
+	
+	private static boolean isBlack(byte[] buf, int x, int y){
+		return (buf[y * LCDConverter.LINE_LEN + (x >> 3)] & (1 << (x & 7))) != 0;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that FrameDelta messages patch a frame back to the one encoded
+ * @author Anthony
+ *
+ */
+public class FrameDeltaTest {
+    
+    private static final int LENGTH = 3072;
+    
+    @Test
+    public void keyframeRoundTrip(){
+        byte[] frame = new byte[LENGTH];
+        new Random(3).nextBytes(frame);
+        byte[] message = FrameDelta.encode(7, 0, null, frame, LENGTH);
+        assertEquals(FrameDelta.TYPE_KEYFRAME, FrameDelta.getType(message));
+        assertEquals(7, FrameDelta.getFrameId(message));
+        assertEquals(0, FrameDelta.getBaseId(message));
+        
+        byte[] target = new byte[LENGTH];
+        new Random(4).nextBytes(target);
+        FrameDelta.apply(message, target);
+        assertArrayEquals(frame, target);
+    }
+    
+    @Test
+    public void deltaRoundTrip(){
+        Random random = new Random(5);
+        byte[] base = new byte[LENGTH];
+        random.nextBytes(base);
+        byte[] frame = base.clone();
+        //Scattered single bytes, short gaps and a long run
+        for (int i = 0; i < 40; i++){
+            frame[random.nextInt(LENGTH)] ^= 1 + random.nextInt(255);
+        }
+        frame[100] ^= 1;
+        frame[102] ^= 1;
+        for (int i = 2000; i < 2300; i++){
+            frame[i] = (byte) ~frame[i];
+        }
+        
+        byte[] message = FrameDelta.encode(9, 8, base, frame, LENGTH);
+        assertEquals(FrameDelta.TYPE_DELTA, FrameDelta.getType(message));
+        assertEquals(9, FrameDelta.getFrameId(message));
+        assertEquals(8, FrameDelta.getBaseId(message));
+        
+        byte[] target = base.clone();
+        FrameDelta.apply(message, target);
+        assertArrayEquals(frame, target);
+    }
+    
+    @Test
+    public void unchangedFrameIsHeaderOnly(){
+        byte[] frame = new byte[LENGTH];
+        new Random(6).nextBytes(frame);
+        byte[] message = FrameDelta.encode(2, 1, frame, frame.clone(), LENGTH);
+        assertEquals(FrameDelta.HEADER_LENGTH, message.length);
+        byte[] target = frame.clone();
+        assertEquals(0, FrameDelta.apply(message, target));
+        assertArrayEquals(frame, target);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDeltaLargerThanFrame(){
+        byte[] frame = new byte[LENGTH];
+        frame[LENGTH - 1] = 1;
+        FrameDelta.apply(FrameDelta.encode(1, 0, null, frame, LENGTH), new byte[LENGTH / 2]);
+    }
+    
+}
\ No newline at end of file
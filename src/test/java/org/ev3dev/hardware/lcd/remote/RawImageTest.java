@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.lcd.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that RawImage rebuilds the images it encodes
+ * @author Anthony
+ *
+ */
+public class RawImageTest {
+    
+    @Test
+    public void binaryRoundTrip(){
+        BufferedImage image = randomBinary(new Random(7), 29, 11);
+        byte[] message = RawImage.encode(image);
+        assertEquals(RawImage.FORMAT_BINARY, message[0]);
+        assertSamePixels(image, RawImage.decode(message));
+    }
+    
+    @Test
+    public void binarySubimageRoundTrip(){
+        //Starts in the middle of a byte, so the rows are shifted while encoding
+        BufferedImage image = randomBinary(new Random(8), 40, 20).getSubimage(3, 2, 13, 9);
+        assertSamePixels(image, RawImage.decode(RawImage.encode(image)));
+    }
+    
+    @Test
+    public void grayRoundTrip(){
+        Random random = new Random(9);
+        BufferedImage image = new BufferedImage(17, 6, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++){
+            for (int x = 0; x < image.getWidth(); x++){
+                int g = random.nextInt(256);
+                image.setRGB(x, y, g << 16 | g << 8 | g);
+            }
+        }
+        byte[] message = RawImage.encode(image);
+        assertEquals(RawImage.FORMAT_GRAY, message[0]);
+        BufferedImage decoded = RawImage.decode(message);
+        assertEquals(image.getWidth(), decoded.getWidth());
+        assertEquals(image.getHeight(), decoded.getHeight());
+        for (int y = 0; y < image.getHeight(); y++){
+            for (int x = 0; x < image.getWidth(); x++){
+                assertEquals(image.getRGB(x, y) & 0xff, decoded.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedMessage(){
+        byte[] message = RawImage.encode(randomBinary(new Random(10), 16, 16));
+        byte[] truncated = new byte[message.length - 1];
+        System.arraycopy(message, 0, truncated, 0, truncated.length);
+        RawImage.decode(truncated);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOverflowingHeader(){
+        //65535 rows of 65535 bytes overflow an int, which must not let the length check pass
+        byte[] message = new byte[RawImage.HEADER_LENGTH + 16];
+        message[0] = (byte) RawImage.FORMAT_BINARY;
+        message[2] = 8;
+        message[3] = message[4] = message[5] = message[6] = (byte) 0xff;
+        RawImage.decode(message);
+    }
+    
+    private static BufferedImage randomBinary(Random random, int w, int h){
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < h; y++){
+            for (int x = 0; x < w; x++){
+                image.setRGB(x, y, random.nextBoolean() ? 0xffffffff : 0xff000000);
+            }
+        }
+        return image;
+    }
+    
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual){
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++){
+            for (int x = 0; x < expected.getWidth(); x++){
+                assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+    
+}
\ No newline at end of file
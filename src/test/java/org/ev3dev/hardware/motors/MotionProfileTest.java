@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.motors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the limits and the distance of MotionProfile
+ * @author Anthony
+ *
+ */
+public class MotionProfileTest {
+	
+	private static final double EPSILON = 1e-6;
+	
+	@Test
+	public void trapezoidalRespectsLimits(){
+		MotionProfile profile = MotionProfile.trapezoidal(720, 600, 1200);
+		assertLimits(profile, 720, 600, 1200);
+		assertEquals(0, profile.getPosition(0), 0);
+		assertEquals(0, profile.getVelocity(0), 0);
+		assertEquals(0, profile.getVelocity(profile.getLength() - 1), EPSILON);
+	}
+	
+	@Test
+	public void shortTrapezoidalNeverReachesMaxVelocity(){
+		MotionProfile profile = MotionProfile.trapezoidal(30, 600, 1200);
+		assertLimits(profile, 30, 600, 1200);
+		double peak = 0;
+		for (int i = 0; i < profile.getLength(); i++){
+			peak = Math.max(peak, profile.getVelocity(i));
+		}
+		assertTrue(peak < 600);
+	}
+	
+	@Test
+	public void sCurveKeepsDistance(){
+		MotionProfile profile = MotionProfile.sCurve(720, 600, 1200, 6000);
+		MotionProfile trapezoidal = MotionProfile.trapezoidal(720, 600, 1200);
+		assertLimits(profile, 720, 600, 1200);
+		assertTrue(profile.getDurationMillis() >= trapezoidal.getDurationMillis());
+	}
+	
+	@Test
+	public void negativeDistance(){
+		MotionProfile profile = MotionProfile.trapezoidal(-360, 600, 1200);
+		assertEquals(-360, profile.getDistance(), EPSILON);
+		for (int i = 0; i < profile.getLength(); i++){
+			assertTrue(profile.getVelocity(i) <= EPSILON);
+		}
+	}
+	
+	@Test
+	public void stretchKeepsDistance(){
+		MotionProfile profile = MotionProfile.sCurve(360, 600, 1200, 6000);
+		long duration = profile.getDurationMillis() * 2;
+		MotionProfile stretched = profile.stretch(duration);
+		assertEquals(duration, stretched.getDurationMillis());
+		assertLimits(stretched, 360, 300, 1200);
+		assertTrue(profile.stretch(profile.getDurationMillis()) == profile);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void stretchCannotShorten(){
+		MotionProfile profile = MotionProfile.trapezoidal(360, 600, 1200);
+		profile.stretch(profile.getDurationMillis() - profile.getPeriodMillis());
+	}
+	
+	private static void assertLimits(MotionProfile profile, double distance, double maxVelocity, double maxAcceleration){
+		double dt = profile.getPeriodMillis() / 1000.0;
+		assertEquals(distance, profile.getDistance(), EPSILON);
+		assertEquals(distance, profile.getPosition(profile.getLength() - 1), EPSILON);
+		for (int i = 0; i < profile.getLength(); i++){
+			assertTrue("velocity at " + i, Math.abs(profile.getVelocity(i)) <= maxVelocity + EPSILON);
+			if (i > 0){
+				double acceleration = (profile.getVelocity(i) - profile.getVelocity(i - 1)) / dt;
+				assertTrue("acceleration at " + i, Math.abs(acceleration) <= maxAcceleration * (1 + EPSILON));
+			}
+		}
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests saving and loading ColorLookupTable
+ * @author Anthony
+ *
+ */
+public class ColorLookupTableTest {
+	
+	@Test
+	public void saveLoadRoundTrip() throws IOException{
+		Random random = new Random(11);
+		byte[] cells = new byte[1 << 12];
+		for (int i = 0; i < cells.length; i++){
+			cells[i] = (byte) random.nextInt(4);
+		}
+		ColorLookupTable table = new ColorLookupTable(4, 1020, new String[]{"red", "green", "blue"}, cells);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		table.save(out);
+		ColorLookupTable loaded = ColorLookupTable.load(new ByteArrayInputStream(out.toByteArray()));
+		
+		assertEquals(4, loaded.getBits());
+		assertEquals(1020, loaded.getMaxValue());
+		assertEquals(3, loaded.getClassCount());
+		assertEquals("blue", loaded.getClassName(2));
+		for (int i = 0; i < 2000; i++){
+			int r = random.nextInt(1100) - 40;
+			int g = random.nextInt(1100) - 40;
+			int b = random.nextInt(1100) - 40;
+			assertEquals(table.classify(r, g, b), loaded.classify(r, g, b));
+		}
+	}
+	
+	@Test
+	public void classifiesCellOfReading(){
+		byte[] cells = new byte[8];
+		//Cell (red 1, green 0, blue 1) is class 0, everything else unknown
+		cells[1 << 2 | 1] = 1;
+		ColorLookupTable table = new ColorLookupTable(1, 255, new String[]{"magenta"}, cells);
+		assertEquals(0, table.classify(200, 10, 255));
+		assertEquals(0, table.classify(300, -5, 128));
+		assertEquals(ColorLookupTable.UNKNOWN, table.classify(200, 200, 200));
+		assertEquals(null, table.getClassName(ColorLookupTable.UNKNOWN));
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException{
+		ColorLookupTable.load(new ByteArrayInputStream(new byte[64]));
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsHugeValueRange() throws IOException{
+		ColorLookupTable table = new ColorLookupTable(1, 255, new String[]{"a"}, new byte[8]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		table.save(out);
+		byte[] data = out.toByteArray();
+		//The maximum value follows the magic, the version and the bits per component
+		data[12] = 0x7f;
+		ColorLookupTable.load(new ByteArrayInputStream(data));
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedTable() throws IOException{
+		ColorLookupTable table = new ColorLookupTable(2, 255, new String[]{"a"}, new byte[64]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		table.save(out);
+		byte[] data = out.toByteArray();
+		ColorLookupTable.load(new ByteArrayInputStream(data, 0, data.length - 1));
+	}
+	
+}
\ No newline at end of file
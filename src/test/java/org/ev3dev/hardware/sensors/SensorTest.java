@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.hardware.sensors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.ev3dev.exception.EV3LibraryException;
+import org.junit.Test;
+
+/**
+ * Tests decoding the <code>bin_data</code> formats
+ * @author Anthony
+ *
+ */
+public class SensorTest {
+	
+	@Test
+	public void decodesEveryFormat(){
+		assertDecoded("u8", new byte[]{(byte) 0xff, 0x01}, 255, 1);
+		assertDecoded("s8", new byte[]{(byte) 0xff, 0x01}, -1, 1);
+		assertDecoded("u16", new byte[]{0x34, (byte) 0xff}, 0xff34);
+		assertDecoded("s16", new byte[]{0x34, (byte) 0xff, 0x10, 0x00}, (short) 0xff34, 0x10);
+		assertDecoded("s16_be", new byte[]{(byte) 0xff, 0x34}, (short) 0xff34);
+		assertDecoded("s32", new byte[]{0x78, 0x56, 0x34, 0x12, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff}, 0x12345678, -2);
+		assertDecoded("s32_be", new byte[]{0x12, 0x34, 0x56, 0x78}, 0x12345678);
+		int bits = Float.floatToIntBits(-2.6f);
+		assertDecoded("float", new byte[]{(byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24)}, -3);
+	}
+	
+	@Test
+	public void decodesOnlyWhatFits(){
+		int[] values = new int[2];
+		//5 bytes hold 2 complete s16 values, and the array holds 2 values
+		assertEquals(2, Sensor.decodeBinData("s16", new byte[]{1, 0, 2, 0, 3, 0}, 5, values));
+		assertArrayEquals(new int[]{1, 2}, values);
+		assertEquals(1, Sensor.decodeBinData("u8", new byte[]{9, 9, 9}, 3, new int[1]));
+	}
+	
+	@Test(expected = EV3LibraryException.class)
+	public void rejectsUnknownFormat(){
+		Sensor.decodeBinData("u64", new byte[8], 8, new int[1]);
+	}
+	
+	private static void assertDecoded(String format, byte[] data, int... expected){
+		int[] values = new int[expected.length];
+		assertEquals(format, expected.length, Sensor.decodeBinData(format, data, data.length, values));
+		assertArrayEquals(format, expected, values);
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.io;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests splitting the space separated attributes of Sysfs
+ * @author Anthony
+ *
+ */
+public class SysfsTest {
+	
+	@Test
+	public void separatesSpaces(){
+		assertArrayEquals(new String[]{"run-forever", "run-to-abs-pos", "stop"}, Sysfs.separateSpace("run-forever run-to-abs-pos stop"));
+		assertArrayEquals(new String[]{"[coast]", "brake", "hold"}, Sysfs.separateSpace("  [coast]  brake hold\n"));
+		assertArrayEquals(new String[]{"auto"}, Sysfs.separateSpace("auto"));
+	}
+	
+	@Test
+	public void separatesEmptyAttribute(){
+		assertArrayEquals(new String[0], Sysfs.separateSpace(""));
+		assertArrayEquals(new String[0], Sysfs.separateSpace(" \n"));
+	}
+	
+}
\ No newline at end of file
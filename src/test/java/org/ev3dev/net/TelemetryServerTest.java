@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ev3dev.hardware.Sampler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the catalog, keyframes and deltas of TelemetryServer over TCP
+ * @author Anthony
+ *
+ */
+public class TelemetryServerTest {
+	
+	private final AtomicInteger first = new AtomicInteger(5);
+	
+	private final AtomicInteger second = new AtomicInteger(-7);
+	
+	private Sampler sampler;
+	
+	private TelemetryServer server;
+	
+	private Socket socket;
+	
+	private DataInputStream in;
+	
+	private DataOutputStream out;
+	
+	private long lastFrameSeq;
+	
+	private int lastFrameCount;
+	
+	@Before
+	public void setUp() throws IOException{
+		sampler = new Sampler("telemetry-test");
+		server = new TelemetryServer(0);
+		server.addChannel("first", new Source(first));
+		server.addChannel("second", new Source(second));
+		server.setSamplePeriodMillis(5);
+		server.setKeyframeInterval(4);
+		server.start(sampler);
+		socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		socket.setSoTimeout(5000);
+		in = new DataInputStream(socket.getInputStream());
+		out = new DataOutputStream(socket.getOutputStream());
+	}
+	
+	@After
+	public void tearDown() throws IOException{
+		socket.close();
+		server.stop();
+		sampler.shutdown();
+	}
+	
+	@Test
+	public void listsChannels() throws IOException{
+		out.write(new byte[]{0, 1, TelemetryServer.REQUEST_LIST});
+		out.flush();
+		in.readUnsignedShort();
+		assertEquals(TelemetryServer.FRAME_CATALOG, in.readUnsignedByte());
+		assertEquals(2, in.readUnsignedShort());
+		assertEquals("first", readName(0));
+		assertEquals("second", readName(1));
+	}
+	
+	@Test
+	public void deltasFollowKeyframes() throws IOException{
+		subscribe(new int[]{1, 0});
+		int[] decoded = new int[2];
+		long lastSeq = 0;
+		int keyframes = 0;
+		int changes = 0;
+		for (int frame = 0; frame < 40; frame++){
+			if (frame % 5 == 4){
+				first.addAndGet(frame * 31);
+				second.addAndGet(-frame * 1000);
+			}
+			int type = readFrame(decoded);
+			long seq = lastFrameSeq;
+			if (frame == 0){
+				assertEquals(TelemetryServer.FRAME_KEYFRAME, type);
+				assertArrayEquals(new int[]{-7, 5}, decoded);
+			} else {
+				assertEquals(lastSeq + 1, seq);
+			}
+			lastSeq = seq;
+			if (type == TelemetryServer.FRAME_KEYFRAME){
+				keyframes++;
+			} else {
+				changes += lastFrameCount;
+			}
+		}
+		assertTrue("keyframes " + keyframes, keyframes >= 2);
+		assertTrue("changes " + changes, changes > 0);
+		
+		//Once the values stop changing, the deltas catch up with them
+		int[] values = {second.get(), first.get()};
+		for (int frame = 0; frame < 100 && !Arrays.equals(values, decoded); frame++){
+			readFrame(decoded);
+		}
+		assertArrayEquals(values, decoded);
+	}
+	
+	@Test
+	public void strayDatagramsTakeNoSubscriberSlot() throws IOException{
+		//The TCP connection holds one slot, the stray datagrams must leave the other one free
+		server.setMaxSubscribers(2);
+		DatagramSocket stray = new DatagramSocket();
+		DatagramSocket subscriber = new DatagramSocket();
+		try {
+			InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			stray.send(new DatagramPacket(new byte[]{0, 1, 0x7f}, 3, address));
+			stray.send(new DatagramPacket(new byte[]{0, 1, TelemetryServer.REQUEST_LIST}, 3, address));
+			byte[] request = {0, 5, TelemetryServer.REQUEST_SUBSCRIBE, 0, 1, 0, 0};
+			subscriber.send(new DatagramPacket(request, request.length, address));
+			subscriber.setSoTimeout(5000);
+			DatagramPacket frame = new DatagramPacket(new byte[512], 512);
+			subscriber.receive(frame);
+			assertEquals(TelemetryServer.FRAME_KEYFRAME, frame.getData()[2] & 0xff);
+			assertEquals(1, server.getActiveSubscriberCount());
+		} finally {
+			stray.close();
+			subscriber.close();
+		}
+	}
+	
+	//Reads a frame and applies it to the values decoded, returning its type
+	private int readFrame(int[] decoded) throws IOException{
+		in.readUnsignedShort();
+		int type = in.readUnsignedByte();
+		lastFrameSeq = in.readInt() & 0xffffffffL;
+		in.readInt();
+		lastFrameCount = in.readUnsignedShort();
+		for (int i = 0; i < lastFrameCount; i++){
+			if (type == TelemetryServer.FRAME_KEYFRAME){
+				decoded[i] = in.readInt();
+			} else {
+				assertEquals(TelemetryServer.FRAME_DELTA, type);
+				int index = in.readUnsignedShort();
+				int zigzag = readVarint();
+				decoded[index] += (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		return type;
+	}
+	
+	private void subscribe(int[] ids) throws IOException{
+		out.writeShort(5 + ids.length * 2);
+		out.writeByte(TelemetryServer.REQUEST_SUBSCRIBE);
+		out.writeShort(1);
+		out.writeShort(ids.length);
+		for (int id : ids){
+			out.writeShort(id);
+		}
+		out.flush();
+	}
+	
+	private String readName(int id) throws IOException{
+		assertEquals(id, in.readUnsignedShort());
+		byte[] name = new byte[in.readUnsignedByte()];
+		in.readFully(name);
+		return new String(name, "UTF-8");
+	}
+	
+	private int readVarint() throws IOException{
+		int value = 0;
+		for (int shift = 0; ; shift += 7){
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0){
+				return value;
+			}
+		}
+	}
+	
+	private static final class Source implements TelemetrySource {
+		
+		private final AtomicInteger value;
+		
+		private Source(AtomicInteger value){
+			this.value = value;
+		}
+		
+		@Override
+		public int read(){
+			return value.get();
+		}
+		
+	}
+	
+}
\ No newline at end of file
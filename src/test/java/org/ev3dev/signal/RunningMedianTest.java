@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests RunningMedian against sorting the window
+ * @author Anthony
+ *
+ */
+public class RunningMedianTest {
+	
+	@Test
+	public void matchesSortedWindow(){
+		Random random = new Random(1);
+		for (int length = 1; length <= 9; length++){
+			RunningMedian median = new RunningMedian(length);
+			double[] samples = new double[500];
+			for (int i = 0; i < samples.length; i++){
+				//Few distinct values, so that duplicates are removed from the heaps too
+				samples[i] = random.nextInt(20);
+				double result = median.apply(samples[i]);
+				int from = Math.max(0, i + 1 - length);
+				assertEquals("length " + length + " sample " + i, sortedMedian(samples, from, i + 1), result, 0);
+			}
+		}
+	}
+	
+	@Test
+	public void resetEmptiesWindow(){
+		RunningMedian median = new RunningMedian(3);
+		median.apply(100);
+		median.apply(200);
+		median.reset();
+		assertEquals(0, median.getMedian(), 0);
+		assertEquals(5, median.apply(5), 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyWindow(){
+		new RunningMedian(0);
+	}
+	
+	private static double sortedMedian(double[] samples, int from, int to){
+		double[] window = Arrays.copyOfRange(samples, from, to);
+		Arrays.sort(window);
+		int n = window.length;
+		return n % 2 == 1 ? window[n / 2] : (window[n / 2 - 1] + window[n / 2]) / 2;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Any modification, copies of sections of this file must be attached with this
+ * license and shown clearly in the developer's project. The code can be used
+ * as long as you state clearly you do not own it. Any violation might result in
+ *  a take-down.
+ *
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package org.ev3dev.signal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the windowed queries of SensorHistory against scanning the window
+ * @author Anthony
+ *
+ */
+public class SensorHistoryTest {
+	
+	@Test
+	public void matchesScannedWindow(){
+		Random random = new Random(2);
+		SensorHistory history = new SensorHistory(16);
+		SensorHistory histogram = new SensorHistory(16);
+		histogram.enablePercentiles(-100, 100);
+		int[] samples = new int[300];
+		for (int i = 0; i < samples.length; i++){
+			samples[i] = random.nextInt(201) - 100;
+			history.add(samples[i]);
+			histogram.add(samples[i]);
+			int[] window = Arrays.copyOfRange(samples, Math.max(0, i - 15), i + 1);
+			Arrays.sort(window);
+			double mean = 0;
+			for (int v : window){
+				mean += v;
+			}
+			mean /= window.length;
+			double variance = 0;
+			for (int v : window){
+				variance += (v - mean) * (v - mean);
+			}
+			variance /= window.length;
+			assertEquals(window.length, history.size());
+			assertEquals(window[0], history.getMin());
+			assertEquals(window[window.length - 1], history.getMax());
+			assertEquals(mean, history.getMean(), 1e-9);
+			assertEquals(variance, history.getVariance(), 1e-6);
+			assertEquals(samples[i], history.getNewest());
+			for (int p = 0; p <= 100; p += 25){
+				int expected = window[Math.max(1, (int) Math.ceil(p / 100.0 * window.length)) - 1];
+				assertEquals("percentile " + p, expected, history.getPercentile(p));
+				assertEquals("histogram percentile " + p, expected, histogram.getPercentile(p));
+			}
+		}
+	}
+	
+	@Test
+	public void evictsExpiredSamples(){
+		SensorHistory history = new SensorHistory(100, 500);
+		long now = System.nanoTime();
+		history.add(1, now - TimeUnit.MILLISECONDS.toNanos(2000));
+		history.add(50, now - TimeUnit.MILLISECONDS.toNanos(1000));
+		history.add(7, now - TimeUnit.MILLISECONDS.toNanos(100));
+		history.add(3, now);
+		assertEquals(2, history.size());
+		assertEquals(3, history.getMin());
+		assertEquals(7, history.getMax());
+		assertEquals(5, history.getMean(), 0);
+	}
+	
+	@Test
+	public void sortedWindowFollowsEviction(){
+		SensorHistory history = new SensorHistory(8, 500);
+		long now = System.nanoTime();
+		history.add(40, now - TimeUnit.MILLISECONDS.toNanos(2000));
+		history.add(10, now - TimeUnit.MILLISECONDS.toNanos(1500));
+		history.add(30, now - TimeUnit.MILLISECONDS.toNanos(100));
+		//Sorts the window, then keeps it sorted
+		assertEquals(30, history.getPercentile(100));
+		history.add(20, now);
+		assertEquals(20, history.getPercentile(0));
+		assertEquals(30, history.getPercentile(100));
+		history.clear();
+		history.add(5, now);
+		history.add(5, now);
+		history.add(-5, now);
+		assertEquals(-5, history.getPercentile(0));
+		assertEquals(5, history.getPercentile(50));
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void clearEmptiesWindow(){
+		SensorHistory history = new SensorHistory(4);
+		history.add(1);
+		history.clear();
+		assertEquals(0, history.size());
+		history.getMin();
+	}
+	
+}
\ No newline at end of file